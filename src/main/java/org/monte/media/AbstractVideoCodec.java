@@ -18,9 +18,11 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferShort;
 import java.awt.image.DataBufferUShort;
 import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import javax.imageio.stream.ImageOutputStream;
+import org.monte.media.color.Colors;
 import static org.monte.media.VideoFormatKeys.*;
 
 /**
@@ -32,6 +34,7 @@ import static org.monte.media.VideoFormatKeys.*;
 public abstract class AbstractVideoCodec extends AbstractCodec {
 
     private BufferedImage imgConverter;
+    private BufferedImage imgConverter16;
 
     public AbstractVideoCodec(Format[] supportedInputFormats, Format[] supportedOutputFormats) {
         super(supportedInputFormats, supportedOutputFormats);
@@ -81,6 +84,37 @@ public abstract class AbstractVideoCodec extends AbstractCodec {
         return null;
     }
 
+    /** Gets 16-bit RGB pixels with 5 bits red, 6 bits green and 5 bits blue
+     * from a buffer. Returns null if conversion failed. */
+    protected short[] getRGB16(Buffer buf) {
+        if (buf.data instanceof short[]) {
+            return (short[]) buf.data;
+        }
+        if (buf.data instanceof BufferedImage) {
+            BufferedImage image = (BufferedImage) buf.data;
+            if (image.getColorModel() instanceof DirectColorModel) {
+                DirectColorModel dcm = (DirectColorModel) image.getColorModel();
+                if (dcm.getRedMask() == 0xf800 && dcm.getGreenMask() == 0x07e0 && dcm.getBlueMask() == 0x001f) {
+                    if (image.getRaster().getDataBuffer() instanceof DataBufferShort) {
+                        return ((DataBufferShort) image.getRaster().getDataBuffer()).getData();
+                    } else if (image.getRaster().getDataBuffer() instanceof DataBufferUShort) {
+                        return ((DataBufferUShort) image.getRaster().getDataBuffer()).getData();
+                    }
+                }
+            }
+            if (imgConverter16 == null) {
+                int width = outputFormat.get(WidthKey);
+                int height = outputFormat.get(HeightKey);
+                imgConverter16 = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_565_RGB);
+            }
+            Graphics2D g = imgConverter16.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            return ((DataBufferUShort) imgConverter16.getRaster().getDataBuffer()).getData();
+        }
+        return null;
+    }
+
     /** Gets 24-bit RGB pixels from a buffer. Returns null if conversion failed. */
     protected int[] getRGB24(Buffer buf) {
         if (buf.data instanceof int[]) {
@@ -130,6 +164,57 @@ public abstract class AbstractVideoCodec extends AbstractCodec {
         }
         return null;
     }
+    /** Returns an image into which a decoder can write its pixels.
+     * <p>
+     * The image in the data field of the buffer is reused if it has the
+     * requested size and depth. The pixels of the returned image are stored
+     * row by row from top to bottom without padding:
+     * depth 8 uses a byte array with the specified palette, depth 16 a short
+     * array with RGB 555 pixels, depth 24 an int array with RGB pixels, and
+     * depth 32 an int array with ARGB pixels.
+     *
+     * @param buf The output buffer.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param depth The depth of the image.
+     * @param palette The palette for depth 8. If this is null, the palette
+     * of a reused image is kept, or the Macintosh default palette is used.
+     * @return The image or null if the depth is not supported.
+     */
+    protected static BufferedImage getCompatibleImage(Buffer buf, int width, int height, int depth, IndexColorModel palette) {
+        int imgType;
+        switch (depth) {
+            case 8:
+                imgType = BufferedImage.TYPE_BYTE_INDEXED;
+                break;
+            case 16:
+                imgType = BufferedImage.TYPE_USHORT_555_RGB;
+                break;
+            case 24:
+                imgType = BufferedImage.TYPE_INT_RGB;
+                break;
+            case 32:
+                imgType = BufferedImage.TYPE_INT_ARGB;
+                break;
+            default:
+                return null;
+        }
+        if (buf.data instanceof BufferedImage) {
+            BufferedImage img = (BufferedImage) buf.data;
+            if (img.getWidth() == width && img.getHeight() == height && img.getType() == imgType
+                    && img.getRaster().getSampleModelTranslateX() == 0
+                    && img.getRaster().getSampleModelTranslateY() == 0
+                    && img.getRaster().getSampleModel().getWidth() == width) {
+                if (palette != null && palette != img.getColorModel()) {
+                    img = new BufferedImage(palette, img.getRaster(), false, null);
+                }
+                return img;
+            }
+        }
+        return depth == 8
+                ? new BufferedImage(width, height, imgType, palette == null ? Colors.createMacColors() : palette)
+                : new BufferedImage(width, height, imgType);
+    }
     private byte[] byteBuf = new byte[4];
 
     protected void writeInt24(ImageOutputStream out, int v) throws IOException {
@@ -32,7 +32,9 @@ public enum BufferFlag {
      * sample. Thus decoding must start at a keyframe at an earlier time.
      * <p>
      * Decoders should decode the buffer.
-     * Encoders and Multiplexers should discard the buffer.
+     * Encoders and Multiplexers should discard the buffer. Encoders which
+     * perform delta encoding may use the buffer to update their reference
+     * frame.
      */
     PREFETCH,
     /** Indicates that this buffer is known to have the same data as the
@@ -0,0 +1,148 @@
+/*
+ * @(#)BufferPool.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of recyclable {@code Buffer} objects.
+ * <p>
+ * The pool is intended to be shared by a producer thread, which fills buffers
+ * (for example with the output of an encoder), and a consumer thread, which
+ * writes the buffers into a movie file and then releases them back to the pool.
+ * <p>
+ * A buffer keeps its {@code data} array when it is released. Since codecs
+ * reuse {@code out.data} if it is an array of sufficient size, the encoded
+ * byte arrays are recycled along with the buffer objects.
+ * <p>
+ * The pool never holds more than {@code capacity} buffers. If all buffers are
+ * in use, {@link #acquire} blocks until a buffer is released. This provides
+ * back-pressure to the producer.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class BufferPool {
+
+    /** Holds the buffers which are currently not in use. */
+    private final ArrayBlockingQueue<Buffer> free;
+    /** The maximal number of buffers managed by this pool. */
+    private final int capacity;
+    /** The number of buffers which have been created by this pool. */
+    private int created;
+    /** The number of times a new buffer had to be allocated. */
+    private final AtomicLong allocationCount = new AtomicLong();
+    /** The number of times a released buffer was handed out again. */
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    /** Creates a new buffer pool.
+     *
+     * @param capacity The maximal number of buffers.
+     */
+    public BufferPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1:" + capacity);
+        }
+        this.capacity = capacity;
+        this.free = new ArrayBlockingQueue<Buffer>(capacity);
+    }
+
+    /** Gets a buffer from the pool. Blocks if all buffers are in use. */
+    public Buffer acquire() throws InterruptedException {
+        Buffer buf = tryCreate();
+        if (buf == null) {
+            buf = free.take();
+            reuseCount.incrementAndGet();
+        }
+        return buf;
+    }
+
+    /** Gets a buffer from the pool. Waits up to the specified time if all
+     * buffers are in use.
+     *
+     * @return A buffer, or null if no buffer became available in time.
+     */
+    public Buffer acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        Buffer buf = tryCreate();
+        if (buf == null) {
+            buf = free.poll(timeout, unit);
+            if (buf != null) {
+                reuseCount.incrementAndGet();
+            }
+        }
+        return buf;
+    }
+
+    /** Returns a free buffer, or creates a new one if the capacity of the
+     * pool has not been exhausted yet. Returns null otherwise. */
+    private Buffer tryCreate() {
+        Buffer buf = free.poll();
+        if (buf != null) {
+            reuseCount.incrementAndGet();
+            return buf;
+        }
+        synchronized (this) {
+            if (created >= capacity) {
+                return null;
+            }
+            created++;
+        }
+        allocationCount.incrementAndGet();
+        return new Buffer();
+    }
+
+    /** Returns a buffer to the pool.
+     * <p>
+     * The flags, header and meta data of the buffer are cleared. The data
+     * array is kept, so that it can be reused.
+     */
+    public void release(Buffer buf) {
+        buf.clearFlags();
+        buf.header = null;
+        buf.format = null;
+        buf.timeStamp = null;
+        buf.sampleDuration = null;
+        buf.sampleCount = 1;
+        buf.offset = 0;
+        buf.length = 0;
+        if (!free.offer(buf)) {
+            throw new IllegalStateException("Buffer was released more than once.");
+        }
+    }
+
+    /** Returns the maximal number of buffers managed by this pool. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Returns the number of buffers which are currently not in use. */
+    public int getFreeCount() {
+        return free.size();
+    }
+
+    /** Returns the number of times a new buffer had to be allocated. */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /** Returns the number of times a released buffer was handed out again. */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" + "capacity=" + capacity + ", free=" + free.size()
+                + ", allocations=" + allocationCount + ", reuses=" + reuseCount + '}';
+    }
+}
@@ -11,10 +11,14 @@
 package org.monte.media;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.AudioFormatKeys.*;
 
@@ -22,6 +26,15 @@ import static org.monte.media.AudioFormatKeys.*;
  * {@code DefaultRegistry}. 
  * <p>
  * FIXME - The registry should be read from a file. 
+ * <p>
+ * Additional entries are put into the registry by the
+ * {@link RegistryProvider}s which are found by {@code ServiceLoader}. The
+ * providers are loaded when the registry is queried for the first time.
+ * <p>
+ * The results of {@code getCodecClasses} are cached. The formats of a query
+ * are reduced to the keys which occur in the formats of the registered codecs,
+ * so that formats which only differ in other keys, such as the dimensions of
+ * a video, share the same cache entry.
  *
  * @author Werner Randelshofer
  * @version $Id: DefaultRegistry.java 142 2012-01-12 22:14:09Z werner $
@@ -32,6 +45,18 @@ public class DefaultRegistry extends Registry {
     private HashMap<String, LinkedList<RegistryEntry>> readerMap;
     private HashMap<String, LinkedList<RegistryEntry>> writerMap;
     private HashMap<String, Format> fileFormatMap;
+    /** The maximal number of cached codec queries. */
+    private final static int MAX_CACHED_QUERIES = 256;
+    /** Marks a key which is not in the format of a query. */
+    private final static Object NO_VALUE = new Object();
+    /** The keys of all registered codec formats. */
+    private HashSet<FormatKey<?>> codecKeys;
+    /** The codec keys as an array. Null if a codec has been added since the
+     * array was created. */
+    private FormatKey<?>[] codecKeyArray;
+    /** The codec classes of recent queries in access order. */
+    private CodecCache codecCache;
+    private boolean providersLoaded;
 
     @Override
     public Format[] getReaderFormats() {
@@ -45,6 +70,7 @@ public class DefaultRegistry extends Registry {
 
     @Override
     public Format[] getFileFormats() {
+        loadProviders();
         return fileFormatMap.values().toArray(new Format[fileFormatMap.size()]);
     }
 
@@ -61,6 +87,52 @@ public class DefaultRegistry extends Registry {
         }
     }
 
+    /** The key of a cached codec query. Holds the values of the codec keys
+     * in the input format and the output format. */
+    private static class CodecQuery {
+
+        private final Object[] input;
+        private final Object[] output;
+        private final int hashCode;
+
+        public CodecQuery(Object[] input, Object[] output) {
+            this.input = input;
+            this.output = output;
+            this.hashCode = Arrays.hashCode(input) * 31 + Arrays.hashCode(output);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CodecQuery)) {
+                return false;
+            }
+            CodecQuery that = (CodecQuery) obj;
+            return hashCode == that.hashCode
+                    && Arrays.equals(input, that.input)
+                    && Arrays.equals(output, that.output);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /** The codec classes of recent queries in access order. */
+    private static class CodecCache extends LinkedHashMap<CodecQuery, String[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        public CodecCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CodecQuery, String[]> eldest) {
+            return size() > MAX_CACHED_QUERIES;
+        }
+    }
+
     public DefaultRegistry() {
     }
 
@@ -70,6 +142,8 @@ public class DefaultRegistry extends Registry {
         readerMap = new HashMap<String, LinkedList<RegistryEntry>>();
         writerMap = new HashMap<String, LinkedList<RegistryEntry>>();
         fileFormatMap = new HashMap<String, Format>();
+        codecKeys = new HashSet<FormatKey<?>>();
+        codecCache = new CodecCache();
 
         // IFF ANIM
         // --------
@@ -90,7 +164,7 @@ public class DefaultRegistry extends Registry {
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI, EncodingKey, ENCODING_AVI_MJPG),
                 "org.monte.media.jpeg.JPEGCodec");
 
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI, EncodingKey, ENCODING_AVI_PNG),
                 "org.monte.media.png.PNGCodec");
@@ -105,7 +179,7 @@ public class DefaultRegistry extends Registry {
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 "org.monte.media.avi.TechSmithCodec");
 
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI, EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE),
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 "org.monte.media.avi.ZMBVCodec");
@@ -121,12 +195,12 @@ public class DefaultRegistry extends Registry {
 
         // QuickTime
         // --------
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_RAW),
                 "org.monte.media.quicktime.RawCodec");
 
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_ANIMATION),
                 "org.monte.media.quicktime.AnimationCodec");
@@ -140,7 +214,7 @@ public class DefaultRegistry extends Registry {
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI, EncodingKey, ENCODING_AVI_MJPG),
                 "org.monte.media.jpeg.JPEGCodec");
 
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_PNG),
                 "org.monte.media.png.PNGCodec");
@@ -150,20 +224,20 @@ public class DefaultRegistry extends Registry {
                 new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE),
                 "org.monte.media.avi.TechSmithCodec");
 
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED),
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_TWOS_PCM),
                 "org.monte.media.quicktime.QuickTimePCMAudioCodec");
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED),
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_TWOS_PCM),
                 "org.monte.media.quicktime.QuickTimePCMAudioCodec");
 
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED),
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_SOWT_PCM),
                 "org.monte.media.quicktime.QuickTimePCMAudioCodec");
-        putCodec(
+        putBidiCodec(
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED),
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_SOWT_PCM),
                 "org.monte.media.quicktime.QuickTimePCMAudioCodec");
@@ -195,6 +269,20 @@ public class DefaultRegistry extends Registry {
                 new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_QUICKTIME, EncodingKey, ENCODING_QUICKTIME_RAW_PCM),
                 "org.monte.media.quicktime.QuickTimePCMAudioCodec");
 
+        // Java
+        // --------
+        putCodec(
+                new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED),
+                new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED),
+                "org.monte.media.audio.PCMResampleCodec");
+        putCodec(
+                new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED),
+                new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED),
+                "org.monte.media.audio.PCMResampleCodec");
+        putBidiCodec(
+                new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED),
+                new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED),
+                "org.monte.media.audio.PCMResampleCodec");
 
         putReader(new Format(MediaTypeKey, MediaType.FILE, MimeTypeKey, MIME_AVI), "org.monte.media.avi.AVIReader");
         putReader(new Format(MediaTypeKey, MediaType.FILE, MimeTypeKey, MIME_QUICKTIME), "org.monte.media.quicktime.QuickTimeReader");
@@ -226,7 +314,15 @@ public class DefaultRegistry extends Registry {
      * @param codecClass 
      */
     @Override
-    public void putCodec(Format inputFormat, Format outputFormat, String codecClass) {
+    public synchronized void putCodec(Format inputFormat, Format outputFormat, String codecClass) {
+        for (FormatKey<?> key : inputFormat.getKeys()) {
+            codecKeys.add(key);
+        }
+        for (FormatKey<?> key : outputFormat.getKeys()) {
+            codecKeys.add(key);
+        }
+        codecKeyArray = null;
+        codecCache.clear();
         RegistryEntry entry = new RegistryEntry(inputFormat, outputFormat, codecClass);
         addCodecEntry(inputFormat.get(EncodingKey), entry);
         addCodecEntry(outputFormat.get(EncodingKey), entry);
@@ -275,8 +371,52 @@ public class DefaultRegistry extends Registry {
         list.add(entry);
     }
 
+    /** Loads the registry providers, if this has not been done yet. */
+    private synchronized void loadProviders() {
+        if (providersLoaded) {
+            return;
+        }
+        // Set the flag first, because the providers may query the registry
+        providersLoaded = true;
+        try {
+            for (RegistryProvider provider : ServiceLoader.load(RegistryProvider.class)) {
+                provider.register(this);
+            }
+        } catch (ServiceConfigurationError e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
-    public String[] getCodecClasses(Format inputFormat, Format outputFormat) {
+    public synchronized String[] getCodecClasses(Format inputFormat, Format outputFormat) {
+        loadProviders();
+        if (codecKeyArray == null) {
+            codecKeyArray = codecKeys.toArray(new FormatKey<?>[codecKeys.size()]);
+        }
+        CodecQuery query = new CodecQuery(getCodecKeyValues(inputFormat), getCodecKeyValues(outputFormat));
+        String[] classNames = codecCache.get(query);
+        if (classNames == null) {
+            classNames = findCodecClasses(inputFormat, outputFormat);
+            codecCache.put(query, classNames);
+        }
+        return classNames.clone();
+    }
+
+    /** Returns the values of the codec keys in the format. Only these keys
+     * are compared when a format is matched against the registry entries. */
+    private Object[] getCodecKeyValues(Format format) {
+        if (format == null) {
+            return null;
+        }
+        Object[] values = new Object[codecKeyArray.length];
+        for (int i = 0; i < values.length; i++) {
+            FormatKey<?> key = codecKeyArray[i];
+            values[i] = format.containsKey(key) ? format.get(key) : NO_VALUE;
+        }
+        return values;
+    }
+
+    private String[] findCodecClasses(Format inputFormat, Format outputFormat) {
         HashSet<String> classNames = new HashSet<String>();
         HashSet<RegistryEntry> entries = new HashSet<RegistryEntry>();
         if (inputFormat != null) {
@@ -326,6 +466,7 @@ public class DefaultRegistry extends Registry {
 
     @Override
     public String[] getReaderClasses(Format fileFormat) {
+        loadProviders();
         LinkedList<RegistryEntry> rr = readerMap.get(fileFormat.get(MimeTypeKey));
         String[] names = new String[rr == null ? 0 : rr.size()];
         if (rr != null) {
@@ -339,6 +480,7 @@ public class DefaultRegistry extends Registry {
 
     @Override
     public Format getFileFormat(File file) {
+        loadProviders();
         String ext = file.getName();
         int p = ext.lastIndexOf('.');
         if (p != -1) {
@@ -350,6 +492,7 @@ public class DefaultRegistry extends Registry {
 
     @Override
     public String[] getWriterClasses(Format fileFormat) {
+        loadProviders();
         LinkedList<RegistryEntry> rr = writerMap.get(fileFormat.get(MimeTypeKey));
         String[] names = new String[rr == null ? 0 : rr.size()];
         if (rr != null) {
@@ -368,6 +511,7 @@ public class DefaultRegistry extends Registry {
 
     @Override
     public String getExtension(Format ff) {
+        loadProviders();
         for (Map.Entry<String, Format> e : fileFormatMap.entrySet()) {
             if (e.getValue().get(MimeTypeKey).equals(ff.get(MimeTypeKey))) {
                 return e.getKey();
@@ -11,7 +11,9 @@
 package org.monte.media;
 
 import java.io.File;
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.HashMap;
 import static org.monte.media.FormatKeys.*;
 
 /**
@@ -23,6 +25,8 @@ import static org.monte.media.FormatKeys.*;
 public abstract class Registry {
 
     private static Registry instance;
+    /** The no-argument constructors of the codec classes by class name. */
+    private final HashMap<String, Constructor<?>> codecConstructors = new HashMap<String, Constructor<?>>();
 
     public static Registry getInstance() {
         if (instance == null) {
@@ -125,7 +129,7 @@ public abstract class Registry {
         ArrayList<Codec> codecs = new ArrayList<Codec>(clazz.length);
         for (int i = 0; i < clazz.length; i++) {
             try {
-                codecs.add((Codec) Class.forName(clazz[i]).newInstance());
+                codecs.add(newCodec(clazz[i]));
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -144,7 +148,7 @@ public abstract class Registry {
         String[] clazz = getCodecClasses(inputFormat, outputFormat);
         for (int i = 0; i < clazz.length; i++) {
             try {
-                return ((Codec) Class.forName(clazz[i]).newInstance());
+                return newCodec(clazz[i]);
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -152,6 +156,38 @@ public abstract class Registry {
         return null;
     }
 
+    /** Creates a new instance of the specified codec class.
+     * <p>
+     * The constructors are cached, so that each class is only looked up
+     * once. Classes which are not found by the class loader of the registry
+     * are looked up with the context class loader of the current thread,
+     * which is also used for discovering {@link RegistryProvider}s.
+     *
+     * @param className The class name of the codec.
+     * @return A new codec.
+     */
+    protected Codec newCodec(String className) throws Exception {
+        Constructor<?> constructor;
+        synchronized (codecConstructors) {
+            constructor = codecConstructors.get(className);
+            if (constructor == null) {
+                Class<?> clazz;
+                try {
+                    clazz = Class.forName(className);
+                } catch (ClassNotFoundException e) {
+                    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                    if (loader == null) {
+                        throw e;
+                    }
+                    clazz = Class.forName(className, true, loader);
+                }
+                constructor = clazz.getConstructor();
+                codecConstructors.put(className, constructor);
+            }
+        }
+        return (Codec) constructor.newInstance();
+    }
+
     /**
      * Puts a reader into the registry.
      * 
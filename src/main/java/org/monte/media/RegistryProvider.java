@@ -0,0 +1,37 @@
+/*
+ * @(#)RegistryProvider.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media;
+
+/**
+ * Puts additional codecs, readers, writers and file formats into the
+ * {@link Registry}.
+ * <p>
+ * Providers are discovered with {@code java.util.ServiceLoader}. A library
+ * lists its provider classes in the file
+ * {@code META-INF/services/org.monte.media.RegistryProvider}. The default
+ * registry loads the providers when it is queried for the first time, not
+ * when it is created.
+ * <p>
+ * A provider registers class names, so that the codec classes are only
+ * loaded when a codec is requested from the registry.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public interface RegistryProvider {
+
+    /** Puts the codecs, readers, writers and file formats of the provider
+     * into the registry.
+     *
+     * @param registry The registry.
+     */
+    public void register(Registry registry);
+}
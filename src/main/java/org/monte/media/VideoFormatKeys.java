@@ -74,4 +74,16 @@ public class VideoFormatKeys extends FormatKeys {
     public final static FormatKey<Boolean> InterlaceKey = new FormatKey<Boolean>("interlace", Boolean.class);
     /** Encoding quality. Value between 0 and 1. */
     public final static FormatKey<Float> QualityKey = new FormatKey<Float>("quality", Float.class);
+    /** Compression level of codecs which use zlib compression. Value between
+     * 0 (no compression) and 9 (best compression), or -1 for the default level. */
+    public final static FormatKey<Integer> CompressionLevelKey = new FormatKey<Integer>("compressionLevel", Integer.class);
+    /** Compression strategy of codecs which use zlib compression.
+     * One of the strategy constants of {@code java.util.zip.Deflater}. */
+    public final static FormatKey<Integer> CompressionStrategyKey = new FormatKey<Integer>("compressionStrategy", Integer.class);
+    /** Width of the blocks of block-based codecs. */
+    public final static FormatKey<Integer> BlockWidthKey = new FormatKey<Integer>("blockWidth", Integer.class);
+    /** Height of the blocks of block-based codecs. */
+    public final static FormatKey<Integer> BlockHeightKey = new FormatKey<Integer>("blockHeight", Integer.class);
+    /** Maximal horizontal and vertical distance of a motion vector in pixels. */
+    public final static FormatKey<Integer> MotionSearchRangeKey = new FormatKey<Integer>("motionSearchRange", Integer.class);
 }
@@ -23,6 +23,7 @@ import java.io.*;
 import java.util.*;
 import java.awt.image.*;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.applet.AudioClip;
 
 /**
@@ -169,7 +170,13 @@ public class ANIMDecoder
                 };
                 eightSVXDecoder.registerChunks(iff);
             }
-            iff.parse(in, this);
+            if (in instanceof FileInputStream) {
+                // Skips the chunks which we do not need without reading them
+                FileChannel channel = ((FileInputStream) in).getChannel();
+                iff.parse(channel, channel.position(), this);
+            } else {
+                iff.parse(in, this);
+            }
         } catch (ParseException e) { //System.out.println(e1);
             throw new IOException(e.getMessage());
         } catch (AbortException e) { //System.out.println(e);
@@ -12,8 +12,8 @@ package org.monte.media.anim;
 
 import org.monte.media.seq.SEQMovieTrack;
 import org.monte.media.seq.*;
+import org.monte.media.image.BitmapCheckpointCache;
 import org.monte.media.image.BitmapImage;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -33,7 +33,9 @@ public class ANIMReader {
      * Index of the frame which has been delta
      * decoded in its even or odd bitmap buffer.
      */
-    private int fetchedEven = -1, fetchedOdd = -1;
+    private int fetchedEven = Integer.MAX_VALUE, fetchedOdd = Integer.MAX_VALUE;
+    /** Snapshots of the bitmaps for seeking backwards. */
+    private final BitmapCheckpointCache checkpoints = new BitmapCheckpointCache();
     /** Two bitmaps are needed for double buffering. */
     private BitmapImage bitmapEven, bitmapOdd;
     // ---- END Decoder variables ----
@@ -41,7 +43,7 @@ public class ANIMReader {
     public ANIMReader(File file) throws IOException {
         InputStream in = null;
         try {
-            in = new BufferedInputStream(new FileInputStream(file));
+            in = new FileInputStream(file);
             ANIMDecoder decoder = new ANIMDecoder(in);
             track = new ANIMMovieTrack();
             decoder.produce(track, 0, true);
@@ -53,7 +55,7 @@ public class ANIMReader {
     }
 
     public void close() throws IOException {
-        // nothing to do
+        checkpoints.clear();
     }
 
     public int getFrameCount() {
@@ -93,6 +95,9 @@ public class ANIMReader {
 
         ANIMFrame frame = null;
         int fetched;
+        long start = System.nanoTime();
+        boolean isSeek = false;
+        int checkpoint = -1;
         int interleave = track.getInterleave();
         BitmapImage bitmap;
         if (interleave == 1 || (index & 1) == 0) {
@@ -108,10 +113,15 @@ public class ANIMReader {
                 frame.decode(bitmap, track);
                 return bitmap;
             } else {
-                if (fetched > index) {
+                isSeek = fetched != index - interleave;
+                checkpoint = checkpoints.restore(index, interleave, fetched, bitmap);
+                if (checkpoint != -1) {
+                    fetched = checkpoint;
+                } else if (fetched > index) {
                     frame = (ANIMFrame) track.getFrame(0);
                     frame.decode(bitmap, track);
                     fetched = 0;
+                    checkpoints.put(fetched, interleave, bitmap);
                 }
             }
         } else {
@@ -127,22 +137,42 @@ public class ANIMReader {
                 frame.decode(bitmap, track);
                 return bitmap;
             } else {
-                if (fetched > index) {
+                isSeek = fetched != index - interleave;
+                checkpoint = checkpoints.restore(index, interleave, fetched, bitmap);
+                if (checkpoint != -1) {
+                    fetched = checkpoint;
+                } else if (fetched > index) {
                     frame = (ANIMFrame) track.getFrame(0);
                     frame.decode(bitmap, track);
                     frame = (ANIMFrame) track.getFrame(1);
                     frame.decode(bitmap, track);
                     fetched = 1;
+                    checkpoints.put(fetched, interleave, bitmap);
                 }
             }
         }
         for (int i = fetched + interleave; i <= index; i += interleave) {
             frame = (ANIMFrame) track.getFrame(i);
             frame.decode(bitmap, track);
+            checkpoints.put(i, interleave, bitmap);
+        }
+        if (isSeek) {
+            checkpoints.addSeek(System.nanoTime() - start, checkpoint != -1);
         }
         return bitmap;
     }
 
+    /**
+     * Returns the checkpoint cache, which holds snapshots of the bitmaps
+     * at periodic frames. Moving backwards restores the nearest checkpoint
+     * instead of decoding the animation from the first frame. The cache can
+     * be configured with its interval and its memory budget, and it
+     * provides statistics about the seek latency and the hit rate.
+     */
+    public BitmapCheckpointCache getCheckpointCache() {
+        return checkpoints;
+    }
+
     public int getJiffies() {
         return track.getJiffies();
     }
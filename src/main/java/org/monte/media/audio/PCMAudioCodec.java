@@ -15,13 +15,7 @@ import org.monte.media.AbstractAudioCodec;
 import org.monte.media.AudioFormatKeys;
 import org.monte.media.Buffer;
 import org.monte.media.Format;
-import org.monte.media.io.ByteArrayImageInputStream;
-import org.monte.media.io.ByteArrayImageOutputStream;
-import java.io.EOFException;
-import java.io.IOException;
 import java.nio.ByteOrder;
-import javax.imageio.stream.ImageInputStream;
-import javax.imageio.stream.ImageOutputStream;
 import static org.monte.media.AudioFormatKeys.*;
 import static org.monte.media.BufferFlag.*;
 
@@ -31,13 +25,20 @@ import static org.monte.media.BufferFlag.*;
  * <p>
  * Does not perform sampling rate conversion or channel conversion.
  * <p>
+ * Supports sample sizes of 8, 16, 24 and 32 bits. The conversion is done by a
+ * {@link PCMConverter}, which is kept from one buffer to the next. The output
+ * array of the previous buffer is reused if it is large enough.
+ * <p>
  * FIXME Maybe create separate subclasses for AVI PCM and QuickTime PCM.
  *
  * @author Werner Randelshofer
  * @version $Id: PCMAudioCodec.java 142 2012-01-12 22:14:09Z werner $
  */
 public class PCMAudioCodec extends AbstractAudioCodec {
-private final static int UNSIGNED_BASE=128;
+
+    /** The converter of the previous buffer. */
+    private PCMConverter converter;
+
     public PCMAudioCodec() {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.AUDIO, EncodingKey, ENCODING_PCM_SIGNED, SignedKey, true),
@@ -83,72 +84,34 @@ private final static int UNSIGNED_BASE=128;
 
 
         byte[] inData = (byte[]) in.data;
-        byte[] outData = (out.data instanceof byte[]) ? (byte[]) out.data : new byte[inData.length];
-        if (outData.length < inData.length * outFormat.get(FrameSizeKey) / inFormat.get(FrameSizeKey)) {
-            outData = new byte[inData.length * outFormat.get(FrameSizeKey) / inFormat.get(FrameSizeKey)];
-        }
+        int inFrameSize = inFormat.get(FrameSizeKey);
+        int outFrameSize = outFormat.get(FrameSizeKey);
+        int outLength = in.length / inFrameSize * outFrameSize;
+        byte[] outData = (out.data instanceof byte[] && ((byte[]) out.data).length >= outLength) //
+                ? (byte[]) out.data : new byte[outLength];
 
         // Fast array copy if formats are identical 
         // or if 8 bit data with endian differences
         if (toAudioFormat(inFormat).matches(toAudioFormat(outFormat))) {
             System.arraycopy(inData, in.offset, outData, 0, in.length);
         } else {
-
-            // Byte order conversion is done by ImageInputStream/ImageOutputStream.
-            ByteOrder inOrder = inFormat.get(ByteOrderKey);
+            // Sign conversion, endian conversion and quantization conversion
+            // are all done by the converter.
+            int inSS = inFormat.get(SampleSizeInBitsKey);
             boolean inSigned = inFormat.get(SignedKey);
-            ByteArrayImageInputStream inStream = new ByteArrayImageInputStream(inData, in.offset, in.length, inOrder);
-            ByteOrder outOrder = outFormat.get(ByteOrderKey);
+            ByteOrder inOrder = inFormat.get(ByteOrderKey);
+            int outSS = outFormat.get(SampleSizeInBitsKey);
             boolean outSigned = outFormat.get(SignedKey);
-            ByteArrayImageOutputStream outStream = new ByteArrayImageOutputStream(outData, outOrder);
-            try {
-                // Now, we only have to care about sign conversion and 
-                // quantization conversion
-                int inSS = inFormat.get(SampleSizeInBitsKey);
-                int outSS = outFormat.get(SampleSizeInBitsKey);
-
-                switch ((inSS << 16) | outSS) {
-                    case (16 << 16) | 16:
-                        if (inSigned == outSigned) {
-                            write16To16(inStream, outStream);
-                        } else if (inSigned) {
-                            write16STo16U(inStream, outStream);
-                        } else {
-                            write16UTo16S(inStream, outStream);
-                        }
-                        break;
-                    case (16 << 16) | 8:
-                        if (inSigned == outSigned) {
-                        throw new UnsupportedOperationException("Unsupported sample size. in:" + inFormat + ", out:" + outFormat);
-                        } else if (inSigned) {
-                            write16STo8U(inStream, outStream);
-                        } else {
-                        throw new UnsupportedOperationException("Unsupported sample size. in:" + inFormat + ", out:" + outFormat);
-                        }
-                        break;
-                    case (8 << 16) | 8:
-                        if (inSigned == outSigned) {
-                            System.arraycopy(inData, in.offset, outData, 0, in.length);
-                        } else if (inSigned) {
-                            write8STo8U(inStream, outStream);
-                        } else if (outSigned) {
-                            write8UTo8S(inStream, outStream);
-                        }
-                        break;
-                    default:
-                        // FIXME - The PCM Audio Codec should handle unsupported
-                        //         sample size when the output format is set.
-                        throw new UnsupportedOperationException("Unsupported sample size. in:" + inFormat + ", out:" + outFormat);
-                        //out.setFlag(Buffer.FLAG_DISCARD);
-                        //return BUFFER_PROCESSED_FAILED;
-
-                }
-            } catch (IOException ex) {
-                out.flags.add(DISCARD);
-                return CODEC_FAILED;
-                //throw new InternalError(ex.getMessage());
+            ByteOrder outOrder = outFormat.get(ByteOrderKey);
+            if (!PCMConverter.isSupportedSampleSize(inSS) || !PCMConverter.isSupportedSampleSize(outSS)) {
+                // FIXME - The PCM Audio Codec should handle unsupported
+                //         sample size when the output format is set.
+                throw new UnsupportedOperationException("Unsupported sample size. in:" + inFormat + ", out:" + outFormat);
             }
-
+            if (converter == null || !converter.isConverting(inSS, inSigned, inOrder, outSS, outSigned, outOrder)) {
+                converter = new PCMConverter(inSS, inSigned, inOrder, outSS, outSigned, outOrder);
+            }
+            converter.convert(inData, in.offset, outData, 0, in.length / (inSS / 8));
         }
 
         // Configure the buffer
@@ -156,112 +119,7 @@ private final static int UNSIGNED_BASE=128;
         out.format = outFormat;
         out.data = outData;
         out.offset = 0;
-        out.length = in.length;
+        out.length = outLength;
         return CODEC_OK;
     }
-
-    /** 16-bit audio data in and out. No sign conversion. 
-     * Endian conversion is performed by the stream objects. */
-    protected void write16To16(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            while (true) {
-                out.writeShort(in.readShort());
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
-
-    /** 16-bit audio data unsigned in and signed out.
-     * Endian conversion is performed by the stream objects. */
-    protected void write16UTo16S(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            while (true) {
-                out.writeShort((in.readShort() & 0xffff) - (1 << 15));
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
-
-    /** 16-bit audio data signed in and unsigned out.
-     * Endian conversion is performed by the stream objects. */
-    protected void write16STo16U(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            while (true) {
-                out.writeShort(in.readShort() + (1 << 15));
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
-
-    /** Signed 16-bit audio data in, unsigned 8-bit out.
-     * Endian conversion is performed by the stream objects. */
-    protected void write16STo8U(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            while (true) {
-                out.writeByte((in.readShort() >>8) + UNSIGNED_BASE);
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
-
-    /** 8-bit audio data in and out. No sign conversion. 
-     */
-    protected void write8To8(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            byte[] buf = new byte[512];
-            while (true) {
-                int count = in.read(buf, 0, buf.length);
-                if (count == -1) {
-                    break;
-                }
-                out.write(buf, 0, count);
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
-
-    /** Unsigned 8-bit audio data in, signed out. 
-     */
-    protected void write8UTo8S(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            byte[] buf = new byte[512];
-            while (true) {
-                int count = in.read(buf, 0, buf.length);
-                if (count == -1) {
-                    break;
-                }
-                for (int i = 0; i < count; i++) {
-                    buf[i] = (byte) ((buf[i] & 0xff) - UNSIGNED_BASE);
-                }
-                out.write(buf, 0, count);
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
-
-    /** Signed 8-bit audio data in, unsigned out. 
-     */
-    protected void write8STo8U(ImageInputStream in, ImageOutputStream out) throws IOException {
-        try {
-            byte[] buf = new byte[512];
-            while (true) {
-                int count = in.read(buf, 0, buf.length);
-                if (count == -1) {
-                    break;
-                }
-                for (int i = 0; i < count; i++) {
-                    buf[i] = (byte) (buf[i] + UNSIGNED_BASE);
-                }
-                out.write(buf, 0, count);
-            }
-        } catch (EOFException e) {
-            // end of data reached
-        }
-    }
 }
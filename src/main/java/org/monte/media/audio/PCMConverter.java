@@ -0,0 +1,291 @@
+/*
+ * @(#)PCMConverter.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.audio;
+
+import java.nio.ByteOrder;
+
+/**
+ * Converts PCM samples between sample sizes of 8, 16, 24 and 32 bits,
+ * signed and unsigned encodings, and big and little endian byte orders.
+ * <p>
+ * The conversion works directly on byte arrays. Conversions between 8-bit
+ * formats, and between 16-bit formats, are done in one pass. All other
+ * conversions decode a chunk of samples into an {@code int} array and encode
+ * them from there. The array is allocated once per converter.
+ * <p>
+ * In the {@code int} array, a sample is signed and aligned to the most
+ * significant bit, regardless of its size. For example, the 16-bit sample
+ * {@code 0x1234} is represented as {@code 0x12340000}. Reducing the sample
+ * size discards the low bits, increasing the sample size fills the new low
+ * bits with zeros.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class PCMConverter {
+
+    /** The number of samples in a chunk of the generic conversion. */
+    private final static int CHUNK_SIZE = 2048;
+    private final int inSize;
+    private final boolean inSigned;
+    private final boolean inBigEndian;
+    private final int outSize;
+    private final boolean outSigned;
+    private final boolean outBigEndian;
+    /** The samples of the current chunk of the generic conversion. */
+    private int[] samples;
+
+    /** Creates a new converter.
+     *
+     * @param inSize The input sample size in bits: 8, 16, 24 or 32.
+     * @param inSigned Whether the input samples are signed.
+     * @param inOrder The byte order of the input samples. Null means big
+     * endian.
+     * @param outSize The output sample size in bits: 8, 16, 24 or 32.
+     * @param outSigned Whether the output samples are signed.
+     * @param outOrder The byte order of the output samples. Null means big
+     * endian.
+     * @throws IllegalArgumentException if a sample size is not supported.
+     */
+    public PCMConverter(int inSize, boolean inSigned, ByteOrder inOrder,
+            int outSize, boolean outSigned, ByteOrder outOrder) {
+        if (!isSupportedSampleSize(inSize) || !isSupportedSampleSize(outSize)) {
+            throw new IllegalArgumentException("Unsupported sample size. in:" + inSize + ", out:" + outSize);
+        }
+        this.inSize = inSize;
+        this.inSigned = inSigned;
+        this.inBigEndian = inOrder != ByteOrder.LITTLE_ENDIAN;
+        this.outSize = outSize;
+        this.outSigned = outSigned;
+        this.outBigEndian = outOrder != ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /** Returns true if the sample size in bits is 8, 16, 24 or 32. */
+    public static boolean isSupportedSampleSize(int sampleSize) {
+        return sampleSize == 8 || sampleSize == 16 || sampleSize == 24 || sampleSize == 32;
+    }
+
+    /** Returns true if the converter has the specified configuration. */
+    public boolean isConverting(int inSize, boolean inSigned, ByteOrder inOrder,
+            int outSize, boolean outSigned, ByteOrder outOrder) {
+        return this.inSize == inSize && this.inSigned == inSigned
+                && this.inBigEndian == (inOrder != ByteOrder.LITTLE_ENDIAN)
+                && this.outSize == outSize && this.outSigned == outSigned
+                && this.outBigEndian == (outOrder != ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Converts samples.
+     *
+     * @param in The input data.
+     * @param inOffset The offset of the first input sample.
+     * @param out The output data.
+     * @param outOffset The offset of the first output sample.
+     * @param count The number of samples. For multichannel audio this is the
+     * number of frames multiplied by the number of channels.
+     */
+    public void convert(byte[] in, int inOffset, byte[] out, int outOffset, int count) {
+        int inFlip = inSigned ? 0 : 0x80;
+        int outFlip = outSigned ? 0 : 0x80;
+        if (inSize == 8 && outSize == 8) {
+            convert8To8(in, inOffset, out, outOffset, count, inFlip ^ outFlip);
+        } else if (inSize == 16 && outSize == 16) {
+            convert16To16(in, inOffset, inBigEndian, out, outOffset, outBigEndian, count, inFlip ^ outFlip);
+        } else {
+            if (samples == null) {
+                samples = new int[CHUNK_SIZE];
+            }
+            int inStep = inSize / 8 * CHUNK_SIZE;
+            int outStep = outSize / 8 * CHUNK_SIZE;
+            for (; count > 0; count -= CHUNK_SIZE, inOffset += inStep, outOffset += outStep) {
+                int n = Math.min(count, CHUNK_SIZE);
+                decode(in, inOffset, inSize, inSigned, inBigEndian, samples, 0, n);
+                encode(samples, 0, out, outOffset, outSize, outSigned, outBigEndian, n);
+            }
+        }
+    }
+
+    /** Converts 8-bit samples. The flip mask inverts the sign bit of each
+     * sample if the input and the output differ in sign. */
+    private static void convert8To8(byte[] in, int inOffset, byte[] out, int outOffset, int count, int flip) {
+        if (flip == 0) {
+            System.arraycopy(in, inOffset, out, outOffset, count);
+            return;
+        }
+        for (int i = inOffset, j = outOffset, end = inOffset + count; i < end; i++, j++) {
+            out[j] = (byte) (in[i] ^ flip);
+        }
+    }
+
+    /** Converts 16-bit samples. The flip mask inverts the sign bit of each
+     * sample if the input and the output differ in sign. */
+    private static void convert16To16(byte[] in, int inOffset, boolean inBigEndian,
+            byte[] out, int outOffset, boolean outBigEndian, int count, int flip) {
+        // The masks for the first and the second byte of an input sample
+        int m0 = inBigEndian ? flip : 0;
+        int m1 = inBigEndian ? 0 : flip;
+        int end = inOffset + count * 2;
+        if (inBigEndian == outBigEndian) {
+            if (flip == 0) {
+                System.arraycopy(in, inOffset, out, outOffset, count * 2);
+                return;
+            }
+            for (int i = inOffset, j = outOffset; i < end; i += 2, j += 2) {
+                out[j] = (byte) (in[i] ^ m0);
+                out[j + 1] = (byte) (in[i + 1] ^ m1);
+            }
+        } else {
+            for (int i = inOffset, j = outOffset; i < end; i += 2, j += 2) {
+                out[j] = (byte) (in[i + 1] ^ m1);
+                out[j + 1] = (byte) (in[i] ^ m0);
+            }
+        }
+    }
+
+    /** Decodes PCM samples into signed samples, which are aligned to the
+     * most significant bit of an {@code int}.
+     *
+     * @param in The input data.
+     * @param inOffset The offset of the first input sample.
+     * @param sampleSize The sample size in bits: 8, 16, 24 or 32.
+     * @param signed Whether the input samples are signed.
+     * @param bigEndian Whether the input samples are big endian.
+     * @param out The decoded samples.
+     * @param outOffset The index of the first decoded sample.
+     * @param count The number of samples.
+     */
+    public static void decode(byte[] in, int inOffset, int sampleSize, boolean signed, boolean bigEndian,
+            int[] out, int outOffset, int count) {
+        final int flip = signed ? 0 : 0x80000000;
+        int i = inOffset;
+        final int end = outOffset + count;
+        switch (sampleSize) {
+            case 8:
+                for (int j = outOffset; j < end; j++, i++) {
+                    out[j] = (in[i] << 24) ^ flip;
+                }
+                break;
+            case 16:
+                if (bigEndian) {
+                    for (int j = outOffset; j < end; j++, i += 2) {
+                        out[j] = (in[i] << 24 | (in[i + 1] & 0xff) << 16) ^ flip;
+                    }
+                } else {
+                    for (int j = outOffset; j < end; j++, i += 2) {
+                        out[j] = (in[i + 1] << 24 | (in[i] & 0xff) << 16) ^ flip;
+                    }
+                }
+                break;
+            case 24:
+                if (bigEndian) {
+                    for (int j = outOffset; j < end; j++, i += 3) {
+                        out[j] = (in[i] << 24 | (in[i + 1] & 0xff) << 16 | (in[i + 2] & 0xff) << 8) ^ flip;
+                    }
+                } else {
+                    for (int j = outOffset; j < end; j++, i += 3) {
+                        out[j] = (in[i + 2] << 24 | (in[i + 1] & 0xff) << 16 | (in[i] & 0xff) << 8) ^ flip;
+                    }
+                }
+                break;
+            case 32:
+                if (bigEndian) {
+                    for (int j = outOffset; j < end; j++, i += 4) {
+                        out[j] = (in[i] << 24 | (in[i + 1] & 0xff) << 16 | (in[i + 2] & 0xff) << 8 | (in[i + 3] & 0xff)) ^ flip;
+                    }
+                } else {
+                    for (int j = outOffset; j < end; j++, i += 4) {
+                        out[j] = (in[i + 3] << 24 | (in[i + 2] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i] & 0xff)) ^ flip;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported sample size:" + sampleSize);
+        }
+    }
+
+    /** Encodes signed samples, which are aligned to the most significant bit
+     * of an {@code int}, into PCM samples.
+     *
+     * @param in The samples.
+     * @param inOffset The index of the first sample.
+     * @param out The output data.
+     * @param outOffset The offset of the first output sample.
+     * @param sampleSize The sample size in bits: 8, 16, 24 or 32.
+     * @param signed Whether the output samples are signed.
+     * @param bigEndian Whether the output samples are big endian.
+     * @param count The number of samples.
+     */
+    public static void encode(int[] in, int inOffset, byte[] out, int outOffset, int sampleSize,
+            boolean signed, boolean bigEndian, int count) {
+        final int flip = signed ? 0 : 0x80000000;
+        int j = outOffset;
+        final int end = inOffset + count;
+        switch (sampleSize) {
+            case 8:
+                for (int i = inOffset; i < end; i++, j++) {
+                    out[j] = (byte) ((in[i] ^ flip) >>> 24);
+                }
+                break;
+            case 16:
+                if (bigEndian) {
+                    for (int i = inOffset; i < end; i++, j += 2) {
+                        int v = in[i] ^ flip;
+                        out[j] = (byte) (v >>> 24);
+                        out[j + 1] = (byte) (v >>> 16);
+                    }
+                } else {
+                    for (int i = inOffset; i < end; i++, j += 2) {
+                        int v = in[i] ^ flip;
+                        out[j] = (byte) (v >>> 16);
+                        out[j + 1] = (byte) (v >>> 24);
+                    }
+                }
+                break;
+            case 24:
+                if (bigEndian) {
+                    for (int i = inOffset; i < end; i++, j += 3) {
+                        int v = in[i] ^ flip;
+                        out[j] = (byte) (v >>> 24);
+                        out[j + 1] = (byte) (v >>> 16);
+                        out[j + 2] = (byte) (v >>> 8);
+                    }
+                } else {
+                    for (int i = inOffset; i < end; i++, j += 3) {
+                        int v = in[i] ^ flip;
+                        out[j] = (byte) (v >>> 8);
+                        out[j + 1] = (byte) (v >>> 16);
+                        out[j + 2] = (byte) (v >>> 24);
+                    }
+                }
+                break;
+            case 32:
+                if (bigEndian) {
+                    for (int i = inOffset; i < end; i++, j += 4) {
+                        int v = in[i] ^ flip;
+                        out[j] = (byte) (v >>> 24);
+                        out[j + 1] = (byte) (v >>> 16);
+                        out[j + 2] = (byte) (v >>> 8);
+                        out[j + 3] = (byte) v;
+                    }
+                } else {
+                    for (int i = inOffset; i < end; i++, j += 4) {
+                        int v = in[i] ^ flip;
+                        out[j] = (byte) v;
+                        out[j + 1] = (byte) (v >>> 8);
+                        out[j + 2] = (byte) (v >>> 16);
+                        out[j + 3] = (byte) (v >>> 24);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported sample size:" + sampleSize);
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * @(#)PCMResampleCodec.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.audio;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import org.monte.media.AbstractAudioCodec;
+import org.monte.media.Buffer;
+import org.monte.media.Format;
+import org.monte.media.math.Rational;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.BufferFlag.*;
+
+/**
+ * {@code PCMResampleCodec} performs sampling rate conversion and channel
+ * conversion of PCM audio data. Like {@link PCMAudioCodec}, it also converts
+ * between sample sizes of 8, 16, 24 and 32 bits, signed and unsigned
+ * encodings, and byte orders.
+ * <p>
+ * The sampling rate is converted by a polyphase filter. The ratio of the
+ * output rate to the input rate is reduced to a fraction L/M. Each output
+ * sample is computed from the input samples around its position with one of
+ * L phases of a Kaiser-windowed sinc filter. The filter has 16 zero
+ * crossings on each side at the lower of the two rates, so that it also
+ * removes frequencies above the Nyquist frequency of the output when the
+ * rate is reduced. If L is larger than 256, the coefficients are
+ * interpolated between 256 precomputed phases.
+ * <p>
+ * Channels are converted before the sampling rate. If there are more input
+ * channels than output channels, input channel {@code i} is added to output
+ * channel {@code i % outputChannels}, and the sum is divided by the number of
+ * input channels which go into the output channel. Thus stereo is mixed
+ * into mono by taking the average of both channels. If there are fewer input
+ * channels, output channel {@code o} is copied from input channel
+ * {@code o % inputChannels}.
+ * <p>
+ * The codec streams: it keeps the input samples which are needed by the
+ * filter for the next buffer, and it produces as many output samples as the
+ * input allows. The filter is centered on the output samples, so that the
+ * output is not delayed. The remaining output samples are produced when
+ * a buffer with the {@code END_OF_MEDIA} flag is processed. All arrays are
+ * allocated when the formats change or when a buffer is larger than all
+ * previous buffers, so that processing a sequence of buffers of the same
+ * size does not allocate memory.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class PCMResampleCodec extends AbstractAudioCodec {
+
+    /** The number of zero crossings of the filter on each side, at the lower
+     * of the two sampling rates. */
+    private final static int ZERO_CROSSINGS = 16;
+    /** The cutoff frequency of the filter relative to the Nyquist frequency
+     * of the lower of the two sampling rates. */
+    private final static double CUTOFF = 0.95;
+    /** The shape parameter of the Kaiser window. */
+    private final static double KAISER_BETA = 8.0;
+    /** The maximal number of precomputed phases. */
+    private final static int MAX_PHASES = 256;
+    /** The number of input frames which are decoded at once. */
+    private final static int CHUNK_FRAMES = 1024;
+    /** The formats for which the codec has been configured. */
+    private Format configuredInputFormat;
+    private Format configuredOutputFormat;
+    private int inSize;
+    private boolean inSigned;
+    private boolean inBigEndian;
+    private int inChannels;
+    private int inFrameSize;
+    private int outSize;
+    private boolean outSigned;
+    private boolean outBigEndian;
+    private int outChannels;
+    private int outFrameSize;
+    private Rational outSampleDuration;
+    /** The output channel of each input channel. */
+    private int[] mixTarget;
+    /** The gain of each output channel. */
+    private float[] mixGain;
+    /** The ratio of the output rate to the input rate is up / down. */
+    private long up;
+    private long down;
+    /** The number of filter taps up to and including the input frame at or
+     * before an output frame. */
+    private int radius;
+    /** The number of filter taps after the input frame at or before an
+     * output frame. */
+    private int lookahead;
+    /** The number of filter taps of a phase. */
+    private int taps;
+    /** The number of precomputed phases. */
+    private int phases;
+    /** The filter coefficients of phase p are at p * taps. There is one more
+     * phase than precomputed phases, for the interpolation. */
+    private float[] coefficients;
+    /** Input frames after channel conversion, interleaved. */
+    private float[] history;
+    /** The number of frames in the history. */
+    private int historyFrames;
+    /** Whether input frames have been passed to the filter since the end of
+     * the media or since the filter was configured. */
+    private boolean hasInput;
+    /** The index in the history of the input frame which is at or before the
+     * next output frame. */
+    private int position;
+    /** The offset of the next output frame after the input frame, in units
+     * of 1 / up input frames. */
+    private long phase;
+    /** Decoded input samples and encoded output samples. */
+    private int[] inSamples;
+    private int[] outSamples;
+    private int outSampleCount;
+    private float[] accumulators;
+    /** The coefficients of the current phase, if they are interpolated. */
+    private float[] interpolated;
+
+    public PCMResampleCodec() {
+        super(new Format[]{
+                    new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED, SignedKey, true),
+                    new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED, SignedKey, false),//
+                },
+                new Format[]{
+                    new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_SIGNED, SignedKey, true),
+                    new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_PCM_UNSIGNED, SignedKey, false),//
+                });
+        name = "PCM Resample Codec";
+    }
+
+    @Override
+    public Format setInputFormat(Format f) {
+        Format fmt = super.setInputFormat(f);
+        if (fmt != null && !isSupported(fmt)) {
+            inputFormat = fmt = null;
+        }
+        return fmt;
+    }
+
+    /** Sets the output format. Properties which are not specified by the
+     * output format are taken from the input format, except for the frame
+     * size and the frame rate, which are computed from the output format. */
+    @Override
+    public Format setOutputFormat(Format f) {
+        Format fmt = super.setOutputFormat(f);
+        if (fmt == null) {
+            return null;
+        }
+        Format o = f;
+        if (inputFormat != null) {
+            o = o.append(inputFormat.removeKeys(FrameSizeKey, FrameRateKey));
+        }
+        if (!o.containsKey(FrameSizeKey) && o.containsKey(SampleSizeInBitsKey) && o.containsKey(ChannelsKey)) {
+            o = o.append(new Format(FrameSizeKey, o.get(SampleSizeInBitsKey) / 8 * o.get(ChannelsKey)));
+        }
+        if (!o.containsKey(FrameRateKey) && o.containsKey(SampleRateKey)) {
+            o = o.append(new Format(FrameRateKey, o.get(SampleRateKey)));
+        }
+        if (!isSupported(o)) {
+            outputFormat = null;
+            return null;
+        }
+        outputFormat = o;
+        return o;
+    }
+
+    /** Returns true if the format has a supported sample size, a sampling
+     * rate and at least one channel, or if it does not specify them yet. */
+    private static boolean isSupported(Format f) {
+        return (!f.containsKey(SampleSizeInBitsKey) || PCMConverter.isSupportedSampleSize(f.get(SampleSizeInBitsKey)))
+                && (!f.containsKey(ChannelsKey) || f.get(ChannelsKey) > 0)
+                && (!f.containsKey(SampleRateKey) || f.get(SampleRateKey).compareTo(new Rational(0, 1)) > 0);
+    }
+
+    @Override
+    public void reset() {
+        configuredInputFormat = null;
+        configuredOutputFormat = null;
+    }
+
+    @Override
+    public int process(Buffer in, Buffer out) {
+        out.flags.clear();
+        out.flags.addAll(in.flags);
+        out.track = in.track;
+        out.timeStamp = in.timeStamp;
+        boolean isEnd = in.isFlag(END_OF_MEDIA);
+        boolean isDiscard = in.isFlag(DISCARD);
+        if (isDiscard) {
+            // The end of the media is usually signalled with an empty buffer
+            // flagged with END_OF_MEDIA and DISCARD. Then the frames which
+            // are still in the filter have to be written.
+            if (!isEnd || !hasInput) {
+                return CODEC_OK;
+            }
+        } else {
+            Format inFormat = in.format == null ? inputFormat : in.format;
+            if (inFormat != configuredInputFormat || outputFormat != configuredOutputFormat) {
+                if (!configure(inFormat, outputFormat)) {
+                    out.setFlag(DISCARD);
+                    return CODEC_FAILED;
+                }
+            }
+        }
+
+        int inFrames = isDiscard ? 0 : in.length / inFrameSize;
+
+        // Make room for the output frames
+        long maxFrames = ((long) historyFrames + inFrames + (isEnd ? lookahead : 0)) * up / down + 2;
+        if (maxFrames * outFrameSize > Integer.MAX_VALUE) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        int maxLength = (int) maxFrames * outFrameSize;
+        byte[] outData = (out.data instanceof byte[] && ((byte[]) out.data).length >= maxLength) //
+                ? (byte[]) out.data : new byte[maxLength];
+        int outLength = 0;
+
+        byte[] inData = (byte[]) in.data;
+        for (int i = 0; i < inFrames; i += CHUNK_FRAMES) {
+            int n = Math.min(CHUNK_FRAMES, inFrames - i);
+            PCMConverter.decode(inData, in.offset + i * inFrameSize, inSize, inSigned, inBigEndian, inSamples, 0, n * inChannels);
+            mix(n);
+            outLength = filter(outData, outLength);
+        }
+        if (inFrames > 0) {
+            hasInput = true;
+        }
+        if (isEnd) {
+            hasInput = false;
+            // Feed silence through the filter to get the last output frames
+            for (int i = 0; i < lookahead; i += CHUNK_FRAMES) {
+                int n = Math.min(CHUNK_FRAMES, lookahead - i);
+                Arrays.fill(history, historyFrames * outChannels, (historyFrames + n) * outChannels, 0f);
+                historyFrames += n;
+                outLength = filter(outData, outLength);
+            }
+            outLength = flush(outData, outLength);
+            initHistory();
+        } else {
+            outLength = flush(outData, outLength);
+        }
+
+        out.format = outputFormat;
+        out.data = outData;
+        out.offset = 0;
+        out.length = outLength;
+        out.sampleCount = outLength / outFrameSize;
+        out.sampleDuration = outSampleDuration;
+        out.setFlag(KEYFRAME);
+        out.setFlag(DISCARD, outLength == 0);
+        return CODEC_OK;
+    }
+
+    /** Converts the decoded input frames into the output channels, and
+     * appends them to the history. */
+    private void mix(int frames) {
+        final float scale = 1f / 2147483648f;
+        final float[] history = this.history;
+        final int[] samples = inSamples;
+        int j = historyFrames * outChannels;
+        if (inChannels == outChannels) {
+            for (int i = 0, n = frames * inChannels; i < n; i++) {
+                history[j++] = samples[i] * scale;
+            }
+        } else if (inChannels > outChannels) {
+            Arrays.fill(history, j, j + frames * outChannels, 0f);
+            for (int f = 0, i = 0; f < frames; f++, j += outChannels) {
+                for (int c = 0; c < inChannels; c++) {
+                    history[j + mixTarget[c]] += samples[i++] * scale;
+                }
+                for (int c = 0; c < outChannels; c++) {
+                    history[j + c] *= mixGain[c];
+                }
+            }
+        } else {
+            for (int f = 0, i = 0; f < frames; f++, i += inChannels) {
+                for (int c = 0; c < outChannels; c++) {
+                    history[j++] = samples[i + c % inChannels] * scale;
+                }
+            }
+        }
+        historyFrames += frames;
+    }
+
+    /** Computes the output frames for which the history has enough input
+     * frames, and discards the input frames which are no longer needed.
+     *
+     * @return The new output length.
+     */
+    private int filter(byte[] outData, int outLength) {
+        final float[] history = this.history;
+        final float[] coefficients = this.coefficients;
+        final float[] acc = accumulators;
+        final int taps = this.taps;
+        final int channels = outChannels;
+        final long up = this.up;
+        final long down = this.down;
+        final boolean isExact = phases == up;
+        final float round = outSize == 32 ? 0.5f : (float) (1 << (31 - outSize));
+
+        while (position + lookahead < historyFrames) {
+            int start = (position - radius + 1) * channels;
+            float[] coef;
+            int row;
+            if (isExact) {
+                coef = coefficients;
+                row = (int) phase * taps;
+            } else {
+                double p = (double) phase * phases / up;
+                int r = (int) p;
+                float a = (float) (p - r);
+                r *= taps;
+                coef = interpolated;
+                row = 0;
+                for (int k = 0; k < taps; k++) {
+                    coef[k] = coefficients[r + k] + a * (coefficients[r + taps + k] - coefficients[r + k]);
+                }
+            }
+
+            if (outSampleCount + channels > outSamples.length) {
+                outLength = flush(outData, outLength);
+            }
+            // The casts saturate the samples which are out of range
+            if (channels == 1) {
+                float acc0 = 0f;
+                for (int k = 0, h = start; k < taps; k++, h++) {
+                    acc0 += history[h] * coef[row + k];
+                }
+                outSamples[outSampleCount++] = (int) (acc0 * 2147483648f + round);
+            } else if (channels == 2) {
+                float acc0 = 0f, acc1 = 0f;
+                for (int k = 0, h = start; k < taps; k++, h += 2) {
+                    float c = coef[row + k];
+                    acc0 += history[h] * c;
+                    acc1 += history[h + 1] * c;
+                }
+                outSamples[outSampleCount++] = (int) (acc0 * 2147483648f + round);
+                outSamples[outSampleCount++] = (int) (acc1 * 2147483648f + round);
+            } else {
+                for (int c = 0; c < channels; c++) {
+                    acc[c] = 0f;
+                }
+                for (int k = 0, h = start; k < taps; k++) {
+                    float c = coef[row + k];
+                    for (int ch = 0; ch < channels; ch++) {
+                        acc[ch] += history[h++] * c;
+                    }
+                }
+                for (int c = 0; c < channels; c++) {
+                    outSamples[outSampleCount++] = (int) (acc[c] * 2147483648f + round);
+                }
+            }
+
+            phase += down;
+            if (phase >= up) {
+                position += (int) (phase / up);
+                phase %= up;
+            }
+        }
+
+        // Discard the input frames which are no longer needed
+        int discard = Math.min(position - radius + 1, historyFrames);
+        if (discard > 0) {
+            System.arraycopy(history, discard * channels, history, 0, (historyFrames - discard) * channels);
+            historyFrames -= discard;
+            position -= discard;
+        }
+        return outLength;
+    }
+
+    /** Encodes the pending output samples. */
+    private int flush(byte[] outData, int outLength) {
+        PCMConverter.encode(outSamples, 0, outData, outLength, outSize, outSigned, outBigEndian, outSampleCount);
+        outLength += outSampleCount * outSize / 8;
+        outSampleCount = 0;
+        return outLength;
+    }
+
+    /** Computes the filter and the channel conversion for the formats, and
+     * allocates the buffers.
+     *
+     * @return True on success.
+     */
+    private boolean configure(Format inFormat, Format outFormat) {
+        if (inFormat == null || outFormat == null
+                || !inFormat.containsKey(SampleRateKey) || !outFormat.containsKey(SampleRateKey)
+                || !inFormat.containsKey(SampleSizeInBitsKey) || !outFormat.containsKey(SampleSizeInBitsKey)
+                || !inFormat.containsKey(ChannelsKey) || !outFormat.containsKey(ChannelsKey)
+                || !isSupported(inFormat) || !isSupported(outFormat)) {
+            return false;
+        }
+        inSize = inFormat.get(SampleSizeInBitsKey);
+        inSigned = inFormat.get(SignedKey, true);
+        inBigEndian = inFormat.get(ByteOrderKey, ByteOrder.BIG_ENDIAN) != ByteOrder.LITTLE_ENDIAN;
+        inChannels = inFormat.get(ChannelsKey);
+        inFrameSize = inFormat.get(FrameSizeKey, inSize / 8 * inChannels);
+        outSize = outFormat.get(SampleSizeInBitsKey);
+        outSigned = outFormat.get(SignedKey, true);
+        outBigEndian = outFormat.get(ByteOrderKey, ByteOrder.BIG_ENDIAN) != ByteOrder.LITTLE_ENDIAN;
+        outChannels = outFormat.get(ChannelsKey);
+        outFrameSize = outFormat.get(FrameSizeKey, outSize / 8 * outChannels);
+        outSampleDuration = outFormat.get(SampleRateKey).inverse();
+
+        // Channel conversion
+        mixTarget = new int[inChannels];
+        mixGain = new float[outChannels];
+        for (int c = 0; c < inChannels; c++) {
+            mixTarget[c] = c % outChannels;
+            mixGain[c % outChannels] += 1f;
+        }
+        for (int c = 0; c < outChannels; c++) {
+            mixGain[c] = mixGain[c] == 0f ? 0f : 1f / mixGain[c];
+        }
+
+        // Sampling rate conversion
+        Rational ratio = outFormat.get(SampleRateKey).divide(inFormat.get(SampleRateKey));
+        up = ratio.getNumerator();
+        down = ratio.getDenominator();
+        if (up == down) {
+            // The frames are only converted, not filtered
+            radius = 1;
+            taps = 1;
+            phases = 1;
+            lookahead = 0;
+            coefficients = new float[]{1f, 1f};
+        } else {
+            double scale = Math.min(1.0, (double) up / down);
+            double cutoff = scale * CUTOFF;
+            radius = (int) Math.ceil(ZERO_CROSSINGS / scale);
+            lookahead = radius;
+            taps = 2 * radius;
+            phases = (int) Math.min(up, MAX_PHASES);
+            coefficients = new float[(phases + 1) * taps];
+            for (int p = 0; p <= phases; p++) {
+                double offset = (double) p / phases;
+                double sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    // The distance of the input frame from the output frame
+                    double t = offset + radius - 1 - k;
+                    double h = cutoff * sinc(cutoff * t) * kaiser(t / radius);
+                    coefficients[p * taps + k] = (float) h;
+                    sum += h;
+                }
+                // Normalize the gain at zero frequency
+                for (int k = 0; k < taps; k++) {
+                    coefficients[p * taps + k] /= (float) sum;
+                }
+            }
+        }
+
+        history = new float[(taps + CHUNK_FRAMES) * outChannels];
+        inSamples = new int[CHUNK_FRAMES * inChannels];
+        outSamples = new int[CHUNK_FRAMES * outChannels];
+        accumulators = new float[outChannels];
+        interpolated = new float[taps];
+        outSampleCount = 0;
+        initHistory();
+        configuredInputFormat = inFormat;
+        configuredOutputFormat = outFormat;
+        return true;
+    }
+
+    /** Fills the history with silence before the first input frame. */
+    private void initHistory() {
+        historyFrames = radius - 1;
+        hasInput = false;
+        Arrays.fill(history, 0, historyFrames * outChannels, 0f);
+        position = radius - 1;
+        phase = 0;
+    }
+
+    private static double sinc(double x) {
+        if (x == 0) {
+            return 1;
+        }
+        double px = Math.PI * x;
+        return Math.sin(px) / px;
+    }
+
+    /** The Kaiser window for -1 &lt;= x &lt;= 1. */
+    private static double kaiser(double x) {
+        if (x <= -1 || x >= 1) {
+            return 0;
+        }
+        return besselI0(KAISER_BETA * Math.sqrt(1 - x * x)) / besselI0(KAISER_BETA);
+    }
+
+    /** The modified Bessel function of the first kind of order 0. */
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
@@ -73,6 +73,34 @@ import javax.imageio.stream.MemoryCacheImageInputStream;
         (byte) 0xd8
     };
 
+    /** Returns true if the JPEG image has a DHT segment before the
+     * start of scan. */
+    public static boolean hasDHTSeg(byte[] jpg, int offset, int length) {
+        int end = offset + length;
+        int p = offset + JFIFSOISeg.length;
+        while (p + 4 <= end && (jpg[p] & 0xff) == 0xff) {
+            int marker = jpg[p + 1] & 0xff;
+            if (marker == 0xc4) {
+                return true;
+            }
+            if (marker == 0xda) {
+                break;
+            }
+            p += 2 + (((jpg[p + 2] & 0xff) << 8) | (jpg[p + 3] & 0xff));
+        }
+        return false;
+    }
+
+    /** Returns a JPEG image with the MJPG DHT segment inserted after the
+     * SOI segment. */
+    public static byte[] insertDHTSeg(byte[] jpgWithoutDHT, int offset, int length) {
+        byte[] jpg = new byte[length + MJPGDHTSeg.length];
+        System.arraycopy(JFIFSOISeg, 0, jpg, 0, JFIFSOISeg.length);
+        System.arraycopy(MJPGDHTSeg, 0, jpg, JFIFSOISeg.length, MJPGDHTSeg.length);
+        System.arraycopy(jpgWithoutDHT, offset + JFIFSOISeg.length, jpg, JFIFSOISeg.length + MJPGDHTSeg.length, length - JFIFSOISeg.length);
+        return jpg;
+    }
+
     public static InputStream prependDHTSeg(byte[] jpgWithoutDHT) {
         return prependDHTSeg(jpgWithoutDHT, 0, jpgWithoutDHT.length);
     }
@@ -14,15 +14,24 @@ import org.monte.media.AbortException;
 import org.monte.media.Format;
 import org.monte.media.ParseException;
 import org.monte.media.io.ByteArrayImageInputStream;
+import org.monte.media.io.FileChannelInputStream;
 import org.monte.media.math.Rational;
 import org.monte.media.riff.RIFFChunk;
 import org.monte.media.riff.RIFFParser;
 import org.monte.media.riff.RIFFVisitor;
 import java.awt.Dimension;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.stream.FileImageInputStream;
@@ -30,6 +39,7 @@ import javax.imageio.stream.ImageInputStream;
 import static org.monte.media.FormatKeys.*;
 import static org.monte.media.AudioFormatKeys.*;
 import static org.monte.media.VideoFormatKeys.*;
+import static java.lang.Math.*;
 
 /**
  * Provides low-level support for reading encoded audio and video samples from
@@ -39,6 +49,11 @@ import static org.monte.media.VideoFormatKeys.*;
  * This class supports lengths of up to 4 GB, but such files may not work on
  * all players.
  * <p>
+ * Only the headers are read when the file is opened. The index of a track is
+ * read when its samples are needed, and is stored in a {@link SampleTable}.
+ * If the file does not have an index, the movi lists are scanned for sample
+ * chunks in the background.
+ * <p>
  * For detailed information about the AVI 1.0 file format see:<br>
  * <a href="http://msdn.microsoft.com/en-us/library/ms779636.aspx">msdn.microsoft.com AVI RIFF</a><br>
  * <a href="http://www.microsoft.com/whdc/archive/fourcc.mspx">www.microsoft.com FOURCC for Video Compression</a><br>
@@ -51,13 +66,28 @@ public class AVIInputStream extends AbstractAVIStream {
 
     /** The image input stream. */
     protected final ImageInputStream in;
+    /** The channel of the input file, or null if the input is not a file. */
+    protected final FileChannel channel;
     /** This variable is set to true when all meta-data has been read from
      * the file.
      */
     private boolean isRealized = false;
     protected MainHeader mainHeader;
-    protected ArrayList<Sample> idx1 = new ArrayList<Sample>();
-    private long moviOffset = 0;
+    /** The offset of the data of the first movi list. */
+    protected long moviOffset = 0;
+    /** The offset and the size of the data of the idx1 chunk. The size is
+     * -1 if the file does not have an idx1 chunk. */
+    private long idx1Offset, idx1Size = -1;
+    /** Whether the OpenDML index is used instead of the idx1 index. */
+    private boolean isOpenDMLIndex;
+    /** The offsets and sizes of the movi lists. The lists are only scanned
+     * if the file does not have an index. */
+    private ArrayList<long[]> moviLists = new ArrayList<long[]>();
+    /** The end of the 'RIFF AVI ' chunk. The 'RIFF AVIX' chunks of an
+     * OpenDML file follow it. */
+    private long aviChunkEnd = -1;
+    /** Scans the movi lists in the background, or null. */
+    private FutureTask<Void> moviScan;
 
     /**
      * Creates a new instance.
@@ -65,8 +95,9 @@ public class AVIInputStream extends AbstractAVIStream {
      * @param file the input file
      */
     public AVIInputStream(File file) throws IOException {
-
-        this.in = new FileImageInputStream(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        this.in = new FileImageInputStream(raf);
+        this.channel = raf.getChannel();
         in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         this.streamOffset = 0;
     }
@@ -78,6 +109,7 @@ public class AVIInputStream extends AbstractAVIStream {
      */
     public AVIInputStream(ImageInputStream in) throws IOException {
         this.in = in;
+        this.channel = null;
         this.streamOffset = in.getStreamPosition();
         in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
     }
@@ -140,8 +172,7 @@ public class AVIInputStream extends AbstractAVIStream {
      * @throws IOException 
      */
     public long getChunkCount(int track) throws IOException {
-        ensureRealized();
-        return tracks.get(track).samples.size();
+        return getSampleTable(track).size();
     }
 
     /** Returns the name of the track, or null if the name is not specified. */
@@ -152,27 +183,28 @@ public class AVIInputStream extends AbstractAVIStream {
 
     /** Reads all metadata of the file. */
     protected void readAllMetadata() throws IOException {
-        in.seek(streamOffset);
         RIFFParser p = new RIFFParser();
         p.declareStopChunkType(MOVI_ID);
         p.declareStopChunkType(REC_ID);
         try {
-            p.parse(in, new RIFFVisitor() {
+            RIFFVisitor v = new RIFFVisitor() {
 
                 private Track currentTrack;
 
                 @Override
                 public boolean enteringGroup(RIFFChunk group) {
                     //System.out.println("AVIInputStream enteringGroup " + group + "  0x" + Integer.toHexString(group.getType()) + " 0x" + Integer.toHexString(group.getID()));
-                    if (group.getType() == MOVI_ID) {
-                        moviOffset = group.getScan() + 8;
+                    if (group.getType() == AVI_ID && group.getID() == RIFFParser.RIFF_ID) {
+                        aviChunkEnd = group.getScan() + group.getSize() + (group.getSize() & 1);
                     }
-
                     if (group.getType() == MOVI_ID && group.getID() == LIST_ID) {
-                        if (mainHeader != null && (mainHeader.flags & AVIH_FLAG_HAS_INDEX) != 0) {
-                            // => skip movi list if an index is available
-                            return false;
+                        if (moviLists.isEmpty()) {
+                            moviOffset = group.getScan() + 8;
                         }
+                        // => skip the movi list, it is only scanned if
+                        //    the file does not have an index
+                        moviLists.add(new long[]{group.getScan() + 4, group.getSize() - 4});
+                        return false;
                     }
                     return true;
                 }
@@ -230,6 +262,9 @@ public class AVIInputStream extends AbstractAVIStream {
                                     case STRN_ID:
                                         readSTRN(currentTrack, chunk.getData());
                                         break;
+                                    case INDX_ID:
+                                        readINDX(currentTrack, chunk.getData());
+                                        break;
                                     default:
                                         // TODO Collect all other chunks that we see in the strl
                                         break;
@@ -239,25 +274,14 @@ public class AVIInputStream extends AbstractAVIStream {
                                 switch (chunk.getID()) {
                                     case IDX1_ID:
                                         if (isFlagSet(mainHeader.flags, AVIH_FLAG_HAS_INDEX)) {
-                                            readIDX1(tracks, idx1, chunk.getData());
+                                            // => the index is read on demand
+                                            idx1Offset = chunk.getScan();
+                                            idx1Size = chunk.getSize();
                                         }
                                         break;
                                     default:
                                         break;
                                 }
-                            case MOVI_ID:
-                            case REC_ID: {
-                                int chunkIdInt = chunk.getID();
-                                String id = RIFFParser.idToString(chunkIdInt);
-                                int track = (((chunkIdInt >> 24) & 0xff) - '0') * 10 + (((chunkIdInt >>> 16) & 0xff) - '0');
-                                if (track >= 0 && track < tracks.size()) {
-                                    Sample s = new Sample(id, id.endsWith("pc") ? 0 : 1, chunk.getScan(), chunk.getSize(), false);
-                                    idx1.add(s);
-                                    tracks.get(track).samples.add(s);
-
-                                }
-                            }
-                            break;
                             default:
                                 break;
                         }
@@ -266,12 +290,94 @@ public class AVIInputStream extends AbstractAVIStream {
                         throw new ParseException("Error parsing " + RIFFParser.idToString(group.getID()) + "." + RIFFParser.idToString(chunk.getID()), ex);
                     }
                 }
-            });
+            };
+            if (channel != null) {
+                // Skips the chunks which we do not need without reading them,
+                // and reads the headers with positional reads.
+                p.parse(channel, streamOffset, v);
+            } else {
+                in.seek(streamOffset);
+                p.parse(in, v);
+            }
         } catch (ParseException ex) {
             Logger.getLogger(AVIInputStream.class.getName()).log(Level.SEVERE, null, ex);
         } catch (AbortException ex) {
             Logger.getLogger(AVIInputStream.class.getName()).log(Level.SEVERE, null, ex);
         }
+
+        // The idx1 chunk only covers the 'RIFF AVI ' chunk. If all tracks have
+        // an OpenDML super index, we use it instead, because it covers the
+        // 'RIFF AVIX' chunks as well. The OpenDML index does not contain
+        // palette changes, so we can not use it for tracks which have them.
+        isOpenDMLIndex = !tracks.isEmpty();
+        for (Track tr : tracks) {
+            if (tr.superIndexCount == 0 || isFlagSet(tr.flags, STRH_FLAG_VIDEO_PALETTE_CHANGES)) {
+                isOpenDMLIndex = false;
+            }
+        }
+
+        // The index is read when the samples of a track are needed. If the
+        // file does not have an index, we scan the movi lists in the
+        // background, so that opening the file does not have to wait for it.
+        if (!isOpenDMLIndex && idx1Size == -1 && channel != null && !tracks.isEmpty()) {
+            moviScan = new FutureTask<Void>(new Callable<Void>() {
+
+                @Override
+                public Void call() throws IOException {
+                    scanMovi();
+                    return null;
+                }
+            });
+            Thread t = new Thread(moviScan, "AVIInputStream movi scan");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /** Returns the sample table of the specified track. Reads the index
+     * of the track if it has not been read yet.
+     */
+    protected SampleTable getSampleTable(int track) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        if (tr.samples == null || moviScan != null) {
+            readSampleTables(tr);
+        }
+        return tr.samples;
+    }
+
+    /** Reads the sample table of the specified track, and of all other
+     * tracks which are covered by the same index.
+     * If the index can not be read, the sample tables are left empty.
+     */
+    private void readSampleTables(Track tr) throws IOException {
+        try {
+            if (moviScan != null) {
+                try {
+                    moviScan.get();
+                    moviScan = null;
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(e.getMessage());
+                } catch (ExecutionException e) {
+                    moviScan = null;
+                    throw e.getCause() instanceof IOException//
+                            ? (IOException) e.getCause()//
+                            : new IOException(e.getCause());
+                }
+            } else if (isOpenDMLIndex) {
+                readOpenDMLIndex(tr);
+            } else if (idx1Size != -1) {
+                readIDX1();
+            } else {
+                scanMovi();
+            }
+        } finally {
+            for (Track t : tracks) {
+                if (t.samples == null && (t == tr || !isOpenDMLIndex)) {
+                    t.samples = new SampleTable(0);
+                }
+            }
+        }
     }
 
     /** Reads the AVI Main Header and returns a MainHeader object. */
@@ -546,54 +652,299 @@ public class AVIInputStream extends AbstractAVIStream {
      * } avioldindex_entry;
      * </pre>
      * 
-     * @param tracks
-     * @param data
-     * @return The idx1 list of samples.
-     * @throws IOException 
+     * The index is read in pages, so that no array for the whole index
+     * needs to be allocated. Palette changes are not added to the sample
+     * tables.
      */
-    private void readIDX1(ArrayList<Track> tracks, ArrayList<Sample> idx1, byte[] data) throws IOException {
-        ByteArrayImageInputStream in = new ByteArrayImageInputStream(data, ByteOrder.LITTLE_ENDIAN);
+    private void readIDX1() throws IOException {
+        int trackCount = tracks.size();
+        long entryCount = idx1Size / 16;
+        SampleTable[] tables = new SampleTable[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            // Assume that the entries are evenly distributed to the tracks
+            tables[t] = new SampleTable((int) min(entryCount / trackCount + 1, Integer.MAX_VALUE - 8));
+        }
+
+        byte[] page = new byte[16 * 4096];
+        ByteBuffer pageBuf = ByteBuffer.wrap(page).order(ByteOrder.LITTLE_ENDIAN);
+        for (long entry = 0; entry < entryCount;) {
+            int n = (int) min(entryCount - entry, page.length / 16);
+            readFully(streamOffset + idx1Offset + entry * 16, page, n * 16);
+            for (int i = 0; i < n; i++) {
+                int chunkIdInt = pageBuf.getInt(i * 16);
+                int track = ((chunkIdInt & 0xff) - '0') * 10 + (((chunkIdInt >>> 8) & 0xff) - '0');
+                if (track < 0 || track >= trackCount) {
+                    // => skip entries of 'rec ' lists and of unknown streams
+                    continue;
+                }
+                int flags = pageBuf.getInt(i * 16 + 4);
+                long offset = pageBuf.getInt(i * 16 + 8) & 0xffffffffL;
+                long size = pageBuf.getInt(i * 16 + 12) & 0xffffffffL;
+                if ((chunkIdInt >>> 16) == ('c' << 8 | 'p')) {
+                    // => skip palette changes
+                    // FIXME - We should coalesce multiple palette changes
+                    continue;
+                }
+                Track tr = tracks.get(track);
+                int duration = ((flags & 0x100) != 0) ? 0 : 1;
+                if (tr.mediaType == AVIMediaType.AUDIO) {
+                    Format af = tr.format;
+                    duration = (int) (size * duration / af.get(FrameSizeKey));
+                }
+                tables[track].add(offset + moviOffset, size, duration, (flags & 0x10) != 0);
+            }
+            entry += n;
+        }
 
-        long[] trReadTimeStamp = new long[tracks.size()];
+        for (int t = 0; t < trackCount; t++) {
+            tables[t].trimToSize();
+            tracks.get(t).samples = tables[t];
+        }
+    }
 
-        Sample paletteChange=null;
-        while (in.getStreamPosition() < data.length) {
-            int chunkIdInt = in.readInt();
-            String chunkId = intToType(chunkIdInt);
-            int track = ((chunkIdInt & 0xff) - '0') * 10 + (((chunkIdInt >>> 8) & 0xff) - '0');
-            if (track < 0 || track > 99 || track > tracks.size()) {
-                throw new IOException("Illegal chunkId in IDX1:" + chunkId);
+    /** Reads len bytes from the specified position of the file. */
+    private void readFully(long position, byte[] b, int len) throws IOException {
+        if (channel == null) {
+            in.seek(position);
+            in.readFully(b, 0, len);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) {
+                    throw new EOFException();
+                }
             }
-            int flags = in.readInt();
-            long offset = in.readUnsignedInt();
-            long size = in.readUnsignedInt();
-            Track tr = tracks.get(track);
-            int duration = ((flags & 0x100) != 0) ? 0 : 1;
-            if (tr.mediaType == AVIMediaType.AUDIO) {
-                Format af = tr.format;
-                duration = (int) (size * duration / af.get(FrameSizeKey));
+        }
+    }
+
+    /** Scans the movi lists for sample chunks. This is only done if the file
+     * does not have an index. All chunks are treated as keyframes.
+     * <p>
+     * If the file has a channel, this method is invoked on a background
+     * thread. It only uses positional reads on the channel, and does not
+     * change the state of this object until it is done.
+     */
+    private void scanMovi() throws IOException {
+        int trackCount = tracks.size();
+        SampleTable[] tables = new SampleTable[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            tables[t] = new SampleTable();
+        }
+        FileChannelInputStream cin = channel == null ? null : new FileChannelInputStream(channel, 0);
+        byte[] b = new byte[12];
+        ArrayList<long[]> lists = new ArrayList<long[]>(moviLists);
+        if (aviChunkEnd != -1) {
+            // The RIFF parser only parses the 'RIFF AVI ' chunk, so we look
+            // for the movi lists in the 'RIFF AVIX' chunks here
+            long end = channel != null ? channel.size() : in.length();
+            for (long pos = streamOffset + aviChunkEnd; end == -1 || pos + 12 <= end;) {
+                if (!readHeader(cin, pos, b, 12) || !isType(b, 0, "RIFF") || !isType(b, 8, "AVIX")) {
+                    break;
+                }
+                long riffEnd = pos + 8 + getULONG(b, 4);
+                for (pos += 12; pos + 12 <= riffEnd;) {
+                    if (!readHeader(cin, pos, b, 12)) {
+                        break;
+                    }
+                    long size = getULONG(b, 4);
+                    if (isType(b, 0, "LIST") && isType(b, 8, "movi")) {
+                        lists.add(new long[]{pos + 12 - streamOffset, size - 4});
+                    }
+                    pos += 8 + size + (size & 1);
+                }
+                pos = riffEnd + (riffEnd & 1);
             }
-            Sample s = new Sample(chunkId, duration, offset + moviOffset, size, (flags & 0x10) != 0);
-            s.timeStamp = trReadTimeStamp[track];
-            idx1.add(s);
-            trReadTimeStamp[track] += duration;
-            
-            // special treatment for palette changes
-            // FIXME - We should coalesce multiple palette changes
-            if (s.chunkType.endsWith("pc")) {
-                paletteChange=s;
-            } else {
-                if (paletteChange!=null) s.header=paletteChange;
-                tr.samples.add(s);
+        }
+        for (long[] list : lists) {
+            long pos = streamOffset + list[0];
+            long end = pos + list[1];
+            while (pos + 8 <= end) {
+                if (moviScan != null && moviScan.isCancelled()) {
+                    return;
+                }
+                if (!readHeader(cin, pos, b, 8)) {
+                    break;
+                }
+                long size = getULONG(b, 4);
+                if (isType(b, 0, "LIST")) {
+                    // => descend into 'rec ' lists
+                    pos += 12;
+                    continue;
+                }
+                int track = (b[0] - '0') * 10 + (b[1] - '0');
+                if (track >= 0 && track < trackCount) {
+                    Track tr = tracks.get(track);
+                    int duration = b[2] == 'p' && b[3] == 'c' ? 0 : 1;
+                    if (tr.mediaType == AVIMediaType.AUDIO) {
+                        duration = (int) (size / tr.format.get(FrameSizeKey));
+                    }
+                    tables[track].add(pos + 8, size, duration, false);
+                }
+                pos += 8 + size + (size & 1);
             }
         }
 
-        for (Track tr : tracks) {
-            tr.readIndex = 0;
+        for (int t = 0; t < trackCount; t++) {
+            tables[t].trimToSize();
+            tracks.get(t).samples = tables[t];
+        }
+    }
+
+    /** Reads the header of a chunk at the specified position of the file.
+     * Returns false if the end of the file has been reached. */
+    private boolean readHeader(FileChannelInputStream cin, long pos, byte[] b, int len) throws IOException {
+        if (cin != null) {
+            cin.setPosition(pos);
+            int count = 0;
+            for (int c = 0; count < len && c != -1; count += c) {
+                c = cin.read(b, count, len - count);
+                if (c == -1) {
+                    return false;
+                }
+            }
+        } else {
+            try {
+                in.seek(pos);
+                in.readFully(b, 0, len);
+            } catch (EOFException e) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    /** Returns true if the four bytes at the specified offset are equal
+     * to the specified type. */
+    private static boolean isType(byte[] b, int off, String type) {
+        for (int i = 0; i < 4; i++) {
+            if (b[off + i] != type.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the unsigned little endian int at the specified offset. */
+    private static long getULONG(byte[] b, int off) {
+        return (b[off] & 0xffL) | (b[off + 1] & 0xffL) << 8 | (b[off + 2] & 0xffL) << 16 | (b[off + 3] & 0xffL) << 24;
+    }
+
+    /** Reads the OpenDML super index of a track.
+     * <pre>
+     * typedef struct _avisuperindex {
+     *   WORD   wLongsPerEntry;
+     *       // Must be 4.
+     *   BYTE   bIndexSubType;
+     *   BYTE   bIndexType;
+     *       // Must be AVI_INDEX_OF_INDEXES.
+     *   DWORD  nEntriesInUse;
+     *   DWORD  dwChunkId;
+     *   DWORD  dwReserved[3];
+     *   struct _avisuperindex_entry {
+     *     QWORD qwOffset;
+     *       // Specifies the offset of the ix## chunk in the file.
+     *     DWORD dwSize;
+     *       // Specifies the size of the ix## chunk.
+     *     DWORD dwDuration;
+     *       // Specifies the time span covered by the ix## chunk in stream ticks.
+     *   } aIndex[];
+     * } AVISUPERINDEX;
+     * </pre>
+     */
+    private void readINDX(Track tr, byte[] data) throws IOException {
+        ByteArrayImageInputStream in = new ByteArrayImageInputStream(data, ByteOrder.LITTLE_ENDIAN);
+        int longsPerEntry = in.readUnsignedShort();
+        in.readUnsignedByte(); // bIndexSubType
+        int indexType = in.readUnsignedByte();
+        if (longsPerEntry != 4 || indexType != AVI_INDEX_OF_INDEXES) {
+            return; // => we only support super indexes
+        }
+        int n = in.readInt();
+        in.readInt(); // dwChunkId
+        in.skipBytes(12); // dwReserved
+        n = Math.max(0, Math.min(n, (data.length - 24) / 16));
+        tr.superIndexOffsets = new long[n];
+        tr.superIndexSizes = new int[n];
+        tr.superIndexDurations = new int[n];
+        for (int i = 0; i < n; i++) {
+            tr.superIndexOffsets[i] = in.readLong();
+            tr.superIndexSizes[i] = in.readInt();
+            tr.superIndexDurations[i] = in.readInt();
+        }
+        tr.superIndexCount = n;
+    }
+
+    /** Reads the OpenDML standard index chunks of a track which are
+     * referenced by its super index, and adds the samples to the track.
+     * <pre>
+     * typedef struct _avistdindex {
+     *   WORD   wLongsPerEntry;
+     *       // Must be 2.
+     *   BYTE   bIndexSubType;
+     *   BYTE   bIndexType;
+     *       // Must be AVI_INDEX_OF_CHUNKS.
+     *   DWORD  nEntriesInUse;
+     *   DWORD  dwChunkId;
+     *   QWORD  qwBaseOffset;
+     *       // All dwOffsets in aIndex array are relative to this offset.
+     *   DWORD  dwReserved3;
+     *   struct _avistdindex_entry {
+     *     DWORD dwOffset;
+     *       // Specifies the offset of the chunk data (not of the chunk header).
+     *     DWORD dwSize;
+     *       // Specifies the size of the chunk data. Bit 31 is set if the
+     *       // chunk is not a keyframe.
+     *   } aIndex[];
+     * } AVISTDINDEX;
+     * </pre>
+     */
+    private void readOpenDMLIndex(Track tr) throws IOException {
+        SampleTable table = new SampleTable();
+        byte[] header = new byte[8];
+        for (int i = 0; i < tr.superIndexCount; i++) {
+            // Each standard index chunk is read as a page
+            long position = streamOffset + tr.superIndexOffsets[i];
+            readFully(position, header, 8);
+            ByteBuffer hbuf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            int chunkId = hbuf.getInt(0);
+            long size = hbuf.getInt(4) & 0xffffffffL;
+            if (size < 24 || size > Integer.MAX_VALUE) {
+                throw new IOException("Illegal OpenDML standard index chunk " + intToType(chunkId) + " with size " + size);
+            }
+            byte[] data = new byte[(int) size];
+            readFully(position + 8, data, data.length);
+            ByteArrayImageInputStream d = new ByteArrayImageInputStream(data, ByteOrder.LITTLE_ENDIAN);
+            int longsPerEntry = d.readUnsignedShort();
+            d.readUnsignedByte(); // bIndexSubType
+            int indexType = d.readUnsignedByte();
+            if (longsPerEntry != 2 || indexType != AVI_INDEX_OF_CHUNKS) {
+                throw new IOException("Unsupported OpenDML index type " + indexType + " in chunk " + intToType(chunkId));
+            }
+            int n = Math.min(d.readInt(), (data.length - 24) / 8);
+            d.readInt(); // dwChunkId
+            long baseOffset = d.readLong();
+            d.readInt(); // dwReserved3
+            for (int j = 0; j < n; j++) {
+                long offset = d.readUnsignedInt();
+                long length = d.readUnsignedInt();
+                boolean isKeyframe = (length & 0x80000000L) == 0;
+                length &= 0x7fffffffL;
+                int duration = 1;
+                if (tr.mediaType == AVIMediaType.AUDIO) {
+                    Format af = tr.format;
+                    duration = (int) (length / af.get(FrameSizeKey));
+                }
+                table.add(streamOffset + baseOffset + offset, length, duration, isKeyframe);
+            }
+        }
+        table.trimToSize();
+        tr.samples = table;
     }
 
     public void close() throws IOException {
+        if (moviScan != null) {
+            moviScan.cancel(false);
+        }
         in.close();
     }
 }
@@ -11,13 +11,15 @@
 package org.monte.media.avi;
 
 import org.monte.media.math.Rational;
-import java.util.ArrayList;
+import java.util.Arrays;
 import org.monte.media.Format;
 import org.monte.media.riff.RIFFParser;
+import org.monte.media.io.SpillOutputStream;
 import java.awt.Dimension;
 import java.awt.image.IndexColorModel;
 import java.io.*;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import javax.imageio.stream.*;
 import static java.lang.Math.*;
 import static org.monte.media.FormatKeys.*;
@@ -26,16 +28,26 @@ import static org.monte.media.VideoFormatKeys.*;
 
 /**
  * Provides low-level support for writing already encoded audio and
- * video samples into an AVI 1.0 file.
+ * video samples into an AVI 2.0 (OpenDML) file.
  * <p>
- * The length of an AVI 1.0 file is limited to 1 GB.
- * This class supports lengths of up to 4 GB, but such files may not work on
- * all players.
+ * The length of an AVI 1.0 file is limited to 1 GB. This class writes the
+ * first gigabyte of the movie into a 'RIFF AVI ' chunk, which has an 'idx1'
+ * index, so that the file can be read by AVI 1.0 players. The rest of the
+ * movie is written into 'RIFF AVIX' extension chunks of up to 1 GB each.
+ * <p>
+ * All samples are indexed by OpenDML 'ix##' standard index chunks, which are
+ * written into the 'movi' lists while the movie is being written. They are
+ * referenced by an 'indx' super index chunk for each track, which is
+ * reserved in the header. Thus the memory usage of the index does not grow
+ * with the length of the movie.
  * <p>
  * For detailed information about the AVI 1.0 file format see:<br>
  * <a href="http://msdn.microsoft.com/en-us/library/ms779636.aspx">msdn.microsoft.com AVI RIFF</a><br>
  * <a href="http://www.microsoft.com/whdc/archive/fourcc.mspx">www.microsoft.com FOURCC for Video Compression</a><br>
  * <a href="http://www.saettler.com/RIFFMCI/riffmci.html">www.saettler.com RIFF</a><br>
+ * <p>
+ * For detailed information about the AVI 2.0 file format see:<br>
+ * <a href="http://www.the-labs.com/Video/odmlff2-avidef.pdf">OpenDML AVI File Format Extensions</a><br>
  *
  * @author Werner Randelshofer
  * @version $Id: AVIOutputStream.java 137 2011-12-28 09:19:37Z werner $
@@ -65,7 +77,41 @@ public class AVIOutputStream extends AbstractAVIStream {
      * This chunk holds the AVI Main Header.
      */
     protected FixedSizeDataChunk avihChunk;
-    ArrayList<Sample> idx1 = new ArrayList<Sample>();
+    /**
+     * This chunk holds the OpenDML Extended AVI Header.
+     */
+    protected FixedSizeDataChunk dmlhChunk;
+    /**
+     * This chunk holds the movi list which is currently being written. This
+     * is either the 'RIFF AVI ' chunk or a 'RIFF AVIX' chunk.
+     */
+    protected CompositeChunk riffChunk;
+    /** The maximal number of entries in the super index of a track. */
+    protected final static int SUPER_INDEX_CAPACITY = 1024;
+    /** The maximal number of entries in a standard index chunk. Together
+     * with the capacity of the super index, this limits a track to 16M
+     * sample chunks. */
+    protected final static int STANDARD_INDEX_CAPACITY = 16384;
+    /** The maximal size of a RIFF chunk. */
+    private long riffSizeLimit = 1L << 30;
+    /** The number of chunks in the current movi list. */
+    private long moviChunkCount;
+    /** The number of chunks in the movi list of the 'RIFF AVI ' chunk. */
+    private long aviChunkCount;
+    /** The number of samples of the first track in the 'RIFF AVI ' chunk. */
+    private long aviFrameCount;
+    /** The entries of the idx1 index. */
+    private SpillOutputStream idx1Table;
+    /** The idx1 entries which have not been written into the spill stream
+     * yet, 16 bytes per entry. */
+    private byte[] idx1Pending = new byte[16 * 16];
+    /** The number of entries in idx1Pending. */
+    private int idx1PendingCount;
+    /** The number of entries which have been added to the idx1 index,
+     * including the pending entries. */
+    private long idx1EntryCount;
+    /** The channel of the output file, or null if the output is not a file. */
+    private final FileChannel channel;
 
     /**
      * Creates a new instance.
@@ -76,7 +122,9 @@ public class AVIOutputStream extends AbstractAVIStream {
         if (file.exists()) {
             file.delete();
         }
-        this.out = new FileImageOutputStream(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        this.out = new FileImageOutputStream(raf);
+        this.channel = raf.getChannel();
         out.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         this.streamOffset = 0;
     }
@@ -88,6 +136,7 @@ public class AVIOutputStream extends AbstractAVIStream {
      */
     public AVIOutputStream(ImageOutputStream out) throws IOException {
         this.out = out;
+        this.channel = null;
         this.streamOffset = out.getStreamPosition();
         out.setByteOrder(ByteOrder.LITTLE_ENDIAN);
     }
@@ -273,23 +322,20 @@ public class AVIOutputStream extends AbstractAVIStream {
         if (!(tr instanceof VideoTrack)) {
             throw new IllegalArgumentException("Error: track " + track + " is not a video track.");
         }
-        if (!isKeyframe && tr.samples.isEmpty()) {
+        if (!isKeyframe && tr.chunkCount == 0) {
             throw new IllegalStateException("The first sample in a track must be a keyframe.");
         }
 
         VideoTrack vt = (VideoTrack) tr;
         tr.flags |= STRH_FLAG_VIDEO_PALETTE_CHANGES;
 
-        DataChunk paletteChangeChunk = new DataChunk(vt.twoCC + "pc");
+        DataChunk paletteChangeChunk = addSampleChunk(vt.twoCC + "pc", len);
         long offset = getRelativeStreamPosition();
         ImageOutputStream pOut = paletteChangeChunk.getOutputStream();
         pOut.write(data, off, len);
-        moviChunk.add(paletteChangeChunk);
         paletteChangeChunk.finish();
         long length = getRelativeStreamPosition() - offset;
-        Sample s = new Sample(paletteChangeChunk.chunkType, 0, offset, length, isKeyframe);
-        tr.addSample(s);
-        idx1.add(s);
+        addSample(tr, paletteChangeChunk.chunkType, 0, offset, length, isKeyframe);
         //tr.length+=0;  Length is not affected by this chunk!
         offset = getRelativeStreamPosition();
     }
@@ -345,7 +391,7 @@ public class AVIOutputStream extends AbstractAVIStream {
 
         Track tr = tracks.get(track);
 
-        if (!isKeyframe && tr.samples.isEmpty()) {
+        if (!isKeyframe && tr.chunkCount == 0) {
             throw new IllegalStateException("The first sample in a track must be a keyframe.");
         }
 
@@ -354,34 +400,34 @@ public class AVIOutputStream extends AbstractAVIStream {
         if (isKeyframe && 0 != (tr.flags & STRH_FLAG_VIDEO_PALETTE_CHANGES)) {
             // If a keyframe sample is immediately preceeded by a palette change
             // we can raise the palette change to a keyframe.
-            if (tr.samples.size() > 0) {
-                Sample s = tr.samples.get(tr.samples.size() - 1);
-                if (s.chunkType.endsWith("pc")) {
-                    s.isKeyframe = true;
-                }
+            if (tr.idx1PaletteChange != -1) {
+                int i = (int) (tr.idx1PaletteChange - (idx1EntryCount - idx1PendingCount));
+                idx1Pending[i * 16 + 4] |= 0x10; // AVIIF_KEYFRAME
             }
             isKeyframe = false;
         }
 
 
-        DataChunk dc = new DataChunk(tr.getSampleChunkFourCC(isKeyframe));
-        moviChunk.add(dc);
+        DataChunk dc = addSampleChunk(tr.getSampleChunkFourCC(isKeyframe), -1);
         ImageOutputStream mdatOut = dc.getOutputStream();
         long offset = getRelativeStreamPosition();
-        byte[] buf = new byte[512];
-        int len;
-        while ((len = in.read(buf)) != -1) {
-            mdatOut.write(buf, 0, len);
+        if (in instanceof FileInputStream) {
+            // Transfer the rest of the file without copying it into the heap
+            FileChannel src = ((FileInputStream) in).getChannel();
+            long position = src.position();
+            dc.transferFrom(src, position, src.size() - position, channel);
+            src.position(src.size());
+        } else {
+            byte[] buf = new byte[512];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                mdatOut.write(buf, 0, len);
+            }
         }
         long length = getRelativeStreamPosition() - offset;
         dc.finish();
-        Sample s = new Sample(dc.chunkType, 1, offset, length, isKeyframe);
-        tr.addSample(s);
-        idx1.add(s);
+        addSample(tr, dc.chunkType, 1, offset, length, isKeyframe);
         tr.length++;
-        if (getRelativeStreamPosition() > 1L << 32) {
-            throw new IOException("AVI file is larger than 4 GB");
-        }
     }
 
     /**
@@ -408,7 +454,7 @@ public class AVIOutputStream extends AbstractAVIStream {
         Track tr = tracks.get(track);
 
         // The first sample in a track is always a key frame
-        if (!isKeyframe && tr.samples.isEmpty()) {
+        if (!isKeyframe && tr.chunkCount == 0) {
             throw new IllegalStateException("The first sample in a track must be a keyframe.");
         }
 
@@ -418,19 +464,13 @@ public class AVIOutputStream extends AbstractAVIStream {
             throw new IllegalStateException("Only palette changes can be marked as keyframe.");
         }
 
-        DataChunk dc = new DataChunk(tr.getSampleChunkFourCC(isKeyframe), len);
-        moviChunk.add(dc);
+        DataChunk dc = addSampleChunk(tr.getSampleChunkFourCC(isKeyframe), len);
         ImageOutputStream mdatOut = dc.getOutputStream();
         long offset = getRelativeStreamPosition();
         mdatOut.write(data, off, len);
         long length = getRelativeStreamPosition() - offset;
         dc.finish();
-        Sample s = new Sample(dc.chunkType, 1, offset, length, isKeyframe);
-        tr.addSample(s);
-        idx1.add(s);
-        if (getRelativeStreamPosition() > 1L << 32) {
-            throw new IOException("AVI file is larger than 4 GB");
-        }
+        addSample(tr, dc.chunkType, 1, offset, length, isKeyframe);
     }
 
     /**
@@ -455,20 +495,14 @@ public class AVIOutputStream extends AbstractAVIStream {
         ensureStarted();
         Track tr = tracks.get(track);
         if (tr.mediaType == AVIMediaType.AUDIO) {
-            DataChunk dc = new DataChunk(tr.getSampleChunkFourCC(isKeyframe), len);
-            moviChunk.add(dc);
+            DataChunk dc = addSampleChunk(tr.getSampleChunkFourCC(isKeyframe), len);
             ImageOutputStream mdatOut = dc.getOutputStream();
             long offset = getRelativeStreamPosition();
             mdatOut.write(data, off, len);
             long length = getRelativeStreamPosition() - offset;
             dc.finish();
-            Sample s = new Sample(dc.chunkType, sampleCount, offset, length, isKeyframe | tr.samples.isEmpty());
-            tr.addSample(s);
-            idx1.add(s);
+            addSample(tr, dc.chunkType, sampleCount, offset, length, isKeyframe | tr.chunkCount == 0);
             tr.length += sampleCount;
-            if (getRelativeStreamPosition() > 1L << 32) {
-                throw new IOException("AVI file is larger than 4 GB");
-            }
         } else {
             for (int i = 0; i < sampleCount; i++) {
                 writeSample(track, data, off, len / sampleCount, isKeyframe);
@@ -477,15 +511,213 @@ public class AVIOutputStream extends AbstractAVIStream {
         }
     }
 
+    /**
+     * Writes already encoded samples from a file channel into a track.
+     * <p>
+     * The samples are written into a single chunk. If this stream has been
+     * created with a file, the data is transferred from channel to channel
+     * with {@code FileChannel.transferTo}, without copying it into the Java
+     * heap. This is used for copying samples from one AVI file into another,
+     * see {@link AVIReader#transferTo}.
+     * <p>
+     * This method does not inspect the contents of the data. The
+     * contents has to match the format and dimensions of the media in this
+     * track.
+     *
+     * @param track The track index.
+     * @param sampleCount The number of samples. This is 1 for video tracks.
+     * @param in The channel which holds the sample data.
+     * @param position The position of the data in the channel.
+     * @param length The number of bytes to write.
+     * @param isKeyframe Whether the samples are sync samples.
+     *
+     * @throws IOException if writing the sample data failed.
+     */
+    public void writeSamples(int track, int sampleCount, FileChannel in, long position, long length, boolean isKeyframe) throws IOException {
+        ensureStarted();
+        Track tr = tracks.get(track);
+        boolean isAudio = tr.mediaType == AVIMediaType.AUDIO;
+        if (isAudio) {
+            isKeyframe |= tr.chunkCount == 0;
+        } else {
+            if (!isKeyframe && tr.chunkCount == 0) {
+                throw new IllegalStateException("The first sample in a track must be a keyframe.");
+            }
+            if (isKeyframe && 0 != (tr.flags & STRH_FLAG_VIDEO_PALETTE_CHANGES)) {
+                throw new IllegalStateException("Only palette changes can be marked as keyframe.");
+            }
+        }
+
+        DataChunk dc = addSampleChunk(tr.getSampleChunkFourCC(isKeyframe), length);
+        long offset = getRelativeStreamPosition();
+        dc.transferFrom(in, position, length, channel);
+        dc.finish();
+        addSample(tr, dc.chunkType, isAudio ? sampleCount : 1, offset, length, isKeyframe);
+        if (isAudio) {
+            tr.length += sampleCount;
+        }
+    }
+
+    /**
+     * Adds a new data chunk for a sample to the current movi list.
+     * <p>
+     * If the chunk does not fit into the current RIFF chunk, the RIFF chunk
+     * is finished, and a new 'RIFF AVIX' chunk is started.
+     *
+     * @param chunkType The type of the chunk.
+     * @param dataSize The size of the chunk data, or -1 if not known.
+     * @return The data chunk.
+     */
+    protected DataChunk addSampleChunk(String chunkType, long dataSize) throws IOException {
+        if (moviChunkCount > 0) {
+            long riffSize = getRelativeStreamPosition() - riffChunk.offset + 8 + max(0, dataSize);
+            for (Track tr : tracks) {
+                riffSize += 32 + tr.ixCount * 8L; // pending ix## chunk
+            }
+            if (riffChunk == aviChunk) {
+                riffSize += 8 + (aviChunkCount + 1) * 16; // idx1 chunk
+            }
+            if (riffSize > riffSizeLimit) {
+                finishRIFF();
+                riffChunk = new CompositeChunk("RIFF", "AVIX");
+                moviChunk = new CompositeChunk("LIST", "movi");
+                riffChunk.add(moviChunk);
+                moviChunkCount = 0;
+            }
+        }
+        DataChunk dc = new DataChunk(chunkType, dataSize);
+        moviChunk.add(dc);
+        return dc;
+    }
+
+    /**
+     * Adds a sample to the track and to the OpenDML standard index of the
+     * track. The standard index chunk is written into the movi list when it
+     * is full.
+     * <p>
+     * Palette changes are not included in the OpenDML index, because the
+     * index does not distinguish them from frames. They are only included in
+     * the idx1 index.
+     *
+     * @param tr The track.
+     * @param chunkType The chunk type of the data chunk.
+     * @param duration The number of media samples in the data chunk.
+     * @param offset The offset of the data chunk data.
+     * @param length The length of the data chunk data. The data chunk must
+     * be finished.
+     * @param isKeyframe Whether the sample is a key frame.
+     */
+    protected void addSample(Track tr, String chunkType, int duration, long offset, long length, boolean isKeyframe) throws IOException {
+        boolean isPaletteChange = chunkType.endsWith("pc");
+        tr.chunkCount++;
+        tr.chunkDuration += duration;
+        tr.largestChunkSize = max(tr.largestChunkSize, length);
+        if (tr.uniformChunkSize == -1) {
+            tr.uniformChunkSize = length;
+        } else if (tr.uniformChunkSize != length) {
+            tr.uniformChunkSize = 0;
+        }
+        tr.idx1PaletteChange = -1;
+        tr.length++;
+
+        moviChunkCount++;
+        if (riffChunk == aviChunk) {
+            aviChunkCount++;
+            if (isPaletteChange) {
+                tr.idx1PaletteChange = idx1EntryCount;
+            }
+            addIDX1Entry(chunkType, offset, length, isKeyframe);
+        }
+        if (!isPaletteChange) {
+            tr.ixOffsets[tr.ixCount] = (int) (offset - moviChunk.offset);
+            tr.ixSizes[tr.ixCount] = (int) length
+                    | (isKeyframe || tr.mediaType == AVIMediaType.AUDIO ? 0 : 0x80000000);
+            tr.ixCount++;
+            tr.ixDuration += duration;
+            if (tr.ixCount == tr.ixOffsets.length) {
+                writeStandardIndex(tr);
+            }
+        }
+    }
+
+    /** Writes the pending entries of the OpenDML standard index of the track
+     * into an 'ix##' chunk, and adds the chunk to the super index.
+     */
+    private void writeStandardIndex(Track tr) throws IOException {
+        if (tr.ixCount == 0) {
+            return;
+        }
+        if (tr.superIndexCount == tr.superIndexOffsets.length) {
+            throw new IOException("The super index of track " + tracks.indexOf(tr) + " is full.");
+        }
+
+        /* Write Standard Index Chunk
+         * -------------
+        typedef struct _avistdindex {
+        FOURCC  fcc;
+        DWORD   cb;
+        WORD    wLongsPerEntry;
+        BYTE    bIndexSubType;
+        BYTE    bIndexType;
+        DWORD   nEntriesInUse;
+        DWORD   dwChunkId;
+        QWORD   qwBaseOffset;
+        DWORD   dwReserved3;
+        struct _avistdindex_entry {
+        DWORD dwOffset;
+        DWORD dwSize;
+        } aIndex[];
+        } AVISTDINDEX;
+         */
+        DataChunk ixChunk = new DataChunk("ix" + tr.twoCC, 24 + tr.ixCount * 8L);
+        moviChunk.add(ixChunk);
+        ImageOutputStream d = ixChunk.getOutputStream();
+        d.writeShort(2); // wLongsPerEntry
+        d.writeByte(0); // bIndexSubType
+        d.writeByte(AVI_INDEX_OF_CHUNKS); // bIndexType
+        d.writeInt(tr.ixCount); // nEntriesInUse
+        d.writeInt(typeToInt(tr.getSampleChunkFourCC(false))); // dwChunkId
+        d.writeLong(moviChunk.offset); // qwBaseOffset
+        // Specifies the offset of the movi list. The entries are offsets
+        // relative to this offset.
+        d.writeInt(0); // dwReserved3
+        for (int i = 0; i < tr.ixCount; i++) {
+            d.writeInt(tr.ixOffsets[i]); // dwOffset
+            // Specifies the offset of the chunk data (not of the chunk header).
+            d.writeInt(tr.ixSizes[i]); // dwSize
+            // Specifies the size of the chunk data. Bit 31 is set if the
+            // chunk is not a keyframe.
+        }
+        ixChunk.finish();
+
+        int i = tr.superIndexCount++;
+        tr.superIndexOffsets[i] = ixChunk.offset;
+        tr.superIndexSizes[i] = (int) ixChunk.size();
+        tr.superIndexDurations[i] = (int) tr.ixDuration;
+        tr.ixCount = 0;
+        tr.ixDuration = 0;
+    }
+
+    /** Writes the pending standard indexes and finishes the current RIFF
+     * chunk. If the current RIFF chunk is the 'RIFF AVI ' chunk, an idx1
+     * chunk is written as well.
+     */
+    private void finishRIFF() throws IOException {
+        for (Track tr : tracks) {
+            writeStandardIndex(tr);
+        }
+        moviChunk.finish();
+        if (riffChunk == aviChunk) {
+            writeIDX1();
+            aviFrameCount = tracks.get(0).chunkCount;
+        }
+        riffChunk.finish();
+    }
+
     /** Returns the duration of the track in media time scale. */
     public long getMediaDuration(int track) {
         Track tr = tracks.get(track);
-        long duration = tr.startTime;
-        if (!tr.samples.isEmpty()) {
-            Sample s = tr.samples.get(tr.samples.size() - 1);
-            duration += s.timeStamp + s.duration;
-        }
-        return duration;
+        return tr.startTime + tr.chunkDuration;
     }
 
     /**
@@ -494,12 +726,21 @@ public class AVIOutputStream extends AbstractAVIStream {
      * @exception IOException if an I/O error has occurred
      */
     public void close() throws IOException {
-        if (state == States.STARTED) {
-            finish();
-        }
-        if (state != States.CLOSED) {
-            out.close();
-            state = States.CLOSED;
+        try {
+            if (state == States.STARTED) {
+                finish();
+            }
+        } finally {
+            if (state != States.CLOSED) {
+                try {
+                    out.close();
+                } finally {
+                    if (idx1Table != null) {
+                        idx1Table.close();
+                    }
+                    state = States.CLOSED;
+                }
+            }
         }
     }
 
@@ -515,7 +756,7 @@ public class AVIOutputStream extends AbstractAVIStream {
     public void finish() throws IOException {
         ensureOpen();
         if (state != States.FINISHED) {
-            moviChunk.finish();
+            finishRIFF();
             writeEpilog();
             state = States.FINISHED;
         }
@@ -533,28 +774,56 @@ public class AVIOutputStream extends AbstractAVIStream {
     /** Returns true if the limit for media samples has been reached.
      * If this limit is reached, no more samples should be added to the movie.
      * <p>
-     * AVI 1.0 files have a file size limit of 2 GB. This method returns true
-     * if a file size of 1.8 GB has been reached.
+     * AVI 2.0 files do not have a practical file size limit. This method
+     * returns true if the super index of a track is almost full. With the
+     * default settings this happens after more than 8 million samples.
      */
     public boolean isDataLimitReached() {
-        try {
-            return getRelativeStreamPosition() > (long) (1.8 * 1024 * 1024 * 1024);
-        } catch (IOException ex) {
-            return true;
+        for (Track tr : tracks) {
+            if (tr.superIndexOffsets != null
+                    && tr.superIndexCount >= tr.superIndexOffsets.length - 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Sets the maximal size of a RIFF chunk. The default value is 1 GB,
+     * as recommended by the OpenDML specification. The value must be set
+     * before the first sample is written.
+     */
+    public void setRIFFSizeLimit(long newValue) {
+        if (newValue < 1024 || newValue > 0xffffffffL) {
+            throw new IllegalArgumentException("RIFF size limit must be between 1 KB and 4 GB: " + newValue);
         }
+        riffSizeLimit = newValue;
+    }
+
+    /** Returns the maximal size of a RIFF chunk. */
+    public long getRIFFSizeLimit() {
+        return riffSizeLimit;
     }
 
     private void writeProlog() throws IOException {
         // The file has the following structure:
         //
         // .RIFF AVI
-        // ..avih (AVI Header Chunk)
-        // ..LIST strl (for each track)
-        // ...strh (Stream Header Chunk)
-        // ...strf (Stream Format Chunk)
+        // ..LIST hdrl
+        // ...avih (AVI Header Chunk)
+        // ...LIST strl (for each track)
+        // ....strh (Stream Header Chunk)
+        // ....strf (Stream Format Chunk)
+        // ....indx (OpenDML Super Index Chunk)
+        // ...LIST odml
+        // ....dmlh (OpenDML Extended AVI Header Chunk)
         // ..LIST movi
         // ...00dc (Compressed video data chunk in Track 00, repeated for each frame)
-        // ..idx1 (List of video data chunks and their location in the file)
+        // ...ix00 (OpenDML Standard Index Chunk of Track 00, repeated as needed)
+        // ..idx1 (List of data chunks in the movi list and their location in the file)
+        // .RIFF AVIX (OpenDML extension, repeated as needed)
+        // ..LIST movi
+        // ...00dc
+        // ...ix00
 
         // The RIFF AVI Chunk holds the complete movie
         aviChunk = new CompositeChunk("RIFF", "AVI ");
@@ -579,19 +848,48 @@ public class AVIOutputStream extends AbstractAVIStream {
             tr.strfChunk = new FixedSizeDataChunk("strf", tr.getSTRFChunkSize());
             tr.strfChunk.seekToEndOfChunk();
             strlChunk.add(tr.strfChunk);
+
+            tr.indxChunk = new FixedSizeDataChunk("indx", 24 + SUPER_INDEX_CAPACITY * 16);
+            tr.indxChunk.seekToEndOfChunk();
+            strlChunk.add(tr.indxChunk);
+
+            tr.superIndexOffsets = new long[SUPER_INDEX_CAPACITY];
+            tr.superIndexSizes = new int[SUPER_INDEX_CAPACITY];
+            tr.superIndexDurations = new int[SUPER_INDEX_CAPACITY];
+            tr.superIndexCount = 0;
+            tr.ixOffsets = new int[STANDARD_INDEX_CAPACITY];
+            tr.ixSizes = new int[STANDARD_INDEX_CAPACITY];
+            tr.ixCount = 0;
+            tr.ixDuration = 0;
         }
 
+        // Write empty OpenDML Extended AVI Header Chunk - we fill the data in later
+        CompositeChunk odmlChunk = new CompositeChunk("LIST", "odml");
+        hdrlChunk.add(odmlChunk);
+        dmlhChunk = new FixedSizeDataChunk("dmlh", 248);
+        dmlhChunk.seekToEndOfChunk();
+        odmlChunk.add(dmlhChunk);
+
         moviChunk = new CompositeChunk("LIST", "movi");
         aviChunk.add(moviChunk);
+        riffChunk = aviChunk;
+        moviChunkCount = 0;
+        aviChunkCount = 0;
+        idx1Table = new SpillOutputStream();
 
 
     }
 
-    private void writeEpilog() throws IOException {
-
-        ImageOutputStream d;
-
-        /* Create Idx1 Chunk and write data
+    /** Adds an entry for the specified sample chunk to the idx1 index.
+     * <p>
+     * The entries are written into a spill stream, so that the index does not
+     * grow the heap. A palette change is held back until the next sample of
+     * its track has been written, because it may still be raised to a key frame.
+     * All entries which follow it are held back as well, so that the entries
+     * stay in the order of their offsets.
+     */
+    private void addIDX1Entry(String chunkType, long offset, long length, boolean isKeyframe) throws IOException {
+        /* Write Idx1 Entry
          * -------------
         typedef struct _avioldindex {
         FOURCC  fcc;
@@ -604,57 +902,96 @@ public class AVIOutputStream extends AbstractAVIStream {
         } aIndex[];
         } AVIOLDINDEX;
          */
-        {
-            DataChunk idx1Chunk = new DataChunk("idx1");
-            aviChunk.add(idx1Chunk);
-            d = idx1Chunk.getOutputStream();
-            long moviListOffset = moviChunk.offset + 16;
+        if (idx1PendingCount * 16 == idx1Pending.length) {
+            idx1Pending = Arrays.copyOf(idx1Pending, idx1Pending.length * 2);
+        }
+        byte[] b = idx1Pending;
+        int off = idx1PendingCount * 16;
+        putInt(b, off, typeToInt(chunkType)); // dwChunkId
+        // Specifies a FOURCC that identifies a stream in the AVI file. The
+        // FOURCC must have the form 'xxyy' where xx is the stream number and yy
+        // is a two-character code that identifies the contents of the stream:
+        //
+        // Two-character code   Description
+        //  db                  Uncompressed video frame
+        //  dc                  Compressed video frame
+        //  pc                  Palette change
+        //  wb                  Audio data
+
+        putInt(b, off + 4, (chunkType.endsWith("pc") ? 0x100 : 0x0)//
+                | (isKeyframe ? 0x10 : 0x0)); // flags
+        // Specifies a bitwise combination of zero or more of the following
+        // flags:
+        //
+        // Value    Name            Description
+        // 0x10     AVIIF_KEYFRAME  The data chunk is a key frame.
+        // 0x1      AVIIF_LIST      The data chunk is a 'rec ' list.
+        // 0x100    AVIIF_NO_TIME   The data chunk does not affect the timing of the
+        //                          stream. For example, this flag should be set for
+        //                          palette changes.
+
+        putInt(b, off + 8, (int) (offset - (moviChunk.offset + 16))); // dwOffset
+        // Specifies the location of the data chunk in the file. The value
+        // should be specified as an offset, in bytes, from the startTime of the
+        // 'movi' list; however, in some AVI files it is given as an offset from
+        // the startTime of the file.
+
+        putInt(b, off + 12, (int) (length)); // dwSize
+        // Specifies the size of the data chunk, in bytes.
+
+        idx1PendingCount++;
+        idx1EntryCount++;
+
+        // Write the entries up to the first palette change which is held back
+        long held = idx1EntryCount;
+        for (Track tr : tracks) {
+            if (tr.idx1PaletteChange != -1) {
+                held = min(held, tr.idx1PaletteChange);
+            }
+        }
+        int count = (int) (held - (idx1EntryCount - idx1PendingCount));
+        if (count > 0) {
+            writeIDX1Entries(count);
+        }
+    }
 
-            {
-                double movieTime = 0;
-                int nTracks = tracks.size();
-                int[] trackSampleIndex = new int[nTracks];
-                long[] trackSampleCount = new long[nTracks];
-                for (Sample s : idx1) {
-
-                    d.writeInt(typeToInt(s.chunkType)); // dwChunkId
-                    // Specifies a FOURCC that identifies a stream in the AVI file. The
-                    // FOURCC must have the form 'xxyy' where xx is the stream number and yy
-                    // is a two-character code that identifies the contents of the stream:
-                    //
-                    // Two-character code   Description
-                    //  db                  Uncompressed video frame
-                    //  dc                  Compressed video frame
-                    //  header                  Palette change
-                    //  wb                  Audio data
-
-                    d.writeInt((s.chunkType.endsWith("pc") ? 0x100 : 0x0)//
-                            | (s.isKeyframe ? 0x10 : 0x0)); // flags
-                    // Specifies a bitwise combination of zero or more of the following
-                    // flags:
-                    //
-                    // Value    Name            Description
-                    // 0x10     AVIIF_KEYFRAME  The data chunk is a key frame.
-                    // 0x1      AVIIF_LIST      The data chunk is a 'rec ' list.
-                    // 0x100    AVIIF_NO_TIME   The data chunk does not affect the timing of the
-                    //                          stream. For example, this flag should be set for
-                    //                          palette changes.
-
-                    d.writeInt((int) (s.offset - moviListOffset)); // dwOffset
-                    // Specifies the location of the data chunk in the file. The value
-                    // should be specified as an offset, in bytes, from the startTime of the
-                    // 'movi' list; however, in some AVI files it is given as an offset from
-                    // the startTime of the file.
-
-                    d.writeInt((int) (s.length)); // dwSize
-                    // Specifies the size of the data chunk, in bytes.
-                }
+    /** Writes the first pending idx1 entries into the spill stream. */
+    private void writeIDX1Entries(int count) throws IOException {
+        idx1Table.write(idx1Pending, 0, count * 16);
+        idx1PendingCount -= count;
+        System.arraycopy(idx1Pending, count * 16, idx1Pending, 0, idx1PendingCount * 16);
+    }
 
-            }
+    /** Puts an int in little endian byte order into a byte array. */
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
 
-            idx1Chunk.finish();
+    /** Writes the idx1 chunk into the 'RIFF AVI ' chunk. The idx1 chunk
+     * lists all data chunks in the movi list of the 'RIFF AVI ' chunk.
+     * The entries are copied from the spill stream.
+     */
+    private void writeIDX1() throws IOException {
+        writeIDX1Entries(idx1PendingCount);
+        for (Track tr : tracks) {
+            tr.idx1PaletteChange = -1;
         }
 
+        DataChunk idx1Chunk = new DataChunk("idx1", idx1Table.size());
+        aviChunk.add(idx1Chunk);
+        idx1Table.writeTo(idx1Chunk.getOutputStream());
+        idx1Chunk.finish();
+        idx1Table.close();
+    }
+
+    private void writeEpilog() throws IOException {
+
+        ImageOutputStream d;
+        long end = getRelativeStreamPosition();
+
         /* Write Data into AVI Main Header Chunk
          * -------------
          * The AVIMAINHEADER structure defines global information in an AVI file.
@@ -680,18 +1017,8 @@ public class AVIOutputStream extends AbstractAVIStream {
 
             // compute largest buffer size
             long largestBufferSize = 0;
-            long duration = 0;
             for (Track tr : tracks) {
-                long trackDuration = 0;
-                for (Sample s : tr.samples) {
-                    trackDuration += s.duration;
-                }
-                duration = max(duration, trackDuration);
-                for (Sample s : tr.samples) {
-                    if (s.length > largestBufferSize) {
-                        largestBufferSize = s.length;
-                    }
-                }
+                largestBufferSize = max(largestBufferSize, tr.largestChunkSize);
             }
 
 
@@ -740,8 +1067,10 @@ public class AVIOutputStream extends AbstractAVIStream {
             for (Track t : tracks) {
             dwTotalFrames += t.samples.size();
             }*/
-            d.writeInt(tt.samples.size()); // dwTotalFrames
-            // Specifies the total number of frames of data in the file.
+            d.writeInt((int) aviFrameCount); // dwTotalFrames
+            // Specifies the total number of frames of data in the 'RIFF AVI '
+            // chunk. The total number of frames in the file is specified in
+            // the dmlh chunk.
 
             d.writeInt(0); // initialFrames
             // Specifies the initial frame for interleaved files. Noninterleaved
@@ -845,21 +1174,8 @@ public class AVIOutputStream extends AbstractAVIStream {
             d.writeInt((int) tr.startTime); // startTime: starting time of stream
             d.writeInt((int) tr.length); // dwLength: length of stream ! WRONG
 
-            long dwSuggestedBufferSize = 0;
-            long dwSampleSize = -1; // => -1 indicates unknown
-            for (Sample s : tr.samples) {
-                if (s.length > dwSuggestedBufferSize) {
-                    dwSuggestedBufferSize = s.length;
-                }
-                if (dwSampleSize == -1) {
-                    dwSampleSize = s.length;
-                } else if (dwSampleSize != s.length) {
-                    dwSampleSize = 0;
-                }
-            }
-            if (dwSampleSize == -1) {
-                dwSampleSize = 0;
-            }
+            long dwSuggestedBufferSize = tr.largestChunkSize;
+            long dwSampleSize = max(0, tr.uniformChunkSize);
 
             d.writeInt((int) dwSuggestedBufferSize); // dwSuggestedBufferSize
             // Specifies how large a buffer should be used to read this stream.
@@ -1014,7 +1330,61 @@ public class AVIOutputStream extends AbstractAVIStream {
             }
         }
 
+        for (Track tr : tracks) {
+            /* Write Data into OpenDML Super Index Chunk
+             * -------------
+            typedef struct _avisuperindex {
+            FOURCC  fcc;
+            DWORD   cb;
+            WORD    wLongsPerEntry;
+            BYTE    bIndexSubType;
+            BYTE    bIndexType;
+            DWORD   nEntriesInUse;
+            DWORD   dwChunkId;
+            DWORD   dwReserved[3];
+            struct _avisuperindex_entry {
+            QWORD qwOffset;
+            DWORD dwSize;
+            DWORD dwDuration;
+            } aIndex[];
+            } AVISUPERINDEX;
+             */
+            tr.indxChunk.seekToStartOfData();
+            d = tr.indxChunk.getOutputStream();
+            d.writeShort(4); // wLongsPerEntry
+            d.writeByte(0); // bIndexSubType
+            d.writeByte(AVI_INDEX_OF_INDEXES); // bIndexType
+            d.writeInt(tr.superIndexCount); // nEntriesInUse
+            d.writeInt(typeToInt(tr.getSampleChunkFourCC(false))); // dwChunkId
+            d.writeInt(0); // dwReserved[0]
+            d.writeInt(0); // dwReserved[1]
+            d.writeInt(0); // dwReserved[2]
+            for (int i = 0; i < tr.superIndexCount; i++) {
+                d.writeLong(tr.superIndexOffsets[i]); // qwOffset
+                // Specifies the offset of the ix## chunk.
+                d.writeInt(tr.superIndexSizes[i]); // dwSize
+                // Specifies the size of the ix## chunk.
+                d.writeInt(tr.superIndexDurations[i]); // dwDuration
+                // Specifies the time span covered by the ix## chunk in
+                // stream ticks.
+            }
+        }
+
+        /* Write Data into OpenDML Extended AVI Header Chunk
+         * -------------
+        typedef struct {
+        DWORD dwTotalFrames;
+        DWORD dwFuture[61];
+        } ODMLExtendedAVIHeader;
+         */
+        {
+            dmlhChunk.seekToStartOfData();
+            d = dmlhChunk.getOutputStream();
+            d.writeInt((int) tracks.get(0).chunkCount); // dwTotalFrames
+            // Specifies the total number of frames in the file.
+        }
+
         // -----------------
-        aviChunk.finish();
+        seekRelative(end);
     }
 }
@@ -15,8 +15,14 @@ import org.monte.media.math.Rational;
 import org.monte.media.Format;
 import org.monte.media.Buffer;
 import org.monte.media.MovieReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.imageio.stream.ImageInputStream;
 import static java.lang.Math.*;
 import static org.monte.media.FormatKeys.*;
@@ -28,6 +34,15 @@ import static org.monte.media.BufferFlag.*;
 /**
  * Provides high-level support for decoding and reading audio and video samples
  * from an AVI 1.0 file.
+ * <p>
+ * If the reader is created with a file, samples are read with positional
+ * reads from the file channel. A sample can also be read into a
+ * {@code ByteBuffer}: if the data of the buffer passed to {@link #read}
+ * is a {@code ByteBuffer}, it is filled instead of a byte array, and it is
+ * reused if it is large enough. With a direct byte buffer, the sample data
+ * does not pass through the Java heap. The movi region of the file can be
+ * mapped into memory with {@link #setMemoryMapped}, and samples can be copied
+ * into another AVI file with {@link #transferTo}.
  *
  * @author Werner Randelshofer
  * @version 1.0 2011-08-24 Created.
@@ -36,6 +51,10 @@ public class AVIReader extends AVIInputStream implements MovieReader {
 
     public final static Format AVI = new Format(MediaTypeKey,MediaType.FILE,MimeTypeKey,MIME_AVI);
     private Rational movieDuration = null;
+    /** The mapped movi region, or null. */
+    private MappedByteBuffer mappedMovi;
+    /** Wraps the byte array of the last buffer for channel reads. */
+    private ByteBuffer wrappedBuffer;
 
     public AVIReader(ImageInputStream in) throws IOException {
         super(in);
@@ -58,28 +77,50 @@ public class AVIReader extends AVIInputStream implements MovieReader {
 
     @Override
     public void read(int track, Buffer buffer) throws IOException {
-        ensureRealized();
+        SampleTable samples = getSampleTable(track);
         Track tr = tracks.get(track);
-        if (tr.readIndex >= tr.samples.size()) {
+        if (tr.readIndex >= samples.size()) {
             buffer.setFlagsTo(END_OF_MEDIA,DISCARD);
             buffer.length = 0;
             return;
         }
 
-        Sample s = tr.samples.get((int) tr.readIndex);
-        in.seek(s.offset);
-        byte[] b;
-        if (buffer.data instanceof byte[]) {
-            b = (byte[]) buffer.data;
-            if (b.length < s.length) {
-                buffer.data = b = new byte[(int) s.length];
+        int i = (int) tr.readIndex;
+        long offset = samples.getOffset(i);
+        int length = (int) samples.getLength(i);
+        if (buffer.data instanceof ByteBuffer) {
+            ByteBuffer bb = (ByteBuffer) buffer.data;
+            if (bb.capacity() < length) {
+                buffer.data = bb = bb.isDirect() ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
             }
+            bb.clear();
+            bb.limit(length);
+            readFully(offset, bb);
+            bb.flip();
         } else {
-            buffer.data = b = new byte[(int) s.length];
+            byte[] b;
+            if (buffer.data instanceof byte[]) {
+                b = (byte[]) buffer.data;
+                if (b.length < length) {
+                    buffer.data = b = new byte[length];
+                }
+            } else {
+                buffer.data = b = new byte[length];
+            }
+            if (channel != null) {
+                if (wrappedBuffer == null || wrappedBuffer.array() != b) {
+                    wrappedBuffer = ByteBuffer.wrap(b);
+                }
+                wrappedBuffer.clear();
+                wrappedBuffer.limit(length);
+                readFully(offset, wrappedBuffer);
+            } else {
+                in.seek(offset);
+                in.readFully(b, 0, length);
+            }
         }
-        in.readFully(b, 0, (int) s.length);
         buffer.offset = 0;
-        buffer.length = (int) s.length;
+        buffer.length = length;
         buffer.header = null;
         switch (tr.mediaType) {
             case AUDIO: {
@@ -99,19 +140,104 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         buffer.format = tr.format;
         buffer.track = track;
         buffer.sampleDuration = new Rational(tr.scale, tr.rate);
-        buffer.timeStamp = new Rational((s.timeStamp+tr.startTime) * tr.scale, tr.rate);
-        buffer.flags = s.isKeyframe ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
+        buffer.timeStamp = new Rational((samples.getTimeStamp(i)+tr.startTime) * tr.scale, tr.rate);
+        buffer.flags = samples.isKeyframe(i) ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
 
         tr.readIndex++;
         
     }
     
+    /** Reads the remaining bytes of the buffer from the specified position
+     * of the file. */
+    private void readFully(long position, ByteBuffer bb) throws IOException {
+        if (channel == null) {
+            in.seek(position);
+            if (bb.hasArray()) {
+                in.readFully(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+                bb.position(bb.limit());
+            } else {
+                byte[] b = new byte[bb.remaining()];
+                in.readFully(b);
+                bb.put(b);
+            }
+        } else if (mappedMovi != null && position >= moviOffset
+                && position + bb.remaining() <= moviOffset + mappedMovi.capacity()) {
+            ByteBuffer src = mappedMovi.duplicate();
+            src.position((int) (position - moviOffset));
+            src.limit(src.position() + bb.remaining());
+            bb.put(src);
+        } else {
+            while (bb.hasRemaining()) {
+                int count = channel.read(bb, position);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                position += count;
+            }
+        }
+    }
+
+    /** Sets whether the movi region of the file is mapped into memory.
+     * <p>
+     * If the file is mapped, samples are copied from the mapped region
+     * instead of being read with a system call for each sample. Only the
+     * first 2 GB from the start of the movi region can be mapped.
+     * <p>
+     * This setting has only an effect if the reader has been created with
+     * a file. The default value is false.
+     */
+    public void setMemoryMapped(boolean newValue) throws IOException {
+        if (newValue && mappedMovi == null && channel != null) {
+            ensureRealized();
+            long size = min(channel.size() - moviOffset, Integer.MAX_VALUE);
+            mappedMovi = channel.map(FileChannel.MapMode.READ_ONLY, moviOffset, size);
+        } else if (!newValue) {
+            mappedMovi = null;
+        }
+    }
+
+    public boolean isMemoryMapped() {
+        return mappedMovi != null;
+    }
+
+    /** Copies the next sample of the specified track into a track of an AVI
+     * output stream, and advances the read position of the track.
+     * <p>
+     * If both streams have been created with a file, the sample data is
+     * transferred from file to file without copying it into the Java heap.
+     *
+     * @param track The track index.
+     * @param out The output stream.
+     * @param outTrack The track index in the output stream.
+     * @return False if the end of the track has been reached.
+     */
+    public boolean transferTo(int track, AVIOutputStream out, int outTrack) throws IOException {
+        SampleTable samples = getSampleTable(track);
+        Track tr = tracks.get(track);
+        if (tr.readIndex >= samples.size()) {
+            return false;
+        }
+        int i = (int) tr.readIndex;
+        long offset = samples.getOffset(i);
+        long length = samples.getLength(i);
+        if (channel != null) {
+            out.writeSamples(outTrack, samples.getDuration(i), channel, offset, length, samples.isKeyframe(i));
+        } else {
+            byte[] b = new byte[(int) length];
+            in.seek(offset);
+            in.readFully(b);
+            out.writeSamples(outTrack, samples.getDuration(i), b, 0, b.length, samples.isKeyframe(i));
+        }
+        tr.readIndex++;
+        return true;
+    }
+
     @Override
     public Rational getReadTime(int track) throws IOException {
+            SampleTable samples = getSampleTable(track);
             Track tr = tracks.get(track);
-            if (tr.samples.size()>tr.readIndex) {
-                Sample s=tr.samples.get((int)tr.readIndex);
-        return new Rational((s.timeStamp+tr.startTime) * tr.scale, tr.rate);
+            if (samples.size()>tr.readIndex) {
+        return new Rational((samples.getTimeStamp((int) tr.readIndex)+tr.startTime) * tr.scale, tr.rate);
             }
             return new Rational(0,1);
     }
@@ -122,17 +248,14 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         int nextTrack = -1;
         for (int i = 0, n = tracks.size(); i < n; i++) {
             Track tr = tracks.get(i);
+            SampleTable samples = getSampleTable(i);
             
-            if (tr.samples.isEmpty()) continue;
-            
-            Sample currentSample=tr.readIndex<tr.samples.size()?tr.samples.get((int)tr.readIndex):tr.samples.get(tr.samples.size()-1);
+            if (samples.isEmpty()) continue;
             
-            long readTimeStamp = currentSample.timeStamp;
-            if (tr.readIndex>=tr.samples.size())
-                readTimeStamp += currentSample.duration;
+            long readTimeStamp = samples.getTimeStamp((int) min(tr.readIndex, samples.size()));
             
             Rational trts=new Rational((readTimeStamp+tr.startTime)*tr.scale,tr.rate);
-            if (trts.compareTo(ts) < 0 && tr.readIndex < tr.samples.size()) {
+            if (trts.compareTo(ts) < 0 && tr.readIndex < samples.size()) {
                 ts = trts;
                 nextTrack = i;
             }
@@ -168,50 +291,69 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     @Override
     public long timeToSample(int track, Rational time) {
         Track tr = tracks.get(track);
-        // This only works, if all samples contain only one sample!
-        // FIXME - We foolishly assume that only audio tracks have more than one
-        // sample in a frame.
-        // FIXME - We foolishly assume that all samples have a sampleDuration != 0.
-        long index = time.getNumerator() * tr.rate / time.getDenominator() / tr.scale - tr.startTime;
-        if (tr.mediaType == AVIMediaType.AUDIO) {
-            int count = 0;
-            // FIXME This is very inefficient, perform binary search with sample.timestamp
-            // this will work for all media types!
-            for (int i = 0, n = tr.samples.size(); i < n; i++) {
-                long d = tr.samples.get(i).duration * tr.scale; // foolishly assume that sampleDuration = sample count
-                if (count + d > index) {
-                    index = i;
-                    break;
-                }
-                count += d;
-
-            }
+        long t = time.multiply(new Rational(tr.rate, tr.scale)).longValue() - tr.startTime;
+        if (t < 0) {
+            return 0;
         }
+        return samples(track).getSampleAtTime(t);
+    }
 
-        return max(0, min(index, tr.samples.size()));
+    /** Returns the index of the keyframe at or before the specified sample.
+     * <p>
+     * Decoding of a track must start at a keyframe, because most encodings
+     * only store the changes to the previous frame.
+     *
+     * @param track Track index.
+     * @param sample Sample index.
+     * @return The index of the keyframe.
+     */
+    public long getKeyframeBefore(int track, long sample) throws IOException {
+        SampleTable samples = getSampleTable(track);
+        return samples.getKeyframeBefore(max(0, min(sample, samples.size() - 1)));
     }
 
     @Override
     public Rational sampleToTime(int track, long sampleIndex) {
         Track tr = tracks.get(track);
-        Sample sample = tr.samples.get((int) max(0, min(tr.samples.size() - 1, sampleIndex)));
-        long time = (tr.startTime + sample.timeStamp) * tr.scale;//
-        if (sampleIndex >= tr.samples.size()) {
-            time += sample.duration * tr.scale;
-        }
+        SampleTable samples = samples(track);
+        long time = (tr.startTime + samples.getTimeStamp((int) max(0, min(samples.size(), sampleIndex)))) * tr.scale;
         return new Rational(time, tr.rate);
     }
 
+    /** Sets the read time of all tracks.
+     * <p>
+     * The read index of each track is moved to the keyframe at or before the
+     * sample at the specified time. If the current read index lies between
+     * this keyframe and the sample, it is kept, so that sequential decoding
+     * can continue from there.
+     */
     @Override
     public void setMovieReadTime(Rational newValue) {
         for (int t = 0, n = tracks.size(); t < n; t++) {
             Track tr = tracks.get(t);
-            int sample = (int) min(timeToSample(t, newValue), tr.samples.size() - 1);
-            if (tr.readIndex > sample) {
-                tr.readIndex = -1;
+            SampleTable samples = samples(t);
+            long sample = min(timeToSample(t, newValue), samples.size() - 1);
+            if (sample < 0) {
+                tr.readIndex = 0;
+                continue;
             }
-            for (; sample >= 0 && sample > tr.readIndex && !tr.samples.get(sample).isKeyframe; sample--);
-            tr.readIndex = sample;
+            long keyframe = samples.getKeyframeBefore(sample);
+            if (tr.readIndex <= keyframe || tr.readIndex > sample) {
+                tr.readIndex = keyframe;
+            }
+        }
+    }
+
+    /** Returns the sample table of a track for the methods which can not
+     * throw an IOException. If the index of the track can not be read, the
+     * sample table is empty.
+     */
+    private SampleTable samples(int track) {
+        try {
+            return getSampleTable(track);
+        } catch (IOException ex) {
+            Logger.getLogger(AVIReader.class.getName()).log(Level.SEVERE, null, ex);
+            return new SampleTable(0);
         }
     }
 }
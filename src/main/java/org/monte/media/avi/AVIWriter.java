@@ -202,7 +202,7 @@ public class AVIWriter extends AVIOutputStream implements MovieWriter {
         // The dimension of the image must match the dimension of the video track
         Format fmt = vt.format;
         if (fmt.get(WidthKey) != image.getWidth() || fmt.get(HeightKey) != image.getHeight()) {
-            throw new IllegalArgumentException("Dimensions of image[" + vt.samples.size()
+            throw new IllegalArgumentException("Dimensions of image[" + vt.chunkCount
                     + "] (width=" + image.getWidth() + ", height=" + image.getHeight()
                     + ") differs from video format of track: " + fmt);
         }
@@ -213,7 +213,7 @@ public class AVIWriter extends AVIOutputStream implements MovieWriter {
                 vt.outputBuffer = new Buffer();
             }
 
-            boolean isKeyframe = vt.syncInterval == 0 ? false : vt.samples.size() % vt.syncInterval == 0;
+            boolean isKeyframe = vt.syncInterval == 0 ? false : vt.chunkCount % vt.syncInterval == 0;
 
             Buffer inputBuffer = new Buffer();
             inputBuffer.flags = (isKeyframe) ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
@@ -227,23 +227,14 @@ public class AVIWriter extends AVIOutputStream implements MovieWriter {
             // Encode palette data
             boolean paletteChange = writePalette(track, image, isKeyframe);
 
-
+            DataChunk videoFrameChunk = addSampleChunk(
+                    isKeyframe ? vt.twoCC + "db" : vt.twoCC + "dc", vt.outputBuffer.length);
             long offset = getRelativeStreamPosition();
-
-            DataChunk videoFrameChunk = new DataChunk(
-                    isKeyframe ? vt.twoCC + "db" : vt.twoCC + "dc");
-            moviChunk.add(videoFrameChunk);
             videoFrameChunk.getOutputStream().write((byte[]) vt.outputBuffer.data, vt.outputBuffer.offset, vt.outputBuffer.length);
             videoFrameChunk.finish();
             long length = getRelativeStreamPosition() - offset;
 
-            Sample s=new Sample(videoFrameChunk.chunkType, 1, offset, length, isKeyframe&&!paletteChange);
-            vt.addSample(s);
-            idx1.add(s);
-            
-            if (getRelativeStreamPosition() > 1L << 32) {
-                throw new IOException("AVI file is larger than 4 GB");
-            }
+            addSample(vt, videoFrameChunk.chunkType, 1, offset, length, isKeyframe && !paletteChange);
         }
     }
 
@@ -267,7 +258,7 @@ public class AVIWriter extends AVIOutputStream implements MovieWriter {
         boolean isKeyframe = buf.flags.contains(KEYFRAME);
         if (buf.data instanceof BufferedImage) {
             if (tr.syncInterval != 0) {
-                isKeyframe = buf.flags.contains(KEYFRAME) | (tr.samples.size() % tr.syncInterval == 0);
+                isKeyframe = buf.flags.contains(KEYFRAME) | (tr.chunkCount % tr.syncInterval == 0);
             }
         }
         // Encode palette data
@@ -16,10 +16,14 @@ import org.monte.media.Format;
 import org.monte.media.io.SubImageOutputStream;
 import java.awt.Dimension;
 import java.awt.image.IndexColorModel;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import javax.imageio.stream.ImageOutputStream;
 import static org.monte.media.VideoFormatKeys.*;
@@ -45,6 +49,16 @@ public abstract class AbstractAVIStream {
     protected final static int STRD_ID = 0x73747264;// "strd"
     protected final static int IDX1_ID = 0x69647831;// "idx1"
     protected final static int REC_ID = 0x72656320;// "rec "
+    protected final static int INDX_ID = 0x696e6478;// "indx"
+    protected final static int ODML_ID = 0x6f646d6c;// "odml"
+    protected final static int DMLH_ID = 0x646d6c68;// "dmlh"
+    protected final static int AVIX_ID = 0x41564958;// "AVIX"
+    /** OpenDML index type of a super index. Its entries point to standard
+     * index chunks. */
+    protected final static int AVI_INDEX_OF_INDEXES = 0x00;
+    /** OpenDML index type of a standard index. Its entries point to data
+     * chunks. */
+    protected final static int AVI_INDEX_OF_CHUNKS = 0x01;
     /** Indicates the AVI file has an index. */
     public final static int AVIH_FLAG_HAS_INDEX = 0x00000010;
     /**  Indicates that application should use the index, 
@@ -130,40 +144,199 @@ public abstract class AbstractAVIStream {
     }
 
     /**
-     * AVI stores media data in sample chunks.
-     * A sample chunk may contain one or more media samples.
-     * A media sample is a single element in a sequence of time-ordered data.
+     * Holds the sample chunks of a track in arrays.
+     * <p>
+     * For each sample chunk, the table stores the offset and the length of
+     * the chunk data. This takes 12 bytes per chunk.
+     * <p>
+     * As long as all chunks have the same duration, the time stamps are
+     * computed from the duration. Otherwise the table stores the time stamps
+     * in the time scale of the track, followed by the end time of the last
+     * chunk, so that the duration of a chunk is the difference of two time
+     * stamps. This takes another 8 bytes per chunk.
+     * <p>
+     * As long as all chunks are keyframes, no keyframe list is stored.
+     * Otherwise the keyframes are stored as a sorted list of chunk indices,
+     * which takes 4 bytes per keyframe.
      */
-    protected static class Sample {
+    protected static class SampleTable {
+
+        private long[] offsets;
+        private int[] lengths;
+        /** The time stamps, or null if all chunks have the uniform duration. */
+        private long[] timeStamps;
+        /** The duration of all chunks, if timeStamps is null. */
+        private int uniformDuration;
+        /** The keyframe indices, or null if all chunks are keyframes. */
+        private int[] keyframes;
+        private int size;
+        private int keyframeCount;
+
+        public SampleTable() {
+            this(16);
+        }
 
-        String chunkType;
-        /** Offset of the sample chunk relative to the startTime of the AVI file.
+        public SampleTable(int capacity) {
+            capacity = Math.max(capacity, 1);
+            offsets = new long[capacity];
+            lengths = new int[capacity];
+        }
+
+        /** Adds a sample chunk.
+         *
+         * @param offset The offset of the chunk data in the AVI stream.
+         * @param length The length of the chunk data.
+         * @param duration The number of media samples in the chunk.
+         * @param isKeyframe Whether the chunk is a keyframe.
          */
-        long offset;
-        /** Data length of the sample chunk. */
-        long length;
-        /** The number of media samples in the sample chunk. */
-        int duration;
-        /** Whether the sample is a sync-sample. */
-        boolean isKeyframe;
-        long timeStamp;
-        
-        /** Palette change sample. */
-        Sample header;
+        public void add(long offset, long length, int duration, boolean isKeyframe) {
+            if (size == offsets.length) {
+                int capacity = size + (size >> 1) + 1;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                if (timeStamps != null) {
+                    timeStamps = Arrays.copyOf(timeStamps, capacity + 1);
+                }
+            }
+            if (timeStamps == null) {
+                if (size == 0) {
+                    uniformDuration = duration;
+                } else if (duration != uniformDuration) {
+                    timeStamps = new long[offsets.length + 1];
+                    for (int i = 1; i <= size; i++) {
+                        timeStamps[i] = timeStamps[i - 1] + uniformDuration;
+                    }
+                }
+            }
+            if (timeStamps != null) {
+                timeStamps[size + 1] = timeStamps[size] + duration;
+            }
+            if (keyframes == null && !isKeyframe) {
+                keyframes = new int[Math.max(keyframeCount + (keyframeCount >> 1), 16)];
+                for (int i = 0; i < keyframeCount; i++) {
+                    keyframes[i] = i;
+                }
+            }
+            if (isKeyframe) {
+                if (keyframes != null) {
+                    if (keyframeCount == keyframes.length) {
+                        keyframes = Arrays.copyOf(keyframes, keyframeCount + (keyframeCount >> 1) + 1);
+                    }
+                    keyframes[keyframeCount] = size;
+                }
+                keyframeCount++;
+            }
+            offsets[size] = offset;
+            lengths[size] = (int) length;
+            size++;
+        }
 
-        /**
-         * Creates a new sample.
-         * @param duration The number of media samples contained in the sample
-         * chunk.
-         * @param offset The offset in the AVI stream.
-         * @param length The length in the AVI stream.
+        /** Releases the unused capacity of the arrays. */
+        public void trimToSize() {
+            if (offsets.length > size) {
+                offsets = Arrays.copyOf(offsets, size);
+                lengths = Arrays.copyOf(lengths, size);
+                if (timeStamps != null) {
+                    timeStamps = Arrays.copyOf(timeStamps, size + 1);
+                }
+            }
+            if (keyframes != null && keyframes.length > keyframeCount) {
+                keyframes = Arrays.copyOf(keyframes, keyframeCount);
+            }
+        }
+
+        /** Returns the number of sample chunks. */
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /** Returns the offset of the data of a chunk in the AVI stream. */
+        public long getOffset(int i) {
+            return offsets[i];
+        }
+
+        /** Returns the length of the data of a chunk. */
+        public long getLength(int i) {
+            return lengths[i] & 0xffffffffL;
+        }
+
+        /** Returns the time stamp of a chunk, or the end time of the track
+         * if i is equal to the size of the table. */
+        public long getTimeStamp(int i) {
+            return timeStamps == null ? (long) i * uniformDuration : timeStamps[i];
+        }
+
+        /** Returns the number of media samples in a chunk. */
+        public int getDuration(int i) {
+            return timeStamps == null ? uniformDuration : (int) (timeStamps[i + 1] - timeStamps[i]);
+        }
+
+        /** Returns whether a chunk is a keyframe. */
+        public boolean isKeyframe(int i) {
+            return keyframes == null || Arrays.binarySearch(keyframes, 0, keyframeCount, i) >= 0;
+        }
+
+        /** Returns the index of the sample which is played at the specified
+         * time, or the number of samples if the time is after the end of the
+         * track.
+         * <p>
+         * Samples with a duration of 0, such as palette changes, are never
+         * returned, because they are played at the same time as the
+         * following sample.
+         *
+         * @param time The time in the time scale of the track.
+         */
+        public long getSampleAtTime(long time) {
+            int n = size;
+            if (time >= getTimeStamp(n)) {
+                return n;
+            }
+            long[] ts = timeStamps;
+            if (ts == null) {
+                return time <= 0 ? 0 : time / uniformDuration;
+            }
+            // Find the last sample i with ts[i] <= time
+            int low = 0, high = n - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (ts[mid] <= time) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /** Returns the index of the last keyframe at or before the specified
+         * sample, or 0 if there is none.
+         * <p>
+         * If the track does not have any keyframe, all samples are treated
+         * as keyframes.
          */
-        public Sample(String chunkId, int duration, long offset, long length, boolean isSync) {
-            this.chunkType = chunkId;
-            this.duration = duration;
-            this.offset = offset;
-            this.length = length;
-            this.isKeyframe = isSync;
+        public long getKeyframeBefore(long sample) {
+            int[] kf = keyframes;
+            if (kf == null || keyframeCount == 0) {
+                return sample;
+            }
+            // Find the last keyframe k with kf[k] <= sample
+            int low = 0, high = keyframeCount - 1;
+            if (kf[0] > sample) {
+                return 0;
+            }
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (kf[mid] <= sample) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return kf[low];
         }
     }
 
@@ -300,9 +473,10 @@ public abstract class AbstractAVIStream {
          * @see scale
          */
         /**
-         * List of samples.
+         * The sample chunks of the track. This table is only filled by the
+         * reader. It is null until the index of the track has been read.
          */
-        protected ArrayList<Sample> samples;
+        protected SampleTable samples;
         /** Interval between sync samples (keyframes).
          * 0 = automatic.
          * 1 = write all samples as sync samples.
@@ -391,7 +565,7 @@ public abstract class AbstractAVIStream {
          * present in the stream. Using the correct buffer size makes playback
          * more efficient. Use zero if you do not know the correct buffer size.
          */
-        //protected long dwSuggestedBufferSize; => this field is computed from tr.samples
+        //protected long dwSuggestedBufferSize; => this field is computed from tr.largestChunkSize
         /** Specifies an indicator of the quality of the data in the stream.
          * Quality is represented as a number between 0 and 10,000. For
          * compressed data, this typically represents the value of the quality
@@ -407,7 +581,7 @@ public abstract class AbstractAVIStream {
          * the same size. For audio streams, this number should be the same as
          * the blockAlign member of the WAVEFORMATEX structure describing the
          * audio. */
-        //protected long dwSampleSize; => computed from tr.samples
+        //protected long dwSampleSize; => computed from tr.uniformChunkSize
         /** Specifies the destination rectangle for a text or video stream
          * within the movie rectangle specified by the dwWidth and dwHeight
          * members of the AVI main header structure. The rcFrame member is
@@ -430,6 +604,38 @@ public abstract class AbstractAVIStream {
          * This chunk holds the AVI Stream Format Header.
          */
         protected FixedSizeDataChunk strfChunk;
+        /** The "indx" chunk holds the OpenDML super index of the track. */
+        protected FixedSizeDataChunk indxChunk;
+        /** The entries of the OpenDML super index. For each standard index
+         * chunk, the offset of the chunk relative to the start of the AVI
+         * stream, the size of the chunk including the chunk header, and the
+         * number of media samples covered by the chunk. */
+        protected long[] superIndexOffsets;
+        protected int[] superIndexSizes;
+        protected int[] superIndexDurations;
+        protected int superIndexCount;
+        /** The entries of the OpenDML standard index chunk which has not been
+         * written yet. The offsets are relative to the start of the current
+         * movi list. Bit 31 of the size is set for non-keyframes. */
+        protected int[] ixOffsets;
+        protected int[] ixSizes;
+        protected int ixCount;
+        protected long ixDuration;
+        /** The number of chunks which have been written into the track.
+         * The writer does not keep the samples in memory, it only keeps
+         * these running totals. */
+        protected long chunkCount;
+        /** The sum of the durations of the chunks written into the track. */
+        protected long chunkDuration;
+        /** The size of the largest chunk written into the track. */
+        protected long largestChunkSize;
+        /** The size of the chunks written into the track, 0 if the chunks
+         * have different sizes, -1 if no chunk has been written. */
+        protected long uniformChunkSize = -1;
+        /** The number of the idx1 entry of the last sample chunk written
+         * into the track, if it is a palette change, which may still be raised
+         * to a key frame, -1 otherwise. */
+        protected long idx1PaletteChange = -1;
         /** The optional name of the track. */
         protected String name;
         /** The codec. */
@@ -441,25 +647,23 @@ public abstract class AbstractAVIStream {
         protected Buffer inputBuffer;
         /** The current chunk index of the reader. */
         protected long readIndex = 0;
-
         public Track(int trackIndex, AVIMediaType mediaType, String fourCC) {
             this.mediaType = mediaType;
             twoCC = "00" + Integer.toString(trackIndex);
             twoCC = twoCC.substring(twoCC.length() - 2);
             this.fccHandler = fourCC;
-            this.samples = new ArrayList<Sample>();
         }
 
         public abstract long getSTRFChunkSize();
 
         public abstract String getSampleChunkFourCC(boolean isSync);
         
-        public void addSample(Sample s) {
-            if (!samples.isEmpty()) {
-                s.timeStamp = samples.get(samples.size() - 1).timeStamp + samples.get(samples.size() - 1).duration;
+        public void addSample(long offset, long length, int duration, boolean isKeyframe) {
+            if (samples == null) {
+                samples = new SampleTable();
             }
-            samples.add(s);
-            length++; 
+            samples.add(offset, length, duration, isKeyframe);
+            this.length++;
         }
     }
 
@@ -1173,6 +1377,10 @@ public abstract class AbstractAVIStream {
 
     /**
      * A CompositeChunk contains an ordered list of Chunks.
+     * <p>
+     * Only the last child is kept in the list. All other children have
+     * already been finished, only their total size is retained. This keeps
+     * the memory usage of a movi list constant.
      */
     protected class CompositeChunk extends Chunk {
 
@@ -1182,6 +1390,9 @@ public abstract class AbstractAVIStream {
         protected String compositeType;
         protected LinkedList<Chunk> children;
         protected boolean finished;
+        /** The total size of the children which have been removed from the
+         * list, including pad bytes. */
+        private long finishedChildrenSize;
 
         /**
          * Creates a new CompositeChunk at the current position of the
@@ -1200,7 +1411,9 @@ public abstract class AbstractAVIStream {
 
         public void add(Chunk child) throws IOException {
             if (children.size() > 0) {
-                children.getLast().finish();
+                Chunk last = children.removeLast();
+                last.finish();
+                finishedChildrenSize += last.size() + last.size() % 2;
             }
             children.add(child);
         }
@@ -1236,7 +1449,7 @@ public abstract class AbstractAVIStream {
 
         @Override
         public long size() {
-            long length = 12;
+            long length = 12 + finishedChildrenSize;
             for (Chunk child : children) {
                 length += child.size() + child.size() % 2;
             }
@@ -1252,6 +1465,8 @@ public abstract class AbstractAVIStream {
         protected ImageOutputStream data;
         protected boolean finished;
         private long finishedSize;
+        /** The size of the chunk after the last transfer from a channel. */
+        private long transferredSize;
 
         /**
          * Creates a new DataChunk at the current position of the
@@ -1283,6 +1498,50 @@ public abstract class AbstractAVIStream {
             return data;
         }
 
+        /**
+         * Appends data from a file channel to the chunk.
+         * <p>
+         * If the channel of the output file is known, the data is transferred
+         * from channel to channel without copying it into the Java heap.
+         * Otherwise it is copied through a buffer.
+         *
+         * @param src The source channel.
+         * @param position The position of the data in the source channel.
+         * @param count The number of bytes.
+         * @param dst The channel of the output file, or null.
+         */
+        public void transferFrom(FileChannel src, long position, long count, FileChannel dst) throws IOException {
+            if (finished) {
+                throw new IllegalStateException("DataChunk is finished");
+            }
+            if (dst == null) {
+                byte[] b = new byte[(int) Math.min(count, 65536)];
+                ByteBuffer bb = ByteBuffer.wrap(b);
+                for (long end = position + count; position < end;) {
+                    bb.clear();
+                    bb.limit((int) Math.min(b.length, end - position));
+                    int len = src.read(bb, position);
+                    if (len < 0) {
+                        throw new EOFException();
+                    }
+                    data.write(b, 0, len);
+                    position += len;
+                }
+            } else {
+                long pos = out.getStreamPosition();
+                dst.position(pos);
+                for (long done = 0; done < count;) {
+                    long len = src.transferTo(position + done, count - done, dst);
+                    if (len <= 0) {
+                        throw new EOFException();
+                    }
+                    done += len;
+                }
+                out.seek(pos + count);
+                transferredSize = data.getStreamPosition();
+            }
+        }
+
         /**
          * Returns the offset of this chunk to the beginning of the random access file
          */
@@ -1322,7 +1581,7 @@ public abstract class AbstractAVIStream {
             }
 
             try {
-                return data.length();
+                return Math.max(data.length(), transferredSize);
             } catch (IOException ex) {
                 InternalError ie = new InternalError("IOException");
                 ie.initCause(ex);
@@ -79,6 +79,11 @@ public class DIBCodec extends AbstractVideoCodec {
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
+        if (in.isFlag(PREFETCH)) {
+            // DIB frames do not depend on each other, there is nothing to prefetch
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
 
         SeekableByteArrayOutputStream tmp;
         if (out.data instanceof byte[]) {
@@ -176,7 +176,10 @@ public class RunLengthCodec extends AbstractVideoCodec {
             if (pixels == null) {
                 return CODEC_FAILED;
             }
-            if (isKeyframe) {
+            if (in.isFlag(PREFETCH)) {
+                // only update the reference frame
+                out.setFlag(DISCARD);
+            } else if (isKeyframe) {
                 writeKey8(tmp, pixels, r.width, r.height, offset, scanlineStride);
                 out.setFlag(KEYFRAME);
             } else {
@@ -20,11 +20,13 @@ import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
 import java.awt.image.ColorModel;
 import java.util.Hashtable;
+import java.util.zip.Deflater;
 import org.monte.media.Format;
 import java.awt.image.WritableRaster;
 import java.awt.Rectangle;
 import org.monte.media.AbstractVideoCodec;
 import org.monte.media.Buffer;
+import org.monte.media.image.DirtyRegionMap;
 import org.monte.media.io.SeekableByteArrayOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -56,9 +58,19 @@ import static org.monte.media.BufferFlag.*;
  * The codec supports lossless delta- and key-frame encoding of images with 8, 16 or
  * 24 bits per pixel.
  * <p>
+ * If the header of an input buffer holds a {@link DirtyRegionMap} relative to
+ * the previous frame, the encoder skips clean scanlines and clean tiles at the
+ * start of a scanline without comparing pixels.
+ * <p>
+ * If an input buffer has the {@code PREFETCH} flag set, the encoder only
+ * updates its reference frame and discards the output buffer. This allows
+ * to prime a freshly reset encoder for encoding a delta frame.
+ * <p>
  * Compression of a frame is performed in two steps: In the first, step
  * a frame is compressed line by line from bottom to top. In the second step
- * the resulting data is compressed again using zlib compression.
+ * the resulting data is compressed again using zlib compression. The zlib
+ * compression level and strategy can be set in the output format with
+ * {@code CompressionLevelKey} and {@code CompressionStrategyKey}.
  * <p>
  * Apart from the second compression step and the support for 16- and 24-bit
  * data, this encoder is identical to the {@link RunLengthCodec}.
@@ -156,7 +168,9 @@ public class TechSmithCodec extends AbstractVideoCodec {
 
     @Override
     public void reset() {
-        state = null;
+        if (state != null) {
+            state.reset();
+        }
         frameCounter = 0;
     }
 
@@ -288,6 +302,8 @@ public class TechSmithCodec extends AbstractVideoCodec {
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
+        state.setCompressionLevel(outputFormat.get(CompressionLevelKey, Deflater.DEFAULT_COMPRESSION));
+        state.setCompressionStrategy(outputFormat.get(CompressionStrategyKey, Deflater.DEFAULT_STRATEGY));
         
         SeekableByteArrayOutputStream tmp;
         if (out.data instanceof byte[]) {
@@ -321,6 +337,13 @@ public class TechSmithCodec extends AbstractVideoCodec {
             out.header = null;
         }
         int offset = r.x + r.y * scanlineStride;
+        DirtyRegionMap dirty = null;
+        if (in.header instanceof DirtyRegionMap) {
+            dirty = (DirtyRegionMap) in.header;
+            if (dirty.getWidth() != r.width || dirty.getHeight() != r.height) {
+                dirty = null;
+            }
+        }
 
         try {
             switch (vf.get(DepthKey)) {
@@ -331,13 +354,15 @@ public class TechSmithCodec extends AbstractVideoCodec {
                         return CODEC_OK;
                     }
 
-                    if (isKeyframe) {
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (isKeyframe) {
                         state.encodeKey8(tmp, pixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                     } else {
                         if (in.isFlag(SAME_DATA)) {
                             state.encodeSameDelta8(tmp, pixels, (byte[]) previousPixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         } else {
-                            state.encodeDelta8(tmp, pixels, (byte[]) previousPixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
+                            state.encodeDelta8(tmp, pixels, (byte[]) previousPixels, dirty, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         }
                         out.clearFlag(KEYFRAME);
                     }
@@ -355,13 +380,15 @@ public class TechSmithCodec extends AbstractVideoCodec {
                         return CODEC_OK;
                     }
 
-                    if (isKeyframe) {
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (isKeyframe) {
                         state.encodeKey16(tmp, pixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                     } else {
                         if (in.isFlag(SAME_DATA)) {
                             state.encodeSameDelta16(tmp, pixels, (short[]) previousPixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         } else {
-                            state.encodeDelta16(tmp, pixels, (short[]) previousPixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
+                            state.encodeDelta16(tmp, pixels, (short[]) previousPixels, dirty, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         }
                     }
                     if (previousPixels == null) {
@@ -378,14 +405,16 @@ public class TechSmithCodec extends AbstractVideoCodec {
                         return CODEC_OK;
                     }
 
-                    if (isKeyframe) {
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (isKeyframe) {
                         state.encodeKey24(tmp, pixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         out.setFlag(KEYFRAME);
                     } else {
                         if (in.isFlag(SAME_DATA)) {
                             state.encodeSameDelta24(tmp, pixels, (int[]) previousPixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         } else {
-                            state.encodeDelta24(tmp, pixels, (int[]) previousPixels, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
+                            state.encodeDelta24(tmp, pixels, (int[]) previousPixels, dirty, vf.get(WidthKey), vf.get(HeightKey), offset, scanlineStride);
                         }
                         out.clearFlag(KEYFRAME);
                     }
@@ -402,6 +431,10 @@ public class TechSmithCodec extends AbstractVideoCodec {
                 }
             }
 
+            if (in.isFlag(PREFETCH)) {
+                out.setFlag(DISCARD);
+                return CODEC_OK;
+            }
             out.format = outputFormat;
             out.data = tmp.getBuffer();
             out.offset = 0;
@@ -10,17 +10,19 @@
  */
 package org.monte.media.avi;
 
-import java.util.zip.InflaterInputStream;
-import java.util.zip.DeflaterOutputStream;
-import org.monte.media.io.UncachedImageInputStream;
-import java.io.ByteArrayInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.io.EOFException;
 import org.monte.media.AbstractVideoCodecCore;
+import org.monte.media.image.DirtyRegionMap;
 import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.ByteArrayImageOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteOrder;
 import static java.lang.Math.*;
+import static org.monte.media.image.PixelScanner.*;
 
 /**
  * {@code TechSmithCodec} (tscc) encodes a BufferedImage as a byte[] array.
@@ -167,8 +169,17 @@ import static java.lang.Math.*;
 public class TechSmithCodecCore extends AbstractVideoCodecCore {
 
     private ByteArrayImageOutputStream temp = new ByteArrayImageOutputStream(ByteOrder.LITTLE_ENDIAN);
-    private byte[] temp2;
     private int[] palette;
+    /** The deflater is reused for all frames. */
+    private Deflater deflater;
+    /** Receives the output of the deflater. */
+    private byte[] deflateBuf;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    /** The inflater is reused for all frames. */
+    private Inflater inflater;
+    /** Holds the inflated data of the current frame. */
+    private byte[] inflateBuf;
 
     public TechSmithCodecCore() {
         reset();
@@ -178,6 +189,77 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         palette = null;
     }
 
+    /** Sets the zlib compression level.
+     *
+     * @param newValue A value from 0 (no compression) to 9 (best compression),
+     * or {@code Deflater.DEFAULT_COMPRESSION}.
+     */
+    public void setCompressionLevel(int newValue) {
+        if (newValue != compressionLevel) {
+            if (newValue < -1 || newValue > 9) {
+                throw new IllegalArgumentException("Illegal compression level:" + newValue);
+            }
+            compressionLevel = newValue;
+            disposeDeflater();
+        }
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /** Sets the zlib compression strategy.
+     *
+     * @param newValue {@code Deflater.DEFAULT_STRATEGY}, {@code Deflater.FILTERED}
+     * or {@code Deflater.HUFFMAN_ONLY}.
+     */
+    public void setCompressionStrategy(int newValue) {
+        if (newValue != compressionStrategy) {
+            if (newValue != Deflater.DEFAULT_STRATEGY && newValue != Deflater.FILTERED
+                    && newValue != Deflater.HUFFMAN_ONLY) {
+                throw new IllegalArgumentException("Illegal compression strategy:" + newValue);
+            }
+            compressionStrategy = newValue;
+            disposeDeflater();
+        }
+    }
+
+    public int getCompressionStrategy() {
+        return compressionStrategy;
+    }
+
+    /** Releases the native resources of the deflater. A new deflater with
+     * the current settings is created when the next frame is encoded.
+     */
+    private void disposeDeflater() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    /** Compresses the content of the temp buffer with zlib and writes it
+     * to the output stream.
+     * <p>
+     * Each frame is a complete zlib stream. The deflater is reset instead of
+     * being recreated for each frame.
+     */
+    private void deflate(OutputStream out) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(compressionLevel);
+            deflater.setStrategy(compressionStrategy);
+            deflateBuf = new byte[4096];
+        } else {
+            deflater.reset();
+        }
+        deflater.setInput(temp.getBuffer(), 0, (int) temp.length());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuf, 0, deflateBuf.length);
+            out.write(deflateBuf, 0, n);
+        }
+    }
+
     public int[] getPalette() {
         if (palette == null) {
             palette = new int[256];
@@ -234,23 +316,24 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             return false;
         }
 
-        UncachedImageInputStream in = new UncachedImageInputStream(
-                new InflaterInputStream(new ByteArrayInputStream(inDat, off, length)));
+        int count = inflate(inDat, off, length);
+        byte[] in = inflateBuf;
+        int i = 0;
 
         int offset = 0;
         int scanlineStride = width;
         int upsideDown = (height - 1) * scanlineStride + offset;
         // Decode each scanline
-        int verticalOffset = 0;
         boolean isKeyFrame = true;
         try {
             int y = 0;
             int xy = upsideDown;
             loop:
             while (true) {
-                int opcode = in.readUnsignedByte();
+                checkAvailable(i, 2, count);
+                int opcode = in[i++] & 0xff;
                 if (opcode == 0) {
-                    opcode = in.readUnsignedByte();
+                    opcode = in[i++] & 0xff;
                     switch (opcode) {
                         case 0x0000: // end of line
                             y++;
@@ -260,8 +343,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break loop;
                         case 0x0002: // delta skip
                             isKeyFrame = false;
-                            int dx = in.readUnsignedByte();
-                            int dy = in.readUnsignedByte();
+                            checkAvailable(i, 2, count);
+                            int dx = in[i++] & 0xff;
+                            int dy = in[i++] & 0xff;
                             y += dy;
                             int end = xy + dx - dy * scanlineStride;
                             if (prevDat != outDat) {
@@ -270,10 +354,12 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             xy = end;
                             break;
                         default: // literal run
-                            in.readFully(outDat, xy, opcode);
+                            checkAvailable(i, opcode + (opcode & 1), count);
+                            System.arraycopy(in, i, outDat, xy, opcode);
+                            i += opcode;
                             xy += opcode;
                             if ((opcode & 1) == 1) {
-                                int pad = in.readByte() & 0xff;
+                                int pad = in[i++] & 0xff;
                                 if (pad != 0) {
                                     throw new IOException("Illegal pad byte, pad=0x" + Integer.toHexString(pad));
                                 }
@@ -282,7 +368,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                     }
                 } else {
                     // repetition
-                    byte v = in.readByte();
+                    byte v = in[i++];
                     for (int end = xy + opcode; xy < end; xy++) {
                         outDat[xy] = v;
                     }
@@ -292,7 +378,6 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         } catch (ArrayIndexOutOfBoundsException t) {
             t.printStackTrace();
         }
-        in.close();
         return isKeyFrame;
     }
 
@@ -318,28 +403,26 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (length <= 2) {
             return false;
         }
-        if (temp2 == null || temp2.length < 255) {
-            temp2 = new byte[255];
-        }
-        getPalette();
+        int[] palette = getPalette();
 
-        UncachedImageInputStream in = new UncachedImageInputStream(
-                new InflaterInputStream(new ByteArrayInputStream(inDat, off, length)));
+        int count = inflate(inDat, off, length);
+        byte[] in = inflateBuf;
+        int i = 0;
 
         int offset = 0;
         int scanlineStride = width;
         int upsideDown = (height - 1) * scanlineStride + offset;
         // Decode each scanline
-        int verticalOffset = 0;
         boolean isKeyFrame = true;
         try {
             int y = 0;
             int xy = upsideDown;
             loop:
             while (true) {
-                int opcode = in.readUnsignedByte();
+                checkAvailable(i, 2, count);
+                int opcode = in[i++] & 0xff;
                 if (opcode == 0) {
-                    opcode = in.readUnsignedByte();
+                    opcode = in[i++] & 0xff;
                     switch (opcode) {
                         case 0x0000: // end of line
                             y++;
@@ -349,8 +432,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break loop;
                         case 0x0002: { // delta skip
                             isKeyFrame = false;
-                            int dx = in.readUnsignedByte();
-                            int dy = in.readUnsignedByte();
+                            checkAvailable(i, 2, count);
+                            int dx = in[i++] & 0xff;
+                            int dy = in[i++] & 0xff;
                             y += dy;
                             int end = xy + dx - dy * scanlineStride;
                             if (prevDat != outDat) {
@@ -360,13 +444,12 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break;
                         }
                         default: { // literal run
-                            in.readFully(temp2, 0, opcode);
-                            for (int i = 0; i < opcode; i++) {
-                                outDat[xy + i] = palette[temp2[i] & 0xff];
+                            checkAvailable(i, opcode + (opcode & 1), count);
+                            for (int end = xy + opcode; xy < end; xy++) {
+                                outDat[xy] = palette[in[i++] & 0xff];
                             }
-                            xy += opcode;
                             if ((opcode & 1) == 1) {
-                                int pad = in.readByte() & 0xff;
+                                int pad = in[i++] & 0xff;
                                 if (pad != 0) {
                                     throw new IOException("Illegal pad byte, pad=0x" + Integer.toHexString(pad));
                                 }
@@ -376,7 +459,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                     }
                 } else {
                     // repetition
-                    int v = palette[in.readUnsignedByte()];
+                    int v = palette[in[i++] & 0xff];
                     for (int end = xy + opcode; xy < end; xy++) {
                         outDat[xy] = v;
                     }
@@ -386,7 +469,6 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         } catch (ArrayIndexOutOfBoundsException t) {
             t.printStackTrace();
         }
-        in.close();
         return isKeyFrame;
     }
 
@@ -399,23 +481,25 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             return false;
         }
 
-        UncachedImageInputStream in = new UncachedImageInputStream(
-                new InflaterInputStream(new ByteArrayInputStream(inDat, off, length)));
+        int count = inflate(inDat, off, length);
+        byte[] in = inflateBuf;
+        int i = 0;
 
         int offset = 0;
         int scanlineStride = width;
         int upsideDown = (height - 1) * scanlineStride + offset;
         // Decode each scanline
-        int verticalOffset = 0;
         boolean isKeyFrame = true;
         try {
             int y = 0;
             int xy = upsideDown;
             loop:
             while (true) {
-                int opcode = in.readUnsignedByte();
+                checkAvailable(i, 1, count);
+                int opcode = in[i++] & 0xff;
                 if (opcode == 0) {
-                    opcode = in.readUnsignedByte();
+                    checkAvailable(i, 1, count);
+                    opcode = in[i++] & 0xff;
                     switch (opcode) {
                         case 0x0000: // end of line
                             y++;
@@ -425,8 +509,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break loop;
                         case 0x0002: {// delta skip
                             isKeyFrame = false;
-                            int dx = in.readUnsignedByte();
-                            int dy = in.readUnsignedByte();
+                            checkAvailable(i, 2, count);
+                            int dx = in[i++] & 0xff;
+                            int dy = in[i++] & 0xff;
                             y += dy;
                             int end = xy + dx - dy * scanlineStride;
                             if (prevDat != outDat) {
@@ -436,14 +521,18 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break;
                         }
                         default: {// literal run
-                            readInts24LE(in, outDat, xy, opcode);
-                            xy += opcode;
+                            checkAvailable(i, opcode * 3, count);
+                            for (int end = xy + opcode; xy < end; xy++, i += 3) {
+                                outDat[xy] = (in[i] & 0xff) | ((in[i + 1] & 0xff) << 8) | ((in[i + 2] & 0xff) << 16);
+                            }
                             break;
                         }
                     }
                 } else {
                     // repetition
-                    int v = readInt24LE(in);
+                    checkAvailable(i, 3, count);
+                    int v = (in[i] & 0xff) | ((in[i + 1] & 0xff) << 8) | ((in[i + 2] & 0xff) << 16);
+                    i += 3;
                     for (int end = xy + opcode; xy < end; xy++) {
                         outDat[xy] = v;
                     }
@@ -453,7 +542,6 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         } catch (ArrayIndexOutOfBoundsException t) {
             t.printStackTrace();
         }
-        in.close();
         return isKeyFrame;
     }
     /** Decodes from 16-bit to 24-bit RGB. 
@@ -468,23 +556,25 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             return false;
         }
 
-        UncachedImageInputStream in = new UncachedImageInputStream(
-                new InflaterInputStream(new ByteArrayInputStream(inDat, off, length)), ByteOrder.LITTLE_ENDIAN);
+        int count = inflate(inDat, off, length);
+        byte[] in = inflateBuf;
+        int i = 0;
 
         int offset = 0;
         int scanlineStride = width;
         int upsideDown = (height - 1) * scanlineStride + offset;
         // Decode each scanline
-        int verticalOffset = 0;
         boolean isKeyFrame = true;
         try {
             int y = 0;
             int xy = upsideDown;
             loop:
             while (true) {
-                int opcode = in.readUnsignedByte();
+                checkAvailable(i, 1, count);
+                int opcode = in[i++] & 0xff;
                 if (opcode == 0) {
-                    opcode = in.readUnsignedByte();
+                    checkAvailable(i, 1, count);
+                    opcode = in[i++] & 0xff;
                     switch (opcode) {
                         case 0x0000: // end of line
                             y++;
@@ -494,8 +584,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break loop;
                         case 0x0002: {// delta skip
                             isKeyFrame = false;
-                            int dx = in.readUnsignedByte();
-                            int dy = in.readUnsignedByte();
+                            checkAvailable(i, 2, count);
+                            int dx = in[i++] & 0xff;
+                            int dy = in[i++] & 0xff;
                             y += dy;
                             int end = xy + dx - dy * scanlineStride;
                             if (prevDat != outDat) {
@@ -505,14 +596,18 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
                             break;
                         }
                         default: {// literal run
-                            readRGBs555to24(in, outDat, xy, opcode);
-                            xy += opcode;
+                            checkAvailable(i, opcode * 2, count);
+                            for (int end = xy + opcode; xy < end; xy++, i += 2) {
+                                outDat[xy] = rgb555to24((in[i] & 0xff) | ((in[i + 1] & 0xff) << 8));
+                            }
                             break;
                         }
                     }
                 } else {
                     // repetition
-                    int v = readRGB555to24(in);
+                    checkAvailable(i, 2, count);
+                    int v = rgb555to24((in[i] & 0xff) | ((in[i + 1] & 0xff) << 8));
+                    i += 2;
                     for (int end = xy + opcode; xy < end; xy++) {
                         outDat[xy] = v;
                     }
@@ -522,10 +617,64 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         } catch (ArrayIndexOutOfBoundsException t) {
             t.printStackTrace();
         }
-        in.close();
         return isKeyFrame;
     }
 
+    /** Converts a 15-bit RGB value to 24-bit RGB. */
+    private static int rgb555to24(int v) {
+        return ((v & (0x1f << 10)) << 9) | ((v & (0x1c << 10)) << 4) // red
+                | ((v & (0x1f << 5)) << 6) | ((v & (0x1c << 5)) << 1) // green
+                | ((v & (0x1f << 0)) << 3) | ((v & (0x1c << 0)) >> 2); // blue
+    }
+
+    /** Throws an EOFException if less than {@code needed} bytes are available
+     * at position {@code pos} of the inflated data.
+     */
+    private static void checkAvailable(int pos, int needed, int count) throws EOFException {
+        if (pos + needed > count) {
+            throw new EOFException();
+        }
+    }
+
+    /** Inflates a zlib compressed frame into {@code inflateBuf}.
+     * <p>
+     * Each frame is a complete zlib stream. The inflater and the buffer are
+     * reused for all frames.
+     *
+     * @return The number of inflated bytes.
+     */
+    private int inflate(byte[] inDat, int off, int length) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+        if (inflateBuf == null) {
+            inflateBuf = new byte[max(4096, length * 4)];
+        }
+        inflater.setInput(inDat, off, length);
+        int count = 0;
+        try {
+            while (!inflater.finished()) {
+                if (count == inflateBuf.length) {
+                    byte[] b = new byte[inflateBuf.length * 2];
+                    System.arraycopy(inflateBuf, 0, b, 0, count);
+                    inflateBuf = b;
+                }
+                int n = inflater.inflate(inflateBuf, count, inflateBuf.length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            IOException ex = new IOException("Illegal zlib data");
+            ex.initCause(e);
+            throw ex;
+        }
+        return count;
+    }
+
     /** Encodes an 8-bit delta frame with indexed colors.
      *
      * @param out The output stream. 
@@ -537,6 +686,22 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
      */
     public void encodeDelta8(OutputStream out, byte[] data, byte[] prev, int width, int height, int offset, int scanlineStride)
             throws IOException {
+        encodeDelta8(out, data, prev, null, width, height, offset, scanlineStride);
+    }
+
+    /** Encodes an 8-bit delta frame with indexed colors.
+     *
+     * @param out The output stream. 
+     * @param data The image data.
+     * @param prev The image data of the previous frame.
+     * @param dirty The dirty region map of the image data relative to the
+     * previous frame, or null.
+     * @param offset The offset to the first pixel in the data array.
+     * @param width The width of the image in data elements.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     */
+    public void encodeDelta8(OutputStream out, byte[] data, byte[] prev, DirtyRegionMap dirty, int width, int height, int offset, int scanlineStride)
+            throws IOException {
 
         temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
 
@@ -550,12 +715,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirty == null ? 0 : dirty.getCleanPrefix(height - 1 - (y - offset) / scanlineStride);
+            xy = mismatch(data, prev, xy + skipCount, xymax);
+            skipCount = xy - (xymax - width);
             if (skipCount == width) {
                 // => the entire line can be skipped
                 ++verticalOffset;
@@ -576,12 +738,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 byte v = data[xy];
@@ -661,9 +818,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -691,12 +846,8 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = mismatch(data, prev, xy, xymax) - xy;
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 ++verticalOffset;
@@ -717,12 +868,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 byte v = data[xy];
@@ -805,9 +951,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -829,9 +973,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
 
         temp.write(0); // Escape code
         temp.write(0x01);// End of bitmap
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a delta frame which is known to have the same content than
@@ -852,9 +994,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
 
         temp.write(0); // Escape code
         temp.write(0x01);// End of bitmap
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a delta frame which is known to have the same content than
@@ -875,9 +1015,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
 
         temp.write(0); // Escape code
         temp.write(0x01);// End of bitmap
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a 8-bit key frame with indexed colors.
@@ -966,9 +1104,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a 8-bit key frame with indexed colors to 24-bit.
@@ -1066,9 +1202,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a 16-bit delta frame.
@@ -1082,6 +1216,22 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
      */
     public void encodeDelta16(OutputStream out, short[] data, short[] prev, int width, int height, int offset, int scanlineStride)
             throws IOException {
+        encodeDelta16(out, data, prev, null, width, height, offset, scanlineStride);
+    }
+
+    /** Encodes a 16-bit delta frame.
+     *
+     * @param out The output stream. 
+     * @param data The image data.
+     * @param prev The image data of the previous frame.
+     * @param dirty The dirty region map of the image data relative to the
+     * previous frame, or null.
+     * @param offset The offset to the first pixel in the data array.
+     * @param width The width of the image in data elements.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     */
+    public void encodeDelta16(OutputStream out, short[] data, short[] prev, DirtyRegionMap dirty, int width, int height, int offset, int scanlineStride)
+            throws IOException {
 
 
         temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
@@ -1096,12 +1246,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirty == null ? 0 : dirty.getCleanPrefix(height - 1 - (y - offset) / scanlineStride);
+            xy = mismatch(data, prev, xy + skipCount, xymax);
+            skipCount = xy - (xymax - width);
             if (skipCount == width) {
                 // => the entire line can be skipped
                 ++verticalOffset;
@@ -1121,12 +1268,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 short v = data[xy];
@@ -1200,9 +1342,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -1292,9 +1432,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a 24-bit delta frame.
@@ -1308,6 +1446,22 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
      */
     public void encodeDelta24(OutputStream out, int[] data, int[] prev, int width, int height, int offset, int scanlineStride)
             throws IOException {
+        encodeDelta24(out, data, prev, null, width, height, offset, scanlineStride);
+    }
+
+    /** Encodes a 24-bit delta frame.
+     *
+     * @param out The output stream. 
+     * @param data The image data.
+     * @param prev The image data of the previous frame.
+     * @param dirty The dirty region map of the image data relative to the
+     * previous frame, or null.
+     * @param offset The offset to the first pixel in the data array.
+     * @param width The width of the image in data elements.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     */
+    public void encodeDelta24(OutputStream out, int[] data, int[] prev, DirtyRegionMap dirty, int width, int height, int offset, int scanlineStride)
+            throws IOException {
 
         temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
 
@@ -1322,12 +1476,9 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int xymax = xy + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = dirty == null ? 0 : dirty.getCleanPrefix(height - 1 - (y - offset) / scanlineStride);
+            xy = mismatch(data, prev, xy + skipCount, xymax);
+            skipCount = xy - (xymax - width);
             if (skipCount == width) {
                 // => the entire line can be skipped
                 ++verticalOffset;
@@ -1347,12 +1498,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 int v = data[xy];
@@ -1432,9 +1578,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -1524,9 +1668,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     public void setPalette(byte[] redValues, byte[] greenValues, byte[] blueValues) {
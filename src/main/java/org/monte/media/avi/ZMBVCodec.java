@@ -10,7 +10,9 @@
  */
 package org.monte.media.avi;
 
+import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferUShort;
+import java.awt.Rectangle;
 import java.awt.Point;
 import java.awt.image.DirectColorModel;
 import org.monte.media.AbstractVideoCodec;
@@ -24,6 +26,9 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.util.Hashtable;
+import java.util.zip.Deflater;
+import java.io.IOException;
+import org.monte.media.io.SeekableByteArrayOutputStream;
 import static java.lang.Math.*;
 import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.BufferFlag.*;
@@ -32,8 +37,19 @@ import static org.monte.media.BufferFlag.*;
 /**
  * Implements the DosBox Capture Codec {@code "ZMBV"}.
  * <p>
- * This codec currently only supports decoding from the file format into
- * a {@code BufferedImage}. Encoding support may be added in the future.
+ * This codec supports encoding from a {@code BufferedImage} into the
+ * file format, and decoding from the file format to a {@code BufferedImage}.
+ * <p>
+ * The encoder supports depth 8 (palettised), 15, 16, and 24 or 32 (both
+ * encoded with 32 bits per pixel). A 16 bit image with 5 bits per component
+ * is encoded with 15 bits. The block size, the motion search range and the
+ * zlib compression level can be set in the output format with
+ * {@code BlockWidthKey}, {@code BlockHeightKey}, {@code MotionSearchRangeKey}
+ * and {@code CompressionLevelKey}.
+ * <p>
+ * All frames from a key frame up to the next key frame form a single zlib
+ * stream. Therefore this encoder can not be primed with a {@code PREFETCH}
+ * buffer. After a reset, the next frame is always encoded as a key frame.
  * <p>
  * For details seee {@link ZMBVCodecCore}.
  * </p>
@@ -46,23 +62,195 @@ public class ZMBVCodec extends AbstractVideoCodec {
     private ZMBVCodecCore state;
     private Object oldPixels;
     private Object newPixels;
+    private int frameCounter;
+    private int[] palette;
 
     public ZMBVCodec() {
         super(new Format[]{
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true), //
                     new Format(MediaTypeKey, MediaType.VIDEO, 
                     EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class, FixedFrameRateKey, true), //
                 },
                 new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, 
                             EncodingKey, ENCODING_BUFFERED_IMAGE, FixedFrameRateKey, true), //
+                    new Format(MediaTypeKey, MediaType.VIDEO,
+                    EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                    FixedFrameRateKey, true, DepthKey, 8), //
+                    new Format(MediaTypeKey, MediaType.VIDEO,
+                    EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                    FixedFrameRateKey, true, DepthKey, 15), //
+                    new Format(MediaTypeKey, MediaType.VIDEO,
+                    EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                    FixedFrameRateKey, true, DepthKey, 16), //
+                    new Format(MediaTypeKey, MediaType.VIDEO,
+                    EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                    FixedFrameRateKey, true, DepthKey, 24), //
+                    new Format(MediaTypeKey, MediaType.VIDEO,
+                    EncodingKey, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE, DataClassKey, byte[].class,
+                    FixedFrameRateKey, true, DepthKey, 32), //
                 });
         name = "ZMBV Codec";
     }
 
+    @Override
+    public void reset() {
+        if (state != null) {
+            state.resetEncoder();
+        }
+        frameCounter = 0;
+    }
+
     @Override
     public int process(Buffer in, Buffer out) {
-        return decode(in,out);
+        if (outputFormat.get(EncodingKey).equals(ENCODING_AVI_DOSBOX_SCREEN_CAPTURE)) {
+            return encode(in, out);
+        } else {
+            return decode(in, out);
+        }
+    }
+
+    public int encode(Buffer in, Buffer out) {
+        out.setMetaTo(in);
+        out.format = outputFormat;
+        if (in.isFlag(DISCARD)) {
+            return CODEC_OK;
+        }
+        if (in.isFlag(PREFETCH)) {
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
+        if (state == null) {
+            state = new ZMBVCodecCore();
+        }
+        Format vf = outputFormat;
+        state.setCompressionLevel(vf.get(CompressionLevelKey, Deflater.DEFAULT_COMPRESSION));
+        state.setBlockSize(vf.get(BlockWidthKey, 16), vf.get(BlockHeightKey, 16));
+        state.setMotionSearchRange(vf.get(MotionSearchRangeKey, 16));
+
+        SeekableByteArrayOutputStream tmp;
+        if (out.data instanceof byte[]) {
+            tmp = new SeekableByteArrayOutputStream((byte[]) out.data);
+        } else {
+            tmp = new SeekableByteArrayOutputStream();
+        }
+
+        boolean isKeyframe = frameCounter == 0
+                || frameCounter % vf.get(KeyFrameIntervalKey, vf.get(FrameRateKey).intValue()) == 0;
+        frameCounter++;
+
+        // Handle sub-image
+        Rectangle r;
+        int scanlineStride;
+        if (in.data instanceof BufferedImage) {
+            BufferedImage image = (BufferedImage) in.data;
+            WritableRaster raster = image.getRaster();
+            scanlineStride = raster.getSampleModel().getWidth();
+            r = raster.getBounds();
+            r.x -= raster.getSampleModelTranslateX();
+            r.y -= raster.getSampleModelTranslateY();
+        } else {
+            r = new Rectangle(0, 0, vf.get(WidthKey), vf.get(HeightKey));
+            scanlineStride = vf.get(WidthKey);
+        }
+        int offset = r.x + r.y * scanlineStride;
+        int width = vf.get(WidthKey);
+        int height = vf.get(HeightKey);
+        // The palette is stored in the frames and not in palette change chunks.
+        out.header = null;
+
+        try {
+            switch (vf.get(DepthKey)) {
+                case 8: {
+                    byte[] pixels = getIndexed8(in);
+                    if (pixels == null) {
+                        out.setFlag(DISCARD);
+                        return CODEC_OK;
+                    }
+                    isKeyframe = state.encode8(tmp, pixels, getPalette(in), isKeyframe, width, height, offset, scanlineStride);
+                    break;
+                }
+                case 15: {
+                    short[] pixels = getRGB15(in);
+                    if (pixels == null) {
+                        out.setFlag(DISCARD);
+                        return CODEC_OK;
+                    }
+                    isKeyframe = state.encode15(tmp, pixels, isKeyframe, width, height, offset, scanlineStride);
+                    break;
+                }
+                case 16: {
+                    if (isRGB555(in)) {
+                        isKeyframe = state.encode15(tmp, getRGB15(in), isKeyframe, width, height, offset, scanlineStride);
+                    } else {
+                        short[] pixels = getRGB16(in);
+                        if (pixels == null) {
+                            out.setFlag(DISCARD);
+                            return CODEC_OK;
+                        }
+                        isKeyframe = state.encode16(tmp, pixels, isKeyframe, width, height, offset, scanlineStride);
+                    }
+                    break;
+                }
+                case 24:
+                case 32: {
+                    int[] pixels = getRGB24(in);
+                    if (pixels == null) {
+                        out.setFlag(DISCARD);
+                        return CODEC_OK;
+                    }
+                    isKeyframe = state.encode32(tmp, pixels, isKeyframe, width, height, offset, scanlineStride);
+                    break;
+                }
+                default: {
+                    out.setFlag(DISCARD);
+                    return CODEC_FAILED;
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            state.resetEncoder();
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
+        out.setFlag(KEYFRAME, isKeyframe);
+        out.clearFlag(SAME_DATA);
+        out.data = tmp.getBuffer();
+        out.offset = 0;
+        out.sampleCount = 1;
+        out.length = tmp.size();
+        return CODEC_OK;
+    }
+
+    /** Returns true if the buffer holds an image with 5 bits per component. */
+    private boolean isRGB555(Buffer buf) {
+        if (buf.data instanceof BufferedImage) {
+            ColorModel cm = ((BufferedImage) buf.data).getColorModel();
+            return (cm instanceof DirectColorModel) && ((DirectColorModel) cm).getGreenMask() == (0x1f << 5);
+        }
+        return false;
     }
+
+    /** Returns the palette of an 8-bit image. Returns a gray scale palette if
+     * the image has no palette.
+     */
+    private int[] getPalette(Buffer buf) {
+        if (palette == null) {
+            palette = new int[256];
+        }
+        ColorModel cm = (buf.data instanceof BufferedImage) ? ((BufferedImage) buf.data).getColorModel() : null;
+        if (cm instanceof IndexColorModel) {
+            IndexColorModel icm = (IndexColorModel) cm;
+            icm.getRGBs(palette);
+        } else {
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = (i) | (i << 8) | (i << 16);
+            }
+        }
+        return palette;
+    }
+
     public int decode(Buffer in, Buffer out) {
         out.setMetaTo(in);
         if (in.isFlag(DISCARD)) {
@@ -114,7 +302,7 @@ public class ZMBVCodec extends AbstractVideoCodec {
                 int imgType = BufferedImage.TYPE_USHORT_555_RGB; // FIXME - Don't hardcode this value
                 if (img == null || img.getWidth() != width || img.getHeight() != height || img.getType() != imgType) {
                     DirectColorModel cm = new DirectColorModel(15, 0x1f << 10, 0x1f << 5, 0x1f << 0);
-                    img = new MyBufferedImage(cm, Raster.createWritableRaster(cm.createCompatibleSampleModel(width, height), new Point(0, 0)), false, new Hashtable());
+                    img = new MyBufferedImage(cm, Raster.createWritableRaster(cm.createCompatibleSampleModel(width, height), new Point(0, 0)), false, new Hashtable<Object, Object>());
                 } else {
                     MyBufferedImage oldImg = img;
                     img = new MyBufferedImage(oldImg.getColorModel(), oldImg.getRaster(), oldImg.isAlphaPremultiplied(), null);
@@ -126,8 +314,8 @@ public class ZMBVCodec extends AbstractVideoCodec {
             case 16: {
                 int imgType = BufferedImage.TYPE_USHORT_565_RGB; // FIXME - Don't hardcode this value
                 if (img == null || img.getWidth() != width || img.getHeight() != height || img.getType() != imgType) {
-                    DirectColorModel cm = new DirectColorModel(15, 0x1f << 11, 0x3f << 5, 0x1f << 0);
-                    img = new MyBufferedImage(cm, Raster.createWritableRaster(cm.createCompatibleSampleModel(width, height), new Point(0, 0)), false, new Hashtable());
+                    DirectColorModel cm = new DirectColorModel(16, 0x1f << 11, 0x3f << 5, 0x1f << 0);
+                    img = new MyBufferedImage(cm, Raster.createWritableRaster(cm.createCompatibleSampleModel(width, height), new Point(0, 0)), false, new Hashtable<Object, Object>());
                 } else {
                     MyBufferedImage oldImg = img;
                     img = new MyBufferedImage(oldImg.getColorModel(), oldImg.getRaster(), oldImg.isAlphaPremultiplied(), null);
@@ -136,7 +324,19 @@ public class ZMBVCodec extends AbstractVideoCodec {
                 System.arraycopy((short[]) newPixels, 0, pixels, 0, width * height);
             }
             break;
-            case 32:
+            case 32: {
+                int imgType = BufferedImage.TYPE_INT_RGB;
+                if (img == null || img.getWidth() != width || img.getHeight() != height || img.getType() != imgType) {
+                    DirectColorModel cm = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+                    img = new MyBufferedImage(cm, cm.createCompatibleWritableRaster(width, height), false, new Hashtable<Object, Object>());
+                } else {
+                    MyBufferedImage oldImg = img;
+                    img = new MyBufferedImage(oldImg.getColorModel(), oldImg.getRaster(), oldImg.isAlphaPremultiplied(), null);
+                }
+                int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+                System.arraycopy((int[]) newPixels, 0, pixels, 0, width * height);
+            }
+            break;
             default:
                 throw new UnsupportedOperationException("Unsupported depth:" + depth);
         }
@@ -10,12 +10,14 @@
  */
 package org.monte.media.avi;
 
-//import com.jcraft.jzlib.InflaterInputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.io.IOException;
-import org.monte.media.io.AppendableByteArrayInputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import org.monte.media.io.ByteArrayImageInputStream;
-import org.monte.media.io.UncachedImageInputStream;
 import java.nio.ByteOrder;
 import javax.imageio.stream.ImageInputStream;
 import static java.lang.Math.*;
@@ -115,9 +117,17 @@ import static java.lang.Math.*;
  * >http://wiki.multimedia.cx/index.php?title=ZMBV</a>
  * </p>
  * 
- * <p>Note: We use the JZLib library for decoding compressed input streams,
- * because the {@code javax.zip.InflaterInputStream} sometimes fails to decode
- * the data.</p>
+ * <p>The frames from a key frame up to the next key frame form a single zlib
+ * stream. A single {@code java.util.zip.Inflater} is reused for all frames.
+ * It is fed directly with the data of each frame and reset on key frames.</p>
+ * 
+ * <p>The encoder writes zlib compressed frames in the 8, 15, 16 and 32 bit
+ * video modes. Delta frames use a motion search over a small set of candidate
+ * vectors for each block, see {@link #setBlockSize} and
+ * {@link #setMotionSearchRange}. Since the frames form a single zlib stream,
+ * delta frames can only be encoded in sequence, and the encoder needs
+ * {@code Deflater.SYNC_FLUSH}, which is available since Java 7. On older
+ * runtimes all frames are encoded as key frames.</p>
  * 
  * *
  * @author Werner Randelshofer
@@ -154,11 +164,49 @@ public class ZMBVCodecCore {
     private int compressionType;
     private int videoFormat;
     private int blockWidth, blockHeight;
-    private InflaterInputStream inflaterInputStream;
-    private AppendableByteArrayInputStream byteArrayInputStream;
+    /** The inflater is reused for all frames. */
+    private Inflater inflater;
+    /** Holds the inflated data of the current frame. */
+    private byte[] inflateBuf;
     private int[] palette;
     private byte[] blockDataBuf;
     private byte[] blockHeaderBuf;
+    // Encoder state
+    /** The deflater is reused for all frames. All frames from a key frame
+     * up to the next key frame form a single zlib stream. */
+    private Deflater deflater;
+    private byte[] deflateBuf;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int encoderBlockWidth = 16, encoderBlockHeight = 16;
+    private int motionSearchRange = 16;
+    /** The video mode, block size and dimension of the current zlib stream. */
+    private int streamVideoFormat, streamBlockWidth, streamBlockHeight, streamWidth, streamHeight;
+    /** Whether the next frame must be encoded as a key frame. */
+    private boolean isStreamValid;
+    /** The pixels of the previous and of the current frame, one pixel per
+     * int, scanline stride = width. */
+    private int[] prevPixels, curPixels;
+    /** The palette of the previous frame, in 8-bit mode. */
+    private int[] prevPalette;
+    /** The motion vectors of the previous frame. Two entries per block. */
+    private int[] vectors;
+    /** The uncompressed data of the current frame. */
+    private byte[] frameBuf;
+    /** Deflater.deflate(byte[],int,int,int) with a flush mode is only
+     * available since Java 7. */
+    private final static Method deflateWithFlush;
+    /** The value of Deflater.SYNC_FLUSH. */
+    private final static int SYNC_FLUSH = 2;
+
+    static {
+        Method m;
+        try {
+            m = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            m = null;
+        }
+        deflateWithFlush = m;
+    }
 
     /** Decodes to 32-bit RGB. 
      * Returns true if a key-frame was decoded.
@@ -195,25 +243,7 @@ public class ZMBVCodecCore {
             switch (compressionType) {
                 case COMPRESSION_ZLIB:
 
-                    if (!isKeyframe && inflaterInputStream != null) {
-                        // => streams are present.
-                        //    Append new data.
-                        AppendableByteArrayInputStream bais = byteArrayInputStream;
-                        bais.appendBuffer(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()), true);
-                    } else {
-                        // => Keyframe or no Inflater Stream present. Create new one, and ensure
-                        //    that we can append new data to it later on.
-                        if (byteArrayInputStream != null) {
-                            byteArrayInputStream.setBuffer(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()));
-                        } else {
-                            byteArrayInputStream = new AppendableByteArrayInputStream(inDat.clone(), (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()));
-                        }
-                        if (inflaterInputStream != null) {
-                            inflaterInputStream.close();
-                        }
-                        inflaterInputStream = new InflaterInputStream(byteArrayInputStream);
-                    }
-                    in = new UncachedImageInputStream(inflaterInputStream, ByteOrder.LITTLE_ENDIAN);
+                    in = inflate(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()), isKeyframe);
                     break;
                 case COMPRESSION_NONE:
                     System.out.println(" NO COMPRESSION");
@@ -285,25 +315,7 @@ public class ZMBVCodecCore {
             switch (compressionType) {
                 case COMPRESSION_ZLIB:
 
-                    if (!isKeyframe && inflaterInputStream != null) {
-                        // => streams are present.
-                        //    Append new data.
-                        AppendableByteArrayInputStream bais = byteArrayInputStream;
-                        bais.appendBuffer(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()), true);
-                    } else {
-                        // => Keyframe or no Inflater Stream present. Create new one, and ensure
-                        //    that we can append new data to it later on.
-                        if (byteArrayInputStream != null) {
-                            byteArrayInputStream.setBuffer(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()));
-                        } else {
-                            byteArrayInputStream = new AppendableByteArrayInputStream(inDat.clone(), (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()));
-                        }
-                        if (inflaterInputStream != null) {
-                            inflaterInputStream.close();
-                        }
-                        inflaterInputStream = new InflaterInputStream(byteArrayInputStream);
-                    }
-                    in = new UncachedImageInputStream(inflaterInputStream, ByteOrder.LITTLE_ENDIAN);
+                    in = inflate(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()), isKeyframe);
                     break;
                 case COMPRESSION_NONE:
                     System.out.println(" NO COMPRESSION");
@@ -378,25 +390,7 @@ public class ZMBVCodecCore {
             switch (compressionType) {
                 case COMPRESSION_ZLIB:
 
-                    if (!isKeyframe && inflaterInputStream != null) {
-                        // => streams are present.
-                        //    Append new data.
-                        AppendableByteArrayInputStream bais = byteArrayInputStream;
-                        bais.appendBuffer(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()), true);
-                    } else {
-                        // => Keyframe or no Inflater Stream present. Create new one, and ensure
-                        //    that we can append new data to it later on.
-                        if (byteArrayInputStream != null) {
-                            byteArrayInputStream.setBuffer(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()));
-                        } else {
-                            byteArrayInputStream = new AppendableByteArrayInputStream(inDat.clone(), (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()));
-                        }
-                        if (inflaterInputStream != null) {
-                            inflaterInputStream.close();
-                        }
-                        inflaterInputStream = new InflaterInputStream(byteArrayInputStream);
-                    }
-                    in = new UncachedImageInputStream(inflaterInputStream, ByteOrder.LITTLE_ENDIAN);
+                    in = inflate(inDat, (int) in.getStreamPosition() + off, (int) (length - in.getStreamPosition()), isKeyframe);
                     break;
                 case COMPRESSION_NONE:
                     System.err.println(" NO COMPRESSION");
@@ -442,10 +436,10 @@ public class ZMBVCodecCore {
                 case VIDEOMODE_32_BIT_BGR:
                     depth = 32;
                     if (!(outDatHolder[0] instanceof int[])) {
-                        outDatHolder[0] = new short[width * height];
+                        outDatHolder[0] = new int[width * height];
                     }
                     if (!(prevDatHolder[0] instanceof int[])) {
-                        prevDatHolder[0] = new short[width * height];
+                        prevDatHolder[0] = new int[width * height];
                     }
                     decode32to32(in, (int[]) outDatHolder[0], (int[]) prevDatHolder[0], flags, width, height);
                     break;
@@ -1144,6 +1138,489 @@ public class ZMBVCodecCore {
         }
     }
 
+    /** Sets the zlib compression level. The new level takes effect
+     * with the next key frame.
+     *
+     * @param newValue A value from 0 (no compression) to 9 (best compression),
+     * or {@code Deflater.DEFAULT_COMPRESSION}.
+     */
+    public void setCompressionLevel(int newValue) {
+        if (newValue != compressionLevel) {
+            if (newValue < -1 || newValue > 9) {
+                throw new IllegalArgumentException("Illegal compression level:" + newValue);
+            }
+            compressionLevel = newValue;
+            isStreamValid = false;
+        }
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /** Sets the size of the blocks used for motion compensation. The new size
+     * takes effect with the next key frame.
+     *
+     * @param width The block width, between 1 and 255.
+     * @param height The block height, between 1 and 255.
+     */
+    public void setBlockSize(int width, int height) {
+        if (width < 1 || width > 255 || height < 1 || height > 255) {
+            throw new IllegalArgumentException("Illegal block size:" + width + "x" + height);
+        }
+        if (width != encoderBlockWidth || height != encoderBlockHeight) {
+            encoderBlockWidth = width;
+            encoderBlockHeight = height;
+            isStreamValid = false;
+        }
+    }
+
+    public int getBlockWidth() {
+        return encoderBlockWidth;
+    }
+
+    public int getBlockHeight() {
+        return encoderBlockHeight;
+    }
+
+    /** Sets the maximal horizontal and vertical distance of a motion vector.
+     *
+     * @param newValue A value between 0 and 63. 0 disables motion search.
+     */
+    public void setMotionSearchRange(int newValue) {
+        if (newValue < 0 || newValue > 63) {
+            throw new IllegalArgumentException("Illegal motion search range:" + newValue);
+        }
+        motionSearchRange = newValue;
+    }
+
+    public int getMotionSearchRange() {
+        return motionSearchRange;
+    }
+
+    /** Resets the encoder. The next frame will be encoded as a key frame. */
+    public void resetEncoder() {
+        isStreamValid = false;
+    }
+
+    /** Encodes an 8-bit palettised frame.
+     *
+     * @param out The output stream.
+     * @param data The image data.
+     * @param palette The palette, 24-bit RGB values.
+     * @param isKeyframe Whether a key frame is requested.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     * @return True if a key frame was encoded. A key frame is encoded even if
+     * none was requested, if the format of the frame has changed.
+     */
+    public boolean encode8(OutputStream out, byte[] data, int[] palette, boolean isKeyframe, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        int[] cur = getCurPixels(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, xy = offset + y * scanlineStride, i = y * width; x < width; x++) {
+                cur[i++] = data[xy++] & 0xff;
+            }
+        }
+        return encodeFrame(out, VIDEOMODE_8_BIT_PALETTIZED, palette, isKeyframe, width, height);
+    }
+
+    /** Encodes a 15-bit RGB frame (5 bits per component).
+     *
+     * @return True if a key frame was encoded.
+     * @see #encode8
+     */
+    public boolean encode15(OutputStream out, short[] data, boolean isKeyframe, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        copyPixels(data, width, height, offset, scanlineStride);
+        return encodeFrame(out, VIDEOMODE_15_BIT_BGR, null, isKeyframe, width, height);
+    }
+
+    /** Encodes a 16-bit RGB frame (5 bits red, 6 bits green, 5 bits blue).
+     *
+     * @return True if a key frame was encoded.
+     * @see #encode8
+     */
+    public boolean encode16(OutputStream out, short[] data, boolean isKeyframe, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        copyPixels(data, width, height, offset, scanlineStride);
+        return encodeFrame(out, VIDEOMODE_16_BIT_BGR, null, isKeyframe, width, height);
+    }
+
+    private void copyPixels(short[] data, int width, int height, int offset, int scanlineStride) {
+        int[] cur = getCurPixels(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, xy = offset + y * scanlineStride, i = y * width; x < width; x++) {
+                cur[i++] = data[xy++] & 0xffff;
+            }
+        }
+    }
+
+    /** Encodes a 32-bit RGB frame.
+     *
+     * @return True if a key frame was encoded.
+     * @see #encode8
+     */
+    public boolean encode32(OutputStream out, int[] data, boolean isKeyframe, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        int[] cur = getCurPixels(width, height);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(data, offset + y * scanlineStride, cur, y * width, width);
+        }
+        return encodeFrame(out, VIDEOMODE_32_BIT_BGR, null, isKeyframe, width, height);
+    }
+
+    private int[] getCurPixels(int width, int height) {
+        if (curPixels == null || curPixels.length != width * height) {
+            curPixels = new int[width * height];
+        }
+        return curPixels;
+    }
+
+    /** Encodes the frame in {@code curPixels}. */
+    private boolean encodeFrame(OutputStream out, int videoFormat, int[] palette, boolean isKeyframe, int width, int height)
+            throws IOException {
+        int bytesPerPixel;
+        switch (videoFormat) {
+            case VIDEOMODE_8_BIT_PALETTIZED:
+                bytesPerPixel = 1;
+                break;
+            case VIDEOMODE_15_BIT_BGR:
+            case VIDEOMODE_16_BIT_BGR:
+                bytesPerPixel = 2;
+                break;
+            case VIDEOMODE_32_BIT_BGR:
+                bytesPerPixel = 4;
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported video format " + videoFormat);
+        }
+        if (!isStreamValid || deflateWithFlush == null
+                || videoFormat != streamVideoFormat || width != streamWidth || height != streamHeight) {
+            isKeyframe = true;
+        }
+        if (isKeyframe) {
+            streamVideoFormat = videoFormat;
+            streamBlockWidth = encoderBlockWidth;
+            streamBlockHeight = encoderBlockHeight;
+            streamWidth = width;
+            streamHeight = height;
+        }
+        int nbx = (width + streamBlockWidth - 1) / streamBlockWidth;
+        int nby = (height + streamBlockHeight - 1) / streamBlockHeight;
+        int blockHeaderSize = ((nbx * nby * 2 + 3) & ~3);
+        int maxSize = 768 + blockHeaderSize + width * height * bytesPerPixel;
+        if (frameBuf == null || frameBuf.length < maxSize) {
+            frameBuf = new byte[maxSize];
+        }
+        byte[] b = frameBuf;
+        int[] cur = curPixels;
+        int[] prev = prevPixels;
+        int count = 0;
+
+        int flags = isKeyframe ? 1 : 0;
+        if (palette != null) {
+            if (isKeyframe) {
+                for (int i = 0; i < 256; i++) {
+                    int rgb = palette[i];
+                    b[count++] = (byte) (rgb >>> 16);
+                    b[count++] = (byte) (rgb >>> 8);
+                    b[count++] = (byte) rgb;
+                }
+            } else {
+                for (int i = 0; i < 256; i++) {
+                    if (((palette[i] ^ prevPalette[i]) & 0xffffff) != 0) {
+                        flags |= 2;
+                        break;
+                    }
+                }
+                if ((flags & 2) != 0) {
+                    for (int i = 0; i < 256; i++) {
+                        int rgb = palette[i] ^ prevPalette[i];
+                        b[count++] = (byte) (rgb >>> 16);
+                        b[count++] = (byte) (rgb >>> 8);
+                        b[count++] = (byte) rgb;
+                    }
+                }
+            }
+            if (prevPalette == null) {
+                prevPalette = new int[256];
+            }
+            System.arraycopy(palette, 0, prevPalette, 0, 256);
+        }
+
+        if (isKeyframe) {
+            count = writePixels(b, count, cur, 0, width * height, bytesPerPixel);
+        } else {
+            count = encodeBlocks(b, count, cur, prev, width, height, nbx, nby, blockHeaderSize, bytesPerPixel);
+        }
+
+        out.write(flags);
+        if (isKeyframe) {
+            out.write(0); // major version
+            out.write(1); // minor version
+            out.write(COMPRESSION_ZLIB);
+            out.write(videoFormat);
+            out.write(streamBlockWidth);
+            out.write(streamBlockHeight);
+        }
+        deflate(out, b, count, isKeyframe);
+
+        curPixels = prev;
+        prevPixels = cur;
+        isStreamValid = true;
+        return isKeyframe;
+    }
+
+    /** Writes the block headers and the XOR'ed block data of a delta frame.
+     * <p>
+     * For each block, the motion vector with the fewest differing pixels is
+     * chosen from a small set of candidates: the null vector, the vectors
+     * of the left and the upper neighbour, the vector of the block in the
+     * previous frame, and horizontal and vertical shifts up to
+     * {@code motionSearchRange}. This finds most of the scrolling and
+     * window dragging in screen recordings at a fraction of the cost
+     * of an exhaustive search.
+     *
+     * @return The new count of bytes in {@code b}.
+     */
+    private int encodeBlocks(byte[] b, int count, int[] cur, int[] prev, int width, int height,
+            int nbx, int nby, int blockHeaderSize, int bytesPerPixel) {
+        int bw = streamBlockWidth, bh = streamBlockHeight;
+        if (vectors == null || vectors.length != nbx * nby * 2) {
+            vectors = new int[nbx * nby * 2];
+        }
+        int[] v = vectors;
+        int header = count;
+        int data = count + blockHeaderSize;
+        for (int i = header; i < data; i++) {
+            b[i] = 0;
+        }
+        int range = motionSearchRange;
+        int block = 0;
+        for (int by = 0; by < height; by += bh) {
+            int bh2 = min(height - by, bh);
+            for (int bx = 0; bx < width; bx += bw, block += 2) {
+                int bw2 = min(width - bx, bw);
+
+                // Evaluate candidates
+                int bestDx = 0, bestDy = 0;
+                int best = countDifferences(cur, prev, width, bx, by, bw2, bh2, 0, 0, Integer.MAX_VALUE);
+                if (best != 0) {
+                    for (int c = 0; c < 3 && best != 0; c++) {
+                        int dx, dy;
+                        if (c == 0) {
+                            dx = v[block];
+                            dy = v[block + 1];
+                        } else if (c == 1) {
+                            if (bx == 0) {
+                                continue;
+                            }
+                            dx = v[block - 2];
+                            dy = v[block - 1];
+                        } else {
+                            if (by == 0) {
+                                continue;
+                            }
+                            dx = v[block - nbx * 2];
+                            dy = v[block - nbx * 2 + 1];
+                        }
+                        if ((dx != 0 || dy != 0) && (dx != bestDx || dy != bestDy)
+                                && isInside(bx + dx, by + dy, bw2, bh2, width, height)) {
+                            int d = countDifferences(cur, prev, width, bx, by, bw2, bh2, dx, dy, best);
+                            if (d < best) {
+                                best = d;
+                                bestDx = dx;
+                                bestDy = dy;
+                            }
+                        }
+                    }
+                    for (int s = 1; s <= range && best != 0; s++) {
+                        for (int c = 0; c < 4 && best != 0; c++) {
+                            int dx = (c == 0) ? s : (c == 1) ? -s : 0;
+                            int dy = (c == 2) ? s : (c == 3) ? -s : 0;
+                            if (isInside(bx + dx, by + dy, bw2, bh2, width, height)) {
+                                int d = countDifferences(cur, prev, width, bx, by, bw2, bh2, dx, dy, best);
+                                if (d < best) {
+                                    best = d;
+                                    bestDx = dx;
+                                    bestDy = dy;
+                                }
+                            }
+                        }
+                    }
+                }
+                v[block] = bestDx;
+                v[block + 1] = bestDy;
+
+                // Write block header and block data
+                b[header + block] = (byte) ((bestDx << 1) | (best == 0 ? 0 : 1));
+                b[header + block + 1] = (byte) (bestDy << 1);
+                if (best != 0) {
+                    for (int y = 0; y < bh2; y++) {
+                        int xy = bx + (by + y) * width;
+                        int pxy = xy + bestDx + bestDy * width;
+                        for (int x = 0; x < bw2; x++) {
+                            int xor = cur[xy + x] ^ prev[pxy + x];
+                            switch (bytesPerPixel) {
+                                case 1:
+                                    b[data++] = (byte) xor;
+                                    break;
+                                case 2:
+                                    b[data++] = (byte) xor;
+                                    b[data++] = (byte) (xor >>> 8);
+                                    break;
+                                default:
+                                    b[data++] = (byte) xor;
+                                    b[data++] = (byte) (xor >>> 8);
+                                    b[data++] = (byte) (xor >>> 16);
+                                    b[data++] = (byte) (xor >>> 24);
+                                    break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    private static boolean isInside(int x, int y, int w, int h, int width, int height) {
+        return x >= 0 && y >= 0 && x + w <= width && y + h <= height;
+    }
+
+    /** Counts the pixels of a block which differ from the pixels of the
+     * previous frame at the offset dx, dy. Stops counting at {@code limit}.
+     */
+    private static int countDifferences(int[] cur, int[] prev, int width, int bx, int by, int bw, int bh, int dx, int dy, int limit) {
+        int d = 0;
+        for (int y = 0; y < bh; y++) {
+            int xy = bx + (by + y) * width;
+            int pxy = xy + dx + dy * width;
+            for (int x = 0; x < bw; x++) {
+                if (cur[xy + x] != prev[pxy + x]) {
+                    if (++d >= limit) {
+                        return d;
+                    }
+                }
+            }
+        }
+        return d;
+    }
+
+    /** Writes pixels in little endian byte order.
+     *
+     * @return The new count of bytes in {@code b}.
+     */
+    private static int writePixels(byte[] b, int count, int[] pixels, int off, int len, int bytesPerPixel) {
+        switch (bytesPerPixel) {
+            case 1:
+                for (int i = off, n = off + len; i < n; i++) {
+                    b[count++] = (byte) pixels[i];
+                }
+                break;
+            case 2:
+                for (int i = off, n = off + len; i < n; i++) {
+                    int p = pixels[i];
+                    b[count++] = (byte) p;
+                    b[count++] = (byte) (p >>> 8);
+                }
+                break;
+            default:
+                for (int i = off, n = off + len; i < n; i++) {
+                    int p = pixels[i];
+                    b[count++] = (byte) p;
+                    b[count++] = (byte) (p >>> 8);
+                    b[count++] = (byte) (p >>> 16);
+                    b[count++] = (byte) (p >>> 24);
+                }
+                break;
+        }
+        return count;
+    }
+
+    /** Compresses the data of a frame and writes it to the output stream.
+     * <p>
+     * Each frame is terminated with a sync flush, so that a decoder can
+     * decompress it entirely without waiting for the next frame. If sync
+     * flush is not available, every frame is a complete zlib stream, and
+     * every frame is encoded as a key frame.
+     */
+    private void deflate(OutputStream out, byte[] b, int len, boolean isKeyframe) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(compressionLevel);
+            deflateBuf = new byte[4096];
+        } else if (isKeyframe) {
+            deflater.reset();
+            deflater.setLevel(compressionLevel);
+        }
+        deflater.setInput(b, 0, len);
+        if (deflateWithFlush == null) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(deflateBuf, 0, deflateBuf.length);
+                out.write(deflateBuf, 0, n);
+            }
+        } else {
+            try {
+                int n;
+                do {
+                    n = (Integer) deflateWithFlush.invoke(deflater, deflateBuf, 0, deflateBuf.length, SYNC_FLUSH);
+                    out.write(deflateBuf, 0, n);
+                } while (n == deflateBuf.length);
+            } catch (IllegalAccessException e) {
+                InternalError ie = new InternalError("Deflater.deflate with flush mode is not accessible");
+                ie.initCause(e);
+                throw ie;
+            } catch (InvocationTargetException e) {
+                IOException ex = new IOException("Deflater failed");
+                ex.initCause(e.getCause());
+                throw ex;
+            }
+        }
+    }
+
+    /** Inflates the compressed data of a frame into {@code inflateBuf}.
+     * <p>
+     * All frames from a key frame up to the next key frame form a single
+     * zlib stream. Therefore the inflater is only reset on key frames.
+     *
+     * @return An input stream over the inflated data.
+     */
+    private ImageInputStream inflate(byte[] inDat, int off, int length, boolean isKeyframe) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else if (isKeyframe) {
+            inflater.reset();
+        }
+        if (inflateBuf == null) {
+            inflateBuf = new byte[max(4096, length * 4)];
+        }
+        inflater.setInput(inDat, off, length);
+        int count = 0;
+        try {
+            while (!inflater.finished()) {
+                if (count == inflateBuf.length) {
+                    byte[] b = new byte[inflateBuf.length * 2];
+                    System.arraycopy(inflateBuf, 0, b, 0, count);
+                    inflateBuf = b;
+                }
+                int n = inflater.inflate(inflateBuf, count, inflateBuf.length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            IOException ex = new IOException("Illegal zlib data");
+            ex.initCause(e);
+            throw ex;
+        }
+        return new ByteArrayImageInputStream(inflateBuf, 0, count, ByteOrder.LITTLE_ENDIAN);
+    }
+
     public int[] getPalette() {
         if (palette == null) {
             palette = new int[256];
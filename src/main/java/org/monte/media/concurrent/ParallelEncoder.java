@@ -0,0 +1,272 @@
+/*
+ * @(#)ParallelEncoder.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.concurrent;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.monte.media.Buffer;
+import org.monte.media.BufferPool;
+import org.monte.media.Codec;
+import org.monte.media.image.DirtyRegionMap;
+import static org.monte.media.BufferFlag.*;
+
+/**
+ * Encodes video frames concurrently on a pool of worker threads.
+ * <p>
+ * The frames are submitted with {@link #encode} on a single producer thread.
+ * The encoded frames are put into the output queue in the same order in
+ * which they were submitted.
+ * <p>
+ * Each worker thread owns an encoder. Before a frame is encoded, the encoder
+ * is reset. A key frame is encoded right away. A delta frame only depends
+ * on the previous frame: the encoder is primed with a snapshot of the
+ * previous frame, which is passed to it with the {@code PREFETCH} flag, and
+ * then encodes the frame. Encoders which support delta encoding only update
+ * their reference frame when they get a {@code PREFETCH} buffer, and
+ * encoders which only produce key frames discard it, so that priming is
+ * cheap.
+ * <p>
+ * The input data is copied into a snapshot, because the producer usually
+ * reuses its input buffer for the next frame. The number of snapshots and
+ * the number of output buffers are bounded; {@code encode} blocks for a
+ * while if all of them are in use.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ParallelEncoder {
+
+    /** Holds a snapshot of an input frame. */
+    private static class Snapshot {
+
+        final Buffer buf;
+        final AtomicInteger refCount = new AtomicInteger(1);
+
+        Snapshot(Buffer buf) {
+            this.buf = buf;
+        }
+    }
+
+    /** Holds the encoder of a worker thread and its scratch buffers. */
+    private static class Worker {
+
+        final Codec encoder;
+        final Buffer primeIn = new Buffer();
+        final Buffer primeOut = new Buffer();
+
+        Worker(Codec encoder) {
+            this.encoder = encoder;
+        }
+    }
+    private final ExecutorService executor;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final BufferPool snapshotPool;
+    private final BufferPool outputPool;
+    private final BlockingQueue<Buffer> outputQueue;
+    private final int keyFrameInterval;
+    /** The snapshot of the most recently submitted frame. Producer thread only. */
+    private Snapshot previous;
+    /** The number of submitted frames. */
+    private volatile long submitCount;
+    /** Encoded frames which wait for their predecessors. Guarded by itself. */
+    private final HashMap<Long, Buffer> pending = new HashMap<Long, Buffer>();
+    /** The sequence number of the next frame to be put into the output queue.
+     * Guarded by pending. */
+    private long emitCount;
+    private volatile Throwable failure;
+
+    /** Creates a new parallel encoder.
+     *
+     * @param encoders The encoders. One worker thread is created per encoder.
+     * All encoders must have the same input and output format.
+     * @param keyFrameInterval The interval between key frames.
+     * @param outputPool The pool from which the output buffers are taken.
+     * @param outputQueue The queue which receives the encoded frames.
+     */
+    public ParallelEncoder(Codec[] encoders, int keyFrameInterval, BufferPool outputPool, BlockingQueue<Buffer> outputQueue) {
+        this.keyFrameInterval = Math.max(1, keyFrameInterval);
+        this.outputPool = outputPool;
+        this.outputQueue = outputQueue;
+        this.idleWorkers = new ArrayBlockingQueue<Worker>(encoders.length);
+        for (Codec c : encoders) {
+            idleWorkers.add(new Worker(c));
+        }
+        // Each worker needs the snapshot of its frame and of the previous frame.
+        this.snapshotPool = new BufferPool(encoders.length * 2 + 1);
+        this.executor = Executors.newFixedThreadPool(encoders.length);
+    }
+
+    /** Submits a frame for encoding. The data of the buffer is copied,
+     * so the caller can reuse the buffer after this method returns.
+     * <p>
+     * This method must always be called from the same thread.
+     *
+     * @param in The input buffer.
+     * @param timeout How long to wait for a free snapshot and output buffer.
+     * @param unit The unit of the timeout.
+     * @return True if the frame was submitted. False if the frame was dropped
+     * because no buffers became available within the timeout.
+     * @throws IOException if the encoding of a previous frame failed.
+     */
+    public boolean encode(Buffer in, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        if (failure != null) {
+            IOException e = new IOException("Codec failed or could not process frame in a single step.");
+            e.initCause(failure);
+            throw e;
+        }
+        final Buffer out = outputPool.acquire(timeout, unit);
+        if (out == null) {
+            return false;
+        }
+        Buffer snapshotBuf = snapshotPool.acquire(timeout, unit);
+        if (snapshotBuf == null) {
+            outputPool.release(out);
+            return false;
+        }
+        snapshotBuf.setMetaTo(in);
+        copyData(in, snapshotBuf);
+
+        final long seq = submitCount;
+        final Snapshot current = new Snapshot(snapshotBuf);
+        final Snapshot reference = (seq % keyFrameInterval == 0) ? null : previous;
+        if (reference != null) {
+            reference.refCount.incrementAndGet();
+        }
+        current.refCount.incrementAndGet();
+        if (previous != null) {
+            release(previous);
+        }
+        previous = current;
+        submitCount = seq + 1;
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                process(seq, reference, current, out);
+            }
+        });
+        return true;
+    }
+
+    /** Encodes a frame on a worker thread. */
+    private void process(long seq, Snapshot reference, Snapshot current, Buffer out) {
+        Worker w = idleWorkers.poll();
+        try {
+            Codec encoder = w.encoder;
+            encoder.reset();
+            if (reference != null) {
+                w.primeIn.setMetaTo(reference.buf);
+                w.primeIn.data = reference.buf.data;
+                w.primeIn.offset = reference.buf.offset;
+                w.primeIn.length = reference.buf.length;
+                w.primeIn.setFlag(PREFETCH);
+                encoder.process(w.primeIn, w.primeOut);
+                w.primeIn.data = null;
+            }
+            if (encoder.process(current.buf, out) != Codec.CODEC_OK) {
+                failure = new IOException("Codec failed to encode frame " + seq + ".");
+                out.setFlag(DISCARD);
+            }
+        } catch (Throwable t) {
+            failure = t;
+            out.setFlag(DISCARD);
+        } finally {
+            idleWorkers.add(w);
+            if (reference != null) {
+                release(reference);
+            }
+            release(current);
+            emit(seq, out);
+        }
+    }
+
+    /** Puts the encoded frame into the output queue, after all preceding
+     * frames have been put into it.
+     */
+    private void emit(long seq, Buffer out) {
+        synchronized (pending) {
+            pending.put(seq, out);
+            for (Buffer buf = pending.remove(emitCount); buf != null; buf = pending.remove(emitCount)) {
+                if (!outputQueue.offer(buf)) {
+                    outputPool.release(buf);
+                }
+                emitCount++;
+            }
+            pending.notifyAll();
+        }
+    }
+
+    private void release(Snapshot s) {
+        if (s.refCount.decrementAndGet() == 0) {
+            snapshotPool.release(s.buf);
+        }
+    }
+
+    /** Copies the data and the header of the input buffer into the snapshot
+     * buffer. Reuses the image and the dirty region map of the snapshot buffer
+     * if possible.
+     */
+    private static void copyData(Buffer from, Buffer into) {
+        if (from.header instanceof DirtyRegionMap) {
+            if (into.header instanceof DirtyRegionMap) {
+                ((DirtyRegionMap) into.header).setTo((DirtyRegionMap) from.header);
+            } else {
+                into.header = ((DirtyRegionMap) from.header).clone();
+            }
+        } else {
+            into.header = from.header;
+        }
+        if (from.data instanceof BufferedImage) {
+            BufferedImage img = (BufferedImage) from.data;
+            BufferedImage copy = (into.data instanceof BufferedImage) ? (BufferedImage) into.data : null;
+            ColorModel cm = img.getColorModel();
+            if (copy == null || copy.getWidth() != img.getWidth() || copy.getHeight() != img.getHeight()
+                    || !copy.getColorModel().equals(cm)) {
+                copy = new BufferedImage(cm, cm.createCompatibleWritableRaster(img.getWidth(), img.getHeight()),
+                        cm.isAlphaPremultiplied(), null);
+            }
+            copy.getRaster().setRect(img.getRaster());
+            into.data = copy;
+            into.offset = 0;
+            into.length = 1;
+        } else {
+            Object header = into.header;
+            into.setDataTo(from);
+            into.header = header;
+        }
+    }
+
+    /** Waits until all submitted frames have been put into the output queue,
+     * and then shuts down the worker threads.
+     */
+    public void finish() throws InterruptedException {
+        synchronized (pending) {
+            while (emitCount < submitCount) {
+                pending.wait();
+            }
+        }
+        if (previous != null) {
+            release(previous);
+            previous = null;
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
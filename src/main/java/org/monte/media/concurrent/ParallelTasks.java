@@ -0,0 +1,111 @@
+/*
+ * @(#)ParallelTasks.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a list of independent tasks concurrently, for example the bands of an
+ * image, and waits until all of them are done.
+ * <p>
+ * The first task is run on the calling thread, the other tasks are run by an
+ * executor. By default, this is a pool of daemon threads, one per processor,
+ * which is shared by all users of this class.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ParallelTasks {
+
+    private static ExecutorService sharedExecutor;
+
+    /** Prevent instance creation. */
+    private ParallelTasks() {
+    }
+
+    /** Returns the executor which is shared by all users of this class. */
+    public static synchronized Executor getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ParallelTasks-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    /** Runs the tasks and returns when all of them are done, even if some of
+     * them have failed. If the calling thread is interrupted while it waits,
+     * it keeps waiting and sets its interrupted status before returning.
+     *
+     * @param executor The executor for the tasks after the first one. Specify
+     * null to use the shared executor.
+     * @param tasks The tasks.
+     * @throws ExecutionException if a task has failed. The cause is the
+     * exception of the first task in the list which has failed.
+     */
+    public static void invokeAll(Executor executor, List<? extends Callable<Object>> tasks) throws ExecutionException {
+        int n = tasks.size();
+        if (n == 0) {
+            return;
+        }
+        Executor exec = executor == null ? getSharedExecutor() : executor;
+        List<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>(n);
+        for (int i = 0; i < n; i++) {
+            futures.add(new FutureTask<Object>(tasks.get(i)));
+        }
+        for (int i = 1; i < n; i++) {
+            exec.execute(futures.get(i));
+        }
+        futures.get(0).run();
+
+        // Wait for all tasks, so that none of them is still running when
+        // this method returns.
+        ExecutionException failure = null;
+        boolean isInterrupted = false;
+        for (int i = 0; i < n; i++) {
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    break;
+                } catch (InterruptedException ex) {
+                    isInterrupted = true;
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex;
+                    }
+                    break;
+                }
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * @(#)BatchTranscoder.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.converter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a queue of {@link MovieTranscoder} jobs on a fixed number of worker
+ * threads.
+ * <p>
+ * Each job runs on a single thread, and at most one job per thread runs at a
+ * time. Since the memory usage of a transcoder does not depend on the length
+ * of the movie, the memory usage of the batch is bounded by the number of
+ * threads times the memory usage of the largest job.
+ * <p>
+ * Jobs are submitted with {@link #submit}. The finished jobs, including the
+ * failed ones, are retrieved in the order of completion with {@link #take}.
+ * Both methods must be called from the same thread.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class BatchTranscoder {
+
+    private final ExecutorService executor;
+    private final CompletionService<MovieTranscoder> completionService;
+    /** The number of jobs which have been submitted but not taken. */
+    private int pendingCount;
+
+    /** Creates a new batch transcoder with one thread per available
+     * processor. */
+    public BatchTranscoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a new batch transcoder.
+     *
+     * @param threadCount The number of worker threads.
+     */
+    public BatchTranscoder(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1:" + threadCount);
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BatchTranscoder-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        completionService = new ExecutorCompletionService<MovieTranscoder>(executor);
+    }
+
+    /** Adds a job to the queue. */
+    public void submit(final MovieTranscoder job) {
+        completionService.submit(new Callable<MovieTranscoder>() {
+
+            @Override
+            public MovieTranscoder call() {
+                try {
+                    job.transcode();
+                } catch (Throwable t) {
+                    // The failure is recorded in the job
+                }
+                return job;
+            }
+        });
+        pendingCount++;
+    }
+
+    /** Returns the number of jobs which have been submitted but not taken. */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /** Waits for the next job to finish and returns it. Use
+     * {@link MovieTranscoder#getFailure} to find out whether the job
+     * succeeded.
+     *
+     * @return The finished job, or null if there are no pending jobs.
+     */
+    public MovieTranscoder take() throws InterruptedException {
+        if (pendingCount == 0) {
+            return null;
+        }
+        try {
+            MovieTranscoder job = completionService.take().get();
+            pendingCount--;
+            return job;
+        } catch (ExecutionException ex) {
+            // Can not happen, because the jobs catch all exceptions
+            throw new InternalError(ex.toString());
+        }
+    }
+
+    /** Stops the worker threads after all submitted jobs have finished. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * @(#)MovieTranscoder.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.converter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.MovieReader;
+import org.monte.media.MovieWriter;
+import org.monte.media.Registry;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.BufferFlag.*;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Transcodes a movie file into another movie file without user interface.
+ * <p>
+ * The reader, the writer and the codecs are taken from the {@link Registry}.
+ * For each track of the input file, an output format is chosen from the
+ * formats suggested by {@link Registry#suggestOutputFormats}. If a video or
+ * audio encoding has been specified, the first suggested format with this
+ * encoding is chosen, otherwise the first suggested format is chosen, which
+ * is the input format if the output file format supports it.
+ * <p>
+ * If the samples of a track can be stored in the output file format as they
+ * are, they are copied without decoding them, see {@link Remuxer}. This is
+ * also done between AVI and QuickTime files, if both have an encoding for
+ * the samples. Then the transcoder is limited by I/O rather than by the CPU.
+ * Otherwise the samples are transcoded with a codec from the registry, or
+ * with a {@link CodecChain} of a decoder into a Java format
+ * ({@code BufferedImage} or PCM audio), and an encoder into the output format.
+ * <p>
+ * The samples are read in the order given by {@link MovieReader#nextTrack}.
+ * At most two samples per track are held in memory at a time, and the
+ * buffers are reused. The last sample of each track is passed to its codec
+ * with the {@code END_OF_MEDIA} flag, so that the codec can flush its
+ * state. Thus the memory usage of a transcoder depends on the size of the
+ * frames and on the codecs, but not on the length of the movie.
+ * <p>
+ * A transcoder can be used only once. It is not thread safe, but different
+ * transcoders can run concurrently, see {@link BatchTranscoder}.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class MovieTranscoder {
+
+    private final File inputFile;
+    private final File outputFile;
+    private String videoEncoding;
+    private String audioEncoding;
+    private Registry registry = Registry.getInstance();
+    /** The number of video frames which have been read. */
+    private volatile long frameCount;
+    /** The number of bytes of sample data which have been read. */
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    private volatile long startTime;
+    private volatile long elapsedTime;
+    private volatile Throwable failure;
+
+    /** Creates a new transcoder.
+     *
+     * @param inputFile The input file.
+     * @param outputFile The output file. The file format is determined
+     * from the file extension.
+     */
+    public MovieTranscoder(File inputFile, File outputFile) {
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /** Sets the encoding of the video tracks of the output file, for example
+     * {@code VideoFormatKeys.ENCODING_AVI_PNG}. Specify null to choose the
+     * encoding automatically.
+     */
+    public void setVideoEncoding(String newValue) {
+        videoEncoding = newValue;
+    }
+
+    public String getVideoEncoding() {
+        return videoEncoding;
+    }
+
+    /** Sets the encoding of the audio tracks of the output file. Specify null
+     * to choose the encoding automatically.
+     */
+    public void setAudioEncoding(String newValue) {
+        audioEncoding = newValue;
+    }
+
+    public String getAudioEncoding() {
+        return audioEncoding;
+    }
+
+    /** Sets the registry from which the reader, the writer and the codecs
+     * are taken. The default value is {@link Registry#getInstance}.
+     */
+    public void setRegistry(Registry newValue) {
+        registry = newValue;
+    }
+
+    /** Transcodes the input file into the output file.
+     *
+     * @throws IOException if the input file can not be read, if no writer or
+     * codec is available, or if a codec fails.
+     */
+    public void transcode() throws IOException {
+        startTime = System.nanoTime();
+        try {
+            MovieReader in = registry.getReader(inputFile);
+            if (in == null) {
+                throw new IOException("No reader for " + inputFile);
+            }
+            try {
+                Format outputFileFormat = registry.getFileFormat(outputFile);
+                MovieWriter out = outputFileFormat == null ? null : registry.getWriter(outputFileFormat, outputFile);
+                if (out == null) {
+                    throw new IOException("No writer for " + outputFile);
+                }
+                try {
+                    transcode(in, out, outputFileFormat);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            bytesWritten = outputFile.length();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            elapsedTime = System.nanoTime() - startTime;
+        }
+    }
+
+    private void transcode(MovieReader in, MovieWriter out, Format outputFileFormat) throws IOException {
+        int trackCount = in.getTrackCount();
+        int[] outputTracks = new int[trackCount];
+        Format[] outputFormats = new Format[trackCount];
+        Codec[] codecs = new Codec[trackCount];
+        Buffer[] inBufs = new Buffer[trackCount];
+        Buffer[] outBufs = new Buffer[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            Format inputFormat = in.getFormat(t);
+            Format outputFormat = getRemuxFormat(inputFormat, outputFileFormat);
+            boolean isRemux = outputFormat != null;
+            if (!isRemux) {
+                outputFormat = getOutputFormat(inputFormat, outputFileFormat);
+            }
+            if (outputFormat == null) {
+                throw new IOException("Track " + t + " can not be written into " + outputFileFormat.get(MimeTypeKey) + ": " + inputFormat);
+            }
+            outputTracks[t] = out.addTrack(outputFormat);
+            outputFormats[t] = out.getFormat(outputTracks[t]);
+            if (!isRemux && !isSameEncoding(inputFormat, outputFormats[t])) {
+                codecs[t] = createCodec(inputFormat, outputFormats[t]);
+                if (codecs[t] == null) {
+                    throw new IOException("No codec for track " + t + " from " + inputFormat + " to " + outputFormats[t]);
+                }
+                outBufs[t] = new Buffer();
+            }
+            inBufs[t] = new Buffer();
+        }
+
+        // The last sample of a track is only known when the reader has no
+        // more samples for it. Therefore each sample is held back until the
+        // next sample of its track has been read, and the last sample is
+        // processed with the END_OF_MEDIA flag, so that codecs can flush.
+        Buffer[] lastBufs = new Buffer[trackCount];
+        boolean[] isEnded = new boolean[trackCount];
+        for (int t = in.nextTrack(); t != -1; t = in.nextTrack()) {
+            if (isEnded[t]) {
+                // The reader returns a track which has ended
+                break;
+            }
+            Buffer inBuf = inBufs[t];
+            in.read(t, inBuf);
+            if (inBuf.isFlag(END_OF_MEDIA)) {
+                finishTrack(t, lastBufs, isEnded, codecs, outBufs, outputTracks, outputFormats, out);
+                continue;
+            }
+            if (!inBuf.isFlag(DISCARD)) {
+                bytesRead += inBuf.length;
+            }
+            if (inBuf.format != null && inBuf.format.get(MediaTypeKey) == MediaType.VIDEO) {
+                frameCount += inBuf.sampleCount;
+            }
+
+            Buffer lastBuf = lastBufs[t];
+            if (lastBuf != null) {
+                process(t, lastBuf, codecs[t], outBufs[t], outputTracks[t], outputFormats[t], out);
+                inBufs[t] = lastBuf;
+            } else {
+                inBufs[t] = new Buffer();
+            }
+            lastBufs[t] = inBuf;
+        }
+        for (int t = 0; t < trackCount; t++) {
+            if (!isEnded[t]) {
+                finishTrack(t, lastBufs, isEnded, codecs, outBufs, outputTracks, outputFormats, out);
+            }
+        }
+    }
+
+    /** Processes the last sample of a track with the END_OF_MEDIA flag. */
+    private void finishTrack(int t, Buffer[] lastBufs, boolean[] isEnded, Codec[] codecs, Buffer[] outBufs,
+            int[] outputTracks, Format[] outputFormats, MovieWriter out) throws IOException {
+        isEnded[t] = true;
+        Buffer lastBuf = lastBufs[t];
+        if (lastBuf != null) {
+            lastBuf.setFlag(END_OF_MEDIA);
+            process(t, lastBuf, codecs[t], outBufs[t], outputTracks[t], outputFormats[t], out);
+            lastBufs[t] = null;
+        }
+    }
+
+    /** Writes a sample, either as it is or transcoded by the codec. */
+    private void process(int t, Buffer inBuf, Codec codec, Buffer outBuf, int outputTrack, Format outputFormat,
+            MovieWriter out) throws IOException {
+        if (codec == null) {
+            Remuxer.remux(inBuf, outputFormat);
+            out.write(outputTrack, inBuf);
+        } else {
+            int status;
+            do {
+                status = codec.process(inBuf, outBuf);
+                if (status == Codec.CODEC_FAILED) {
+                    throw new IOException("Codec failed on track " + t + ": " + codec.getName());
+                }
+                if (!outBuf.isFlag(DISCARD) && (status & Codec.CODEC_OUTPUT_NOT_FILLED) == 0) {
+                    outBuf.format = outputFormat;
+                    out.write(outputTrack, outBuf);
+                }
+            } while ((status & Codec.CODEC_INPUT_NOT_CONSUMED) != 0);
+        }
+    }
+
+    /** Returns the output format for copying the samples of the specified
+     * input format without decoding them, or null if the samples can not be
+     * copied or if another encoding has been requested. */
+    private Format getRemuxFormat(Format inputFormat, Format outputFileFormat) {
+        Format f = Remuxer.getRemuxFormat(inputFormat, outputFileFormat.get(MimeTypeKey));
+        String encoding = inputFormat.get(MediaTypeKey) == MediaType.VIDEO ? videoEncoding : audioEncoding;
+        if (f == null || encoding != null && !encoding.equals(f.get(EncodingKey))) {
+            return null;
+        }
+        return f;
+    }
+
+    /** Returns the output format for the specified input format, or null
+     * if the output file format does not support the media. Formats with
+     * the same depth or sample size as the input format are preferred. */
+    private Format getOutputFormat(Format inputFormat, Format outputFileFormat) {
+        ArrayList<Format> formats = registry.suggestOutputFormats(inputFormat, outputFileFormat);
+        String encoding = inputFormat.get(MediaTypeKey) == MediaType.VIDEO ? videoEncoding : audioEncoding;
+        Format sameDepth = inputFormat.intersectKeys(DepthKey, SampleSizeInBitsKey, ChannelsKey);
+        Format outputFormat = null;
+        for (Format f : formats) {
+            if (isJavaEncoding(f.get(EncodingKey))) {
+                // Codecs suggest their in-memory formats as well
+                continue;
+            }
+            if (encoding != null && !encoding.equals(f.get(EncodingKey))) {
+                continue;
+            }
+            if (outputFormat == null) {
+                outputFormat = f;
+            }
+            if (sameDepth.matches(f)) {
+                outputFormat = f;
+                break;
+            }
+        }
+        if (outputFormat == null) {
+            return null;
+        }
+        outputFormat = new Format(MimeTypeKey, outputFileFormat.get(MimeTypeKey)).append(outputFormat);
+        if (outputFormat.get(MediaTypeKey) == MediaType.AUDIO
+                && outputFormat.containsKey(SampleSizeInBitsKey) && outputFormat.containsKey(ChannelsKey)) {
+            // The suggested format carries the frame size of the input format
+            outputFormat = new Format(FrameSizeKey,
+                    (outputFormat.get(SampleSizeInBitsKey) + 7) / 8 * outputFormat.get(ChannelsKey)).append(outputFormat);
+        }
+        if (!isSameEncoding(inputFormat, outputFormat) && inputFormat.containsKey(CompressorNameKey)
+                && inputFormat.get(CompressorNameKey).equals(outputFormat.get(CompressorNameKey))) {
+            // The compressor name has been taken over from the input format
+            outputFormat = outputFormat.removeKeys(CompressorNameKey);
+        }
+        return outputFormat;
+    }
+
+    private static boolean isJavaEncoding(String encoding) {
+        return ENCODING_BUFFERED_IMAGE.equals(encoding)
+                || ENCODING_PCM_SIGNED.equals(encoding) || ENCODING_PCM_UNSIGNED.equals(encoding);
+    }
+
+    private static boolean isSameEncoding(Format a, Format b) {
+        return a.get(EncodingKey) != null && a.get(EncodingKey).equals(b.get(EncodingKey))
+                && a.get(MimeTypeKey) != null && a.get(MimeTypeKey).equals(b.get(MimeTypeKey));
+    }
+
+    /** Creates a codec which transcodes from the input format into the
+     * output format. */
+    private Codec createCodec(Format inputFormat, Format outputFormat) {
+        Codec codec = createCodec(registry.getCodecs(inputFormat, outputFormat), inputFormat, outputFormat);
+        if (codec != null) {
+            return codec;
+        }
+
+        Format javaFormat;
+        if (inputFormat.get(MediaTypeKey) == MediaType.VIDEO) {
+            javaFormat = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, ENCODING_BUFFERED_IMAGE, DataClassKey, BufferedImage.class).append(inputFormat);
+        } else {
+            javaFormat = new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, inputFormat.get(SignedKey, true) ? ENCODING_PCM_SIGNED : ENCODING_PCM_UNSIGNED,
+                    DataClassKey, byte[].class).append(inputFormat);
+        }
+        Codec decoder = createCodec(registry.getCodecs(inputFormat, javaFormat), inputFormat, javaFormat);
+        if (decoder == null) {
+            return null;
+        }
+        // The encoder produces frames at the frame rate of the output format
+        Format encoderFormat = outputFormat.intersectKeys(FixedFrameRateKey).append(decoder.getOutputFormat());
+        Codec encoder = createCodec(registry.getCodecs(encoderFormat, outputFormat), encoderFormat, outputFormat);
+        if (encoder == null) {
+            return null;
+        }
+        return CodecChain.createCodecChain(decoder, encoder);
+    }
+
+    /** Returns the first codec which accepts the input format and the output
+     * format, or null. */
+    private static Codec createCodec(Codec[] candidates, Format inputFormat, Format outputFormat) {
+        for (Codec c : candidates) {
+            if (c.setInputFormat(inputFormat) != null && c.setOutputFormat(outputFormat) != null) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the exception which has caused the transcoder to fail, or
+     * null. */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /** Returns the number of video frames which have been read. */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /** Returns the number of bytes of sample data which have been read. */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Returns the size of the output file, after the transcoder has
+     * finished. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Returns the elapsed time in nanoseconds. While the transcoder is
+     * running, the time since the start is returned. */
+    public long getElapsedTime() {
+        if (elapsedTime == 0 && startTime != 0) {
+            return System.nanoTime() - startTime;
+        }
+        return elapsedTime;
+    }
+
+    /** Returns the number of video frames per second. */
+    public double getFramesPerSecond() {
+        long elapsed = getElapsedTime();
+        return elapsed == 0 ? 0 : frameCount * 1e9 / elapsed;
+    }
+
+    /** Returns the number of megabytes of sample data read per second. */
+    public double getMegabytesPerSecond() {
+        long elapsed = getElapsedTime();
+        return elapsed == 0 ? 0 : bytesRead * 1e9 / (1024 * 1024) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        if (failure != null) {
+            return inputFile + " -> " + outputFile + ": failed, " + failure;
+        }
+        return String.format("%s -> %s: %d frames, %.1f MB in %.2f s, %.1f frames/s, %.2f MB/s",
+                inputFile, outputFile, frameCount, bytesRead / (1024.0 * 1024.0),
+                getElapsedTime() / 1e9, getFramesPerSecond(), getMegabytesPerSecond());
+    }
+}
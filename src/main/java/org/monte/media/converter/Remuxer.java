@@ -0,0 +1,142 @@
+/*
+ * @(#)Remuxer.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.converter;
+
+import org.monte.media.Buffer;
+import org.monte.media.Format;
+import org.monte.media.avi.AVIBMPDIB;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Copies encoded samples from one movie file format into another without
+ * decoding them.
+ * <p>
+ * AVI and QuickTime use different names for the same encodings. The AVI
+ * {@code fccHandler} is mapped to the QuickTime compression type and vice
+ * versa:
+ * <table>
+ * <tr><th>AVI</th><th>QuickTime</th></tr>
+ * <tr><td>MJPG</td><td>jpeg</td></tr>
+ * <tr><td>png </td><td>png </td></tr>
+ * <tr><td>tscc, 16 or 24 bits</td><td>tscc</td></tr>
+ * <tr><td>PCM, 8 bits unsigned</td><td>raw </td></tr>
+ * <tr><td>PCM, 16 bits or more, signed, little endian</td><td>sowt</td></tr>
+ * </table>
+ * Within the same file format, all encodings can be copied.
+ * <p>
+ * Only the container metadata is rewritten. The only change to a sample is
+ * the DHT segment, which is inserted into MJPG frames that omit it, because
+ * QuickTime requires complete JPEG images. Encodings with 8 bits or less per
+ * pixel are not mapped, because their palette is stored outside of the
+ * samples.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class Remuxer {
+
+    /** Prevent instance creation. */
+    private Remuxer() {
+    }
+
+    /** Returns the format for writing the samples of the specified input
+     * format into a file of the specified MIME type without decoding them.
+     *
+     * @param inputFormat The format of the samples.
+     * @param outputMimeType The MIME type of the output file, for example
+     * {@code FormatKeys.MIME_QUICKTIME}.
+     * @return The output format, or null if the samples can not be copied.
+     */
+    public static Format getRemuxFormat(Format inputFormat, String outputMimeType) {
+        String inputMimeType = inputFormat.get(MimeTypeKey);
+        if (outputMimeType.equals(inputMimeType)) {
+            return inputFormat;
+        }
+        String encoding = null;
+        if (MIME_AVI.equals(inputMimeType) && MIME_QUICKTIME.equals(outputMimeType)) {
+            encoding = getQuickTimeEncoding(inputFormat);
+        } else if (MIME_QUICKTIME.equals(inputMimeType) && MIME_AVI.equals(outputMimeType)) {
+            encoding = getAVIEncoding(inputFormat);
+        }
+        if (encoding == null) {
+            return null;
+        }
+        return new Format(MimeTypeKey, outputMimeType, EncodingKey, encoding)//
+                .append(inputFormat.removeKeys(CompressorNameKey));
+    }
+
+    /** Returns the QuickTime encoding of an AVI format, or null. */
+    private static String getQuickTimeEncoding(Format f) {
+        String enc = f.get(EncodingKey);
+        if (f.get(MediaTypeKey) == MediaType.VIDEO) {
+            if (ENCODING_AVI_MJPG.equals(enc)) {
+                return ENCODING_QUICKTIME_JPEG;
+            } else if (ENCODING_AVI_PNG.equals(enc)) {
+                return ENCODING_QUICKTIME_PNG;
+            } else if (ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE.equals(enc) && f.get(DepthKey, 0) > 8) {
+                return ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+            }
+        } else if (f.get(MediaTypeKey) == MediaType.AUDIO && ENCODING_AVI_PCM.equals(enc)) {
+            int bits = f.get(SampleSizeInBitsKey, 0);
+            if (bits == 8) {
+                return ENCODING_QUICKTIME_RAW_PCM;
+            } else if (bits > 8) {
+                return ENCODING_QUICKTIME_SOWT_PCM;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the AVI encoding of a QuickTime format, or null. */
+    private static String getAVIEncoding(Format f) {
+        String enc = f.get(EncodingKey);
+        if (f.get(MediaTypeKey) == MediaType.VIDEO) {
+            if (ENCODING_QUICKTIME_JPEG.equals(enc)) {
+                return ENCODING_AVI_MJPG;
+            } else if (ENCODING_QUICKTIME_PNG.equals(enc)) {
+                return ENCODING_AVI_PNG;
+            } else if (ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE.equals(enc) && f.get(DepthKey, 0) > 8) {
+                return ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+            }
+        } else if (f.get(MediaTypeKey) == MediaType.AUDIO) {
+            int bits = f.get(SampleSizeInBitsKey, 0);
+            if (bits == 8 && ENCODING_QUICKTIME_RAW_PCM.equals(enc)) {
+                return ENCODING_AVI_PCM;
+            } else if (bits > 8 && ENCODING_QUICKTIME_SOWT_PCM.equals(enc)) {
+                return ENCODING_AVI_PCM;
+            }
+        }
+        return null;
+    }
+
+    /** Prepares an encoded sample for writing it with the specified output
+     * format. The format of the buffer is set to the output format.
+     *
+     * @param buf A buffer with a sample in the input format returned by
+     * {@link #getRemuxFormat}.
+     * @param outputFormat The output format returned by
+     * {@link #getRemuxFormat}.
+     */
+    public static void remux(Buffer buf, Format outputFormat) {
+        if (ENCODING_AVI_MJPG.equals(buf.format.get(EncodingKey))
+                && ENCODING_QUICKTIME_JPEG.equals(outputFormat.get(EncodingKey))
+                && buf.length > 2) {
+            byte[] data = (byte[]) buf.data;
+            if (!AVIBMPDIB.hasDHTSeg(data, buf.offset, buf.length)) {
+                buf.data = AVIBMPDIB.insertDHTSeg(data, buf.offset, buf.length);
+                buf.offset = 0;
+                buf.length = ((byte[]) buf.data).length;
+            }
+        }
+        buf.format = outputFormat;
+    }
+}
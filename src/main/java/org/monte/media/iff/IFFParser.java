@@ -12,7 +12,11 @@ package org.monte.media.iff;
 
 import org.monte.media.AbortException;
 import org.monte.media.ParseException;
+import org.monte.media.io.ByteBufferInputStream;
+import org.monte.media.io.FileChannelInputStream;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Hashtable;
 
 /**
@@ -207,6 +211,12 @@ public class IFFParser
     private Hashtable groupChunks;
     /** Reference to the input stream. */
     private MC68000InputStream in;
+    /** Reference to the buffer, if we parse a buffer. */
+    private ByteBuffer buffer;
+    /** Reference to the channel, if we parse a channel. */
+    private FileChannel channel;
+    /** Position of scan 0 in the buffer or in the channel. */
+    private long origin;
 
     /* ---- constructors ---- */
     /**
@@ -248,9 +258,56 @@ public class IFFParser
      */
     public void parse(InputStream in, IFFVisitor v)
             throws ParseException, AbortException, IOException {
-        this.in = new MC68000InputStream(new BufferedInputStream(in));
+        parse(new MC68000InputStream(new BufferedInputStream(in)), v, null, null, 0);
+    }
+
+    /**
+     * Interprets the IFFFileExpression located at the current position of
+     * the indicated buffer, for example of a {@code MappedByteBuffer}.
+     * <p>
+     * The data of the chunks is not copied. Each chunk gets a view of its
+     * data in the buffer, which is only copied into an array when
+     * {@link IFFChunk#getData} is called.
+     * The position of the buffer is not changed.
+     *
+     * @see #parse(InputStream, IFFVisitor)
+     */
+    public void parse(ByteBuffer in, IFFVisitor v)
+            throws ParseException, AbortException, IOException {
+        parse(new MC68000InputStream(new ByteBufferInputStream(in)), v, in, null, in.position());
+    }
+
+    /**
+     * Interprets the IFFFileExpression located at the specified position
+     * of the indicated channel.
+     * <p>
+     * Chunks which have not been declared are skipped without reading them.
+     * The data of a chunk is only read when {@link IFFChunk#getData} or
+     * {@link IFFChunk#getDataBuffer} is called, so the channel must be open
+     * as long as the visitor needs the data.
+     * The position of the channel is not changed, and scan positions
+     * are relative to the specified position.
+     *
+     * @see #parse(InputStream, IFFVisitor)
+     */
+    public void parse(FileChannel in, long position, IFFVisitor v)
+            throws ParseException, AbortException, IOException {
+        parse(new MC68000InputStream(new FileChannelInputStream(in, position)), v, null, in, position);
+    }
+
+    private void parse(MC68000InputStream in, IFFVisitor v, ByteBuffer buffer, FileChannel channel, long origin)
+            throws ParseException, AbortException, IOException {
+        this.in = in;
+        this.buffer = buffer;
+        this.channel = channel;
+        this.origin = origin;
         visitor = v;
-        parseFile();
+        try {
+            parseFile();
+        } finally {
+            this.buffer = null;
+            this.channel = null;
+        }
     }
 
     /**
@@ -506,24 +563,45 @@ public class IFFParser
         IFFChunk chunk = new IFFChunk(parent.getType(), id, size, scan);
 
         if (isDataChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             visitor.visitChunk(parent, chunk);
         } else if (isPropertyChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             parent.putPropertyChunk(chunk);
         } else if (isCollectionChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             parent.addCollectionChunk(chunk);
         } else {
             if (size > 0) {
-                in.skipFully((int) size);
+                in.skipFully(size);
+            }
+        }
+    }
+
+    /**
+     * Reads the data of a chunk. If we parse a buffer or a channel, the data
+     * is skipped, and the chunk gets a reference to it.
+     */
+    private void readData(IFFChunk chunk) throws IOException {
+        int size = (int) chunk.getSize();
+        if (buffer != null) {
+            ByteBuffer data = buffer.duplicate();
+            int pos = (int) (origin + in.getScan());
+            data.position(Math.min(pos, data.limit()));
+            data.limit(Math.min(pos + size, data.limit()));
+            chunk.setData(data);
+            if (data.hasRemaining()) {
+                in.skipFully(data.remaining());
+            }
+        } else if (channel != null) {
+            chunk.setData(channel, origin + in.getScan());
+            if (size > 0) {
+                in.skipFully(size);
             }
+        } else {
+            byte[] data = new byte[size];
+            in.read(data, 0, size);
+            chunk.setData(data);
         }
     }
 
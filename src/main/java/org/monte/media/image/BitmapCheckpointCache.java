@@ -0,0 +1,234 @@
+/*
+ * @(#)BitmapCheckpointCache.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds snapshots of the bitplanes of a {@code BitmapImage} at periodic
+ * frames of a delta-encoded animation.
+ * <p>
+ * The frames of ANIM and SEQ files can only be decoded one after the other.
+ * Without checkpoints, a player which moves backwards has to decode the
+ * animation from the first frame again. With checkpoints, it restores the
+ * nearest checkpoint before the frame and decodes at most
+ * {@code interval} frames.
+ * <p>
+ * A checkpoint is taken for each frame whose index modulo the interval is
+ * less than the interleave of the animation. With an interleave of 2, the
+ * even and the odd frames are decoded into separate bitmaps, and each one
+ * gets its own checkpoints.
+ * <p>
+ * The total size of the snapshots is bounded by a memory budget. If a new
+ * checkpoint does not fit into the budget, the least recently used
+ * checkpoints are evicted.
+ * <p>
+ * The cache also keeps statistics about the seeks, which are reported
+ * by the player with {@link #addSeek}.
+ * <p>
+ * All methods are synchronized, so that the statistics can be read while a
+ * player is decoding frames.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class BitmapCheckpointCache {
+
+    /** The interval between checkpoints in frames. */
+    private int interval;
+    /** The maximal size of all snapshots in bytes. */
+    private long memoryBudget;
+    /** The size of all snapshots in bytes. */
+    private long memoryUsage;
+    /** The snapshots by frame index, in the order of their last access. */
+    private final LinkedHashMap<Integer, byte[]> checkpoints = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+    private long seekCount;
+    private long hitCount;
+    private long totalSeekNanos;
+    private long maxSeekNanos;
+
+    /** Creates a cache with a checkpoint every 30 frames and a memory budget
+     * of 16 MB. */
+    public BitmapCheckpointCache() {
+        this(30, 16L << 20);
+    }
+
+    /** Creates a cache.
+     *
+     * @param interval The interval between checkpoints in frames. Specify 0
+     * to disable checkpoints.
+     * @param memoryBudget The maximal size of all snapshots in bytes.
+     */
+    public BitmapCheckpointCache(int interval, long memoryBudget) {
+        this.interval = Math.max(0, interval);
+        this.memoryBudget = Math.max(0, memoryBudget);
+    }
+
+    /** Sets the interval between checkpoints in frames. Specify 0 to disable
+     * checkpoints. The checkpoints which have already been taken are kept. */
+    public synchronized void setInterval(int newValue) {
+        interval = Math.max(0, newValue);
+    }
+
+    /** Returns the interval between checkpoints in frames. */
+    public synchronized int getInterval() {
+        return interval;
+    }
+
+    /** Sets the maximal size of all snapshots in bytes. Evicts the least
+     * recently used checkpoints if the current snapshots exceed the new
+     * budget. */
+    public synchronized void setMemoryBudget(long newValue) {
+        memoryBudget = Math.max(0, newValue);
+        evict(0);
+    }
+
+    /** Returns the maximal size of all snapshots in bytes. */
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /** Returns the size of all snapshots in bytes. */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /** Returns the number of checkpoints. */
+    public synchronized int size() {
+        return checkpoints.size();
+    }
+
+    /** Takes a checkpoint of the bitmap, if the frame is at a checkpoint
+     * position and if the cache does not already have it.
+     *
+     * @param frame The index of the frame which has been decoded into the
+     * bitmap.
+     * @param interleave The interleave of the animation.
+     * @param bitmap The bitmap.
+     */
+    public synchronized void put(int frame, int interleave, BitmapImage bitmap) {
+        if (interval == 0 || frame % interval >= interleave || checkpoints.get(frame) != null) {
+            return;
+        }
+        byte[] planes = bitmap.getBitmap();
+        byte[] snapshot = evict(planes.length);
+        if (memoryUsage + planes.length > memoryBudget) {
+            return;
+        }
+        if (snapshot == null || snapshot.length != planes.length) {
+            snapshot = new byte[planes.length];
+        }
+        System.arraycopy(planes, 0, snapshot, 0, planes.length);
+        checkpoints.put(frame, snapshot);
+        memoryUsage += snapshot.length;
+    }
+
+    /** Restores the nearest checkpoint before or at the specified frame into
+     * the bitmap. Checkpoints which are not ahead of the frame which the
+     * bitmap already holds are not used, because it is faster to decode
+     * from there.
+     *
+     * @param frame The index of the frame to be decoded.
+     * @param interleave The interleave of the animation.
+     * @param fetched The index of the frame which the bitmap holds.
+     * @param bitmap The bitmap.
+     * @return The index of the restored checkpoint, or -1 if no checkpoint
+     * has been restored.
+     */
+    public synchronized int restore(int frame, int interleave, int fetched, BitmapImage bitmap) {
+        if (fetched <= frame && frame - fetched <= interleave) {
+            // The bitmap is at most one frame behind
+            return -1;
+        }
+        int best = fetched <= frame ? fetched : -1;
+        int found = -1;
+        for (Integer key : checkpoints.keySet()) {
+            int k = key;
+            if (k > best && k <= frame && (frame - k) % interleave == 0) {
+                best = found = k;
+            }
+        }
+        if (found == -1) {
+            return -1;
+        }
+        byte[] snapshot = checkpoints.get(found);
+        System.arraycopy(snapshot, 0, bitmap.getBitmap(), 0, snapshot.length);
+        return found;
+    }
+
+    /** Evicts the least recently used checkpoints, until a snapshot of the
+     * specified size fits into the memory budget. Returns the array of an
+     * evicted snapshot, so that it can be reused. */
+    private byte[] evict(int length) {
+        byte[] evicted = null;
+        for (Iterator<Map.Entry<Integer, byte[]>> i = checkpoints.entrySet().iterator();
+                i.hasNext() && memoryUsage + length > memoryBudget;) {
+            evicted = i.next().getValue();
+            memoryUsage -= evicted.length;
+            i.remove();
+        }
+        return evicted;
+    }
+
+    /** Removes all checkpoints. */
+    public synchronized void clear() {
+        checkpoints.clear();
+        memoryUsage = 0;
+    }
+
+    /** Adds a seek to the statistics.
+     *
+     * @param nanos The time needed for decoding the frame in nanoseconds.
+     * @param isHit True if the frame has been decoded from a checkpoint.
+     */
+    public synchronized void addSeek(long nanos, boolean isHit) {
+        seekCount++;
+        if (isHit) {
+            hitCount++;
+        }
+        totalSeekNanos += nanos;
+        maxSeekNanos = Math.max(maxSeekNanos, nanos);
+    }
+
+    /** Returns the number of seeks. */
+    public synchronized long getSeekCount() {
+        return seekCount;
+    }
+
+    /** Returns the number of seeks which have been decoded from a
+     * checkpoint. */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** Returns the ratio of seeks which have been decoded from a checkpoint,
+     * or 0 if there were no seeks. */
+    public synchronized float getHitRate() {
+        return seekCount == 0 ? 0f : hitCount / (float) seekCount;
+    }
+
+    /** Returns the average time needed for a seek in nanoseconds. */
+    public synchronized long getAverageSeekNanos() {
+        return seekCount == 0 ? 0 : totalSeekNanos / seekCount;
+    }
+
+    /** Returns the longest time needed for a seek in nanoseconds. */
+    public synchronized long getMaxSeekNanos() {
+        return maxSeekNanos;
+    }
+
+    /** Resets the statistics. */
+    public synchronized void resetStatistics() {
+        seekCount = hitCount = totalSeekNanos = maxSeekNanos = 0;
+    }
+}
@@ -10,6 +10,7 @@
  */
 package org.monte.media.image;
 
+import org.monte.media.concurrent.ParallelTasks;
 import org.monte.media.ilbm.HAMColorModel;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
@@ -17,6 +18,10 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.IndexColorModel;
 import java.awt.image.DirectColorModel;
 import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.zip.Adler32;
 import javax.swing.JFrame;
 
@@ -152,6 +157,40 @@ public class BitmapImage
      * chunky pixels using a DirectColorModel.
      */
     private boolean enforceDirectColors_ = false;
+    /** The maximal number of bands of scanlines, which are converted
+     * concurrently by convertToChunky. */
+    private int bandCount = 1;
+    /** The executor for converting the bands. If this value is null, then
+     * the shared executor of {@link ParallelTasks} is used. */
+    private Executor bandExecutor;
+    /** Bands have at least this number of pixels, so that the time for
+     * handing a band over to another thread is small compared to the time
+     * for converting it. */
+    private final static int MIN_BAND_PIXELS = 16384;
+    /** Conversions performed by convertBand. */
+    private final static int INDEX_TO_INDEX = 0, INDEX_TO_DIRECT = 1, INDEX_TO_555 = 2,
+            DIRECT_TO_DIRECT = 3, DIRECT_TO_555 = 4, HAM6_TO_DIRECT = 5, HAM8_TO_DIRECT = 6;
+    /**
+     * Spreads the eight bits of a bitplane byte over the eight bytes of a
+     * long. The leftmost pixel, which is in bit 7, goes into bit 0, the
+     * rightmost pixel, which is in bit 0, goes into bit 56.
+     * <p>
+     * Shifting the spread bytes of plane p left by p and or-ing them
+     * together yields the values of eight pixels in one long.
+     */
+    private final static long[] BIT_SPREAD = new long[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            long spread = 0;
+            for (int j = 0; j < 8; j++) {
+                if ((v & (0x80 >>> j)) != 0) {
+                    spread |= 1L << (j << 3);
+                }
+            }
+            BIT_SPREAD[v] = spread;
+        }
+    }
 
     /**
      * If you set this to true, then convertToChunky always generates
@@ -169,6 +208,44 @@ public class BitmapImage
         return enforceDirectColors_;
     }
 
+    /**
+     * Sets the maximal number of bands of scanlines, which are converted
+     * concurrently by convertToChunky. The calling thread converts the
+     * first band, the band executor converts the other bands.
+     * <p>
+     * The default value is 1, which converts all scanlines on the calling
+     * thread. Small areas are converted in fewer bands, so that each band
+     * has at least 16384 pixels.
+     */
+    public void setBandCount(int newValue) {
+        bandCount = Math.max(1, newValue);
+    }
+
+    /**
+     * Returns the maximal number of bands of scanlines, which are converted
+     * concurrently by convertToChunky.
+     */
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * Sets the executor for converting the bands. Specify null to use the
+     * shared executor of {@link ParallelTasks}, a pool of daemon threads, one
+     * per processor.
+     */
+    public void setBandExecutor(Executor newValue) {
+        bandExecutor = newValue;
+    }
+
+    /**
+     * Returns the executor for converting the bands, or null if the shared
+     * executor is used.
+     */
+    public Executor getBandExecutor() {
+        return bandExecutor;
+    }
+
     /**
      * Construct an interleaved bitmap with the specified size,
      * depth and color model.
@@ -617,9 +694,9 @@ public class BitmapImage
             }
             currentChunkyColorModel_ = planarColorModel;
             if (((HAMColorModel) planarColorModel).getHAMType() == HAMColorModel.HAM6) {
-                ham6PlanesToDirectPixels(top, left, bottom, right);
+                convert(HAM6_TO_DIRECT, top, left, bottom, right);
             } else if (((HAMColorModel) planarColorModel).getHAMType() == HAMColorModel.HAM8) {
-                ham8PlanesToDirectPixels(top, left, bottom, right);
+                convert(HAM8_TO_DIRECT, top, left, bottom, right);
             } else {
                 throw new InternalError("unsupported ham model:" + planarColorModel);
             }
@@ -640,7 +717,7 @@ public class BitmapImage
                                 ? preferredChunkyColorModel_
                                 : new DirectColorModel(16, 0x7c00, 0x3e0, 0x1f);
 
-                        indexPlanesTo555(top, left, bottom, right);
+                        convert(INDEX_TO_555, top, left, bottom, right);
                         pixelType = SHORT_PIXEL;
                     } else {
                         if (intPixels == null || intPixels.length != getWidth() * getHeight()) {
@@ -655,7 +732,7 @@ public class BitmapImage
                                 : ColorModel.getRGBdefault();
 
                         currentChunkyColorModel_ = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
-                        indexPlanesToDirectPixels(top, left, bottom, right);
+                        convert(INDEX_TO_DIRECT, top, left, bottom, right);
                         pixelType = INT_PIXEL;
                     }
                 } else {
@@ -665,7 +742,7 @@ public class BitmapImage
                         bytePixels = new byte[getWidth() * getHeight()];
                     }
                     currentChunkyColorModel_ = planarColorModel;
-                    indexPlanesToIndexPixels(top, left, bottom, right);
+                    convert(INDEX_TO_INDEX, top, left, bottom, right);
                     pixelType = BYTE_PIXEL;
                 }
             } else if (planarColorModel instanceof DirectColorModel) {
@@ -677,7 +754,7 @@ public class BitmapImage
                         shortPixels = new short[getWidth() * getHeight()];
                     }
                     currentChunkyColorModel_ = planarColorModel;
-                    directPlanesTo555(top, left, bottom, right);
+                    convert(DIRECT_TO_555, top, left, bottom, right);
                     pixelType = SHORT_PIXEL;
                 } else {
                     if (intPixels == null || intPixels.length != getWidth() * getHeight()) {
@@ -687,7 +764,7 @@ public class BitmapImage
                         intPixels = new int[getWidth() * getHeight()];
                     }
                     currentChunkyColorModel_ = planarColorModel;
-                    directPlanesToDirectPixels(top, left, bottom, right);
+                    convert(DIRECT_TO_DIRECT, top, left, bottom, right);
                     pixelType = INT_PIXEL;
                 }
             } else {
@@ -697,6 +774,115 @@ public class BitmapImage
         return pixelType;
     }
 
+    /**
+     * Converts the indicated area in bands of scanlines.
+     * <p>
+     * Each pixel only depends on the bitplanes at its own position and,
+     * in HAM mode, on the pixels to the left of it. Therefore the bands can
+     * be converted independently of each other.
+     * <p>
+     * The first band is converted on the calling thread. This method returns
+     * when all bands have been converted.
+     */
+    private void convert(int conversion, int top, int left, int bottom, int right) {
+        int rows = bottom - top + 1;
+        int columns = right - left + 1;
+        if (rows <= 0 || columns <= 0) {
+            return;
+        }
+        int n = Math.min(Math.min(bandCount, rows), rows * columns / MIN_BAND_PIXELS);
+        if (n < 2) {
+            convertBand(conversion, top, left, bottom, right);
+            return;
+        }
+        int rowsPerBand = (rows + n - 1) / n;
+        n = (rows + rowsPerBand - 1) / rowsPerBand;
+
+        ArrayList<BandTask> tasks = new ArrayList<BandTask>(n);
+        for (int i = 0; i < n; i++) {
+            int bandTop = top + i * rowsPerBand;
+            tasks.add(new BandTask(conversion, bandTop, left, Math.min(bottom, bandTop + rowsPerBand - 1), right));
+        }
+        try {
+            ParallelTasks.invokeAll(bandExecutor, tasks);
+        } catch (ExecutionException ex) {
+            Throwable failure = ex.getCause();
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new InternalError(String.valueOf(failure));
+        }
+    }
+
+    /** Converts the indicated area on the current thread. */
+    private void convertBand(int conversion, int top, int left, int bottom, int right) {
+        switch (conversion) {
+            case INDEX_TO_INDEX:
+                indexPlanesToIndexPixels(top, left, bottom, right);
+                break;
+            case INDEX_TO_DIRECT:
+                indexPlanesToDirectPixels(top, left, bottom, right);
+                break;
+            case INDEX_TO_555:
+                indexPlanesTo555(top, left, bottom, right);
+                break;
+            case DIRECT_TO_DIRECT:
+                directPlanesToDirectPixels(top, left, bottom, right);
+                break;
+            case DIRECT_TO_555:
+                directPlanesTo555(top, left, bottom, right);
+                break;
+            case HAM6_TO_DIRECT:
+                ham6PlanesToDirectPixels(top, left, bottom, right);
+                break;
+            case HAM8_TO_DIRECT:
+                ham8PlanesToDirectPixels(top, left, bottom, right);
+                break;
+            default:
+                throw new InternalError("unsupported conversion:" + conversion);
+        }
+    }
+
+    /** Converts a band of scanlines. */
+    private class BandTask implements Callable<Object> {
+
+        private final int conversion, top, left, bottom, right;
+
+        public BandTask(int conversion, int top, int left, int bottom, int right) {
+            this.conversion = conversion;
+            this.top = top;
+            this.left = left;
+            this.bottom = bottom;
+            this.right = right;
+        }
+
+        @Override
+        public Object call() {
+            convertBand(conversion, top, left, bottom, right);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the values of eight pixels, one per byte, with the leftmost
+     * pixel in the lowest byte.
+     *
+     * @param iBitmap The index of the byte which holds the eight pixels
+     * in the first plane.
+     * @param planeCount The number of planes, at most 8.
+     */
+    private long transpose8(int iBitmap, int planeCount) {
+        final byte[] bitmap = this.bitmap;
+        final int bitplaneStride = this.bitplaneStride;
+        long eight = 0;
+        for (int p = 0; p < planeCount; p++, iBitmap += bitplaneStride) {
+            eight |= BIT_SPREAD[bitmap[iBitmap] & 0xff] << p;
+        }
+        return eight;
+    }
+
     /**
      * Converts the indicated area of the bitmap data into  pixel data.
      * <p>
@@ -798,6 +984,28 @@ public class BitmapImage
      * @version  1997-10-16  Created.
      */
     private void indexPlanesToIndexPixels(int top, int left, int bottom, int right) {
+        /* Add one to bottom and right to facilitate computations. */
+        bottom++;
+        right++;
+
+        final byte[] pixels = bytePixels;
+        final int scanlineStride = getScanlineStride();
+        final int width = getWidth();
+        // Byte pixels can only hold the lowest 8 bits
+        final int planeCount = Math.min(getDepth(), 8);
+
+        for (int y = top; y < bottom; y++) {
+            final int iScanline = y * scanlineStride;
+            final int iPixel = y * width;
+            for (int x = left; x < right;) {
+                long eight = transpose8(iScanline + (x >>> 3), planeCount);
+                for (int end = Math.min(right, (x | 7) + 1); x < end; x++) {
+                    pixels[iPixel + x] = (byte) (eight >>> ((x & 7) << 3));
+                }
+            }
+        }
+    }
+    private void indexPixelsToIndexPlanes(int top, int left, int bottom, int right) {
 
         /* Add one to bottom and right to facilitate computations. */
         bottom++;
@@ -833,16 +1041,7 @@ public class BitmapImage
 
         switch (depth) {
             case 1:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                bytePixels_[iPixel++] = (byte) (((bitmap_[iBitmap] << bitShift) & 128) >>> 7);
-                }
-                iPixel += pixelLineStride;
-                }
-                 */
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         bytePixels[iPixel++] = (byte) (((bitmap[iScanline + (x >>> 3)] << (x & 7)) & 128) >>> 7);
@@ -852,18 +1051,7 @@ public class BitmapImage
                 break;
 
             case 2:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x & 7;
-                iBitmap = iScanline + x >>> 3;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -878,19 +1066,7 @@ public class BitmapImage
                 break;
 
             case 3:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x & 7;
-                iBitmap = iScanline + x >>> 3;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -906,21 +1082,7 @@ public class BitmapImage
                 break;
 
             case 4:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                int bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
-
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -937,40 +1099,7 @@ public class BitmapImage
                 break;
 
             case 5:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                
-                bytePixels_[iPixel++] = (byte) ((
-                (bitmap_[iBitmap] & bitMask)
-                | (bitmap_[iBitmap+bitplaneStride1] & bitMask) << 1
-                | (bitmap_[iBitmap+bitplaneStride2] & bitMask) << 2
-                | (bitmap_[iBitmap+bitplaneStride3] & bitMask) << 3
-                | (bitmap_[iBitmap+bitplaneStride4] & bitMask) << 4
-                ) >>> (7 - iBit));
-                }
-                iPixel += pixelLineStride;
-                }
-                iPixel=0;
-                 */
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -994,40 +1123,7 @@ public class BitmapImage
                 break;
 
             case 6:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                
-                bytePixels_[iPixel++] = (byte) ((
-                (bitmap_[iBitmap] & bitMask)
-                | (bitmap_[iBitmap+bitplaneStride1] & bitMask) << 1
-                | (bitmap_[iBitmap+bitplaneStride2] & bitMask) << 2
-                | (bitmap_[iBitmap+bitplaneStride3] & bitMask) << 3
-                | (bitmap_[iBitmap+bitplaneStride4] & bitMask) << 4
-                | (bitmap_[iBitmap+bitplaneStride5] & bitMask) << 5
-                ) >>> (7 - iBit));
-                }
-                iPixel += pixelLineStride;
-                }*/
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -1054,42 +1150,7 @@ public class BitmapImage
                 break;
 
             case 7:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                | ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 1
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                
-                bytePixels_[iPixel++] = (byte) ((
-                (bitmap_[iBitmap] & bitMask)
-                | (bitmap_[iBitmap+bitplaneStride1] & bitMask) << 1
-                | (bitmap_[iBitmap+bitplaneStride2] & bitMask) << 2
-                | (bitmap_[iBitmap+bitplaneStride3] & bitMask) << 3
-                | (bitmap_[iBitmap+bitplaneStride4] & bitMask) << 4
-                | (bitmap_[iBitmap+bitplaneStride5] & bitMask) << 5
-                | (bitmap_[iBitmap+bitplaneStride6] & bitMask) << 6
-                ) >>> (7 - iBit));
-                }
-                iPixel += pixelLineStride;
-                }*/
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -1118,88 +1179,41 @@ public class BitmapImage
                 break;
 
             case 8:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                bytePixels_[iPixel++] = (byte) (
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                | ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 1
-                | ((bitmap_[iBitmap+bitplaneStride7] << bitShift) & 128)
-                );
-                }
-                iPixel += pixelLineStride;
-                }*/
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                
-                bytePixels_[iPixel++] = (byte) ((
-                (bitmap_[iBitmap] & bitMask)
-                | (bitmap_[iBitmap+bitplaneStride1] & bitMask) << 1
-                | (bitmap_[iBitmap+bitplaneStride2] & bitMask) << 2
-                | (bitmap_[iBitmap+bitplaneStride3] & bitMask) << 3
-                | (bitmap_[iBitmap+bitplaneStride4] & bitMask) << 4
-                | (bitmap_[iBitmap+bitplaneStride5] & bitMask) << 5
-                | (bitmap_[iBitmap+bitplaneStride6] & bitMask) << 6
-                | (bitmap_[iBitmap+bitplaneStride7] & bitMask) << 7
-                ) >>> (7 - iBit));
-                }
-                iPixel += pixelLineStride;
-                }*/
                 for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
                         bitMask = 128 >>> (iBit);
                         iBitmap = iScanline + (x >>> 3);
 
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                            b6 = bitmap[iBitmap + bitplaneStride6];
-                            b7 = bitmap[iBitmap + bitplaneStride7];
+                        int px=bytePixels[iPixel++];
+                        b7=(b7<<1)|((px>>>7)&1);
+                        b6=(b6<<1)|((px>>>6)&1);
+                        b5=(b5<<1)|((px>>>5)&1);
+                        b4=(b4<<1)|((px>>>4)&1);
+                        b3=(b3<<1)|((px>>>3)&1);
+                        b2=(b2<<1)|((px>>>2)&1);
+                        b1=(b1<<1)|((px>>>1)&1);
+                        b0=(b0<<1)|((px>>>0)&1);
+                        
+                        if (iBit == 7) {
+                             bitmap[iBitmap]=(byte)b0;
+                             bitmap[iBitmap + bitplaneStride]=(byte)b1;
+                             bitmap[iBitmap + bitplaneStride2]=(byte)b2;
+                             bitmap[iBitmap + bitplaneStride3]=(byte)b3;
+                             bitmap[iBitmap + bitplaneStride4]=(byte)b4;
+                             bitmap[iBitmap + bitplaneStride5]=(byte)b5;
+                             bitmap[iBitmap + bitplaneStride6]=(byte)b6;
+                             bitmap[iBitmap + bitplaneStride7]=(byte)b7;
                         }
-                        bytePixels[iPixel++] = (byte) (((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5
-                                | (b6 & bitMask) << 6
-                                | (b7 & bitMask) << 7) >>> (7 - iBit));
                     }
-                    iPixel += pixelLineStride;
+                    // FIXME - Add special treatment here when width is not a multiple of 8
+                    
+                    iPixel += pixelLineStride; 
                 }
                 break;
 
             default:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                for (iDepth = depth; iDepth > 0; iDepth--) {
-                pixel = (pixel >>> 1) | ((bitmap_[iBitmap] << bitShift)  & 128);
-                iBitmap += bitplaneStride;
-                }
-                //bytePixels_[iPixel++] = (byte)(pixel >>> bitCorrection);
-                bytePixels_[iPixel++] = (byte)(pixel);
-                }
-                iPixel += pixelLineStride;
-                }*/
+                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
                 for (iScanline = top * scanlineStride + scanlineStride; iScanline <= bottomScanline; iScanline += scanlineStride) {
                     for (x = left; x < right; x++) {
                         iBit = x & 7;
@@ -1216,1038 +1230,121 @@ public class BitmapImage
                 }
         }
     }
-    private void indexPixelsToIndexPlanes(int top, int left, int bottom, int right) {
+    /**
+     * Converts the planar image data into chunky pixels.
+     *
+     * After successful completion the chunky pixels can by used
+     * in conjunction with the DirectColorModel associated to
+     * this instance.
+     *
+     * Pre condition
+     *   The color model must be an instance of java.awt.IndexColorModel.
+     *   0 <= topBound <= bottomBound <= height.
+     *   0 <= leftBound <= rightBound <= width.
+     * Post condition
+     *   -
+     * Obligation
+     *   -
+     */
+    private void indexPlanesToDirectPixels(int top, int left, int bottom, int right) {
+        IndexColorModel icm = (IndexColorModel) planarColorModel;
+        final int[] clut = new int[icm.getMapSize()];
+        byte[] reds = new byte[clut.length];
+        byte[] greens = new byte[clut.length];
+        byte[] blues = new byte[clut.length];
+        icm.getReds(reds);
+        icm.getGreens(greens);
+        icm.getBlues(blues);
+        for (int i = 0; i < clut.length; i++) {
+            clut[i] = 0xff000000 | (reds[i] & 0xff) << 16 | (greens[i] & 0xff) << 8 | (blues[i] & 0xff);
+        }
+        if (clut.length < (1 << getDepth())) {
+            throw new IndexOutOfBoundsException("Clut must not be smaller than depth");
+        }
 
         /* Add one to bottom and right to facilitate computations. */
         bottom++;
         right++;
 
+        final int[] pixels = intPixels;
         final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
         final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        //final int bitCorrection = depth - 8;
-        //final int bitCorrection = 8 - depth;
-        int x;
-        int iPixel = top * width + left;
-        int pixel = 0;
-        //int bitShift;
-        int iBitmap;
-        int iScanline;
-        int iDepth;
-        int b0, b1, b2, b3, b4, b5, b6, b7;
-        b0 = b1 = b2 = b3 = b4 = b5 = b6 = b7 = 0;
-        final int bitplaneStride1 = bitplaneStride;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        final int bitplaneStride6 = bitplaneStride * 6;
-        final int bitplaneStride7 = bitplaneStride * 7;
-
-        int iBit; // the index of the bit inside the byte at the current x-position
-        int bitMask; // the mask for the bit inside the byte at the current x-position
-
-        switch (depth) {
-            case 1:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        bytePixels[iPixel++] = (byte) (((bitmap[iScanline + (x >>> 3)] << (x & 7)) & 128) >>> 7);
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 2:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        bytePixels[iPixel++] = (byte) (((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1) >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
+        final int depth = getDepth();
+        final int loPlanes = Math.min(depth, 8);
+        final int hiPlanes = depth - loPlanes;
+        final int hiOffset = bitplaneStride * 8;
+
+        for (int y = top; y < bottom; y++) {
+            final int iScanline = y * scanlineStride;
+            final int iPixel = y * width;
+            for (int x = left; x < right;) {
+                int iBitmap = iScanline + (x >>> 3);
+                long lo = transpose8(iBitmap, loPlanes);
+                long hi = hiPlanes == 0 ? 0L : transpose8(iBitmap + hiOffset, hiPlanes);
+                for (int end = Math.min(right, (x | 7) + 1); x < end; x++) {
+                    int shift = (x & 7) << 3;
+                    pixels[iPixel + x] = clut[(int) (lo >>> shift) & 0xff | ((int) (hi >>> shift) & 0xff) << 8];
                 }
-                break;
-
-            case 3:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
+            }
+        }
+    }
 
-                        bytePixels[iPixel++] = (byte) (((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1
-                                | (bitmap[iBitmap + bitplaneStride2] & bitMask) << 2) >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 4:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        bytePixels[iPixel++] = (byte) (((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1
-                                | (bitmap[iBitmap + bitplaneStride2] & bitMask) << 2
-                                | (bitmap[iBitmap + bitplaneStride3] & bitMask) << 3) >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 5:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                        }
-                        bytePixels[iPixel++] = (byte) (((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4) >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 6:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                        }
-                        bytePixels[iPixel++] = (byte) (((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5) >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 7:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                            b6 = bitmap[iBitmap + bitplaneStride6];
-                        }
-                        bytePixels[iPixel++] = (byte) (((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5
-                                | (b6 & bitMask) << 6) >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 8:
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        int px=bytePixels[iPixel++];
-                        b7=(b7<<1)|((px>>>7)&1);
-                        b6=(b6<<1)|((px>>>6)&1);
-                        b5=(b5<<1)|((px>>>5)&1);
-                        b4=(b4<<1)|((px>>>4)&1);
-                        b3=(b3<<1)|((px>>>3)&1);
-                        b2=(b2<<1)|((px>>>2)&1);
-                        b1=(b1<<1)|((px>>>1)&1);
-                        b0=(b0<<1)|((px>>>0)&1);
-                        
-                        if (iBit == 7) {
-                             bitmap[iBitmap]=(byte)b0;
-                             bitmap[iBitmap + bitplaneStride]=(byte)b1;
-                             bitmap[iBitmap + bitplaneStride2]=(byte)b2;
-                             bitmap[iBitmap + bitplaneStride3]=(byte)b3;
-                             bitmap[iBitmap + bitplaneStride4]=(byte)b4;
-                             bitmap[iBitmap + bitplaneStride5]=(byte)b5;
-                             bitmap[iBitmap + bitplaneStride6]=(byte)b6;
-                             bitmap[iBitmap + bitplaneStride7]=(byte)b7;
-                        }
-                    }
-                    // FIXME - Add special treatment here when width is not a multiple of 8
-                    
-                    iPixel += pixelLineStride; 
-                }
-                break;
-
-            default:
-                if (true) throw new UnsupportedOperationException(depth +" not yet implemented");
-                for (iScanline = top * scanlineStride + scanlineStride; iScanline <= bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-                        pixel = 0;
-                        for (iDepth = 0; iDepth < depth; iDepth++) {
-                            iBitmap -= bitplaneStride;
-                            pixel = (pixel << 1) | bitmap[iBitmap] & bitMask;
-                        }
-                        bytePixels[iPixel++] = (byte) (pixel >>> (7 - iBit));
-                    }
-                    iPixel += pixelLineStride;
-                }
-        }
-    }
-    /**
-     * Converts the planar image data into chunky pixels.
-     *
-     * After successful completion the chunky pixels can by used
-     * in conjunction with the DirectColorModel associated to
-     * this instance.
-     *
-     * Pre condition
-     *   The color model must be an instance of java.awt.IndexColorModel.
-     *   0 <= topBound <= bottomBound <= height.
-     *   0 <= leftBound <= rightBound <= width.
-     * Post condition
-     *   -
-     * Obligation
-     *   -
-     */
-    private void indexPlanesToDirectPixels(int top, int left, int bottom, int right) {
-        IndexColorModel colorModel = (IndexColorModel) planarColorModel;
-        final int[] clut = new int[colorModel.getMapSize()];
-        //colorModel.getRGBs(clut);
-        IndexColorModel icm = (IndexColorModel) planarColorModel;
-        byte[] reds = new byte[clut.length];
-        byte[] greens = new byte[clut.length];
-        byte[] blues = new byte[clut.length];
-        icm.getReds(reds);
-        icm.getGreens(greens);
-        icm.getBlues(blues);
-        for (int i = 0; i < clut.length; i++) {
-            clut[i] = 0xff000000 | (reds[i] & 0xff) << 16 | (greens[i] & 0xff) << 8 | (blues[i] & 0xff);
-        }
-        if (clut.length < (1 << getDepth())) {
-            throw new IndexOutOfBoundsException("Clut must not be smaller than depth");
-        }
-
-
-        /*
-        int transparentPixel = colorModel.getTransparentPixel();
-        if (transparentPixel != -1) {
-        clut[transparentPixel] &= 0x00ffffff;
-        }
-        }*/
-
-        /* Add one to bottom and right to facilitate computations. */
-        bottom++;
-        right++;
-
-        final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
-        final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        //final int bitCorrection = 8 - depth;
-        int x;
-        int iPixel = top * width + left;
-        int pixel = 0;
-        //int bitShift;
-        //int iBitmap;
-        int iScanline;
-        int iDepth;
-
-
-        int iBit; // the index of the bit inside the byte at the current x-position
-        int bitMask; // the mask for the bit inside the byte at the current x-position
-
-        final int bitplaneStride1 = bitplaneStride;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        final int bitplaneStride6 = bitplaneStride * 6;
-        final int bitplaneStride7 = bitplaneStride * 7;
-
-        int iBitmap;
-        int b0, b1, b2, b3, b4, b5, b6, b7;
-        b0 = b1 = b2 = b3 = b4 = b5 = b6 = b7 = 0;
-
-        switch (depth) {
-            case 1:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(((bitmap_[iBitmap] << bitShift) & 128) >>> 7)];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        intPixels[iPixel++] = clut[(((bitmap[iScanline + (x >>> 3)] << (x & 7)) & 128) >>> 7)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 2:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        intPixels[iPixel++] = clut[((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 3:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        intPixels[iPixel++] = clut[((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1
-                                | (bitmap[iBitmap + bitplaneStride2] & bitMask) << 2) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 4:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        intPixels[iPixel++] = clut[((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1
-                                | (bitmap[iBitmap + bitplaneStride2] & bitMask) << 2
-                                | (bitmap[iBitmap + bitplaneStride3] & bitMask) << 3) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 5:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                
-                intPixels_[iPixel++] = clut[(
-                (bitmap_[iBitmap] & bitMask)
-                | (bitmap_[iBitmap+bitplaneStride1] & bitMask) << 1
-                | (bitmap_[iBitmap+bitplaneStride2] & bitMask) << 2
-                | (bitmap_[iBitmap+bitplaneStride3] & bitMask) << 3
-                | (bitmap_[iBitmap+bitplaneStride4] & bitMask) << 4
-                ) >>> (7 - iBit)];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                        }
-                        intPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-
-                break;
-
-            case 6:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                        }
-                        intPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 7:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                | ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 1
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                            b6 = bitmap[iBitmap + bitplaneStride6];
-                        }
-                        intPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5
-                                | (b6 & bitMask) << 6) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 8:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                | ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 1
-                | ((bitmap_[iBitmap+bitplaneStride7] << bitShift) & 128)
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                            b6 = bitmap[iBitmap + bitplaneStride6];
-                            b7 = bitmap[iBitmap + bitplaneStride7];
-                        }
-                        intPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5
-                                | (b6 & bitMask) << 6
-                                | (b7 & bitMask) << 7) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            default:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                
-                for (iDepth = 0; iDepth < depth; iDepth++) {
-                pixel = (pixel >>> 1) | ((bitmap_[iBitmap] << bitShift)  & 128);
-                iBitmap += bitplaneStride;
-                }
-                intPixels_[iPixel++] = clut[(pixel >>> bitCorrection)];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride + scanlineStride; iScanline <= bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-                        pixel = 0;
-                        for (iDepth = 0; iDepth < depth; iDepth++) {
-                            iBitmap -= bitplaneStride;
-                            pixel = (pixel << 1) | bitmap[iBitmap] & bitMask;
-                        }
-                        intPixels[iPixel++] =
-                                clut[pixel >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-        }
-    }
-
-    /**
-     * Converts the planar image data into chunky pixels.
-     *
-     * After successful completion the chunky pixels can by used
-     * in conjunction with the DirectColorModel associated to
-     * this instance.
-     *
-     * Pre condition
-     *   The color model must be an instance of java.awt.IndexColorModel.
-     *   0 <= topBound <= bottomBound <= height.
-     *   0 <= leftBound <= rightBound <= width.
-     * Post condition
-     *   -
-     * Obligation
-     *   -
-     */
-    private void indexPlanesTo555(int top, int left, int bottom, int right) {
-        IndexColorModel colorModel = (IndexColorModel) planarColorModel;
-        final short[] clut = new short[colorModel.getMapSize()];
-        //colorModel.getRGBs(clut);
-        IndexColorModel icm = (IndexColorModel) planarColorModel;
-        byte[] reds = new byte[clut.length];
-        byte[] greens = new byte[clut.length];
-        byte[] blues = new byte[clut.length];
-        icm.getReds(reds);
-        icm.getGreens(greens);
-        icm.getBlues(blues);
-        for (int i = 0; i < clut.length; i++) {
-            clut[i] = (short) ((reds[i] & 0xf8) << 7 | (greens[i] & 0xf8) << 2 | (blues[i] & 0xf8) >> 3);
-        }
-        if (clut.length < (1 << getDepth())) {
-            throw new IndexOutOfBoundsException("Clut must not be smaller than depth");
-        }
-
-
-        /*
-        int transparentPixel = colorModel.getTransparentPixel();
-        if (transparentPixel != -1) {
-        clut[transparentPixel] &= 0x00ffffff;
-        }
-        }*/
-
-        /* Add one to bottom and right to facilitate computations. */
-        bottom++;
-        right++;
-
-        final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
-        final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        //final int bitCorrection = 8 - depth;
-        int x;
-        int iPixel = top * width + left;
-        int pixel = 0;
-        //int bitShift;
-        //int iBitmap;
-        int iScanline;
-        int iDepth;
-
-
-        int iBit; // the index of the bit inside the byte at the current x-position
-        int bitMask; // the mask for the bit inside the byte at the current x-position
-
-        final int bitplaneStride1 = bitplaneStride;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        final int bitplaneStride6 = bitplaneStride * 6;
-        final int bitplaneStride7 = bitplaneStride * 7;
-
-        int iBitmap;
-        int b0, b1, b2, b3, b4, b5, b6, b7;
-        b0 = b1 = b2 = b3 = b4 = b5 = b6 = b7 = 0;
-
-        switch (depth) {
-            case 1:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(((bitmap_[iBitmap] << bitShift) & 128) >>> 7)];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        shortPixels[iPixel++] = clut[(((bitmap[iScanline + (x >>> 3)] << (x & 7)) & 128) >>> 7)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 2:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        shortPixels[iPixel++] = clut[((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 3:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        shortPixels[iPixel++] = clut[((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1
-                                | (bitmap[iBitmap + bitplaneStride2] & bitMask) << 2) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 4:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        shortPixels[iPixel++] = clut[((bitmap[iBitmap] & bitMask)
-                                | (bitmap[iBitmap + bitplaneStride1] & bitMask) << 1
-                                | (bitmap[iBitmap + bitplaneStride2] & bitMask) << 2
-                                | (bitmap[iBitmap + bitplaneStride3] & bitMask) << 3) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 5:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                
-                intPixels_[iPixel++] = clut[(
-                (bitmap_[iBitmap] & bitMask)
-                | (bitmap_[iBitmap+bitplaneStride1] & bitMask) << 1
-                | (bitmap_[iBitmap+bitplaneStride2] & bitMask) << 2
-                | (bitmap_[iBitmap+bitplaneStride3] & bitMask) << 3
-                | (bitmap_[iBitmap+bitplaneStride4] & bitMask) << 4
-                ) >>> (7 - iBit)];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                        }
-                        shortPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-
-                break;
-
-            case 6:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                        }
-                        shortPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 7:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                | ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 1
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                            b6 = bitmap[iBitmap + bitplaneStride6];
-                        }
-                        shortPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5
-                                | (b6 & bitMask) << 6) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
-
-            case 8:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                intPixels_[iPixel++] = clut[(
-                ((bitmap_[iBitmap] << bitShift) & 128) >>> 7
-                | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 6
-                | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 5
-                | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 4
-                | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 3
-                | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 2
-                | ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 1
-                | ((bitmap_[iBitmap+bitplaneStride7] << bitShift) & 128)
-                )];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
+    /**
+     * Converts the planar image data into chunky pixels.
+     *
+     * After successful completion the chunky pixels can by used
+     * in conjunction with the DirectColorModel associated to
+     * this instance.
+     *
+     * Pre condition
+     *   The color model must be an instance of java.awt.IndexColorModel.
+     *   0 <= topBound <= bottomBound <= height.
+     *   0 <= leftBound <= rightBound <= width.
+     * Post condition
+     *   -
+     * Obligation
+     *   -
+     */
+    private void indexPlanesTo555(int top, int left, int bottom, int right) {
+        IndexColorModel icm = (IndexColorModel) planarColorModel;
+        final short[] clut = new short[icm.getMapSize()];
+        byte[] reds = new byte[clut.length];
+        byte[] greens = new byte[clut.length];
+        byte[] blues = new byte[clut.length];
+        icm.getReds(reds);
+        icm.getGreens(greens);
+        icm.getBlues(blues);
+        for (int i = 0; i < clut.length; i++) {
+            clut[i] = (short) ((reds[i] & 0xf8) << 7 | (greens[i] & 0xf8) << 2 | (blues[i] & 0xf8) >> 3);
+        }
+        if (clut.length < (1 << getDepth())) {
+            throw new IndexOutOfBoundsException("Clut must not be smaller than depth");
+        }
 
-                        if (iBit == 0) {
-                            b0 = bitmap[iBitmap];
-                            b1 = bitmap[iBitmap + bitplaneStride];
-                            b2 = bitmap[iBitmap + bitplaneStride2];
-                            b3 = bitmap[iBitmap + bitplaneStride3];
-                            b4 = bitmap[iBitmap + bitplaneStride4];
-                            b5 = bitmap[iBitmap + bitplaneStride5];
-                            b6 = bitmap[iBitmap + bitplaneStride6];
-                            b7 = bitmap[iBitmap + bitplaneStride7];
-                        }
-                        shortPixels[iPixel++] = clut[((b0 & bitMask)
-                                | (b1 & bitMask) << 1
-                                | (b2 & bitMask) << 2
-                                | (b3 & bitMask) << 3
-                                | (b4 & bitMask) << 4
-                                | (b5 & bitMask) << 5
-                                | (b6 & bitMask) << 6
-                                | (b7 & bitMask) << 7) >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
-                }
-                break;
+        /* Add one to bottom and right to facilitate computations. */
+        bottom++;
+        right++;
 
-            default:
-                /*
-                for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-                for (x = left; x < right; x++) {
-                bitShift = x % 8;
-                iBitmap = iScanline + x / 8;
-                
-                for (iDepth = 0; iDepth < depth; iDepth++) {
-                pixel = (pixel >>> 1) | ((bitmap_[iBitmap] << bitShift)  & 128);
-                iBitmap += bitplaneStride;
-                }
-                intPixels_[iPixel++] = clut[(pixel >>> bitCorrection)];
-                }
-                iPixel += pixelLineStride;
-                }*/
-                for (iScanline = top * scanlineStride + scanlineStride; iScanline <= bottomScanline; iScanline += scanlineStride) {
-                    for (x = left; x < right; x++) {
-                        iBit = x & 7;
-                        bitMask = 128 >>> (iBit);
-                        iBitmap = iScanline + (x >>> 3);
-                        pixel = 0;
-                        for (iDepth = 0; iDepth < depth; iDepth++) {
-                            iBitmap -= bitplaneStride;
-                            pixel = (pixel << 1) | bitmap[iBitmap] & bitMask;
-                        }
-                        shortPixels[iPixel++] =
-                                clut[pixel >>> (7 - iBit)];
-                    }
-                    iPixel += pixelLineStride;
+        final short[] pixels = shortPixels;
+        final int scanlineStride = getScanlineStride();
+        final int width = getWidth();
+        final int depth = getDepth();
+        final int loPlanes = Math.min(depth, 8);
+        final int hiPlanes = depth - loPlanes;
+        final int hiOffset = bitplaneStride * 8;
+
+        for (int y = top; y < bottom; y++) {
+            final int iScanline = y * scanlineStride;
+            final int iPixel = y * width;
+            for (int x = left; x < right;) {
+                int iBitmap = iScanline + (x >>> 3);
+                long lo = transpose8(iBitmap, loPlanes);
+                long hi = hiPlanes == 0 ? 0L : transpose8(iBitmap + hiOffset, hiPlanes);
+                for (int end = Math.min(right, (x | 7) + 1); x < end; x++) {
+                    int shift = (x & 7) << 3;
+                    pixels[iPixel + x] = clut[(int) (lo >>> shift) & 0xff | ((int) (hi >>> shift) & 0xff) << 8];
                 }
+            }
         }
     }
 
@@ -2268,304 +1365,33 @@ public class BitmapImage
      *   -
      */
     private void directPlanesToDirectPixels(int top, int left, int bottom, int right) {
-        /*
-        // This section shows the original algorithm.
-        
-        final int depth = getDepth();
-        final int width = getWidth();
-        final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        int iScanline, x, iBitmap, iDepth, bitShift;
-        int pixel = 0;
-        int iPixel = top * width + left;
-        
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride)
-        {
-        for (x = left; x < right; x++)
-        {
-        bitShift = x % 8 + 16;
-        iBitmap = iScanline + x / 8;
-        for (iDepth = depth; iDepth > 0; iDepth--)
-        {
-        pixel = (pixel >>> 1) | ((bitmap_[iBitmap] << bitShift)  & 0x800000);
-        iBitmap += bitplaneStride;
-        }
-        intPixels_[iPixel++] = 0xff000000 | ((pixel >>> 16) & 0xff) + (pixel & 0xff00) + ((pixel << 16) & 0xff0000);
-        }
-        iPixel += pixelLineStride;
-        }
-         */
-        /*
-        // Eliminating the innermost loop increases the performance
-        // by 37 percent.
-        
-        final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
-        final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        int x;
-        int iPixel = top * width + left;
-        int pixel = 0;
-        int bitShift;
-        int iScanline;
-        int iDepth;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        final int bitplaneStride6 = bitplaneStride * 6;
-        final int bitplaneStride7 = bitplaneStride * 7;
-        final int bitplaneStride8 = bitplaneStride * 8;
-        final int bitplaneStride9 = bitplaneStride * 9;
-        final int bitplaneStride10 = bitplaneStride * 10;
-        final int bitplaneStride11 = bitplaneStride * 11;
-        final int bitplaneStride12 = bitplaneStride * 12;
-        final int bitplaneStride13 = bitplaneStride * 13;
-        final int bitplaneStride14 = bitplaneStride * 14;
-        final int bitplaneStride15 = bitplaneStride * 15;
-        final int bitplaneStride16 = bitplaneStride * 16;
-        final int bitplaneStride17 = bitplaneStride * 17;
-        final int bitplaneStride18 = bitplaneStride * 18;
-        final int bitplaneStride19 = bitplaneStride * 19;
-        final int bitplaneStride20 = bitplaneStride * 20;
-        final int bitplaneStride21 = bitplaneStride * 21;
-        final int bitplaneStride22 = bitplaneStride * 22;
-        final int bitplaneStride23 = bitplaneStride * 23;
-        
-        int iBitmap = top * scanlineStride + left / 8;
-        
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride)
-        {
-        for (x = left; x < right; x++)
-        {
-        bitShift = x % 8;
-        iBitmap = iScanline + x / 8;
-        intPixels_[iPixel++] = 0xff000000 |
-        ((bitmap_[iBitmap] << bitShift) & 128) << 9 |
-        ((bitmap_[iBitmap+bitplaneStride] << bitShift) & 128) << 10 |
-        ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) << 11 |
-        ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) << 12 |
-        ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) << 13 |
-        ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) << 14 |
-        ((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) << 15 |
-        ((bitmap_[iBitmap+bitplaneStride7] << bitShift) & 128) << 16 |
-        ((bitmap_[iBitmap+bitplaneStride8] << bitShift) & 128) << 1 |
-        ((bitmap_[iBitmap+bitplaneStride9] << bitShift) & 128) << 2 |
-        ((bitmap_[iBitmap+bitplaneStride10] << bitShift) & 128) << 3 |
-        ((bitmap_[iBitmap+bitplaneStride11] << bitShift) & 128) << 4 |
-        ((bitmap_[iBitmap+bitplaneStride12] << bitShift) & 128) << 5 |
-        ((bitmap_[iBitmap+bitplaneStride13] << bitShift) & 128) << 6 |
-        ((bitmap_[iBitmap+bitplaneStride14] << bitShift) & 128) << 7 |
-        ((bitmap_[iBitmap+bitplaneStride15] << bitShift) & 128) << 8 |
-        ((bitmap_[iBitmap+bitplaneStride16] << bitShift) & 128) >>> 7 |
-        ((bitmap_[iBitmap+bitplaneStride17] << bitShift) & 128) >>> 6 |
-        ((bitmap_[iBitmap+bitplaneStride18] << bitShift) & 128) >>> 5 |
-        ((bitmap_[iBitmap+bitplaneStride19] << bitShift) & 128) >>> 4 |
-        ((bitmap_[iBitmap+bitplaneStride20] << bitShift) & 128) >>> 3 |
-        ((bitmap_[iBitmap+bitplaneStride21] << bitShift) & 128) >>> 2 |
-        ((bitmap_[iBitmap+bitplaneStride22] << bitShift) & 128) >>> 1 |
-        ((bitmap_[iBitmap+bitplaneStride23] << bitShift) & 128)
-        ;
-        }
-        iPixel += pixelLineStride;
-        }
-         */
-
-        // Eliminating the innermost loop and avoiding unnecessary
-        // array accesses improves performance by 56 percent
-        // regarding to the original algorithm.
-
         /* Add one to bottom and right to facilitate computations. */
         bottom++;
         right++;
 
+        final int[] pixels = intPixels;
         final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
         final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        int x;
-        int iPixel = top * width + left;
-        int pixel = 0;
-        int bitShift;
-        int iScanline;
-        int iDepth;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        final int bitplaneStride6 = bitplaneStride * 6;
-        final int bitplaneStride7 = bitplaneStride * 7;
-        final int bitplaneStride8 = bitplaneStride * 8;
-        final int bitplaneStride9 = bitplaneStride * 9;
-        final int bitplaneStride10 = bitplaneStride * 10;
-        final int bitplaneStride11 = bitplaneStride * 11;
-        final int bitplaneStride12 = bitplaneStride * 12;
-        final int bitplaneStride13 = bitplaneStride * 13;
-        final int bitplaneStride14 = bitplaneStride * 14;
-        final int bitplaneStride15 = bitplaneStride * 15;
-        final int bitplaneStride16 = bitplaneStride * 16;
-        final int bitplaneStride17 = bitplaneStride * 17;
-        final int bitplaneStride18 = bitplaneStride * 18;
-        final int bitplaneStride19 = bitplaneStride * 19;
-        final int bitplaneStride20 = bitplaneStride * 20;
-        final int bitplaneStride21 = bitplaneStride * 21;
-        final int bitplaneStride22 = bitplaneStride * 22;
-        final int bitplaneStride23 = bitplaneStride * 23;
-
-        int iBitmap = top * scanlineStride + left / 8;
-        int b0 = bitmap[iBitmap];
-        int b1 = bitmap[iBitmap + bitplaneStride];
-        int b2 = bitmap[iBitmap + bitplaneStride2];
-        int b3 = bitmap[iBitmap + bitplaneStride4];
-        int b4 = bitmap[iBitmap + bitplaneStride4];
-        int b5 = bitmap[iBitmap + bitplaneStride5];
-        int b6 = bitmap[iBitmap + bitplaneStride6];
-        int b7 = bitmap[iBitmap + bitplaneStride7];
-        int b8 = bitmap[iBitmap + bitplaneStride8];
-        int b9 = bitmap[iBitmap + bitplaneStride9];
-        int b10 = bitmap[iBitmap + bitplaneStride10];
-        int b11 = bitmap[iBitmap + bitplaneStride11];
-        int b12 = bitmap[iBitmap + bitplaneStride12];
-        int b13 = bitmap[iBitmap + bitplaneStride13];
-        int b14 = bitmap[iBitmap + bitplaneStride14];
-        int b15 = bitmap[iBitmap + bitplaneStride15];
-        int b16 = bitmap[iBitmap + bitplaneStride16];
-        int b17 = bitmap[iBitmap + bitplaneStride17];
-        int b18 = bitmap[iBitmap + bitplaneStride18];
-        int b19 = bitmap[iBitmap + bitplaneStride19];
-        int b20 = bitmap[iBitmap + bitplaneStride20];
-        int b21 = bitmap[iBitmap + bitplaneStride21];
-        int b22 = bitmap[iBitmap + bitplaneStride22];
-        int b23 = bitmap[iBitmap + bitplaneStride23];
-        /*
-        
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-        for (x = left; x < right; x++) {
-        iBitmap = iScanline + x / 8;
-        bitShift = x % 8;
-        if (bitShift == 0) {
-        b0 = bitmap_[iBitmap];
-        b1 = bitmap_[iBitmap+bitplaneStride];
-        b2 = bitmap_[iBitmap+bitplaneStride2];
-        b3 = bitmap_[iBitmap+bitplaneStride3];
-        b4 = bitmap_[iBitmap+bitplaneStride4];
-        b5 = bitmap_[iBitmap+bitplaneStride5];
-        b6 = bitmap_[iBitmap+bitplaneStride6];
-        b7 = bitmap_[iBitmap+bitplaneStride7];
-        b8 = bitmap_[iBitmap+bitplaneStride8];
-        b9 = bitmap_[iBitmap+bitplaneStride9];
-        b10 = bitmap_[iBitmap+bitplaneStride10];
-        b11 = bitmap_[iBitmap+bitplaneStride11];
-        b12 = bitmap_[iBitmap+bitplaneStride12];
-        b13 = bitmap_[iBitmap+bitplaneStride13];
-        b14 = bitmap_[iBitmap+bitplaneStride14];
-        b15 = bitmap_[iBitmap+bitplaneStride15];
-        b16 = bitmap_[iBitmap+bitplaneStride16];
-        b17 = bitmap_[iBitmap+bitplaneStride17];
-        b18 = bitmap_[iBitmap+bitplaneStride18];
-        b19 = bitmap_[iBitmap+bitplaneStride19];
-        b20 = bitmap_[iBitmap+bitplaneStride20];
-        b21 = bitmap_[iBitmap+bitplaneStride21];
-        b22 = bitmap_[iBitmap+bitplaneStride22];
-        b23 = bitmap_[iBitmap+bitplaneStride23];
-        }
-        intPixels_[iPixel++] =
-        0xff000000
-        | ((b0 << bitShift) & 128) << 9
-        | ((b1 << bitShift) & 128) << 10
-        | ((b2 << bitShift) & 128) << 11
-        | ((b3 << bitShift) & 128) << 12
-        | ((b4 << bitShift) & 128) << 13
-        | ((b5 << bitShift) & 128) << 14
-        | ((b6 << bitShift) & 128) << 15
-        | ((b7 << bitShift) & 128) << 16
-        | ((b8 << bitShift) & 128) << 1
-        | ((b9 << bitShift) & 128) << 2
-        | ((b10 << bitShift) & 128) << 3
-        | ((b11 << bitShift) & 128) << 4
-        | ((b12 << bitShift) & 128) << 5
-        | ((b13 << bitShift) & 128) << 6
-        | ((b14 << bitShift) & 128) << 7
-        | ((b15 << bitShift) & 128) << 8
-        | ((b16 << bitShift) & 128) >>> 7
-        | ((b17 << bitShift) & 128) >>> 6
-        | ((b18 << bitShift) & 128) >>> 5
-        | ((b19 << bitShift) & 128) >>> 4
-        | ((b20 << bitShift) & 128) >>> 3
-        | ((b21 << bitShift) & 128) >>> 2
-        | ((b22 << bitShift) & 128) >>> 1
-        | ((b23 << bitShift) & 128)
-        ;
-        }
-        iPixel += pixelLineStride;
-        }
-        iPixel = 0;*/
-        int iBit, bitMask;
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-            for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-                if (iBit == 0) {
-                    b0 = bitmap[iBitmap];
-                    b1 = bitmap[iBitmap + bitplaneStride];
-                    b2 = bitmap[iBitmap + bitplaneStride2];
-                    b3 = bitmap[iBitmap + bitplaneStride3];
-                    b4 = bitmap[iBitmap + bitplaneStride4];
-                    b5 = bitmap[iBitmap + bitplaneStride5];
-                    b6 = bitmap[iBitmap + bitplaneStride6];
-                    b7 = bitmap[iBitmap + bitplaneStride7];
-                    b8 = bitmap[iBitmap + bitplaneStride8];
-                    b9 = bitmap[iBitmap + bitplaneStride9];
-                    b10 = bitmap[iBitmap + bitplaneStride10];
-                    b11 = bitmap[iBitmap + bitplaneStride11];
-                    b12 = bitmap[iBitmap + bitplaneStride12];
-                    b13 = bitmap[iBitmap + bitplaneStride13];
-                    b14 = bitmap[iBitmap + bitplaneStride14];
-                    b15 = bitmap[iBitmap + bitplaneStride15];
-                    b16 = bitmap[iBitmap + bitplaneStride16];
-                    b17 = bitmap[iBitmap + bitplaneStride17];
-                    b18 = bitmap[iBitmap + bitplaneStride18];
-                    b19 = bitmap[iBitmap + bitplaneStride19];
-                    b20 = bitmap[iBitmap + bitplaneStride20];
-                    b21 = bitmap[iBitmap + bitplaneStride21];
-                    b22 = bitmap[iBitmap + bitplaneStride22];
-                    b23 = bitmap[iBitmap + bitplaneStride23];
+        final int greenOffset = bitplaneStride * 8;
+        final int blueOffset = bitplaneStride * 16;
+
+        // Planes 0 to 7 hold red, 8 to 15 green, and 16 to 23 blue,
+        // each starting with the lowest bit.
+        for (int y = top; y < bottom; y++) {
+            final int iScanline = y * scanlineStride;
+            final int iPixel = y * width;
+            for (int x = left; x < right;) {
+                int iBitmap = iScanline + (x >>> 3);
+                long r = transpose8(iBitmap, 8);
+                long g = transpose8(iBitmap + greenOffset, 8);
+                long b = transpose8(iBitmap + blueOffset, 8);
+                for (int end = Math.min(right, (x | 7) + 1); x < end; x++) {
+                    int shift = (x & 7) << 3;
+                    pixels[iPixel + x] = ((int) (r >>> shift) & 0xff) << 16
+                            | ((int) (g >>> shift) & 0xff) << 8
+                            | (int) (b >>> shift) & 0xff;
                 }
-
-                intPixels[iPixel++] = ((b0 & bitMask) << 16
-                        | (b1 & bitMask) << 17
-                        | (b2 & bitMask) << 18
-                        | (b3 & bitMask) << 19
-                        | (b4 & bitMask) << 20
-                        | (b5 & bitMask) << 21
-                        | (b6 & bitMask) << 22
-                        | (b7 & bitMask) << 23
-                        | (b8 & bitMask) << 8
-                        | (b9 & bitMask) << 9
-                        | (b10 & bitMask) << 10
-                        | (b11 & bitMask) << 11
-                        | (b12 & bitMask) << 12
-                        | (b13 & bitMask) << 13
-                        | (b14 & bitMask) << 14
-                        | (b15 & bitMask) << 15
-                        | (b16 & bitMask)
-                        | (b17 & bitMask) << 1
-                        | (b18 & bitMask) << 2
-                        | (b19 & bitMask) << 3
-                        | (b20 & bitMask) << 4
-                        | (b21 & bitMask) << 5
-                        | (b22 & bitMask) << 6
-                        | (b23 & bitMask) << 7) >>> (7 - iBit);
-
             }
-            iPixel += pixelLineStride;
         }
     }
 
@@ -2595,120 +1421,37 @@ public class BitmapImage
 
         final int[] HAMColors = new int[((HAMColorModel) planarColorModel).getMapSize()];
         ((HAMColorModel) planarColorModel).getRGBs(HAMColors);
+        final int[] pixels = intPixels;
         final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
         final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        int x;
-        int iPixel = top * width + left;
-        int lastPixel, iLastPixel = top * width + left - 1;
-        int pixel = 0;
-        int bitShift;
-        int iScanline;
-        int iDepth;
-        final int bitplaneStride1 = bitplaneStride;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        int iBitmap;
-        int b0, b1, b2, b3, b4, b5;
-        b0 = b1 = b2 = b3 = b4 = b5 = 0;
-        int iBit; // the index of the bit inside the byte at the current x-position
-        int bitMask; // the mask for the bit inside the byte at the current x-position
-        /*
-        
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-        if (left == 0) {
-        lastPixel = 0xff000000;
-        } else {
-        lastPixel = intPixels_[iLastPixel];
-        iLastPixel += width;
-        }
-        for (x = left; x < right; x++) {
-        
-        bitShift = x % 8;
-        iBitmap = iScanline + x / 8;
-        pixel =
-        ((bitmap_[iBitmap] << bitShift) & 128) >>> 3
-        | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 2
-        | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 1
-        | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128)
-        ;
-        
-        switch (((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 7
-        | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128) >>> 6) {
-        
-        case 0: // use indexed color
-        intPixels_[iPixel++] = lastPixel = HAMColors[pixel >>> 4];
-        break;
-        
-        case 1: // modifie blue
-        intPixels_[iPixel++] = lastPixel = lastPixel & 0xffffff00 | pixel | pixel >>> 4;
-        break;
-        
-        case 2:  // modify red
-        intPixels_[iPixel++] = lastPixel = lastPixel & 0xff00ffff | pixel << 16 | pixel << 12 & 0x000f0000;
-        break;
-        
-        default: // modify green
-        intPixels_[iPixel++] = lastPixel = lastPixel & 0xffff00ff | pixel << 8 | pixel << 4 & 0x0f00;
-        break;
-        }
-        }
-        iPixel += pixelLineStride;
-        }
-        iPixel = 0;
-        iLastPixel = top*width + left - 1;
-         */
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-            if (left == 0) {
-                lastPixel = 0xff000000;
-            } else {
-                lastPixel = intPixels[iLastPixel];
-                iLastPixel += width;
-            }
-            for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-
-                if (iBit == 0) {
-                    b0 = bitmap[iBitmap];
-                    b1 = bitmap[iBitmap + bitplaneStride];
-                    b2 = bitmap[iBitmap + bitplaneStride2];
-                    b3 = bitmap[iBitmap + bitplaneStride3];
-                    b4 = bitmap[iBitmap + bitplaneStride4];
-                    b5 = bitmap[iBitmap + bitplaneStride5];
-                }
-                pixel = ((b0 & bitMask)
-                        | (b1 & bitMask) << 1
-                        | (b2 & bitMask) << 2
-                        | (b3 & bitMask) << 3) >>> (7 - iBit);
-
-                switch (((b4 & bitMask)
-                        | (b5 & bitMask) << 1) >>> (7 - iBit)) {
-
-                    case 0: // use indexed color
-                        intPixels[iPixel++] = lastPixel = HAMColors[pixel];
-                        break;
-
-                    case 1: // modifie blue
-                        intPixels[iPixel++] = lastPixel = lastPixel & 0xffffff00 | pixel | pixel << 4;
-                        break;
 
-                    case 2:  // modify red
-                        intPixels[iPixel++] = lastPixel = lastPixel & 0xff00ffff | pixel << 16 | pixel << 20;
-                        break;
-
-                    default: // modify green
-                        intPixels[iPixel++] = lastPixel = lastPixel & 0xffff00ff | pixel << 8 | pixel << 12;
-                        break;
+        // The HAM state is carried along a scanline only
+        for (int y = top; y < bottom; y++) {
+            final int iScanline = y * scanlineStride;
+            final int iPixel = y * width;
+            int lastPixel = (left == 0) ? 0xff000000 : pixels[iPixel + left - 1];
+            for (int x = left; x < right;) {
+                long eight = transpose8(iScanline + (x >>> 3), 6);
+                for (int end = Math.min(right, (x | 7) + 1); x < end; x++) {
+                    int value = (int) (eight >>> ((x & 7) << 3));
+                    int pixel = value & 0x0f;
+                    switch ((value >>> 4) & 3) {
+                        case 0: // use indexed color
+                            lastPixel = HAMColors[pixel];
+                            break;
+                        case 1: // modify blue
+                            lastPixel = lastPixel & 0xffffff00 | pixel | pixel << 4;
+                            break;
+                        case 2: // modify red
+                            lastPixel = lastPixel & 0xff00ffff | pixel << 16 | pixel << 20;
+                            break;
+                        default: // modify green
+                            lastPixel = lastPixel & 0xffff00ff | pixel << 8 | pixel << 12;
+                            break;
+                    }
+                    pixels[iPixel + x] = lastPixel;
                 }
             }
-            iPixel += pixelLineStride;
         }
     }
 
@@ -2735,131 +1478,37 @@ public class BitmapImage
 
         final int[] HAMColors = new int[((HAMColorModel) planarColorModel).getMapSize()];
         ((HAMColorModel) planarColorModel).getRGBs(HAMColors);
+        final int[] pixels = intPixels;
         final int scanlineStride = getScanlineStride();
-        final int bitplaneStride = getBitplaneStride();
-        final int depth = getDepth();
         final int width = getWidth();
-        final int pixelLineStride = width - right + left;
-        final int bottomScanline = bottom * scanlineStride;
-        int x;
-        int iPixel = top * width + left;
-        int lastPixel, iLastPixel = top * width + left - 1;
-        int pixel = 0;
-        int bitShift;
-        //int iBitmap;
-        int iScanline;
-        int iDepth;
-        final int bitplaneStride1 = bitplaneStride;
-        final int bitplaneStride2 = bitplaneStride * 2;
-        final int bitplaneStride3 = bitplaneStride * 3;
-        final int bitplaneStride4 = bitplaneStride * 4;
-        final int bitplaneStride5 = bitplaneStride * 5;
-        final int bitplaneStride6 = bitplaneStride * 6;
-        final int bitplaneStride7 = bitplaneStride * 7;
-
-        int iBitmap = top * scanlineStride + left / 8;
-        int b0, b1, b2, b3, b4, b5, b6, b7;
-        b0 = b1 = b2 = b3 = b4 = b5 = b6 = b7 = 0;
 
-        int iBit; // the index of the bit inside the byte at the current x-position
-        int bitMask; // the mask for the bit inside the byte at the current x-position
-        /*
-        
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-        if (left == 0) {
-        lastPixel = 0xff000000;
-        } else {
-        lastPixel = intPixels_[iLastPixel];
-        iLastPixel += width;
-        }
-        for (x = left; x < right; x++) {
-        bitShift = x % 8;
-        iBitmap = iScanline + x / 8;
-        pixel =
-        ((bitmap_[iBitmap] << bitShift) & 128) >>> 5
-        | ((bitmap_[iBitmap+bitplaneStride1] << bitShift) & 128) >>> 4
-        | ((bitmap_[iBitmap+bitplaneStride2] << bitShift) & 128) >>> 3
-        | ((bitmap_[iBitmap+bitplaneStride3] << bitShift) & 128) >>> 2
-        | ((bitmap_[iBitmap+bitplaneStride4] << bitShift) & 128) >>> 1
-        | ((bitmap_[iBitmap+bitplaneStride5] << bitShift) & 128)
-        ;
-        
-        switch (((bitmap_[iBitmap+bitplaneStride6] << bitShift) & 128) >>> 7
-        | ((bitmap_[iBitmap+bitplaneStride7] << bitShift) & 128) >>> 6) {
-        
-        case 0: // use indexed color
-        intPixels_[iPixel++] = lastPixel = HAMColors[pixel >>> 2];
-        break;
-        
-        case 1: // modifie blue
-        intPixels_[iPixel++] = lastPixel = lastPixel & 0xffffff00 | pixel | pixel >>> 6;
-        break;
-        
-        case 2: // modify red
-        intPixels_[iPixel++] = lastPixel = lastPixel & 0xff00ffff | pixel << 16 | pixel << 10 & 0x030000;
-        break;
-        
-        default: // modify green
-        intPixels_[iPixel++] = lastPixel = lastPixel & 0xffff00ff | pixel << 8 | pixel << 2 & 0x0300;
-        break;
-        
-        }
-        }
-        iPixel += pixelLineStride;
-        }
-        iPixel = 0;
-        iLastPixel = top*width + left - 1;
-         */
-        for (iScanline = top * scanlineStride; iScanline < bottomScanline; iScanline += scanlineStride) {
-            if (left == 0) {
-                lastPixel = 0xff000000;
-            } else {
-                lastPixel = intPixels[iLastPixel];
-                iLastPixel += width;
-            }
-            for (x = left; x < right; x++) {
-                iBit = x & 7;
-                bitMask = 128 >>> (iBit);
-                iBitmap = iScanline + (x >>> 3);
-
-                if (iBit == 0) {
-                    b0 = bitmap[iBitmap];
-                    b1 = bitmap[iBitmap + bitplaneStride];
-                    b2 = bitmap[iBitmap + bitplaneStride2];
-                    b3 = bitmap[iBitmap + bitplaneStride3];
-                    b4 = bitmap[iBitmap + bitplaneStride4];
-                    b5 = bitmap[iBitmap + bitplaneStride5];
-                    b6 = bitmap[iBitmap + bitplaneStride6];
-                    b7 = bitmap[iBitmap + bitplaneStride7];
-                }
-                pixel = ((b0 & bitMask)
-                        | (b1 & bitMask) << 1
-                        | (b2 & bitMask) << 2
-                        | (b3 & bitMask) << 3
-                        | (b4 & bitMask) << 4
-                        | (b5 & bitMask) << 5) >>> (7 - iBit);
-
-                switch (((b6 & bitMask)
-                        | (b7 & bitMask) << 1) >>> (7 - iBit)) {
-
-                    case 0: // use indexed color
-                        intPixels[iPixel++] = lastPixel = HAMColors[pixel];
-                        break;
-
-                    case 1: // modifie blue
-                        intPixels[iPixel++] = lastPixel = lastPixel & 0xffffff00 | pixel << 2 | pixel >>> 4;
-                        break;
-
-                    case 2:  // modify red
-                        intPixels[iPixel++] = lastPixel = lastPixel & 0xff00ffff | pixel << 18 | (pixel & 0x03) << 16;
-                        break;
-
-                    default: // modify green
-                        intPixels[iPixel++] = lastPixel = lastPixel & 0xffff00ff | pixel << 10 | (pixel & 0x03) << 8;
-                        break;
+        // The HAM state is carried along a scanline only
+        for (int y = top; y < bottom; y++) {
+            final int iScanline = y * scanlineStride;
+            final int iPixel = y * width;
+            int lastPixel = (left == 0) ? 0xff000000 : pixels[iPixel + left - 1];
+            for (int x = left; x < right;) {
+                long eight = transpose8(iScanline + (x >>> 3), 8);
+                for (int end = Math.min(right, (x | 7) + 1); x < end; x++) {
+                    int value = (int) (eight >>> ((x & 7) << 3));
+                    int pixel = value & 0x3f;
+                    switch ((value >>> 6) & 3) {
+                        case 0: // use indexed color
+                            lastPixel = HAMColors[pixel];
+                            break;
+                        case 1: // modify blue
+                            lastPixel = lastPixel & 0xffffff00 | pixel << 2 | pixel >>> 4;
+                            break;
+                        case 2: // modify red
+                            lastPixel = lastPixel & 0xff00ffff | pixel << 18 | (pixel & 0x03) << 16;
+                            break;
+                        default: // modify green
+                            lastPixel = lastPixel & 0xffff00ff | pixel << 10 | (pixel & 0x03) << 8;
+                            break;
+                    }
+                    pixels[iPixel + x] = lastPixel;
                 }
             }
-            iPixel += pixelLineStride;
         }
     }
 
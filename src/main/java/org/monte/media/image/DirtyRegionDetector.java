@@ -0,0 +1,276 @@
+/*
+ * @(#)DirtyRegionDetector.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import static java.lang.Math.*;
+
+/**
+ * Detects which tiles of an image have changed since the previous image.
+ * <p>
+ * The detector keeps a copy of the previous image. Each image is compared
+ * with the copy tile by tile, one data element at a time. As soon as a
+ * difference is found in a tile, the remaining pixels of the tile are not
+ * compared anymore. Only the dirty tiles are copied into the reference image.
+ * <p>
+ * The first image, and the first image after {@link #invalidate}, is
+ * reported as entirely dirty.
+ * <p>
+ * Supported images have 8-bit, 16-bit or 32-bit pixels stored in a single
+ * data array.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class DirtyRegionDetector {
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    /** The result of the last detection. It is reused by each detection. */
+    private final DirtyRegionMap map;
+    /** The pixels of the previous image: byte[], short[] or int[]. */
+    private Object reference;
+    private boolean isValid;
+    private long frameCount;
+    private double dirtyRatioSum;
+
+    /** Creates a new detector.
+     *
+     * @param width The width of the images.
+     * @param height The height of the images.
+     * @param tileSize The width and height of a tile.
+     */
+    public DirtyRegionDetector(int width, int height, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.map = new DirtyRegionMap(width, height, tileSize);
+    }
+
+    /** Discards the reference image. The next image will be reported
+     * as entirely dirty. Call this method if an image was skipped by the
+     * consumer of the dirty region maps.
+     */
+    public void invalidate() {
+        isValid = false;
+    }
+
+    /** Detects the dirty tiles of the specified image.
+     *
+     * @return The dirty region map, or null if the image is not supported.
+     * The map is reused by the next detection.
+     */
+    public DirtyRegionMap detect(BufferedImage img) {
+        if (img.getWidth() != width || img.getHeight() != height) {
+            return null;
+        }
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        int scanlineStride;
+        if (sm instanceof SinglePixelPackedSampleModel) {
+            scanlineStride = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+        } else if (sm instanceof ComponentSampleModel && sm.getNumBands() == 1) {
+            scanlineStride = ((ComponentSampleModel) sm).getScanlineStride();
+        } else if (sm instanceof MultiPixelPackedSampleModel && sm.getSampleSize(0) == 8) {
+            scanlineStride = ((MultiPixelPackedSampleModel) sm).getScanlineStride();
+        } else {
+            return null;
+        }
+        DataBuffer db = raster.getDataBuffer();
+        int offset = db.getOffset() - raster.getSampleModelTranslateX() - raster.getSampleModelTranslateY() * scanlineStride;
+        if (db instanceof DataBufferInt) {
+            return detect(((DataBufferInt) db).getData(), offset, scanlineStride);
+        } else if (db instanceof DataBufferUShort) {
+            return detect(((DataBufferUShort) db).getData(), offset, scanlineStride);
+        } else if (db instanceof DataBufferShort) {
+            return detect(((DataBufferShort) db).getData(), offset, scanlineStride);
+        } else if (db instanceof DataBufferByte) {
+            return detect(((DataBufferByte) db).getData(), offset, scanlineStride);
+        }
+        return null;
+    }
+
+    /** Detects the dirty tiles of an image with 32-bit pixels.
+     *
+     * @param data The image data.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     * @return The dirty region map. The map is reused by the next detection.
+     */
+    public DirtyRegionMap detect(int[] data, int offset, int scanlineStride) {
+        if (!isValid || !(reference instanceof int[])) {
+            return reset(data, offset, scanlineStride,
+                    (reference instanceof int[]) ? reference : new int[width * height]);
+        }
+        return detectTiles(data, offset, scanlineStride);
+    }
+
+    /** Detects the dirty tiles of an image with 16-bit pixels.
+     *
+     * @param data The image data.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     * @return The dirty region map. The map is reused by the next detection.
+     */
+    public DirtyRegionMap detect(short[] data, int offset, int scanlineStride) {
+        if (!isValid || !(reference instanceof short[])) {
+            return reset(data, offset, scanlineStride,
+                    (reference instanceof short[]) ? reference : new short[width * height]);
+        }
+        return detectTiles(data, offset, scanlineStride);
+    }
+
+    /** Detects the dirty tiles of an image with 8-bit pixels.
+     *
+     * @param data The image data.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     * @return The dirty region map. The map is reused by the next detection.
+     */
+    public DirtyRegionMap detect(byte[] data, int offset, int scanlineStride) {
+        if (!isValid || !(reference instanceof byte[])) {
+            return reset(data, offset, scanlineStride,
+                    (reference instanceof byte[]) ? reference : new byte[width * height]);
+        }
+        return detectTiles(data, offset, scanlineStride);
+    }
+
+    /** Copies the image into the reference image and reports all tiles
+     * as dirty.
+     *
+     * @param data The image data: byte[], short[] or int[].
+     * @param ref The reference image. An array of the same type as data.
+     */
+    private DirtyRegionMap reset(Object data, int offset, int scanlineStride, Object ref) {
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(data, offset + y * scanlineStride, ref, y * width, width);
+        }
+        reference = ref;
+        return allDirty();
+    }
+
+    /** Compares the image with the reference image tile by tile, and copies
+     * the dirty tiles into the reference image.
+     *
+     * @param data The image data. An array of the same type as the
+     * reference image.
+     */
+    private DirtyRegionMap detectTiles(Object data, int offset, int scanlineStride) {
+        Object ref = reference;
+        map.setAllClean();
+        for (int ty = 0, rows = map.getRows(), columns = map.getColumns(); ty < rows; ty++) {
+            int y0 = ty * tileSize;
+            int y1 = min(height, y0 + tileSize);
+            for (int y = y0; y < y1; y++) {
+                int xy = offset + y * scanlineStride;
+                int rxy = y * width;
+                for (int tx = 0; tx < columns; tx++) {
+                    if (map.isDirty(tx, ty)) {
+                        continue;
+                    }
+                    int x0 = tx * tileSize;
+                    int len = min(width, x0 + tileSize) - x0;
+                    if (differs(data, xy + x0, ref, rxy + x0, len)) {
+                        map.setDirty(tx, ty);
+                    }
+                }
+            }
+            for (int tx = 0; tx < columns; tx++) {
+                if (map.isDirty(tx, ty)) {
+                    int x0 = tx * tileSize;
+                    int len = min(width, x0 + tileSize) - x0;
+                    for (int y = y0; y < y1; y++) {
+                        System.arraycopy(data, offset + y * scanlineStride + x0, ref, y * width + x0, len);
+                    }
+                }
+            }
+        }
+        return detected();
+    }
+
+    /** Returns true if the specified ranges of two arrays of the same type
+     * differ. */
+    private static boolean differs(Object a, int aOffset, Object b, int bOffset, int len) {
+        if (a instanceof int[]) {
+            return differs((int[]) a, aOffset, (int[]) b, bOffset, len);
+        } else if (a instanceof short[]) {
+            return differs((short[]) a, aOffset, (short[]) b, bOffset, len);
+        } else {
+            return differs((byte[]) a, aOffset, (byte[]) b, bOffset, len);
+        }
+    }
+
+    private static boolean differs(int[] a, int aOffset, int[] b, int bOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean differs(short[] a, int aOffset, short[] b, int bOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean differs(byte[] a, int aOffset, byte[] b, int bOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DirtyRegionMap allDirty() {
+        isValid = true;
+        map.setAllDirty();
+        return detected();
+    }
+
+    private DirtyRegionMap detected() {
+        frameCount++;
+        dirtyRatioSum += map.getDirtyRatio();
+        return map;
+    }
+
+    /** Returns the ratio of dirty tiles to all tiles of the last image. */
+    public float getDirtyRatio() {
+        return map.getDirtyRatio();
+    }
+
+    /** Returns the average ratio of dirty tiles to all tiles over all images
+     * since the detector was created. */
+    public double getAverageDirtyRatio() {
+        return frameCount == 0 ? 0 : dirtyRatioSum / frameCount;
+    }
+
+    /** Returns the number of images which have been examined. */
+    public long getFrameCount() {
+        return frameCount;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * @(#)DirtyRegionMap.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.image;
+
+import java.util.Arrays;
+
+/**
+ * Describes which tiles of an image have changed since the previous image.
+ * <p>
+ * The image is divided into square tiles of {@code tileSize} pixels. The tiles
+ * at the right and bottom border may be smaller. A tile is dirty if at least
+ * one of its pixels has changed. All pixels of a clean tile are known to be
+ * unchanged.
+ * <p>
+ * Instances of this class are created by {@link DirtyRegionDetector}.
+ * Encoders use it to skip clean parts of an image without comparing pixels.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class DirtyRegionMap implements Cloneable {
+
+    private int width;
+    private int height;
+    private int tileSize;
+    private int columns;
+    private int rows;
+    /** The dirty flag of each tile, row by row. */
+    private boolean[] dirty;
+    /** The column of the first dirty tile of each tile row, or
+     * {@code columns} if the tile row is clean. */
+    private int[] firstDirtyColumn;
+    private int dirtyCount;
+
+    /** Creates a map in which all tiles are dirty. */
+    public DirtyRegionMap(int width, int height, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be at least 1:" + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.dirty = new boolean[columns * rows];
+        this.firstDirtyColumn = new int[rows];
+        setAllDirty();
+    }
+
+    /** Marks all tiles as dirty. */
+    public void setAllDirty() {
+        Arrays.fill(dirty, true);
+        Arrays.fill(firstDirtyColumn, 0);
+        dirtyCount = dirty.length;
+    }
+
+    /** Marks all tiles as clean. */
+    public void setAllClean() {
+        Arrays.fill(dirty, false);
+        Arrays.fill(firstDirtyColumn, columns);
+        dirtyCount = 0;
+    }
+
+    /** Marks the specified tile as dirty. */
+    public void setDirty(int column, int row) {
+        int i = row * columns + column;
+        if (!dirty[i]) {
+            dirty[i] = true;
+            dirtyCount++;
+            if (column < firstDirtyColumn[row]) {
+                firstDirtyColumn[row] = column;
+            }
+        }
+    }
+
+    /** Returns true if the specified tile is dirty. */
+    public boolean isDirty(int column, int row) {
+        return dirty[row * columns + column];
+    }
+
+    /** Returns true if no tile is dirty. */
+    public boolean isClean() {
+        return dirtyCount == 0;
+    }
+
+    /** Returns the number of pixels at the start of the specified scanline
+     * which are known to be unchanged. Returns {@code width} if the entire
+     * scanline is unchanged.
+     */
+    public int getCleanPrefix(int y) {
+        return Math.min(width, firstDirtyColumn[y / tileSize] * tileSize);
+    }
+
+    /** Returns the number of dirty tiles. */
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    /** Returns the ratio of dirty tiles to all tiles. */
+    public float getDirtyRatio() {
+        return dirty.length == 0 ? 0f : dirtyCount / (float) dirty.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /** Sets this map to the values of that map. */
+    public void setTo(DirtyRegionMap that) {
+        if (this.dirty.length != that.dirty.length) {
+            this.dirty = new boolean[that.dirty.length];
+        }
+        if (this.firstDirtyColumn.length != that.firstDirtyColumn.length) {
+            this.firstDirtyColumn = new int[that.firstDirtyColumn.length];
+        }
+        this.width = that.width;
+        this.height = that.height;
+        this.tileSize = that.tileSize;
+        this.columns = that.columns;
+        this.rows = that.rows;
+        this.dirtyCount = that.dirtyCount;
+        System.arraycopy(that.dirty, 0, this.dirty, 0, that.dirty.length);
+        System.arraycopy(that.firstDirtyColumn, 0, this.firstDirtyColumn, 0, that.firstDirtyColumn.length);
+    }
+
+    @Override
+    public DirtyRegionMap clone() {
+        try {
+            DirtyRegionMap that = (DirtyRegionMap) super.clone();
+            that.dirty = this.dirty.clone();
+            that.firstDirtyColumn = this.firstDirtyColumn.clone();
+            return that;
+        } catch (CloneNotSupportedException ex) {
+            InternalError e = new InternalError("Clone failed");
+            e.initCause(ex);
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DirtyRegionMap{" + "tiles=" + columns + "x" + rows + ", dirty=" + dirtyCount + '}';
+    }
+}
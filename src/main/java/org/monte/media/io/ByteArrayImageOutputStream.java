@@ -332,5 +332,23 @@ public class ByteArrayImageOutputStream extends ImageOutputStreamImpl {
     public synchronized void clear() {
 	count = arrayOffset;
         streamPos=arrayOffset;
+        flushedPos = 0;
+        bitOffset = 0;
+    }
+
+    /**
+     * Discards all output and continues writing into the specified array.
+     * This allows to reuse the stream, and an {@code ImageWriter} which
+     * writes into it, for writing into another array.
+     *
+     * @param buf The new buffer. Its content is overwritten, and it is
+     * replaced by a larger array if it is too small.
+     */
+    public synchronized void clear(byte[] buf) {
+        if (arrayOffset > buf.length) {
+            throw new IllegalArgumentException("Array is smaller than the offset " + arrayOffset + ": " + buf.length);
+        }
+        this.buf = buf;
+        clear();
     }
 }
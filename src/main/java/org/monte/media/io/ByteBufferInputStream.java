@@ -0,0 +1,72 @@
+/*
+ * @(#)ByteBufferInputStream.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@code ByteBufferInputStream} reads from a {@code ByteBuffer}, for example
+ * from a {@code MappedByteBuffer}.
+ * <p>
+ * The stream reads from a duplicate of the buffer, the position of the buffer
+ * is not changed.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    /** Creates a new instance which reads the remaining bytes of the buffer. */
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf.duplicate();
+    }
+
+    /** Returns the buffer. Its position is the position of the stream. */
+    public ByteBuffer getBuffer() {
+        return buf;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buf.remaining());
+        buf.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(n, buf.remaining());
+        buf.position(buf.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+}
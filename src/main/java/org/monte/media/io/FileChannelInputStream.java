@@ -0,0 +1,132 @@
+/*
+ * @(#)FileChannelInputStream.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@code FileChannelInputStream} reads from a {@code FileChannel} with
+ * positional reads.
+ * <p>
+ * The stream has its own position, the position of the channel is not
+ * changed. Small reads are served from an internal buffer. Skipping does not
+ * read any data, so that large parts of a file can be passed over at no cost.
+ * Closing the stream does not close the channel.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    /** The buffered data. */
+    private final ByteBuffer buf;
+    /** The position of the first byte of the buffer in the channel. */
+    private long bufPos;
+
+    /** Creates a new instance which starts reading at the specified position
+     * of the channel.
+     */
+    public FileChannelInputStream(FileChannel channel, long position) {
+        this(channel, position, 8192);
+    }
+
+    /** Creates a new instance with the specified buffer size. */
+    public FileChannelInputStream(FileChannel channel, long position, int bufferSize) {
+        this.channel = channel;
+        this.bufPos = position;
+        this.buf = ByteBuffer.allocate(bufferSize);
+        buf.limit(0);
+    }
+
+    /** Returns the channel. */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /** Returns the position of the next byte in the channel. */
+    public long getPosition() {
+        return bufPos + buf.position();
+    }
+
+    /** Sets the position of the next byte in the channel. */
+    public void setPosition(long newValue) {
+        if (newValue >= bufPos && newValue <= bufPos + buf.limit()) {
+            buf.position((int) (newValue - bufPos));
+        } else {
+            bufPos = newValue;
+            buf.limit(0);
+        }
+    }
+
+    /** Fills the buffer. Returns false on end of file. */
+    private boolean fill() throws IOException {
+        bufPos = getPosition();
+        buf.clear();
+        int count = 0;
+        while (count == 0) {
+            count = channel.read(buf, bufPos);
+        }
+        buf.flip();
+        return count > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buf.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buf.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buf.hasRemaining()) {
+            if (len >= buf.capacity()) {
+                // Large reads bypass the buffer
+                long pos = getPosition();
+                int count = channel.read(ByteBuffer.wrap(b, off, len), pos);
+                if (count > 0) {
+                    setPosition(pos + count);
+                }
+                return count;
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, buf.remaining());
+        buf.get(b, off, count);
+        return count;
+    }
+
+    /** Skips over n bytes without reading them. The position may be moved
+     * beyond the end of the file. */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        setPosition(getPosition() + n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - getPosition()));
+    }
+}
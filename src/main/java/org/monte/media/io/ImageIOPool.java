@@ -0,0 +1,141 @@
+/*
+ * @(#)ImageIOPool.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+
+/**
+ * Keeps an {@code ImageReader} and an {@code ImageWriter} per format for each
+ * thread.
+ * <p>
+ * Looking up a reader or a writer with {@code ImageIO} and setting it up can
+ * take longer than reading or writing a small image. Codecs which encode
+ * frames on a pool of threads can take their readers and writers from here,
+ * so that each thread only creates them once, no matter how many codec
+ * instances it uses.
+ * <p>
+ * The readers and writers belong to the thread which has requested them.
+ * They must not be passed to other threads, and they must not be disposed
+ * except with {@link #dispose}.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ImageIOPool {
+
+    /** Readers by MIME type or by provider class. */
+    private final static ThreadLocal<HashMap<Object, ImageReader>> readers = new ThreadLocal<HashMap<Object, ImageReader>>() {
+
+        @Override
+        protected HashMap<Object, ImageReader> initialValue() {
+            return new HashMap<Object, ImageReader>();
+        }
+    };
+    /** Writers by MIME type. */
+    private final static ThreadLocal<HashMap<String, ImageWriter>> writers = new ThreadLocal<HashMap<String, ImageWriter>>() {
+
+        @Override
+        protected HashMap<String, ImageWriter> initialValue() {
+            return new HashMap<String, ImageWriter>();
+        }
+    };
+
+    /** Prevent instance creation. */
+    private ImageIOPool() {
+    }
+
+    /** Returns the writer of the current thread for the specified MIME type.
+     *
+     * @param mimeType A MIME type, for example "image/jpeg".
+     * @throws IIOException if {@code ImageIO} has no writer for the MIME type.
+     */
+    public static ImageWriter getWriter(String mimeType) throws IOException {
+        HashMap<String, ImageWriter> map = writers.get();
+        ImageWriter w = map.get(mimeType);
+        if (w == null) {
+            w = createWriter(mimeType);
+            map.put(mimeType, w);
+        }
+        return w;
+    }
+
+    /** Returns the reader of the current thread for the specified MIME type.
+     *
+     * @param mimeType A MIME type, for example "image/png".
+     * @throws IIOException if {@code ImageIO} has no reader for the MIME type.
+     */
+    public static ImageReader getReader(String mimeType) throws IOException {
+        HashMap<Object, ImageReader> map = readers.get();
+        ImageReader r = map.get(mimeType);
+        if (r == null) {
+            r = createReader(mimeType);
+            map.put(mimeType, r);
+        }
+        return r;
+    }
+
+    /** Returns the reader of the current thread, which has been created by
+     * a provider of the specified class. This is used for readers which are
+     * not registered with {@code ImageIO}. */
+    public static ImageReader getReader(ImageReaderSpi provider) throws IOException {
+        HashMap<Object, ImageReader> map = readers.get();
+        ImageReader r = map.get(provider.getClass());
+        if (r == null) {
+            r = provider.createReaderInstance();
+            map.put(provider.getClass(), r);
+        }
+        return r;
+    }
+
+    /** Creates a new writer for the specified MIME type.
+     *
+     * @throws IIOException if {@code ImageIO} has no writer for the MIME type.
+     */
+    public static ImageWriter createWriter(String mimeType) throws IOException {
+        Iterator<ImageWriter> i = ImageIO.getImageWritersByMIMEType(mimeType);
+        if (!i.hasNext()) {
+            throw new IIOException("No image writer for " + mimeType);
+        }
+        return i.next();
+    }
+
+    /** Creates a new reader for the specified MIME type.
+     *
+     * @throws IIOException if {@code ImageIO} has no reader for the MIME type.
+     */
+    public static ImageReader createReader(String mimeType) throws IOException {
+        Iterator<ImageReader> i = ImageIO.getImageReadersByMIMEType(mimeType);
+        if (!i.hasNext()) {
+            throw new IIOException("No image reader for " + mimeType);
+        }
+        return i.next();
+    }
+
+    /** Disposes all readers and writers of the current thread. A thread
+     * should call this method before it terminates. */
+    public static void dispose() {
+        for (ImageReader r : readers.get().values()) {
+            r.dispose();
+        }
+        for (ImageWriter w : writers.get().values()) {
+            w.dispose();
+        }
+        readers.remove();
+        writers.remove();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * @(#)SpillOutputStream.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * An output stream which keeps its data in a fixed size memory buffer, and
+ * spills the data into a temporary file when the buffer is full.
+ * <p>
+ * This is used by the movie writers for the index tables, which grow with
+ * the number of samples. The tables are written into a spill stream while
+ * the movie is being recorded, and are copied into the movie file when it
+ * is finished. Thus the heap usage does not grow with the length of the
+ * movie.
+ * <p>
+ * The data can be read back any number of times. Data must not be written
+ * while it is being read. The temporary file is deleted when the stream
+ * is closed.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class SpillOutputStream extends OutputStream {
+
+    private final byte[] buf;
+    private int count;
+    private File file;
+    private FileOutputStream fileOut;
+    private long fileLength;
+    private boolean closed;
+
+    /** Creates a new instance with a memory buffer of 8192 bytes. */
+    public SpillOutputStream() {
+        this(8192);
+    }
+
+    /** Creates a new instance.
+     *
+     * @param bufferSize The size of the memory buffer.
+     */
+    public SpillOutputStream(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1:" + bufferSize);
+        }
+        buf = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buf.length) {
+            spill();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buf.length) {
+                spill();
+            }
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Writes the memory buffer into the temporary file. */
+    private void spill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (file == null) {
+            file = File.createTempFile("monte", ".spill");
+            try {
+                fileOut = new FileOutputStream(file);
+            } catch (IOException e) {
+                deleteFile();
+                throw e;
+            }
+        }
+        try {
+            fileOut.write(buf, 0, count);
+        } catch (IOException e) {
+            // The stream can not be used anymore
+            closed = true;
+            deleteFile();
+            throw e;
+        }
+        fileLength += count;
+        count = 0;
+    }
+
+    /** Closes and deletes the temporary file, ignoring I/O errors. */
+    private void deleteFile() {
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // The file is deleted anyway
+            }
+        }
+        file.delete();
+        fileOut = null;
+        file = null;
+        fileLength = 0;
+    }
+
+    /** Returns the number of bytes which have been written. */
+    public long size() {
+        return fileLength + count;
+    }
+
+    /** Returns true if data has been spilled into a temporary file. */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /** Returns an input stream which reads all data that has been written
+     * so far.
+     */
+    public InputStream getInputStream() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        InputStream memIn = new ByteArrayInputStream(buf, 0, count);
+        if (file == null) {
+            return memIn;
+        }
+        return new SequenceInputStream(new BufferedInputStream(new FileInputStream(file)), memIn);
+    }
+
+    /** Writes all data that has been written so far into the specified
+     * output stream. */
+    public void writeTo(OutputStream out) throws IOException {
+        copyFile(out, null);
+        out.write(buf, 0, count);
+    }
+
+    /** Writes all data that has been written so far into the specified
+     * data output. */
+    public void writeTo(DataOutput out) throws IOException {
+        copyFile(null, out);
+        out.write(buf, 0, count);
+    }
+
+    private void copyFile(OutputStream out, DataOutput dout) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (file != null) {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] b = new byte[Math.max(buf.length, 8192)];
+                for (long remaining = fileLength; remaining > 0;) {
+                    int len = in.read(b, 0, (int) Math.min(b.length, remaining));
+                    if (len == -1) {
+                        throw new IOException("Temporary file is truncated: " + file);
+                    }
+                    if (out != null) {
+                        out.write(b, 0, len);
+                    } else {
+                        dout.write(b, 0, len);
+                    }
+                    remaining -= len;
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /** Closes the stream and deletes the temporary file. */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            count = 0;
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } finally {
+                    file.delete();
+                    fileOut = null;
+                    file = null;
+                    fileLength = 0;
+                }
+            }
+        }
+    }
+}
@@ -115,6 +115,8 @@ public class JFIFInputStream extends FilterInputStream {
     public final static int TEM_MARKER = 0xff01;
     /** Start of scan */
     public final static int SOS_MARKER = 0xffda;
+    /** Define restart interval */
+    public final static int DRI_MARKER = 0xffdd;
     /** APP1_MARKER Reserved for application use */
     public final static int APP1_MARKER = 0xffe1;
     /** APP2_MARKER Reserved for application use */
@@ -16,10 +16,12 @@ import org.monte.media.Format;
 import org.monte.media.AbstractVideoCodec;
 import org.monte.media.Buffer;
 import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ImageIOPool;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
 import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import static org.monte.media.VideoFormatKeys.*;
@@ -38,12 +40,40 @@ import static org.monte.media.BufferFlag.*;
  * {@code VideoFormat} with {@code byte[].class}, same width and height as input
  * format, depth=24.
  * </ul>
+ * The codec keeps its {@code ImageWriter} and {@code ImageReader} for all
+ * frames. If many codec instances are used on a pool of threads, they can
+ * share the readers and writers of the {@link ImageIOPool} instead, see
+ * {@link #setThreadLocalPool}.
+ * <p>
+ * Large frames can be encoded in horizontal strips on several threads, see
+ * {@link #setStripCount}. The strips are stitched together into a single JPEG
+ * image with restart markers.
  *
  * @author Werner Randelshofer
  * @version $Id: JPEGCodec.java 142 2012-01-12 22:14:09Z werner $
  */
 public class JPEGCodec extends AbstractVideoCodec {
 
+    /** Whether the reader and the writer are taken from the pool of the
+     * current thread. */
+    private boolean isThreadLocalPool;
+    /** The writer of this codec, if it does not use the pool. */
+    private ImageWriter writer;
+    private ImageWriteParam writeParam;
+    /** The reader of this codec, if it does not use the pool. */
+    private ImageReader reader;
+    private MJPGImageReaderSpi readerSpi;
+    /** The writer writes into this stream. */
+    private ByteArrayImageOutputStream outputStream;
+    /** The length of the last encoded frame. */
+    private int lastLength = 16;
+    /** The maximal number of strips. */
+    private int stripCount = 1;
+    /** The executor for encoding the strips, null for the shared executor. */
+    private Executor stripExecutor;
+    /** The strip encoder, if the strip count is greater than 1. */
+    private JPEGStripEncoder stripEncoder;
+
     public JPEGCodec() {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
@@ -86,34 +116,51 @@ public class JPEGCodec extends AbstractVideoCodec {
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
+        if (in.isFlag(PREFETCH)) {
+            // JPEG frames are key frames, there is no reference frame to update
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
         BufferedImage image = getBufferedImage(in);
         if (image == null) {
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
-        ByteArrayImageOutputStream tmp;
-        if (out.data instanceof byte[]) {
-            tmp = new ByteArrayImageOutputStream((byte[]) out.data);
-        } else {
-            tmp = new ByteArrayImageOutputStream();
+        ByteArrayImageOutputStream tmp = outputStream;
+        byte[] buf = (out.data instanceof byte[]) ? (byte[]) out.data : new byte[lastLength];
+        if (tmp == null) {
+            tmp = outputStream = new ByteArrayImageOutputStream(buf);
         }
+        tmp.clear(buf);
 
         try {
-            ImageWriter iw = (ImageWriter) ImageIO.getImageWritersByMIMEType("image/jpeg").next();
-            ImageWriteParam iwParam = iw.getDefaultWriteParam();
-            iwParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            ImageWriter iw = getWriter();
+            if (writeParam == null) {
+                writeParam = iw.getDefaultWriteParam();
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            }
             float quality = outputFormat.get(QualityKey, 1f);
-            iwParam.setCompressionQuality(quality);
-            iw.setOutput(tmp);
-            IIOImage img = new IIOImage(image, null, null);
-            iw.write(null, img, iwParam);
-            iw.dispose();
+            writeParam.setCompressionQuality(quality);
+            if (stripCount > 1) {
+                if (stripEncoder == null) {
+                    stripEncoder = new JPEGStripEncoder(stripCount, stripExecutor);
+                }
+                stripEncoder.write(image, iw, writeParam, tmp);
+            } else {
+                iw.setOutput(tmp);
+                try {
+                    iw.write(null, new IIOImage(image, null, null), writeParam);
+                } finally {
+                    iw.setOutput(null);
+                }
+            }
 
             out.sampleCount = 1;
             out.setFlag(KEYFRAME);
             out.data = tmp.getBuffer();
             out.offset = 0;
             out.length = (int) tmp.getStreamPosition();
+            lastLength = out.length;
             return CODEC_OK;
         } catch (IOException ex) {
             ex.printStackTrace();
@@ -133,14 +180,16 @@ public class JPEGCodec extends AbstractVideoCodec {
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
-        ByteArrayImageInputStream tmp = new ByteArrayImageInputStream(data);
+        ByteArrayImageInputStream tmp = new ByteArrayImageInputStream(data, in.offset, in.length, ByteOrder.BIG_ENDIAN);
 
         try {
-            // ImageReader ir = (ImageReader) ImageIO.getImageReadersByMIMEType("image/jpeg").next();
-            ImageReader ir = new MJPGImageReader(new MJPGImageReaderSpi());
+            ImageReader ir = getReader();
             ir.setInput(tmp);
-            out.data = ir.read(0);
-            ir.dispose();
+            try {
+                out.data = ir.read(0);
+            } finally {
+                ir.setInput(null);
+            }
 
             out.sampleCount = 1;
             out.offset = 0;
@@ -152,4 +201,88 @@ public class JPEGCodec extends AbstractVideoCodec {
             return CODEC_FAILED;
         }
     }
+
+    /** Returns the writer of this codec, or the writer of the pool of the
+     * current thread. */
+    private ImageWriter getWriter() throws IOException {
+        if (isThreadLocalPool) {
+            return ImageIOPool.getWriter("image/jpeg");
+        }
+        if (writer == null) {
+            writer = ImageIOPool.createWriter("image/jpeg");
+        }
+        return writer;
+    }
+
+    /** Returns the reader of this codec, or the reader of the pool of the
+     * current thread. */
+    private ImageReader getReader() throws IOException {
+        if (readerSpi == null) {
+            readerSpi = new MJPGImageReaderSpi();
+        }
+        if (isThreadLocalPool) {
+            return ImageIOPool.getReader(readerSpi);
+        }
+        if (reader == null) {
+            reader = readerSpi.createReaderInstance();
+        }
+        return reader;
+    }
+
+    /** Sets whether the codec takes its {@code ImageReader} and
+     * {@code ImageWriter} from the {@link ImageIOPool} of the current thread,
+     * instead of keeping its own. This saves memory and setup time if a pool
+     * of threads uses many codec instances. The default value is false.
+     */
+    public void setThreadLocalPool(boolean newValue) {
+        if (newValue != isThreadLocalPool) {
+            isThreadLocalPool = newValue;
+            if (writer != null) {
+                writer.dispose();
+                writer = null;
+            }
+            if (reader != null) {
+                reader.dispose();
+                reader = null;
+            }
+        }
+    }
+
+    /** Returns true if the codec uses the {@code ImageIOPool}. */
+    public boolean isThreadLocalPool() {
+        return isThreadLocalPool;
+    }
+
+    /** Sets the maximal number of horizontal strips into which a frame is
+     * split for encoding. The strips are encoded concurrently, and then
+     * stitched together into a single JPEG image with restart markers.
+     * A strip has at least 64 lines, so small frames are split into fewer
+     * strips, or not at all.
+     * <p>
+     * The default value is 1, which encodes each frame in one piece.
+     * A good value for large frames is the number of processors.
+     */
+    public void setStripCount(int newValue) {
+        stripCount = Math.max(1, newValue);
+        stripEncoder = null;
+    }
+
+    /** Returns the maximal number of strips. */
+    public int getStripCount() {
+        return stripCount;
+    }
+
+    /** Sets the executor which encodes the strips. Specify null to use a
+     * pool of daemon threads which is shared by all codecs. The default value
+     * is null.
+     */
+    public void setStripExecutor(Executor newValue) {
+        stripExecutor = newValue;
+        stripEncoder = null;
+    }
+
+    /** Returns the executor which encodes the strips. */
+    public Executor getStripExecutor() {
+        return stripExecutor;
+    }
 }
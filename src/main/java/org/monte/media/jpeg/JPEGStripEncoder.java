@@ -0,0 +1,339 @@
+/*
+ * @(#)JPEGStripEncoder.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import org.monte.media.concurrent.ParallelTasks;
+import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ImageIOPool;
+
+/**
+ * Encodes an image as a single JPEG stream, by encoding horizontal strips of
+ * the image concurrently.
+ * <p>
+ * Each strip is encoded as a baseline JPEG image of its own. Since all strips
+ * are encoded with the same quality and with the standard Huffman tables,
+ * their tables are identical. The strips are then stitched together: the
+ * stream consists of the header segments of the first strip with the height
+ * of the whole image, a DRI segment, and the entropy-coded data of the
+ * strips separated by RST<i>n</i> markers. The restart interval is the number
+ * of MCUs in a strip, so that a decoder resets its DC predictors exactly
+ * where each strip started. The result is a valid JFIF stream, which any
+ * baseline JPEG decoder can read.
+ * <p>
+ * The height of a strip is a multiple of 16 lines, so that a strip always
+ * ends at an MCU boundary. If the strips cannot be stitched, for example
+ * because the writer has produced a progressive image, the image is encoded
+ * in one piece.
+ * <p>
+ * The first strip is encoded on the calling thread with the writer which is
+ * passed to {@link #write}. The other strips are encoded by the executor,
+ * with the writers of the {@link ImageIOPool} of its threads. By default, the
+ * executor is the shared executor of {@link ParallelTasks}, a pool of daemon
+ * threads, one per processor.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class JPEGStripEncoder {
+
+    /** The height of an MCU row with 4:2:0 subsampling. */
+    private final static int MCU_HEIGHT = 16;
+    /** Strips have at least this number of MCU rows, so that the time for
+     * setting up the writer and for writing the header is small compared to
+     * the time for encoding the strip. */
+    private final static int MIN_MCU_ROWS = 4;
+    private Executor executor;
+    private int stripCount;
+    /** The encoded strips. */
+    private ByteArrayImageOutputStream[] strips = new ByteArrayImageOutputStream[0];
+
+    /** Creates a new strip encoder which uses the shared executor.
+     *
+     * @param stripCount The maximal number of strips.
+     */
+    public JPEGStripEncoder(int stripCount) {
+        this(stripCount, null);
+    }
+
+    /** Creates a new strip encoder.
+     *
+     * @param stripCount The maximal number of strips.
+     * @param executor The executor for encoding the strips. Specify null to
+     * use the shared executor.
+     */
+    public JPEGStripEncoder(int stripCount, Executor executor) {
+        this.stripCount = Math.max(1, stripCount);
+        this.executor = executor;
+    }
+
+    /** Writes the image as a JPEG stream.
+     *
+     * @param image The image.
+     * @param writer The JPEG writer of the calling thread.
+     * @param param The parameters for the writer. The strips which are
+     * encoded by the executor use the compression quality of these parameters.
+     * @param out The output stream.
+     */
+    public void write(BufferedImage image, ImageWriter writer, ImageWriteParam param, ByteArrayImageOutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int mcuRows = (height + MCU_HEIGHT - 1) / MCU_HEIGHT;
+        int n = Math.min(stripCount, mcuRows / MIN_MCU_ROWS);
+        if (n < 2) {
+            writeImage(image, writer, param, out);
+            return;
+        }
+        int rowsPerStrip = (mcuRows + n - 1) / n;
+        // The restart interval must fit into 16 bits, even if the MCUs are only 8 pixels wide
+        rowsPerStrip = Math.min(rowsPerStrip, 0xffff / ((width + 7) / 8));
+        if (rowsPerStrip < 1) {
+            writeImage(image, writer, param, out);
+            return;
+        }
+        n = (mcuRows + rowsPerStrip - 1) / rowsPerStrip;
+        int stripHeight = rowsPerStrip * MCU_HEIGHT;
+
+        if (strips.length < n) {
+            ByteArrayImageOutputStream[] a = new ByteArrayImageOutputStream[n];
+            System.arraycopy(strips, 0, a, 0, strips.length);
+            for (int i = strips.length; i < n; i++) {
+                a[i] = new ByteArrayImageOutputStream();
+            }
+            strips = a;
+        }
+
+        // Encode the strips
+        float quality = param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT ? param.getCompressionQuality() : 0.75f;
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(n);
+        tasks.add(new FirstStripTask(image.getSubimage(0, 0, width, stripHeight), writer, param, strips[0]));
+        for (int i = 1; i < n; i++) {
+            int y = i * stripHeight;
+            tasks.add(new StripTask(image.getSubimage(0, y, width, Math.min(stripHeight, height - y)), quality, strips[i]));
+        }
+        try {
+            ParallelTasks.invokeAll(executor, tasks);
+        } catch (ExecutionException ex) {
+            Throwable failure = ex.getCause();
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            IOException e = new IOException("Failed to encode strips.");
+            e.initCause(failure);
+            throw e;
+        }
+
+        // Stitch the strips together
+        if (!stitch(n, width, stripHeight, height, out)) {
+            out.clear();
+            writeImage(image, writer, param, out);
+        }
+    }
+
+    /** Writes the image in one piece. */
+    private static void writeImage(BufferedImage image, ImageWriter writer, ImageWriteParam param, ByteArrayImageOutputStream out) throws IOException {
+        out.clear();
+        writer.setOutput(out);
+        try {
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.setOutput(null);
+        }
+    }
+
+    /** Encodes the first strip on the calling thread with its writer. */
+    private static class FirstStripTask implements Callable<Object> {
+
+        private final BufferedImage image;
+        private final ImageWriter writer;
+        private final ImageWriteParam param;
+        private final ByteArrayImageOutputStream out;
+
+        public FirstStripTask(BufferedImage image, ImageWriter writer, ImageWriteParam param, ByteArrayImageOutputStream out) {
+            this.image = image;
+            this.writer = writer;
+            this.param = param;
+            this.out = out;
+        }
+
+        @Override
+        public Object call() throws IOException {
+            writeImage(image, writer, param, out);
+            return null;
+        }
+    }
+
+    /** Encodes a strip on a thread of the executor. */
+    private static class StripTask implements Callable<Object> {
+
+        private final BufferedImage image;
+        private final float quality;
+        private final ByteArrayImageOutputStream out;
+
+        public StripTask(BufferedImage image, float quality, ByteArrayImageOutputStream out) {
+            this.image = image;
+            this.quality = quality;
+            this.out = out;
+        }
+
+        @Override
+        public Object call() throws IOException {
+            ImageWriter w = ImageIOPool.getWriter("image/jpeg");
+            ImageWriteParam p = w.getDefaultWriteParam();
+            p.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            p.setCompressionQuality(quality);
+            writeImage(image, w, p, out);
+            return null;
+        }
+    }
+
+    /** Describes the header of an encoded strip. */
+    private static class Header {
+
+        /** The offset of the data of the SOF segment. */
+        int sofOffset = -1;
+        int sofLength;
+        /** The offset of the entropy-coded data. */
+        int dataOffset;
+    }
+
+    /** Reads the header of an encoded strip. Returns null if the strip is not
+     * a baseline JPEG image with a single scan. */
+    private static Header readHeader(ByteArrayImageOutputStream strip) throws IOException {
+        byte[] buf = strip.getBuffer();
+        int length = (int) strip.length();
+        if (length < 4 || buf[length - 2] != (byte) 0xff || buf[length - 1] != (byte) 0xd9) {
+            return null;
+        }
+        Header h = new Header();
+        JFIFInputStream in = new JFIFInputStream(new ByteArrayInputStream(buf, 0, length));
+        for (JFIFInputStream.Segment seg = in.getNextSegment(); seg != null; seg = in.getNextSegment()) {
+            switch (seg.marker) {
+                case JFIFInputStream.SOF0_MARKER:
+                case JFIFInputStream.SOF1_MARKER:
+                    h.sofOffset = (int) seg.offset;
+                    h.sofLength = seg.length;
+                    break;
+                case JFIFInputStream.SOS_MARKER:
+                    h.dataOffset = (int) seg.offset + seg.length;
+                    return h.sofOffset == -1 ? null : h;
+                case JFIFInputStream.DRI_MARKER:
+                    return null;
+                default:
+                    if (seg.marker >= JFIFInputStream.SOF2_MARKER && seg.marker <= JFIFInputStream.SOFF_MARKER
+                            && seg.marker != 0xffc4 && seg.marker != 0xffc8 && seg.marker != 0xffcc) {
+                        // Not a baseline or extended sequential Huffman-coded image
+                        return null;
+                    }
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /** Stitches the strips together. Returns false if the strips can not be
+     * stitched. */
+    private boolean stitch(int n, int width, int stripHeight, int height, ByteArrayImageOutputStream out) throws IOException {
+        Header first = readHeader(strips[0]);
+        if (first == null || first.sofLength < 6) {
+            return false;
+        }
+        byte[] buf = strips[0].getBuffer();
+
+        // All headers must be the same, except for the height in the SOF segment
+        for (int i = 1; i < n; i++) {
+            Header h = readHeader(strips[i]);
+            if (h == null || h.dataOffset != first.dataOffset || h.sofOffset != first.sofOffset) {
+                return false;
+            }
+            byte[] b = strips[i].getBuffer();
+            for (int j = 0; j < first.dataOffset; j++) {
+                if (b[j] != buf[j] && (j < first.sofOffset + 1 || j > first.sofOffset + 2)) {
+                    return false;
+                }
+            }
+        }
+
+        // Compute the restart interval from the sampling factors
+        int componentCount = buf[first.sofOffset + 5] & 0xff;
+        int hmax = 1, vmax = 1;
+        if (componentCount > 1) {
+            for (int i = 0; i < componentCount; i++) {
+                int hv = buf[first.sofOffset + 6 + i * 3 + 1] & 0xff;
+                hmax = Math.max(hmax, hv >>> 4);
+                vmax = Math.max(vmax, hv & 0xf);
+            }
+        }
+        int mcuWidth = hmax * 8, mcuHeight = vmax * 8;
+        int interval = (width + mcuWidth - 1) / mcuWidth * (stripHeight / mcuHeight);
+        if (stripHeight % mcuHeight != 0 || interval > 0xffff) {
+            return false;
+        }
+
+        // Write the header of the first strip with the height of the image
+        out.clear();
+        JFIFOutputStream jfif = new JFIFOutputStream(out);
+        jfif.pushSegment(JFIFOutputStream.SOI_MARKER);
+        jfif.popSegment();
+        JFIFInputStream in = new JFIFInputStream(new ByteArrayInputStream(buf, 0, first.dataOffset));
+        for (JFIFInputStream.Segment seg = in.getNextSegment(); seg != null; seg = in.getNextSegment()) {
+            if (seg.isEntropyCoded()) {
+                continue;
+            }
+            int off = (int) seg.offset;
+            if (seg.marker == JFIFInputStream.SOS_MARKER) {
+                jfif.pushSegment(JFIFOutputStream.DRI_MARKER);
+                jfif.write(interval >>> 8);
+                jfif.write(interval);
+                jfif.popSegment();
+            }
+            jfif.pushSegment(seg.marker);
+            if (seg.marker == JFIFInputStream.SOF0_MARKER || seg.marker == JFIFInputStream.SOF1_MARKER) {
+                jfif.write(buf, off, 1);
+                jfif.write(height >>> 8);
+                jfif.write(height);
+                jfif.write(buf, off + 3, seg.length - 3);
+            } else {
+                jfif.write(buf, off, seg.length);
+            }
+            jfif.popSegment();
+            if (seg.marker == JFIFInputStream.SOS_MARKER) {
+                break;
+            }
+        }
+
+        // Write the entropy-coded data of the strips. The data is already
+        // stuffed, so we write it directly into the output stream.
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                jfif.pushSegment(JFIFOutputStream.RST0_MARKER + (i - 1) % 8);
+                jfif.popSegment();
+            }
+            out.write(strips[i].getBuffer(), first.dataOffset, (int) strips[i].length() - 2 - first.dataOffset);
+        }
+        jfif.pushSegment(JFIFOutputStream.EOI_MARKER);
+        jfif.popSegment();
+        return true;
+    }
+}
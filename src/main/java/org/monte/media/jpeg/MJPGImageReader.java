@@ -11,13 +11,14 @@
 package org.monte.media.jpeg;
 
 import org.monte.media.avi.AVIBMPDIB;
-import com.sun.imageio.plugins.jpeg.JPEGImageReader;
 import java.awt.image.BufferedImage;
 import java.awt.image.DirectColorModel;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.LinkedList;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
@@ -45,6 +46,9 @@ public class MJPGImageReader extends ImageReader {
     private static DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff, 0x0);
     /** When we read the header, we read the whole image. */
     private BufferedImage image;
+    /** The JPEG reader which decodes the image. It is reused for all
+     * inputs. */
+    private ImageReader jpegReader;
 
     public MJPGImageReader(ImageReaderSpi originatingProvider) {
         super(originatingProvider);
@@ -85,6 +89,21 @@ public class MJPGImageReader extends ImageReader {
         return null;
     }
 
+    @Override
+    public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        image = null;
+    }
+
+    @Override
+    public void dispose() {
+        if (jpegReader != null) {
+            jpegReader.dispose();
+            jpegReader = null;
+        }
+        image = null;
+    }
+
     @Override
     public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
         if (imageIndex > 0) {
@@ -100,7 +119,14 @@ public class MJPGImageReader extends ImageReader {
      */
     private void readHeader() throws IOException {
         if (image == null) {
-            ImageReader r = new JPEGImageReader(getOriginatingProvider());
+            if (jpegReader == null) {
+                Iterator<ImageReader> i = ImageIO.getImageReadersByFormatName("jpeg");
+                if (!i.hasNext()) {
+                    throw new IIOException("No JPEG image reader");
+                }
+                jpegReader = i.next();
+            }
+            ImageReader r = jpegReader;
             Object in = getInput();
             /*if (in instanceof Buffer) {
                 Buffer buffer = (Buffer) in;
@@ -114,6 +140,7 @@ public class MJPGImageReader extends ImageReader {
                 r.setInput(AVIBMPDIB.prependDHTSeg((InputStream) in));
             }
             image = r.read(0);
+            r.setInput(null);
         }
     }
 }
@@ -13,18 +13,22 @@ package org.monte.media.png;
 import org.monte.media.Format;
 import org.monte.media.AbstractVideoCodec;
 import org.monte.media.Buffer;
+import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.io.ImageIOPool;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteOrder;
 import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.BufferFlag.*;
 
 /**
- * {@code PNGCodec} encodes a BufferedImage as a byte[] array..
+ * {@code PNGCodec} encodes a BufferedImage as a byte[] array, and decodes
+ * a byte[] array into a BufferedImage.
  * <p>
  * Supported input formats:
  * <ul>
@@ -36,18 +40,42 @@ import static org.monte.media.BufferFlag.*;
  * {@code VideoFormat} with {@code byte[].class}, same width and height as input
  * format, depth=24.
  * </ul>
+ * The codec keeps its {@code ImageWriter} and {@code ImageReader} for all
+ * frames. If many codec instances are used on a pool of threads, they can
+ * share the readers and writers of the {@link ImageIOPool} instead, see
+ * {@link #setThreadLocalPool}.
  *
  * @author Werner Randelshofer
  * @version 1.0 2011-03-12 Created.
  */
 public class PNGCodec extends AbstractVideoCodec {
 
+    /** Whether the reader and the writer are taken from the pool of the
+     * current thread. */
+    private boolean isThreadLocalPool;
+    /** The writer of this codec, if it does not use the pool. */
+    private ImageWriter writer;
+    private ImageWriteParam writeParam;
+    /** The reader of this codec, if it does not use the pool. */
+    private ImageReader reader;
+    /** The writer writes into this stream. */
+    private ByteArrayImageOutputStream outputStream;
+    /** The length of the last encoded frame. */
+    private int lastLength = 16;
+
     public PNGCodec() {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
                     EncodingKey, ENCODING_BUFFERED_IMAGE), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_PNG, DataClassKey, byte[].class), //
+                    //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                    EncodingKey, ENCODING_AVI_PNG, DataClassKey, byte[].class), //
                 },
                 new Format[]{
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, ENCODING_BUFFERED_IMAGE), //
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
                     EncodingKey, ENCODING_QUICKTIME_PNG, DataClassKey, byte[].class), //
                     //
@@ -59,7 +87,9 @@ public class PNGCodec extends AbstractVideoCodec {
     @Override
     public Format setOutputFormat(Format f) {
         String mimeType = f.get(MimeTypeKey, MIME_QUICKTIME);
-        if (mimeType != null && !mimeType.equals(MIME_AVI)) {
+        if (ENCODING_BUFFERED_IMAGE.equals(f.get(EncodingKey))) {
+            return super.setOutputFormat(f);
+        } else if (mimeType != null && !mimeType.equals(MIME_AVI)) {
             return super.setOutputFormat(
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
                     EncodingKey, ENCODING_QUICKTIME_PNG, DataClassKey,
@@ -74,11 +104,57 @@ public class PNGCodec extends AbstractVideoCodec {
 
     @Override
     public int process(Buffer in, Buffer out) {
+        if (outputFormat.get(EncodingKey).equals(ENCODING_BUFFERED_IMAGE)) {
+            return decode(in, out);
+        } else {
+            return encode(in, out);
+        }
+    }
+
+    public int decode(Buffer in, Buffer out) {
+        out.setMetaTo(in);
+        out.format = outputFormat;
+        if (in.isFlag(DISCARD)) {
+            return CODEC_OK;
+        }
+        if (!(in.data instanceof byte[])) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        ByteArrayImageInputStream tmp = new ByteArrayImageInputStream((byte[]) in.data, in.offset, in.length, ByteOrder.BIG_ENDIAN);
+
+        try {
+            ImageReader ir = getReader();
+            ir.setInput(tmp);
+            try {
+                out.data = ir.read(0);
+            } finally {
+                ir.setInput(null);
+            }
+
+            out.sampleCount = 1;
+            out.setFlag(KEYFRAME);
+            out.offset = 0;
+            out.length = 1;
+            return CODEC_OK;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+    }
+
+    public int encode(Buffer in, Buffer out) {
         out.setMetaTo(in);
         out.format = outputFormat;
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
+        if (in.isFlag(PREFETCH)) {
+            // PNG frames are key frames, there is no reference frame to update
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
 
         BufferedImage image = getBufferedImage(in);
         if (image == null) {
@@ -86,25 +162,30 @@ public class PNGCodec extends AbstractVideoCodec {
             return CODEC_FAILED;
         }
 
-        ByteArrayImageOutputStream tmp;
-        if (out.data instanceof byte[]) {
-            tmp = new ByteArrayImageOutputStream((byte[]) out.data);
-        } else {
-            tmp = new ByteArrayImageOutputStream();
+        ByteArrayImageOutputStream tmp = outputStream;
+        byte[] buf = (out.data instanceof byte[]) ? (byte[]) out.data : new byte[lastLength];
+        if (tmp == null) {
+            tmp = outputStream = new ByteArrayImageOutputStream(buf);
         }
+        tmp.clear(buf);
 
         try {
-            ImageWriter iw = (ImageWriter) ImageIO.getImageWritersByMIMEType("image/png").next();
-            ImageWriteParam iwParam = iw.getDefaultWriteParam();
+            ImageWriter iw = getWriter();
+            if (writeParam == null) {
+                writeParam = iw.getDefaultWriteParam();
+            }
             iw.setOutput(tmp);
-            IIOImage img = new IIOImage(image, null, null);
-            iw.write(null, img, iwParam);
-            iw.dispose();
+            try {
+                iw.write(null, new IIOImage(image, null, null), writeParam);
+            } finally {
+                iw.setOutput(null);
+            }
 
             out.setFlag(KEYFRAME);
             out.data = tmp.getBuffer();
             out.offset = 0;
             out.length = (int) tmp.getStreamPosition();
+            lastLength = out.length;
             return CODEC_OK;
         } catch (IOException ex) {
             ex.printStackTrace();
@@ -112,4 +193,52 @@ public class PNGCodec extends AbstractVideoCodec {
             return CODEC_FAILED;
         }
     }
+
+    /** Returns the writer of this codec, or the writer of the pool of the
+     * current thread. */
+    private ImageWriter getWriter() throws IOException {
+        if (isThreadLocalPool) {
+            return ImageIOPool.getWriter("image/png");
+        }
+        if (writer == null) {
+            writer = ImageIOPool.createWriter("image/png");
+        }
+        return writer;
+    }
+
+    /** Returns the reader of this codec, or the reader of the pool of the
+     * current thread. */
+    private ImageReader getReader() throws IOException {
+        if (isThreadLocalPool) {
+            return ImageIOPool.getReader("image/png");
+        }
+        if (reader == null) {
+            reader = ImageIOPool.createReader("image/png");
+        }
+        return reader;
+    }
+
+    /** Sets whether the codec takes its {@code ImageReader} and
+     * {@code ImageWriter} from the {@link ImageIOPool} of the current thread,
+     * instead of keeping its own. This saves memory and setup time if a pool
+     * of threads uses many codec instances. The default value is false.
+     */
+    public void setThreadLocalPool(boolean newValue) {
+        if (newValue != isThreadLocalPool) {
+            isThreadLocalPool = newValue;
+            if (writer != null) {
+                writer.dispose();
+                writer = null;
+            }
+            if (reader != null) {
+                reader.dispose();
+                reader = null;
+            }
+        }
+    }
+
+    /** Returns true if the codec uses the {@code ImageIOPool}. */
+    public boolean isThreadLocalPool() {
+        return isThreadLocalPool;
+    }
 }
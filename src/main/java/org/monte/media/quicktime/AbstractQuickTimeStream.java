@@ -14,9 +14,13 @@ import org.monte.media.Buffer;
 import org.monte.media.Codec;
 import org.monte.media.Format;
 import org.monte.media.io.ImageOutputStreamAdapter;
+import org.monte.media.io.SpillOutputStream;
 import org.monte.media.math.Rational;
 import java.awt.image.IndexColorModel;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
@@ -363,44 +367,32 @@ public class AbstractQuickTimeStream {
 
     /**
      * Groups consecutive samples with same characteristics.
+     * <p>
+     * A group only stores the properties which its samples share, and the
+     * number of samples. It does not hold on to the samples, so that writing
+     * a track does not allocate memory for each sample.
      */
     protected abstract static class Group {
 
-        protected Sample firstSample;
-        protected Sample lastSample;
         protected long sampleCount;
         protected final static long maxSampleCount = Integer.MAX_VALUE;
 
-        protected Group(Sample firstSample) {
-            this.firstSample = this.lastSample = firstSample;
-            sampleCount = 1;
-        }
-
-        protected Group(Sample firstSample, Sample lastSample, long sampleCount) {
-            this.firstSample = firstSample;
-            this.lastSample = lastSample;
+        protected Group(long sampleCount) {
             this.sampleCount = sampleCount;
             if (sampleCount > maxSampleCount) {
                 throw new IllegalArgumentException("Capacity exceeded");
             }
         }
 
-        protected Group(Group group) {
-            this.firstSample = group.firstSample;
-            this.lastSample = group.lastSample;
-            sampleCount = group.sampleCount;
-        }
-
-        /** Returns true, if the samples was added to the group.
-         * If false is returned, the sample must be added to a new group.
+        /** Returns true, if the samples were added to the group.
+         * If false is returned, the samples must be added to a new group.
          * <p>
-         * A sample can only be added to a group, if the capacity of the group
+         * Samples can only be added to a group, if the capacity of the group
          * is not exceeded.
          */
-        protected boolean maybeAddSample(Sample sample) {
-            if (sampleCount < maxSampleCount) {
-                lastSample = sample;
-                sampleCount++;
+        protected boolean maybeAddSamples(long count) {
+            if (sampleCount + count <= maxSampleCount) {
+                sampleCount += count;
                 return true;
             }
             return false;
@@ -413,12 +405,7 @@ public class AbstractQuickTimeStream {
          * is not exceeded.
          */
         protected boolean maybeAddChunk(Chunk chunk) {
-            if (sampleCount + chunk.sampleCount <= maxSampleCount) {
-                lastSample = chunk.lastSample;
-                sampleCount += chunk.sampleCount;
-                return true;
-            }
-            return false;
+            return maybeAddSamples(chunk.sampleCount);
         }
 
         public long getSampleCount() {
@@ -426,47 +413,22 @@ public class AbstractQuickTimeStream {
         }
     }
 
-    /**
-     * QuickTime stores media data in samples.
-     * A sample is a single element in a sequence of time-ordered data.
-     * Samples are stored in the mdat atom.
-     */
-    protected static class Sample {
-
-        /** Offset of the sample relative to the start of the QuickTime file.
-         */
-        long offset;
-        /** Data length of the sample. */
-        long length;
-        /**
-         * The duration of the sample in media time scale units.
-         */
-        long duration;
-
-        /**
-         * Creates a new sample.
-         * @param duration
-         * @param offset
-         * @param length
-         */
-        public Sample(long duration, long offset, long length) {
-            this.duration = duration;
-            this.offset = offset;
-            this.length = length;
-        }
-    }
-
     /**
      * Groups consecutive smples of the same duration.
      */
     protected static class TimeToSampleGroup extends Group {
 
-        public TimeToSampleGroup(Sample firstSample) {
-            super(firstSample);
+        /** The duration of the samples in media time scale units. */
+        protected long sampleDuration;
+
+        public TimeToSampleGroup(long sampleDuration) {
+            super(1);
+            this.sampleDuration = sampleDuration;
         }
 
-        public TimeToSampleGroup(Group group) {
-            super(group);
+        public TimeToSampleGroup(Chunk chunk) {
+            super(chunk.sampleCount);
+            this.sampleDuration = chunk.sampleDuration;
         }
 
         /** Returns true, if the sample was added to the group.
@@ -476,17 +438,16 @@ public class AbstractQuickTimeStream {
          * duration as previously added samples, and if the capacity of the
          * group is not exceeded.
          */
-        @Override
-        public boolean maybeAddSample(Sample sample) {
-            if (firstSample.duration == sample.duration) {
-                return super.maybeAddSample(sample);
+        public boolean maybeAddSample(long duration) {
+            if (sampleDuration == duration) {
+                return maybeAddSamples(1);
             }
             return false;
         }
 
         @Override
         public boolean maybeAddChunk(Chunk chunk) {
-            if (firstSample.duration == chunk.firstSample.duration) {
+            if (sampleDuration == chunk.sampleDuration) {
                 return super.maybeAddChunk(chunk);
             }
             return false;
@@ -494,7 +455,7 @@ public class AbstractQuickTimeStream {
 
         /** Returns the duration that all samples in this group share. */
         public long getSampleDuration() {
-            return firstSample.duration;
+            return sampleDuration;
         }
     }
 
@@ -503,12 +464,17 @@ public class AbstractQuickTimeStream {
      */
     protected static class SampleSizeGroup extends Group {
 
-        public SampleSizeGroup(Sample firstSample) {
-            super(firstSample);
+        /** The length of the samples. */
+        protected long sampleLength;
+
+        public SampleSizeGroup(long sampleLength) {
+            super(1);
+            this.sampleLength = sampleLength;
         }
 
-        public SampleSizeGroup(Group group) {
-            super(group);
+        public SampleSizeGroup(Chunk chunk) {
+            super(chunk.sampleCount);
+            this.sampleLength = chunk.sampleLength;
         }
 
         /** Returns true, if the sample was added to the group.
@@ -518,17 +484,16 @@ public class AbstractQuickTimeStream {
          * size as previously added samples, and if the capacity of the
          * group is not exceeded.
          */
-        @Override
-        public boolean maybeAddSample(Sample sample) {
-            if (firstSample.length == sample.length) {
-                return super.maybeAddSample(sample);
+        public boolean maybeAddSample(long length) {
+            if (sampleLength == length) {
+                return maybeAddSamples(1);
             }
             return false;
         }
 
         @Override
         public boolean maybeAddChunk(Chunk chunk) {
-            if (firstSample.length == chunk.firstSample.length) {
+            if (sampleLength == chunk.sampleLength) {
                 return super.maybeAddChunk(chunk);
             }
             return false;
@@ -536,37 +501,57 @@ public class AbstractQuickTimeStream {
 
         /** Returns the length that all samples in this group share. */
         public long getSampleLength() {
-            return firstSample.length;
+            return sampleLength;
         }
     }
 
     /**
      * Groups consecutive samples with the same sample description Id and
      * with adjacent offsets in the movie file.
+     * <p>
+     * The duration and the length of the first sample are kept, so that a
+     * chunk of samples with the same duration and length can be added to the
+     * TimeToSample and SampleSize groups of a track at once.
      */
     protected static class Chunk extends Group {
 
         protected int sampleDescriptionId;
+        /** The offset of the chunk relative to the start of the QuickTime file. */
+        protected long chunkOffset;
+        /** The offset of the end of the last sample in the chunk. */
+        protected long endOffset;
+        /** The duration of the first sample in media time scale units. */
+        protected long sampleDuration;
+        /** The length of the first sample. */
+        protected long sampleLength;
 
         /**
-         * Creates a new Chunk.
+         * Creates a new Chunk with one sample.
          *
-         * @param firstSample The first sample contained in this chunk.
+         * @param duration The duration of the sample.
+         * @param offset The offset of the sample.
+         * @param length The length of the sample.
          * @param sampleDescriptionId The description Id of the sample.
          */
-        public Chunk(Sample firstSample, int sampleDescriptionId) {
-            super(firstSample);
-            this.sampleDescriptionId = sampleDescriptionId;
+        public Chunk(long duration, long offset, long length, int sampleDescriptionId) {
+            this(duration, offset, length, 1, sampleDescriptionId);
         }
 
         /**
-         * Creates a new Chunk.
+         * Creates a new Chunk with samples of the same duration and length.
          *
-         * @param firstSample The first sample contained in this chunk.
-         * @param sampleDescriptionId The description Id of the sample.
+         * @param sampleDuration The duration of each sample.
+         * @param offset The offset of the first sample.
+         * @param sampleLength The length of each sample.
+         * @param sampleCount The number of samples.
+         * @param sampleDescriptionId The description Id of the samples.
          */
-        public Chunk(Sample firstSample, Sample lastSample, int sampleCount, int sampleDescriptionId) {
-            super(firstSample, lastSample, sampleCount);
+        public Chunk(long sampleDuration, long offset, long sampleLength, int sampleCount, int sampleDescriptionId) {
+            super(sampleCount);
+            this.sampleDuration = sampleDuration;
+            this.sampleLength = sampleLength;
+            this.chunkOffset = offset;
+            this.endOffset = offset + sampleLength * sampleCount;
             this.sampleDescriptionId = sampleDescriptionId;
         }
 
@@ -578,10 +563,11 @@ public class AbstractQuickTimeStream {
          * chunk is not exceeded and if the sample offset is adjacent to the
          * last sample in this chunk.
          */
-        public boolean maybeAddSample(Sample sample, int sampleDescriptionId) {
+        public boolean maybeAddSample(long offset, long length, int sampleDescriptionId) {
             if (sampleDescriptionId == this.sampleDescriptionId
-                    && lastSample.offset + lastSample.length == sample.offset) {
-                return super.maybeAddSample(sample);
+                    && endOffset == offset && maybeAddSamples(1)) {
+                endOffset += length;
+                return true;
             }
             return false;
         }
@@ -589,15 +575,56 @@ public class AbstractQuickTimeStream {
         @Override
         public boolean maybeAddChunk(Chunk chunk) {
             if (sampleDescriptionId == chunk.sampleDescriptionId //
-                    && lastSample.offset + lastSample.length == chunk.firstSample.offset) {
-                return super.maybeAddChunk(chunk);
+                    && endOffset == chunk.chunkOffset && super.maybeAddChunk(chunk)) {
+                endOffset = chunk.endOffset;
+                return true;
             }
             return false;
         }
 
         /** Returns the offset of the chunk in the movie file. */
         public long getChunkOffset() {
-            return firstSample.offset;
+            return chunkOffset;
+        }
+    }
+
+    /**
+     * A table of index entries, which is kept in a spill stream.
+     * <p>
+     * The entries are written in big endian byte order. They are read back
+     * when the sample table atoms are written. The table can be read any
+     * number of times, so that the movie header can be written more than once.
+     */
+    protected static class IndexTable {
+
+        private SpillOutputStream spill = new SpillOutputStream();
+        private DataOutputStream out = new DataOutputStream(spill);
+        /** The number of entries in the table. */
+        protected long entryCount;
+
+        /** Writes a 32-bit unsigned integer into the table. */
+        public void writeUInt(long v) throws IOException {
+            out.writeInt((int) v);
+        }
+
+        /** Writes a 64-bit integer into the table. */
+        public void writeLong(long v) throws IOException {
+            out.writeLong(v);
+        }
+
+        /** Returns an input stream which reads all entries of the table. */
+        public DataInputStream getInputStream() throws IOException {
+            return new DataInputStream(spill.getInputStream());
+        }
+
+        /** Copies all entries of the table into the specified output stream. */
+        public void writeTo(OutputStream out) throws IOException {
+            spill.writeTo(out);
+        }
+
+        /** Disposes of the table. */
+        public void dispose() throws IOException {
+            spill.close();
         }
     }
 
@@ -622,23 +649,38 @@ public class AbstractQuickTimeStream {
         protected String mediaCompressionType;
         /** The compressor name. */
         protected String mediaCompressorName;
-        /**
-         * List of chunks.
-         */
-        protected ArrayList<Chunk> chunks = new ArrayList<Chunk>();
-        /**
-         * List of TimeToSample entries.
-         */
-        protected ArrayList<TimeToSampleGroup> timeToSamples = new ArrayList<TimeToSampleGroup>();
-        /**
-         * List of SampleSize entries.
+        /*
+         * The sample tables are kept in index tables, so that the heap usage
+         * does not grow with the number of samples. Only the last chunk and
+         * the last groups are kept in memory, because samples may still be
+         * added to them.
          */
-        protected ArrayList<SampleSizeGroup> sampleSizes = new ArrayList<SampleSizeGroup>();
+        /** The last chunk. */
+        protected Chunk lastChunk;
+        /** The offsets of the chunks before the last chunk. */
+        protected IndexTable chunkOffsets = new IndexTable();
+        /** The SampleToChunk entries for the chunks before the last chunk:
+         * first chunk, samples per chunk and sample description id. */
+        protected IndexTable sampleToChunks = new IndexTable();
+        /** The number of samples and the sample description id of the
+         * chunk which started the last SampleToChunk entry. */
+        protected long sampleToChunkSampleCount = -1;
+        protected int sampleToChunkDescriptionId = -1;
+        /** The last TimeToSample group. */
+        protected TimeToSampleGroup lastTimeToSample;
+        /** The TimeToSample entries before the last group: sample count and
+         * sample duration. */
+        protected IndexTable timeToSamples = new IndexTable();
+        /** The last SampleSize group. */
+        protected SampleSizeGroup lastSampleSize;
+        /** The SampleSize groups before the last group: sample count and
+         * sample length. */
+        protected IndexTable sampleSizes = new IndexTable();
         /**
-         * List of sync samples.
-         * This list is null as long as all samples in this track are sync samples.
+         * Table of sync sample numbers.
+         * This table is null as long as all samples in this track are sync samples.
          */
-        protected ArrayList<Long> syncSamples = null;
+        protected IndexTable syncSamples = null;
         /** The number of samples in this track. */
         protected long sampleCount = 0;
         /** The duration of the media in this track in media time units. */
@@ -664,73 +706,157 @@ public class AbstractQuickTimeStream {
             this.mediaType = mediaType;
         }
 
-        public void addSample(Sample sample, int sampleDescriptionId, boolean isSyncSample) {
-            mediaDuration += sample.duration;
+        /** Adds a sample to the sample tables of the track.
+         *
+         * @param duration The duration of the sample in media time scale units.
+         * @param offset The offset of the sample relative to the start of the
+         * QuickTime file.
+         * @param length The length of the sample.
+         * @param sampleDescriptionId The description Id of the sample.
+         * @param isSyncSample Whether the sample is a sync sample.
+         */
+        public void addSample(long duration, long offset, long length, int sampleDescriptionId, boolean isSyncSample) throws IOException {
+            mediaDuration += duration;
             sampleCount++;
             
             // Keep track of sync samples. If all samples in a track are sync
-            // samples, we do not need to create a syncSample list.
+            // samples, we do not need to create a syncSample table.
             if (isSyncSample) {
                 if (syncSamples != null) {
-                    syncSamples.add(sampleCount);
+                    addSyncSample(sampleCount);
                 }
             } else {
                 if (syncSamples == null) {
-                    syncSamples = new ArrayList<Long>();
+                    syncSamples = new IndexTable();
                     for (long i = 1; i < sampleCount; i++) {
-                        syncSamples.add(i);
+                        addSyncSample(i);
                     }
                 }
             }
             
             //
-            if (timeToSamples.isEmpty()//
-                    || !timeToSamples.get(timeToSamples.size() - 1).maybeAddSample(sample)) {
-                timeToSamples.add(new TimeToSampleGroup(sample));
+            if (lastTimeToSample == null || !lastTimeToSample.maybeAddSample(duration)) {
+                addTimeToSample(new TimeToSampleGroup(duration));
             }
-            if (sampleSizes.isEmpty()//
-                    || !sampleSizes.get(sampleSizes.size() - 1).maybeAddSample(sample)) {
-                sampleSizes.add(new SampleSizeGroup(sample));
+            if (lastSampleSize == null || !lastSampleSize.maybeAddSample(length)) {
+                addSampleSize(new SampleSizeGroup(length));
             }
-            if (chunks.isEmpty()//
-                    || !chunks.get(chunks.size() - 1).maybeAddSample(sample, sampleDescriptionId)) {
-                chunks.add(new Chunk(sample, sampleDescriptionId));
+            if (lastChunk == null || !lastChunk.maybeAddSample(offset, length, sampleDescriptionId)) {
+                addChunk(new Chunk(duration, offset, length, sampleDescriptionId));
             }
         }
 
-        public void addChunk(Chunk chunk, boolean isSyncSample) {
-            mediaDuration += chunk.firstSample.duration * chunk.sampleCount;
+        /** Adds a chunk of samples with the same duration and length to the
+         * sample tables of the track.
+         *
+         * @param chunk The chunk.
+         * @param isSyncSample Whether the samples are sync samples.
+         */
+        public void addChunk(Chunk chunk, boolean isSyncSample) throws IOException {
+            mediaDuration += chunk.sampleDuration * chunk.sampleCount;
             sampleCount += chunk.sampleCount;
             
             // Keep track of sync samples. If all samples in a track are sync
-            // samples, we do not need to create a syncSample list.
+            // samples, we do not need to create a syncSample table.
             if (isSyncSample) {
                 if (syncSamples != null) {
-                    for (long i = sampleCount - chunk.sampleCount; i < sampleCount; i++) {
-                        syncSamples.add(i);
+                    for (long i = sampleCount - chunk.sampleCount + 1; i <= sampleCount; i++) {
+                        addSyncSample(i);
                     }
                 }
             } else {
                 if (syncSamples == null) {
-                    syncSamples = new ArrayList<Long>();
-                    for (long i = 1; i < sampleCount; i++) {
-                        syncSamples.add(i);
+                    syncSamples = new IndexTable();
+                    for (long i = 1; i <= sampleCount - chunk.sampleCount; i++) {
+                        addSyncSample(i);
                     }
                 }
             }
             
             //
-            if (timeToSamples.isEmpty()//
-                    || !timeToSamples.get(timeToSamples.size() - 1).maybeAddChunk(chunk)) {
-                timeToSamples.add(new TimeToSampleGroup(chunk));
+            if (lastTimeToSample == null || !lastTimeToSample.maybeAddChunk(chunk)) {
+                addTimeToSample(new TimeToSampleGroup(chunk));
             }
-            if (sampleSizes.isEmpty()//
-                    || !sampleSizes.get(sampleSizes.size() - 1).maybeAddChunk(chunk)) {
-                sampleSizes.add(new SampleSizeGroup(chunk));
+            if (lastSampleSize == null || !lastSampleSize.maybeAddChunk(chunk)) {
+                addSampleSize(new SampleSizeGroup(chunk));
             }
-            if (chunks.isEmpty()//
-                    || !chunks.get(chunks.size() - 1).maybeAddChunk(chunk)) {
-                chunks.add(chunk);
+            if (lastChunk == null || !lastChunk.maybeAddChunk(chunk)) {
+                addChunk(chunk);
+            }
+        }
+
+        private void addSyncSample(long number) throws IOException {
+            syncSamples.writeUInt(number);
+            syncSamples.entryCount++;
+        }
+
+        /** Moves the last TimeToSample group into the table, and makes
+         * the specified group the last group. */
+        private void addTimeToSample(TimeToSampleGroup group) throws IOException {
+            if (lastTimeToSample != null) {
+                timeToSamples.writeUInt(lastTimeToSample.getSampleCount());
+                timeToSamples.writeUInt(lastTimeToSample.getSampleDuration());
+                timeToSamples.entryCount++;
+            }
+            lastTimeToSample = group;
+        }
+
+        /** Moves the last SampleSize group into the table, and makes
+         * the specified group the last group. */
+        private void addSampleSize(SampleSizeGroup group) throws IOException {
+            if (lastSampleSize != null) {
+                sampleSizes.writeUInt(lastSampleSize.getSampleCount());
+                sampleSizes.writeUInt(lastSampleSize.getSampleLength());
+                sampleSizes.entryCount++;
+            }
+            lastSampleSize = group;
+        }
+
+        /** Moves the last chunk into the tables, and makes the specified
+         * chunk the last chunk. */
+        private void addChunk(Chunk chunk) throws IOException {
+            if (lastChunk != null) {
+                chunkOffsets.writeLong(lastChunk.getChunkOffset());
+                chunkOffsets.entryCount++;
+                if (isNewSampleToChunk(lastChunk)) {
+                    sampleToChunks.writeUInt(chunkOffsets.entryCount); // first chunk
+                    sampleToChunks.writeUInt(lastChunk.sampleCount); // samples per chunk
+                    sampleToChunks.writeUInt(lastChunk.sampleDescriptionId); // sample description
+                    sampleToChunks.entryCount++;
+                    sampleToChunkSampleCount = lastChunk.sampleCount;
+                    sampleToChunkDescriptionId = lastChunk.sampleDescriptionId;
+                }
+            }
+            lastChunk = chunk;
+        }
+
+        /** Returns true if the chunk needs a new SampleToChunk entry. */
+        private boolean isNewSampleToChunk(Chunk c) {
+            return c.sampleCount != sampleToChunkSampleCount//
+                    || c.sampleDescriptionId != sampleToChunkDescriptionId;
+        }
+
+        /** Returns the number of chunks in this track. */
+        public long getChunkCount() {
+            return chunkOffsets.entryCount + (lastChunk == null ? 0 : 1);
+        }
+
+        /** Disposes of the sample tables. */
+        public void dispose() throws IOException {
+            IOException failure = null;
+            for (IndexTable table : new IndexTable[]{chunkOffsets, sampleToChunks, timeToSamples, sampleSizes, syncSamples}) {
+                if (table != null) {
+                    try {
+                        table.dispose();
+                    } catch (IOException e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
             }
         }
 
@@ -1229,16 +1355,17 @@ public class AbstractQuickTimeStream {
             d.write(0); // flag[2]
             // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-            d.writeUInt(timeToSamples.size()); // numberOfEntries
+            d.writeUInt(timeToSamples.entryCount + (lastTimeToSample == null ? 0 : 1)); // numberOfEntries
             // A 32-bit integer containing the count of entries in the
             // time-to-sample table.
 
-            for (TimeToSampleGroup tts : timeToSamples) {
-                d.writeUInt(tts.getSampleCount()); // timeToSampleTable[0].sampleCount
+            timeToSamples.writeTo(d);
+            if (lastTimeToSample != null) {
+                d.writeUInt(lastTimeToSample.getSampleCount()); // timeToSampleTable[0].sampleCount
                 // A 32-bit integer that specifies the number of consecutive
                 // samples that have the same duration.
 
-                d.writeUInt(tts.getSampleDuration()); // timeToSampleTable[0].sampleDuration
+                d.writeUInt(lastTimeToSample.getSampleDuration()); // timeToSampleTable[0].sampleDuration
                 // A 32-bit integer that specifies the duration of each
                 // sample.
             }
@@ -1271,44 +1398,24 @@ public class AbstractQuickTimeStream {
             d.write(0); // flag[2]
             // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-            int entryCount = 0;
-            long previousSampleCount = -1;
-            long previousSampleDescriptionId = -1;
-            for (Chunk c : chunks) {
-                if (c.sampleCount != previousSampleCount//
-                        || c.sampleDescriptionId != previousSampleDescriptionId) {
-                    previousSampleCount = c.sampleCount;
-                    previousSampleDescriptionId = c.sampleDescriptionId;
-                    entryCount++;
-                }
-            }
-
-            d.writeInt(entryCount); // number of entries
+            boolean isNewEntry = lastChunk != null && isNewSampleToChunk(lastChunk);
+            d.writeUInt(sampleToChunks.entryCount + (isNewEntry ? 1 : 0)); // number of entries
             // A 32-bit integer containing the count of entries in the sample-to-chunk table.
 
-            int firstChunk = 1;
-            previousSampleCount = -1;
-            previousSampleDescriptionId = -1;
-            for (Chunk c : chunks) {
-                if (c.sampleCount != previousSampleCount//
-                        || c.sampleDescriptionId != previousSampleDescriptionId) {
-                    previousSampleCount = c.sampleCount;
-                    previousSampleDescriptionId = c.sampleDescriptionId;
+            sampleToChunks.writeTo(d);
+            if (isNewEntry) {
+                d.writeUInt(getChunkCount()); // first chunk
+                // The first chunk number using this table entry.
 
-                    d.writeUInt(firstChunk); // first chunk
-                    // The first chunk number using this table entry.
+                d.writeUInt(lastChunk.sampleCount); // samples per chunk
+                // The number of samples in each chunk.
 
-                    d.writeUInt(c.sampleCount); // samples per chunk
-                    // The number of samples in each chunk.
+                d.writeInt(lastChunk.sampleDescriptionId); // sample description
 
-                    d.writeInt(c.sampleDescriptionId); // sample description
-
-                    // The identification number associated with the sample description for
-                    // the sample. For details on sample description atoms, see “Sample
-                    // Description Atoms.”:
-                    // http://developer.apple.com/documentation/QuickTime/QTFF/QTFFChap2/chapter_3_section_5.html#//apple_ref/doc/uid/TP40000939-CH204-25691
-                }
-                firstChunk++;
+                // The identification number associated with the sample description for
+                // the sample. For details on sample description atoms, see “Sample
+                // Description Atoms.”:
+                // http://developer.apple.com/documentation/QuickTime/QTFF/QTFFChap2/chapter_3_section_5.html#//apple_ref/doc/uid/TP40000939-CH204-25691
             }
             //
         /* sync sample atom -------- */
@@ -1336,15 +1443,13 @@ public class AbstractQuickTimeStream {
                 d.write(0); // flag[2]
                 // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-                d.writeUInt(syncSamples.size());
+                d.writeUInt(syncSamples.entryCount);
                 // Number of entries
                 //A 32-bit integer containing the count of entries in the sync sample table.
 
-                for (Long number : syncSamples) {
-                    d.writeUInt(number);
-                    // Sync sample table A table of sample numbers; each sample
-                    // number corresponds to a key frame.
-                }
+                syncSamples.writeTo(d);
+                // Sync sample table A table of sample numbers; each sample
+                // number corresponds to a key frame.
             }
 
 
@@ -1382,14 +1487,14 @@ public class AbstractQuickTimeStream {
                     && ((AudioTrack) this).soundCompressionId != -2 //
                     ? ((AudioTrack) this).soundSampleSize / 8 * ((AudioTrack) this).soundNumberOfChannels//
                     : 1;
-            if (sampleSizes.size() == 1) {
-                d.writeUInt(sampleSizes.get(0).getSampleLength() / sampleUnit); // sample size
+            if (sampleSizes.entryCount == 0 && lastSampleSize != null) {
+                d.writeUInt(lastSampleSize.getSampleLength() / sampleUnit); // sample size
                 // A 32-bit integer specifying the sample size. If all the samples are
                 // the same size, this field contains that size value. If this field is
                 // set to 0, then the samples have different sizes, and those sizes are
                 // stored in the sample size table.
 
-                d.writeUInt(sampleSizes.get(0).getSampleCount()); // number of entries
+                d.writeUInt(lastSampleSize.getSampleCount()); // number of entries
                 // A 32-bit integer containing the count of entries in the sample size
                 // table.
 
@@ -1401,23 +1506,33 @@ public class AbstractQuickTimeStream {
                 // stored in the sample size table.
 
 
-                long count = 0;
-                for (SampleSizeGroup s : sampleSizes) {
-                    count += s.sampleCount;
-                }
-                d.writeUInt(count); // number of entries
+                d.writeUInt(sampleCount); // number of entries
                 // A 32-bit integer containing the count of entries in the sample size
                 // table.
 
-                for (SampleSizeGroup s : sampleSizes) {
-                    long sampleSize = s.getSampleLength() / sampleUnit;
-                    for (int i = 0; i < s.sampleCount; i++) {
-                        d.writeUInt(sampleSize); // sample size
-                        // The size field contains the size, in bytes, of the sample in
-                        // question. The table is indexed by sample number—the first entry
-                        // corresponds to the first sample, the second entry is for the
-                        // second sample, and so on.
+                DataInputStream in = sampleSizes.getInputStream();
+                try {
+                    for (long j = 0; j <= sampleSizes.entryCount; j++) {
+                        long groupSampleCount, sampleSize;
+                        if (j < sampleSizes.entryCount) {
+                            groupSampleCount = in.readInt() & 0xffffffffL;
+                            sampleSize = (in.readInt() & 0xffffffffL) / sampleUnit;
+                        } else if (lastSampleSize != null) {
+                            groupSampleCount = lastSampleSize.getSampleCount();
+                            sampleSize = lastSampleSize.getSampleLength() / sampleUnit;
+                        } else {
+                            break;
+                        }
+                        for (long i = 0; i < groupSampleCount; i++) {
+                            d.writeUInt(sampleSize); // sample size
+                            // The size field contains the size, in bytes, of the sample in
+                            // question. The table is indexed by sample number—the first entry
+                            // corresponds to the first sample, the second entry is for the
+                            // second sample, and so on.
+                        }
                     }
+                } finally {
+                    in.close();
                 }
             }
             //
@@ -1427,7 +1542,7 @@ public class AbstractQuickTimeStream {
             // 32-bit or 64-bit offsets. The latter is useful when managing very
             // large movies. Only one of these variants occurs in any single
             // instance of a sample table atom.
-            if (chunks.isEmpty() || chunks.get(chunks.size() - 1).getChunkOffset() <= 0xffffffffL) {
+            if (lastChunk == null || lastChunk.getChunkOffset() + mdatOffset <= 0xffffffffL) {
                 /* 32-bit chunk offset atom -------- */
                 leaf = new DataAtom("stco");
                 stblAtom.add(leaf);
@@ -1452,15 +1567,23 @@ public class AbstractQuickTimeStream {
                 d.write(0); // flag[2]
                 // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-                d.writeUInt(chunks.size()); // number of entries
+                d.writeUInt(getChunkCount()); // number of entries
                 // A 32-bit integer containing the count of entries in the chunk
                 // offset table.
-                for (Chunk c : chunks) {
-                    d.writeUInt(c.getChunkOffset() + mdatOffset); // offset
-                    // The offset contains the byte offset from the beginning of the
-                    // data stream to the chunk. The table is indexed by chunk
-                    // number—the first table entry corresponds to the first chunk,
-                    // the second table entry is for the second chunk, and so on.
+                DataInputStream in = chunkOffsets.getInputStream();
+                try {
+                    for (long i = 0; i < chunkOffsets.entryCount; i++) {
+                        d.writeUInt(in.readLong() + mdatOffset); // offset
+                        // The offset contains the byte offset from the beginning of the
+                        // data stream to the chunk. The table is indexed by chunk
+                        // number—the first table entry corresponds to the first chunk,
+                        // the second table entry is for the second chunk, and so on.
+                    }
+                } finally {
+                    in.close();
+                }
+                if (lastChunk != null) {
+                    d.writeUInt(lastChunk.getChunkOffset() + mdatOffset); // offset
                 }
             } else {
                 /* 64-bit chunk offset atom -------- */
@@ -1487,16 +1610,24 @@ public class AbstractQuickTimeStream {
                 d.write(0); // flag[2]
                 // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-                d.writeUInt(chunks.size()); // number of entries
+                d.writeUInt(getChunkCount()); // number of entries
                 // A 32-bit integer containing the count of entries in the chunk
                 // offset table.
 
-                for (Chunk c : chunks) {
-                    d.writeLong(c.getChunkOffset()); // offset
-                    // The offset contains the byte offset from the beginning of the
-                    // data stream to the chunk. The table is indexed by chunk
-                    // number—the first table entry corresponds to the first chunk,
-                    // the second table entry is for the second chunk, and so on.
+                DataInputStream in = chunkOffsets.getInputStream();
+                try {
+                    for (long i = 0; i < chunkOffsets.entryCount; i++) {
+                        d.writeLong(in.readLong() + mdatOffset); // offset
+                        // The offset contains the byte offset from the beginning of the
+                        // data stream to the chunk. The table is indexed by chunk
+                        // number—the first table entry corresponds to the first chunk,
+                        // the second table entry is for the second chunk, and so on.
+                    }
+                } finally {
+                    in.close();
+                }
+                if (lastChunk != null) {
+                    d.writeLong(lastChunk.getChunkOffset() + mdatOffset); // offset
                 }
             }
         }
@@ -10,27 +10,34 @@
  */
 package org.monte.media.quicktime;
 
-import java.io.EOFException;
 import javax.imageio.stream.ImageInputStream;
 import org.monte.media.AbstractVideoCodec;
 import org.monte.media.Buffer;
 import org.monte.media.Format;
+import org.monte.media.io.ByteArrayImageInputStream;
 import org.monte.media.io.ByteArrayImageOutputStream;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.nio.ByteOrder;
 import javax.imageio.stream.ImageOutputStream;
 import static java.lang.Math.*;
+import static org.monte.media.image.PixelScanner.*;
 import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.BufferFlag.*;
 
 /**
  * Implements the Apple Animation codec.
  * <p>
- * Supports lossless delta- and key-frame encoding of images onlyWith 8, 16 or
- * 24 bits per pixel.
+ * Supports lossless delta- and key-frame encoding and decoding of images
+ * onlyWith 8, 16, 24 or 32 bits per pixel. When decoding 8-bit data, the palette
+ * is taken from the header of the input buffer, if it holds an
+ * {@code IndexColorModel}.
  * <p>
  * The QuickTime player requires that a keyframe is written once per second. 
  * This codec enforces this.
@@ -165,8 +172,18 @@ public class AnimationCodec extends AbstractVideoCodec {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, 
                             EncodingKey, ENCODING_BUFFERED_IMAGE), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_ANIMATION, DataClassKey, byte[].class, DepthKey, 8), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_ANIMATION, DataClassKey, byte[].class, DepthKey, 16), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_ANIMATION, DataClassKey, byte[].class, DepthKey, 24), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_ANIMATION, DataClassKey, byte[].class, DepthKey, 32), //
                 },
                 new Format[]{
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, 
+                            EncodingKey, ENCODING_BUFFERED_IMAGE), //
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
                     EncodingKey, ENCODING_QUICKTIME_ANIMATION, DataClassKey, byte[].class, DepthKey, 8), //
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
@@ -181,6 +198,9 @@ public class AnimationCodec extends AbstractVideoCodec {
     @Override
     public Format setOutputFormat(Format f) {
         Format sf=super.setOutputFormat(f);
+        if (sf == null || ENCODING_BUFFERED_IMAGE.equals(sf.get(EncodingKey))) {
+            return sf;
+        }
         // Enforce one key frame per second
         return new Format(KeyFrameIntervalKey,max(1,sf.get(FrameRateKey).intValue())).append(sf);
     }
@@ -194,6 +214,85 @@ public class AnimationCodec extends AbstractVideoCodec {
 
     @Override
     public int process(Buffer in, Buffer out) {
+        if (outputFormat.get(EncodingKey).equals(ENCODING_BUFFERED_IMAGE)) {
+            return decode(in, out);
+        } else {
+            return encode(in, out);
+        }
+    }
+
+    public int decode(Buffer in, Buffer out) {
+        out.setMetaTo(in);
+        out.format = outputFormat;
+        if (in.isFlag(DISCARD)) {
+            return CODEC_OK;
+        }
+        if (!(in.data instanceof byte[])) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        int width = inputFormat.get(WidthKey);
+        int height = inputFormat.get(HeightKey);
+        int depth = inputFormat.get(DepthKey);
+        BufferedImage img = getCompatibleImage(out, width, height, depth,
+                in.header instanceof IndexColorModel ? (IndexColorModel) in.header : null);
+        if (img == null) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        ByteArrayImageInputStream tmp = new ByteArrayImageInputStream((byte[]) in.data, in.offset, in.length, ByteOrder.BIG_ENDIAN);
+        int n = width * height;
+
+        // The previous pixels are updated in place, because a delta frame
+        // only contains the pixels which have changed.
+        try {
+            switch (depth) {
+                case 8: {
+                    if (!(previousPixels instanceof byte[]) || ((byte[]) previousPixels).length != n) {
+                        previousPixels = new byte[n];
+                    }
+                    byte[] pixels = (byte[]) previousPixels;
+                    decodeDelta8(tmp, pixels, pixels, width, height, 0, width);
+                    System.arraycopy(pixels, 0, ((DataBufferByte) img.getRaster().getDataBuffer()).getData(), 0, n);
+                    break;
+                }
+                case 16: {
+                    if (!(previousPixels instanceof short[]) || ((short[]) previousPixels).length != n) {
+                        previousPixels = new short[n];
+                    }
+                    short[] pixels = (short[]) previousPixels;
+                    decodeDelta16(tmp, pixels, pixels, width, height, 0, width);
+                    System.arraycopy(pixels, 0, ((DataBufferUShort) img.getRaster().getDataBuffer()).getData(), 0, n);
+                    break;
+                }
+                case 24:
+                case 32: {
+                    if (!(previousPixels instanceof int[]) || ((int[]) previousPixels).length != n) {
+                        previousPixels = new int[n];
+                    }
+                    int[] pixels = (int[]) previousPixels;
+                    if (depth == 24) {
+                        decodeDelta24(tmp, pixels, pixels, width, height, 0, width);
+                    } else {
+                        decodeDelta32(tmp, pixels, pixels, width, height, 0, width);
+                    }
+                    System.arraycopy(pixels, 0, ((DataBufferInt) img.getRaster().getDataBuffer()).getData(), 0, n);
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        out.data = img;
+        out.sampleCount = 1;
+        out.offset = 0;
+        out.length = 1;
+        return CODEC_OK;
+    }
+
+    public int encode(Buffer in, Buffer out) {
         out.setMetaTo(in);
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
@@ -235,7 +334,9 @@ public class AnimationCodec extends AbstractVideoCodec {
                         //throw new UnsupportedOperationException("Unable to process buffer " + in);
                     }
 
-                    if (isKeyframe ||//
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (isKeyframe ||//
                             previousPixels == null) {
 
                         encodeKey8(tmp, pixels, r.width, r.height, r.x + r.y * scanlineStride, scanlineStride);
@@ -259,7 +360,9 @@ public class AnimationCodec extends AbstractVideoCodec {
                     }
 
                     // FIXME - Support sub-images
-                    if (isKeyframe//
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (isKeyframe//
                             || previousPixels == null) {
                         encodeKey16(tmp, pixels, r.width, r.height, r.x + r.y * scanlineStride, scanlineStride);
                         out.setFlag(KEYFRAME, true);
@@ -292,7 +395,9 @@ public class AnimationCodec extends AbstractVideoCodec {
                     }
 
                     // FIXME - Support sub-images
-                    if (isKeyframe //
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (isKeyframe //
                             || previousPixels == null) {
                         encodeKey24(tmp, pixels, r.width, r.height, r.x + r.y * scanlineStride, scanlineStride);
                         out.setFlag(KEYFRAME, true);
@@ -316,7 +421,9 @@ public class AnimationCodec extends AbstractVideoCodec {
                     }
 
                     // FIXME - Support sub-images
-                    if (in.isFlag(KEYFRAME) //
+                    if (in.isFlag(PREFETCH)) {
+                        // only update the reference frame
+                    } else if (in.isFlag(KEYFRAME) //
                             || previousPixels == null) {
                         encodeKey32(tmp, pixels, r.width, r.height, r.x + r.y * scanlineStride, scanlineStride);
                         out.setFlag(KEYFRAME, true);
@@ -337,6 +444,10 @@ public class AnimationCodec extends AbstractVideoCodec {
                 }
 
             }
+            if (in.isFlag(PREFETCH)) {
+                out.setFlag(DISCARD);
+                return CODEC_OK;
+            }
             out.format = outputFormat;
             out.data = tmp.getBuffer();
             out.sampleCount = 1;
@@ -500,10 +611,8 @@ public class AnimationCodec extends AbstractVideoCodec {
         for (ymin = offset; ymin < ymax; ymin += scanlineStride) {
             int xy = ymin;
             int xymax = ymin + width;
-            for (; xy < xymax; ++xy) {
-                if (data[xy] != prev[xy]) {
-                    break scanline;
-                }
+            if (mismatch(data, prev, xy, xymax) < xymax) {
+                break scanline;
             }
         }
 
@@ -519,10 +628,8 @@ public class AnimationCodec extends AbstractVideoCodec {
         for (; ymax > ymin; ymax -= scanlineStride) {
             int xy = ymax - scanlineStride;
             int xymax = ymax - scanlineStride + width;
-            for (; xy < xymax; ++xy) {
-                if (data[xy] != prev[xy]) {
-                    break scanline;
-                }
+            if (mismatch(data, prev, xy, xymax) < xymax) {
+                break scanline;
             }
         }
         //System.out.println("AnimationCodec ymin:" + ymin / step + " ymax" + ymax / step);
@@ -549,12 +656,8 @@ public class AnimationCodec extends AbstractVideoCodec {
             int xymax = y + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = mismatch(data, prev, xy, xymax) - xy;
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 out.write(0 + 1); // don't skip any pixels
@@ -573,12 +676,7 @@ public class AnimationCodec extends AbstractVideoCodec {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 short v = data[xy];
@@ -734,10 +832,8 @@ public class AnimationCodec extends AbstractVideoCodec {
         for (ymin = offset; ymin < ymax; ymin += scanlineStride) {
             int xy = ymin;
             int xymax = ymin + width;
-            for (; xy < xymax; ++xy) {
-                if (data[xy] != prev[xy]) {
-                    break scanline;
-                }
+            if (mismatch(data, prev, xy, xymax) < xymax) {
+                break scanline;
             }
         }
 
@@ -753,10 +849,8 @@ public class AnimationCodec extends AbstractVideoCodec {
         for (; ymax > ymin; ymax -= scanlineStride) {
             int xy = ymax - scanlineStride;
             int xymax = ymax - scanlineStride + width;
-            for (; xy < xymax; ++xy) {
-                if (data[xy] != prev[xy]) {
-                    break scanline;
-                }
+            if (mismatch(data, prev, xy, xymax) < xymax) {
+                break scanline;
             }
         }
         //System.out.println("AnimationCodec ymin:" + ymin / step + " ymax" + ymax / step);
@@ -784,12 +878,8 @@ public class AnimationCodec extends AbstractVideoCodec {
             int xymax = y + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = mismatch(data, prev, xy, xymax) - xy;
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 out.write(0 + 1); // don't skip any pixels
@@ -808,12 +898,7 @@ public class AnimationCodec extends AbstractVideoCodec {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 int v = data[xy];
@@ -970,10 +1055,8 @@ public class AnimationCodec extends AbstractVideoCodec {
         for (ymin = offset; ymin < ymax; ymin += scanlineStride) {
             int xy = ymin;
             int xymax = ymin + width;
-            for (; xy < xymax; ++xy) {
-                if (data[xy] != prev[xy]) {
-                    break scanline;
-                }
+            if (mismatch(data, prev, xy, xymax) < xymax) {
+                break scanline;
             }
         }
 
@@ -989,10 +1072,8 @@ public class AnimationCodec extends AbstractVideoCodec {
         for (; ymax > ymin; ymax -= scanlineStride) {
             int xy = ymax - scanlineStride;
             int xymax = ymax - scanlineStride + width;
-            for (; xy < xymax; ++xy) {
-                if (data[xy] != prev[xy]) {
-                    break scanline;
-                }
+            if (mismatch(data, prev, xy, xymax) < xymax) {
+                break scanline;
             }
         }
         //System.out.println("AnimationCodec ymin:" + ymin / step + " ymax" + ymax / step);
@@ -1020,12 +1101,8 @@ public class AnimationCodec extends AbstractVideoCodec {
             int xymax = y + width;
 
             // determine skip count
-            int skipCount = 0;
-            for (; xy < xymax; ++xy, ++skipCount) {
-                if (data[xy] != prev[xy]) {
-                    break;
-                }
-            }
+            int skipCount = mismatch(data, prev, xy, xymax) - xy;
+            xy += skipCount;
             if (skipCount == width) {
                 // => the entire line can be skipped
                 out.write(1); // don't skip any pixels
@@ -1048,12 +1125,7 @@ public class AnimationCodec extends AbstractVideoCodec {
             int repeatCount = 0;
             for (; xy < xymax; ++xy) {
                 // determine skip count
-                for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
-                    if (data[xy] != prev[xy]) {
-                        break;
-                    }
-                }
-                xy -= skipCount;
+                skipCount = mismatch(data, prev, xy, xymax) - xy;
 
                 // determine repeat count
                 int v = data[xy];
@@ -1117,31 +1189,26 @@ public class AnimationCodec extends AbstractVideoCodec {
         out.seek(pos);
     }
 
-    /** Decodes a 16-bit delta frame.
+    /** Decodes the header of a frame.
      *
      * @param in The input stream.
-     * @param data The image data.
-     * @param prev The image data of the previous frame. This may be the same
-     *             object as data.
-     * @param width The width of the image in data elements.
-     * @param height The height of the image in data elements.
-     * @param offset The offset to the first pixel in the data array.
-     * @param scanlineStride The number to append to offset to get to the next scanline.
+     * @param height The height of the image.
+     * @return The starting line and the number of lines to decode, or null
+     * if the frame is identical to the previous one.
      */
-    public void decodeDelta16(ImageInputStream in, short[] data, short[] prev, int width, int height, int offset, int scanlineStride)
-            throws IOException {
+    private int[] decodeHeader(ImageInputStream in, int height) throws IOException {
         in.setByteOrder(ByteOrder.BIG_ENDIAN);
 
         // Decode chunk size
         // -----------------
         long chunkSize = in.readUnsignedInt();
         if (chunkSize <= 8) {
-            return;
+            return null;
         }
-        if (in.length() != chunkSize) {
+        if (in.length() != -1 && in.length() < chunkSize) {
             throw new IOException("Illegal chunk size:" + chunkSize + " expected:" + in.length());
         }
-        //System.out.println("chunkSize:" + chunkSize);
+
         // Decode header
         // -----------------
         int header = in.readUnsignedShort();
@@ -1166,128 +1233,279 @@ public class AnimationCodec extends AbstractVideoCodec {
         } else {
             throw new IOException("Unknown header 0x" + Integer.toHexString(header));
         }
-        //System.out.println("startingLine " + startingLine + ", nbLines " + numberOfLines);
 
-        if (startingLine > height || numberOfLines == 0) {
-            return;
+        if (startingLine >= height || numberOfLines == 0) {
+            return null;
         }
-        if (startingLine + numberOfLines - 1 > height) {
+        if (startingLine + numberOfLines > height) {
             throw new IOException("Illegal startingLine or numberOfLines, startingLine=" + startingLine + ", numberOfLines=" + numberOfLines);
         }
+        return new int[]{startingLine, numberOfLines};
+    }
 
-        // Decode scanlines
+    /** Throws an IOException if a run of pixels does not lie within the
+     * scanline. */
+    private static void checkRun(int i, int count, int lineStart, int lineEnd) throws IOException {
+        if (i < lineStart || i + count > lineEnd) {
+            throw new IOException("Run of " + count + " pixels at " + (i - lineStart) + " exceeds scanline of " + (lineEnd - lineStart) + " pixels.");
+        }
+    }
+
+    /** Decodes an 8-bit delta frame or key frame.
+     *
+     * @param in The input stream.
+     * @param data The image data.
+     * @param prev The image data of the previous frame. This may be the same
+     *             object as data.
+     * @param width The width of the image in data elements.
+     * @param height The height of the image in data elements.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to append to offset to get to the next scanline.
+     */
+    public void decodeDelta8(ImageInputStream in, byte[] data, byte[] prev, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        if (prev != data) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(prev, offset + y * scanlineStride, data, offset + y * scanlineStride, width);
+            }
+        }
+        int[] lines = decodeHeader(in, height);
+        if (lines == null) {
+            return;
+        }
+
+        // Decode scanlines, pixels are handled in groups of four.
+        // If the width is not a multiple of four, the scanlines are decoded
+        // into a padded line buffer and then clipped to the width.
         // -----------------
-        for (int l = 0; l < numberOfLines; l++) {
-            //System.out.println("  l:" + l);
-            int i = offset + (startingLine + l) * scanlineStride;
-
-            {
-                int skipCode = in.readUnsignedByte() - 1;
-                if (skipCode == -1) {
-                    //System.out.println("end of image");
-                    break; // end of image code
-                } else if (skipCode > 0) {
-                    //System.out.println("skip " + skipCode);
-                    if (data == prev) {
-                        i += skipCode;
-                    } else {
-                        for (int j = 0; j < skipCode; j++) {
-                            data[i] = prev[i];
-                            i++;
-                        }
+        byte[] group = new byte[4];
+        int paddedWidth = (width + 3) & ~3;
+        byte[] line = paddedWidth == width ? null : new byte[paddedWidth];
+        for (int l = 0; l < lines[1]; l++) {
+            int lineOffset = offset + (lines[0] + l) * scanlineStride;
+            byte[] dst;
+            int i;
+            if (line == null) {
+                dst = data;
+                i = lineOffset;
+            } else {
+                System.arraycopy(data, lineOffset, line, 0, width);
+                dst = line;
+                i = 0;
+            }
+            int lineStart = i;
+            int lineEnd = i + paddedWidth;
+
+            int skipCode = in.readUnsignedByte() - 1;
+            if (skipCode == -1) {
+                break; // end of image code
+            }
+            i += skipCode * 4;
+            checkRun(i, 0, lineStart, lineEnd);
+
+            while (true) {
+                int opCode = in.readByte();
+                if (opCode == 0) {// skip op
+                    i += (in.readUnsignedByte() - 1) * 4;
+                    checkRun(i, 0, lineStart, lineEnd);
+                } else if (opCode > 0) { // run of data op
+                    checkRun(i, opCode * 4, lineStart, lineEnd);
+                    in.readFully(dst, i, opCode * 4);
+                    i += opCode * 4;
+                } else if (opCode == -1) { // end of line op
+                    break;
+                } else { // repeat op
+                    checkRun(i, -opCode * 4, lineStart, lineEnd);
+                    in.readFully(group, 0, 4);
+                    for (int end = i - opCode * 4; i < end; i += 4) {
+                        System.arraycopy(group, 0, dst, i, 4);
                     }
                 }
             }
+            if (line != null) {
+                System.arraycopy(line, 0, data, lineOffset, width);
+            }
+        }
+    }
+
+    /** Decodes a 16-bit delta frame or key frame.
+     *
+     * @param in The input stream.
+     * @param data The image data.
+     * @param prev The image data of the previous frame. This may be the same
+     *             object as data.
+     * @param width The width of the image in data elements.
+     * @param height The height of the image in data elements.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to append to offset to get to the next scanline.
+     */
+    public void decodeDelta16(ImageInputStream in, short[] data, short[] prev, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        if (prev != data) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(prev, offset + y * scanlineStride, data, offset + y * scanlineStride, width);
+            }
+        }
+        int[] lines = decodeHeader(in, height);
+        if (lines == null) {
+            return;
+        }
+
+        // Decode scanlines
+        // -----------------
+        for (int l = 0; l < lines[1]; l++) {
+            int i = offset + (lines[0] + l) * scanlineStride;
+            int lineStart = i;
+            int lineEnd = i + width;
+
+            int skipCode = in.readUnsignedByte() - 1;
+            if (skipCode == -1) {
+                break; // end of image code
+            }
+            i += skipCode;
+            checkRun(i, 0, lineStart, lineEnd);
 
             while (true) {
                 int opCode = in.readByte();
                 if (opCode == 0) {// skip op
-                    int skipCode = in.readUnsignedByte() - 1;
-                    if (skipCode > 0) {
-                        //System.out.println("skip " + skipCode);
-                        if (prev != data) {
-                            System.arraycopy(prev, i, data, i, skipCode);
-                        }
-                        i += skipCode;
+                    i += in.readUnsignedByte() - 1;
+                    checkRun(i, 0, lineStart, lineEnd);
+                } else if (opCode > 0) { // run of data op
+                    checkRun(i, opCode, lineStart, lineEnd);
+                    in.readFully(data, i, opCode);
+                    i += opCode;
+                } else if (opCode == -1) { // end of line op
+                    break;
+                } else { // repeat op
+                    checkRun(i, -opCode, lineStart, lineEnd);
+                    short d = in.readShort();
+                    for (int end = i - opCode; i < end; i++) {
+                        data[i] = d;
                     }
+                }
+            }
+        }
+    }
+
+    /** Decodes a 24-bit delta frame or key frame.
+     *
+     * @param in The input stream.
+     * @param data The image data.
+     * @param prev The image data of the previous frame. This may be the same
+     *             object as data.
+     * @param width The width of the image in data elements.
+     * @param height The height of the image in data elements.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to append to offset to get to the next scanline.
+     */
+    public void decodeDelta24(ImageInputStream in, int[] data, int[] prev, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        if (prev != data) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(prev, offset + y * scanlineStride, data, offset + y * scanlineStride, width);
+            }
+        }
+        int[] lines = decodeHeader(in, height);
+        if (lines == null) {
+            return;
+        }
+
+        // Decode scanlines
+        // -----------------
+        byte[] b = new byte[127 * 3];
+        for (int l = 0; l < lines[1]; l++) {
+            int i = offset + (lines[0] + l) * scanlineStride;
+            int lineStart = i;
+            int lineEnd = i + width;
+
+            int skipCode = in.readUnsignedByte() - 1;
+            if (skipCode == -1) {
+                break; // end of image code
+            }
+            i += skipCode;
+            checkRun(i, 0, lineStart, lineEnd);
+
+            while (true) {
+                int opCode = in.readByte();
+                if (opCode == 0) {// skip op
+                    i += in.readUnsignedByte() - 1;
+                    checkRun(i, 0, lineStart, lineEnd);
                 } else if (opCode > 0) { // run of data op
-                    //System.out.println("data " + opCode);
-                    try {
-                        in.readFully(data, i, opCode);
-                    } catch (EOFException e) {
-                        //System.out.println("EOFException");
-                        //System.out.flush();
-                        System.exit(5);
-                        return;
+                    checkRun(i, opCode, lineStart, lineEnd);
+                    in.readFully(b, 0, opCode * 3);
+                    for (int j = 0, n = opCode * 3; j < n; j += 3) {
+                        data[i++] = ((b[j] & 0xff) << 16) | ((b[j + 1] & 0xff) << 8) | (b[j + 2] & 0xff);
                     }
+                } else if (opCode == -1) { // end of line op
+                    break;
+                } else { // repeat op
+                    checkRun(i, -opCode, lineStart, lineEnd);
+                    in.readFully(b, 0, 3);
+                    int d = ((b[0] & 0xff) << 16) | ((b[1] & 0xff) << 8) | (b[2] & 0xff);
+                    for (int end = i - opCode; i < end; i++) {
+                        data[i] = d;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Decodes a 32-bit delta frame or key frame.
+     *
+     * @param in The input stream.
+     * @param data The image data.
+     * @param prev The image data of the previous frame. This may be the same
+     *             object as data.
+     * @param width The width of the image in data elements.
+     * @param height The height of the image in data elements.
+     * @param offset The offset to the first pixel in the data array.
+     * @param scanlineStride The number to append to offset to get to the next scanline.
+     */
+    public void decodeDelta32(ImageInputStream in, int[] data, int[] prev, int width, int height, int offset, int scanlineStride)
+            throws IOException {
+        if (prev != data) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(prev, offset + y * scanlineStride, data, offset + y * scanlineStride, width);
+            }
+        }
+        int[] lines = decodeHeader(in, height);
+        if (lines == null) {
+            return;
+        }
+
+        // Decode scanlines
+        // -----------------
+        for (int l = 0; l < lines[1]; l++) {
+            int i = offset + (lines[0] + l) * scanlineStride;
+            int lineStart = i;
+            int lineEnd = i + width;
+
+            int skipCode = in.readUnsignedByte() - 1;
+            if (skipCode == -1) {
+                break; // end of image code
+            }
+            i += skipCode;
+            checkRun(i, 0, lineStart, lineEnd);
+
+            while (true) {
+                int opCode = in.readByte();
+                if (opCode == 0) {// skip op
+                    i += in.readUnsignedByte() - 1;
+                    checkRun(i, 0, lineStart, lineEnd);
+                } else if (opCode > 0) { // run of data op
+                    checkRun(i, opCode, lineStart, lineEnd);
+                    in.readFully(data, i, opCode);
                     i += opCode;
                 } else if (opCode == -1) { // end of line op
-                    //System.out.println("EOL");
                     break;
-                } else if (opCode < -1) { // repeat op
-                    //System.out.println("repeat "+opCode);
-                    short d = in.readShort();
-                    int end = i - opCode;
-                    while (i < end) {
-                        data[i++] = d;
+                } else { // repeat op
+                    checkRun(i, -opCode, lineStart, lineEnd);
+                    int d = in.readInt();
+                    for (int end = i - opCode; i < end; i++) {
+                        data[i] = d;
                     }
                 }
             }
-            assert i <= offset + (startingLine + l + 1) * scanlineStride;
         }
-        assert in.getStreamPosition() == in.length();
-        /*
-         * Header:
-         * uint32 chunkSize
-         *
-         * uint16 header 0x0000 => decode entire image
-         *               0x0008 => starting line and number of lines follows
-         * if header==0x0008 {
-         *   uint16 startingLine at which to begin updating frame
-         *   uint16 reserved 0x0000
-         *   uint16 numberOfLines to update
-         *   uint16 reserved 0x0000
-         * }
-         * n-bytes compressed lines
-         * </pre>
-         *
-         * The first 4 bytes defines the chunk length. This field also carries some
-         * other unknown flags, since at least one of the high bits is sometimes set.<br>
-         *
-         * If the overall length of the chunk is less than 8, treat the frame as a
-         * NOP, which means that the frame is the same as the one before it.<br>
-         *
-         * Next, there is a header of either 0x0000 or 0x0008. A header value onlyWith
-         * bit 3 set (header &amp; 0x0008) indicates that information follows revealing
-         * at which line the decode process is to begin:<br>
-         *
-         * <pre>
-         * 2 bytes    starting line at which to begin updating frame
-         * 2 bytes    unknown
-         * 2 bytes    the number of lines to update
-         * 2 bytes    unknown
-         * </pre>
-         *
-         * If the header is 0x0000, then the decode begins from the first line and
-         * continues through the entire height of the image.<br>
-         *
-         * After the header comes the individual RLE-compressed lines. An individual
-         * compressed line is comprised of a skip code, followed by a series of RLE
-         * codes and pixel data:<br>
-         * <pre>
-         *  1 byte     skip code
-         *  1 byte     RLE code
-         *  n bytes    pixel data
-         *  1 byte     RLE code
-         *  n bytes    pixel data
-         * </pre>
-         * Each line begins onlyWith a byte that defines the number of pixels to skip in
-         * a particular line in the output line before outputting new pixel
-         * data. Actually, the skip count is set to one more than the number of
-         * pixels to skip. For example, a skip byte of 15 means "skip 14 pixels",
-         * while a skip byte of 1 means "don't skip any pixels". If the skip byte is
-         * 0, then the frame decode is finished. Therefore, the maximum skip byte
-         * value of 255 allows for a maximum of 254 pixels to be skipped.
-         */
     }
 }
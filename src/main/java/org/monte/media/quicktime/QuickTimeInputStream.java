@@ -0,0 +1,790 @@
+/*
+ * @(#)QuickTimeInputStream.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.quicktime;
+
+import java.awt.image.IndexColorModel;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import org.monte.media.Format;
+import org.monte.media.io.ByteArrayImageInputStream;
+import org.monte.media.math.Rational;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Provides low-level support for reading encoded audio and video samples from
+ * a QuickTime file.
+ * <p>
+ * All meta-data is read when it is needed for the first time. The sample
+ * tables of each track are kept in primitive arrays, in the compact form in
+ * which they are stored in the file. The sample data is read lazily from the
+ * file, when a sample is requested.
+ * <p>
+ * Compressed movie headers ('cmov' atoms with 'zlib' compression) are
+ * supported. Only the first sample description of a track is used. Data
+ * references to other files are not supported.
+ * <p>
+ * For detailed information about the QuickTime file format see:<br>
+ * <a href="http://developer.apple.com/library/mac/#documentation/QuickTime/QTFF/QTFFChap1/qtff1.html">
+ * QuickTime File Format Specification</a>
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class QuickTimeInputStream {
+
+    /** The image input stream. */
+    protected final ImageInputStream in;
+    /** The offset of the movie in the input stream. */
+    protected long streamOffset;
+    /** This variable is set to true when all meta-data has been read from
+     * the file.
+     */
+    private boolean isRealized = false;
+    /** The time scale of the movie. */
+    protected long movieTimeScale;
+    /** The duration of the movie in movie time scale units. */
+    protected long movieDuration;
+    /** The tracks. */
+    protected ArrayList<Track> tracks = new ArrayList<Track>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param file the input file
+     */
+    public QuickTimeInputStream(File file) throws IOException {
+        this.in = new FileImageInputStream(file);
+        in.setByteOrder(ByteOrder.BIG_ENDIAN);
+        this.streamOffset = 0;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param in the input stream.
+     */
+    public QuickTimeInputStream(ImageInputStream in) throws IOException {
+        this.in = in;
+        this.streamOffset = in.getStreamPosition();
+        in.setByteOrder(ByteOrder.BIG_ENDIAN);
+    }
+
+    /** Ensures that all meta-data has been read from the file. */
+    protected void ensureRealized() throws IOException {
+        if (!isRealized) {
+            isRealized = true;
+            readAllMetadata();
+        }
+        if (movieTimeScale == 0) {
+            throw new IOException("QuickTime movie header missing.");
+        }
+    }
+
+    public int getTrackCount() throws IOException {
+        ensureRealized();
+        return tracks.size();
+    }
+
+    /** Returns the time scale of the movie. */
+    public long getMovieTimeScale() throws IOException {
+        ensureRealized();
+        return movieTimeScale;
+    }
+
+    /** Returns the time scale of the media in the specified track. */
+    public long getTimeScale(int track) throws IOException {
+        ensureRealized();
+        return tracks.get(track).mediaTimeScale;
+    }
+
+    /** Returns the start time of the track in movie time scale units. */
+    public long getStartTime(int track) throws IOException {
+        ensureRealized();
+        return tracks.get(track).startTime;
+    }
+
+    /** Returns the number of samples in the specified track. */
+    public long getSampleCount(int track) throws IOException {
+        ensureRealized();
+        return tracks.get(track).sampleCount;
+    }
+
+    /** Returns the number of chunks in the specified track.
+     * <p>
+     * A video chunk holds one sample. An audio chunk holds the samples of a
+     * chunk in the QuickTime file, but not more than one second of audio.
+     */
+    public long getChunkCount(int track) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        if (tr.mediaType != MediaType.AUDIO) {
+            return tr.sampleCount;
+        }
+        long count = 0;
+        for (long sample = 0; sample < tr.sampleCount; sample += tr.getChunkSampleCount(sample)) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Returns the color table of the specified video track, or null if the
+     * track has no color table.
+     */
+    public IndexColorModel getVideoColorTable(int track) throws IOException {
+        ensureRealized();
+        return tracks.get(track).colorTable;
+    }
+
+    /** Reads the atoms at the top level of the file. The movie atom is read
+     * into memory and parsed, all other atoms are skipped. */
+    protected void readAllMetadata() throws IOException {
+        long length = in.length();
+        for (long pos = streamOffset;;) {
+            in.seek(pos);
+            long size;
+            String type;
+            int headerSize = 8;
+            try {
+                size = in.readUnsignedInt();
+                type = readType(in);
+                if (size == 1) {
+                    size = in.readLong();
+                    headerSize = 16;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            if (size == 0 && length != -1) {
+                // The atom extends to the end of the file
+                size = length - pos;
+            }
+            if (size < headerSize) {
+                break;
+            }
+            if (type.equals("moov")) {
+                if (size - headerSize > Integer.MAX_VALUE) {
+                    throw new IOException("Movie atom too large: " + size);
+                }
+                byte[] b = new byte[(int) (size - headerSize)];
+                in.readFully(b);
+                readAtoms(new ByteArrayImageInputStream(b), b.length, null);
+                break;
+            }
+            pos += size;
+        }
+    }
+
+    /** Reads the atoms in the specified range of a movie atom. */
+    private void readAtoms(ImageInputStream m, long end, Track tr) throws IOException {
+        while (m.getStreamPosition() + 8 <= end) {
+            long pos = m.getStreamPosition();
+            long size = m.readUnsignedInt();
+            String type = readType(m);
+            if (size == 1) {
+                size = m.readLong();
+            } else if (size == 0) {
+                size = end - pos;
+            }
+            long atomEnd = pos + size;
+            if (size < 8 || atomEnd > end) {
+                throw new IOException("Illegal size of '" + type + "' atom: " + size);
+            }
+
+            if (type.equals("moov") || type.equals("cmov") || type.equals("mdia")
+                    || type.equals("minf") || type.equals("stbl") || type.equals("edts")) {
+                readAtoms(m, atomEnd, tr);
+            } else if (type.equals("trak")) {
+                Track t = new Track();
+                readAtoms(m, atomEnd, t);
+                t.realize();
+                tracks.add(t);
+            } else if (type.equals("dcom")) {
+                String compression = readType(m);
+                if (!compression.equals("zlib")) {
+                    throw new IOException("Unsupported movie header compression: '" + compression + "'");
+                }
+            } else if (type.equals("cmvd")) {
+                readCompressedMovieData(m, atomEnd);
+            } else if (type.equals("mvhd")) {
+                readMovieHeader(m);
+            } else if (tr != null) {
+                if (type.equals("elst")) {
+                    readEditList(m, tr);
+                } else if (type.equals("mdhd")) {
+                    readMediaHeader(m, tr);
+                } else if (type.equals("hdlr")) {
+                    readHandlerReference(m, tr);
+                } else if (type.equals("stsd")) {
+                    readSampleDescription(m, atomEnd, tr);
+                } else if (type.equals("stts")) {
+                    readTimeToSample(m, tr, atomEnd);
+                } else if (type.equals("stsc")) {
+                    readSampleToChunk(m, tr, atomEnd);
+                } else if (type.equals("stsz")) {
+                    readSampleSize(m, tr, atomEnd);
+                } else if (type.equals("stco")) {
+                    readChunkOffsets(m, tr, false, atomEnd);
+                } else if (type.equals("co64")) {
+                    readChunkOffsets(m, tr, true, atomEnd);
+                } else if (type.equals("stss")) {
+                    readSyncSamples(m, tr, atomEnd);
+                }
+            }
+            m.seek(atomEnd);
+        }
+    }
+
+    /** Inflates a compressed movie atom and reads it. */
+    private void readCompressedMovieData(ImageInputStream m, long end) throws IOException {
+        long uncompressedSize = m.readUnsignedInt();
+        if (uncompressedSize > Integer.MAX_VALUE) {
+            throw new IOException("Compressed movie atom too large: " + uncompressedSize);
+        }
+        byte[] compressed = new byte[(int) (end - m.getStreamPosition())];
+        m.readFully(compressed);
+        byte[] b = new byte[(int) uncompressedSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int len = 0;
+            while (len < b.length && !inflater.finished()) {
+                int n = inflater.inflate(b, len, b.length - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+            if (len != b.length) {
+                throw new IOException("Compressed movie atom is truncated: " + len + " of " + b.length + " bytes.");
+            }
+        } catch (DataFormatException e) {
+            IOException ex = new IOException("Illegal compressed movie atom.");
+            ex.initCause(e);
+            throw ex;
+        } finally {
+            inflater.end();
+        }
+        readAtoms(new ByteArrayImageInputStream(b), b.length, null);
+    }
+
+    private void readMovieHeader(ImageInputStream m) throws IOException {
+        int version = m.readUnsignedByte();
+        m.skipBytes(3); // flags
+        if (version == 1) {
+            m.skipBytes(16); // creationTime, modificationTime
+            movieTimeScale = m.readUnsignedInt();
+            movieDuration = m.readLong();
+        } else {
+            m.skipBytes(8); // creationTime, modificationTime
+            movieTimeScale = m.readUnsignedInt();
+            movieDuration = m.readUnsignedInt();
+        }
+    }
+
+    /** Reads the edit list. Only leading empty edits are supported. They
+     * determine the start time of the track. */
+    private void readEditList(ImageInputStream m, Track tr) throws IOException {
+        int version = m.readUnsignedByte();
+        m.skipBytes(3); // flags
+        long n = m.readUnsignedInt();
+        for (long i = 0; i < n; i++) {
+            long trackDuration = version == 1 ? m.readLong() : m.readUnsignedInt();
+            long mediaTime = version == 1 ? m.readLong() : m.readInt();
+            m.skipBytes(4); // mediaRate
+            if (mediaTime != -1) {
+                break;
+            }
+            tr.startTime += trackDuration;
+        }
+    }
+
+    private void readMediaHeader(ImageInputStream m, Track tr) throws IOException {
+        int version = m.readUnsignedByte();
+        m.skipBytes(3); // flags
+        if (version == 1) {
+            m.skipBytes(16); // creationTime, modificationTime
+            tr.mediaTimeScale = m.readUnsignedInt();
+            tr.mediaDuration = m.readLong();
+        } else {
+            m.skipBytes(8); // creationTime, modificationTime
+            tr.mediaTimeScale = m.readUnsignedInt();
+            tr.mediaDuration = m.readUnsignedInt();
+        }
+    }
+
+    /** Reads the media handler reference. The data handler reference in the
+     * media information atom has component type 'dhlr' and is ignored. */
+    private void readHandlerReference(ImageInputStream m, Track tr) throws IOException {
+        m.skipBytes(4); // version, flags
+        String componentType = readType(m);
+        String componentSubtype = readType(m);
+        if (componentType.equals("dhlr") || tr.mediaType != null) {
+            return;
+        }
+        if (componentSubtype.equals("vide")) {
+            tr.mediaType = MediaType.VIDEO;
+        } else if (componentSubtype.equals("soun")) {
+            tr.mediaType = MediaType.AUDIO;
+        } else if (componentSubtype.equals("text")) {
+            tr.mediaType = MediaType.TEXT;
+        } else {
+            tr.mediaType = MediaType.META;
+        }
+    }
+
+    private void readSampleDescription(ImageInputStream m, long end, Track tr) throws IOException {
+        m.skipBytes(4); // version, flags
+        long n = m.readUnsignedInt();
+        if (n == 0) {
+            return;
+        }
+        long entryEnd = m.getStreamPosition() + m.readUnsignedInt();
+        tr.mediaCompressionType = readType(m);
+        m.skipBytes(6); // reserved
+        m.skipBytes(2); // dataReferenceIndex
+
+        if (tr.mediaType == MediaType.VIDEO) {
+            m.skipBytes(2 + 2 + 4 + 4 + 4); // version, revisionLevel, vendor, temporalQuality, spatialQuality
+            tr.videoWidth = m.readUnsignedShort();
+            tr.videoHeight = m.readUnsignedShort();
+            m.skipBytes(4 + 4 + 4 + 2); // horizontalResolution, verticalResolution, dataSize, frameCount
+            byte[] name = new byte[32];
+            m.readFully(name);
+            tr.mediaCompressorName = new String(name, 1, Math.min(31, name[0] & 0xff), "ISO-8859-1");
+            tr.videoDepth = m.readUnsignedShort();
+            int colorTableId = m.readShort();
+
+            // The color table follows the description, either as an
+            // extension of the description or after the table.
+            if (colorTableId == 0) {
+                tr.colorTable = findColorTable(m, m.getStreamPosition(), entryEnd);
+                if (tr.colorTable == null && n == 1) {
+                    tr.colorTable = findColorTable(m, entryEnd, end);
+                }
+            }
+        } else if (tr.mediaType == MediaType.AUDIO) {
+            int version = m.readUnsignedShort();
+            m.skipBytes(2 + 4); // revisionLevel, vendor
+            tr.soundNumberOfChannels = m.readUnsignedShort();
+            tr.soundSampleSize = m.readUnsignedShort();
+            tr.soundCompressionId = m.readShort();
+            m.skipBytes(2); // packetSize
+            tr.soundSampleRate = m.readUnsignedInt() / 65536.0;
+            if (version == 1) {
+                tr.soundSamplesPerPacket = m.readUnsignedInt();
+                tr.soundBytesPerPacket = m.readUnsignedInt();
+                tr.soundBytesPerFrame = m.readUnsignedInt();
+            }
+        }
+    }
+
+    /** Searches the atoms in the specified range for a color table atom. */
+    private IndexColorModel findColorTable(ImageInputStream m, long pos, long end) throws IOException {
+        while (pos + 8 <= end) {
+            m.seek(pos);
+            long size = m.readUnsignedInt();
+            String type = readType(m);
+            if (size < 8) {
+                break;
+            }
+            if (type.equals("ctab")) {
+                return readColorTable(m);
+            }
+            pos += size;
+        }
+        return null;
+    }
+
+    /** Reads a Macintosh color table. */
+    private IndexColorModel readColorTable(ImageInputStream m) throws IOException {
+        m.skipBytes(4 + 2); // seed, flags
+        int n = Math.min(256, m.readUnsignedShort() + 1);
+        byte[] r = new byte[n];
+        byte[] g = new byte[n];
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            m.skipBytes(2); // value
+            r[i] = (byte) (m.readUnsignedShort() >>> 8);
+            g[i] = (byte) (m.readUnsignedShort() >>> 8);
+            b[i] = (byte) (m.readUnsignedShort() >>> 8);
+        }
+        return new IndexColorModel(8, n, r, g, b);
+    }
+
+    private void readTimeToSample(ImageInputStream m, Track tr, long end) throws IOException {
+        m.skipBytes(4); // version, flags
+        int n = readEntryCount(m, end, 8);
+        tr.timeToSampleCounts = new int[n];
+        tr.timeToSampleDurations = new int[n];
+        for (int i = 0; i < n; i++) {
+            tr.timeToSampleCounts[i] = m.readInt();
+            tr.timeToSampleDurations[i] = m.readInt();
+        }
+    }
+
+    private void readSampleToChunk(ImageInputStream m, Track tr, long end) throws IOException {
+        m.skipBytes(4); // version, flags
+        int n = readEntryCount(m, end, 12);
+        tr.sampleToChunkFirstChunks = new int[n];
+        tr.sampleToChunkSampleCounts = new int[n];
+        for (int i = 0; i < n; i++) {
+            tr.sampleToChunkFirstChunks[i] = m.readInt();
+            tr.sampleToChunkSampleCounts[i] = m.readInt();
+            m.skipBytes(4); // sampleDescriptionId
+        }
+    }
+
+    private void readSampleSize(ImageInputStream m, Track tr, long end) throws IOException {
+        m.skipBytes(4); // version, flags
+        tr.uniformSampleSize = m.readInt();
+        tr.sampleCount = m.readUnsignedInt();
+        if (tr.uniformSampleSize == 0) {
+            int n = readEntryCount(tr.sampleCount, m, end, 4);
+            tr.sampleSizes = new int[n];
+            m.readFully(tr.sampleSizes, 0, n);
+        }
+    }
+
+    private void readChunkOffsets(ImageInputStream m, Track tr, boolean isWide, long end) throws IOException {
+        m.skipBytes(4); // version, flags
+        int n = readEntryCount(m, end, isWide ? 8 : 4);
+        tr.chunkOffsets = new long[n];
+        if (isWide) {
+            m.readFully(tr.chunkOffsets, 0, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                tr.chunkOffsets[i] = m.readUnsignedInt();
+            }
+        }
+    }
+
+    private void readSyncSamples(ImageInputStream m, Track tr, long end) throws IOException {
+        m.skipBytes(4); // version, flags
+        int n = readEntryCount(m, end, 4);
+        tr.syncSamples = new int[n];
+        m.readFully(tr.syncSamples, 0, n);
+    }
+
+    private int readEntryCount(ImageInputStream m, long end, int entrySize) throws IOException {
+        return readEntryCount(m.readUnsignedInt(), m, end, entrySize);
+    }
+
+    /** Checks that the table entries fit into the remaining bytes of the
+     * atom, before an array is allocated for them. */
+    private int readEntryCount(long n, ImageInputStream m, long end, int entrySize) throws IOException {
+        long remaining = end - m.getStreamPosition();
+        if (n > remaining / entrySize) {
+            throw new IOException("Too many table entries: " + n + ", the atom only has " + remaining + " bytes left.");
+        }
+        return (int) n;
+    }
+
+    private static String readType(ImageInputStream in) throws IOException {
+        byte[] b = new byte[4];
+        in.readFully(b);
+        return new String(b, "ISO-8859-1");
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** Holds the meta-data of a track.
+     * <p>
+     * The sample tables are kept in the compact form in which they are stored
+     * in the file. Sample numbers are 0-based, chunk numbers are 0-based.
+     */
+    protected class Track {
+
+        /** The media type of the track. */
+        protected MediaType mediaType;
+        /** The format of the media in the track. */
+        protected Format format;
+        /** The time scale of the media. */
+        protected long mediaTimeScale = 600;
+        /** The duration of the media in media time scale units. */
+        protected long mediaDuration;
+        /** The start time of the track in movie time scale units. */
+        protected long startTime;
+        /** The compression type of the media. */
+        protected String mediaCompressionType;
+        /** The compressor name of the media. */
+        protected String mediaCompressorName;
+        /** The video width, height and depth. */
+        protected int videoWidth, videoHeight, videoDepth;
+        /** The color table of 8-bit video. */
+        protected IndexColorModel colorTable;
+        /** The sound sample description. */
+        protected int soundNumberOfChannels, soundSampleSize, soundCompressionId;
+        protected double soundSampleRate;
+        protected long soundSamplesPerPacket, soundBytesPerPacket, soundBytesPerFrame;
+        /** The number of bytes in a sample unit of the sample size table.
+         * This is the audio frame size for uncompressed audio, and 1 for all
+         * other media. */
+        protected int sampleUnit = 1;
+        /** The number of samples. */
+        protected long sampleCount;
+        /** The size of all samples in sample units, or 0 if the samples
+         * have different sizes. */
+        protected int uniformSampleSize;
+        /** The size of each sample in sample units. This is null if all
+         * samples have the same size. */
+        protected int[] sampleSizes;
+        /** The file offset of each chunk. */
+        protected long[] chunkOffsets = new long[0];
+        /** The sample to chunk table. */
+        protected int[] sampleToChunkFirstChunks = new int[0];
+        protected int[] sampleToChunkSampleCounts = new int[0];
+        /** The number of the first sample in each chunk, and the number of
+         * samples as the last element. */
+        protected long[] chunkFirstSamples;
+        /** The time to sample table. */
+        protected int[] timeToSampleCounts = new int[0];
+        protected int[] timeToSampleDurations = new int[0];
+        /** The number of the first sample and its time in media time scale
+         * units for each entry of the time to sample table. Both tables have
+         * an additional element with the number of samples and the duration
+         * of the media. */
+        protected long[] timeToSampleFirstSamples;
+        protected long[] timeToSampleFirstTimes;
+        /** The 1-based numbers of the sync samples, in ascending order. This
+         * is null if all samples are sync samples. */
+        protected int[] syncSamples;
+        /** The index of the next sample to be read. */
+        protected long readIndex;
+        /** Caches the last result of getSampleOffset. */
+        private long cachedSample = -1;
+        private int cachedChunk;
+        private long cachedOffset;
+
+        /** Builds the derived tables and the format after the track atom
+         * has been read. */
+        protected void realize() throws IOException {
+            if (mediaType == null) {
+                mediaType = MediaType.META;
+            }
+            if (sampleSizes != null && sampleSizes.length < sampleCount) {
+                throw new IOException("Sample size table is too short.");
+            }
+
+            // Expand the sample to chunk table
+            int chunkCount = chunkOffsets.length;
+            chunkFirstSamples = new long[chunkCount + 1];
+            long sample = 0;
+            for (int i = 0, n = sampleToChunkFirstChunks.length; i < n; i++) {
+                int first = Math.max(0, sampleToChunkFirstChunks[i] - 1);
+                int last = i + 1 < n ? Math.min(chunkCount, sampleToChunkFirstChunks[i + 1] - 1) : chunkCount;
+                for (int c = first; c < last; c++) {
+                    chunkFirstSamples[c] = sample;
+                    sample += sampleToChunkSampleCounts[i];
+                }
+            }
+            chunkFirstSamples[chunkCount] = sample;
+            sampleCount = Math.min(sampleCount, sample);
+
+            // Accumulate the time to sample table
+            int n = timeToSampleCounts.length;
+            timeToSampleFirstSamples = new long[n + 1];
+            timeToSampleFirstTimes = new long[n + 1];
+            for (int i = 0; i < n; i++) {
+                timeToSampleFirstSamples[i + 1] = timeToSampleFirstSamples[i] + (timeToSampleCounts[i] & 0xffffffffL);
+                timeToSampleFirstTimes[i + 1] = timeToSampleFirstTimes[i] + (timeToSampleCounts[i] & 0xffffffffL) * timeToSampleDurations[i];
+            }
+
+            switch (mediaType) {
+                case VIDEO:
+                    format = new Format(MimeTypeKey, MIME_QUICKTIME,
+                            MediaTypeKey, MediaType.VIDEO,
+                            EncodingKey, mediaCompressionType,
+                            CompressorNameKey, mediaCompressorName,
+                            DataClassKey, byte[].class,
+                            WidthKey, videoWidth,
+                            HeightKey, videoHeight,
+                            DepthKey, videoDepth,
+                            PixelAspectRatioKey, new Rational(1, 1),
+                            FrameRateKey, new Rational(mediaTimeScale, n == 0 ? 1 : Math.max(1, timeToSampleDurations[0])),
+                            FixedFrameRateKey, n <= 1);
+                    break;
+                case AUDIO: {
+                    // Uncompressed sound has a sample size of 1 in the sample
+                    // size table, which stands for one frame
+                    boolean isUncompressed = soundCompressionId != -2 && sampleSizes == null && uniformSampleSize == 1;
+                    int frameSize = soundBytesPerFrame > 0 && soundSamplesPerPacket == 1
+                            ? (int) soundBytesPerFrame
+                            : (soundSampleSize + 7) / 8 * soundNumberOfChannels;
+                    if (isUncompressed) {
+                        sampleUnit = frameSize;
+                    }
+                    format = new Format(MimeTypeKey, MIME_QUICKTIME,
+                            MediaTypeKey, MediaType.AUDIO,
+                            EncodingKey, mediaCompressionType,
+                            SampleRateKey, Rational.valueOf(soundSampleRate),
+                            SampleSizeInBitsKey, soundSampleSize,
+                            ChannelsKey, soundNumberOfChannels,
+                            FrameSizeKey, frameSize,
+                            FrameRateKey, new Rational(mediaTimeScale, 1),
+                            SignedKey, !ENCODING_QUICKTIME_RAW_PCM.equals(mediaCompressionType),
+                            ByteOrderKey, ENCODING_QUICKTIME_SOWT_PCM.equals(mediaCompressionType)
+                            ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                    break;
+                }
+                default:
+                    format = new Format(MimeTypeKey, MIME_QUICKTIME,
+                            MediaTypeKey, mediaType,
+                            EncodingKey, mediaCompressionType);
+                    break;
+            }
+        }
+
+        /** Returns the chunk which contains the specified sample. */
+        protected int getChunk(long sample) {
+            int low = 0, high = chunkOffsets.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (chunkFirstSamples[mid] <= sample) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /** Returns the number of samples in the chunk which starts at the
+         * specified sample. A video chunk holds one sample. An audio chunk
+         * holds the remaining samples of the QuickTime chunk, but not more
+         * than one second of audio. */
+        protected long getChunkSampleCount(long sample) {
+            if (mediaType != MediaType.AUDIO) {
+                return 1;
+            }
+            long count = chunkFirstSamples[getChunk(sample) + 1] - sample;
+            return Math.max(1, Math.min(count, mediaTimeScale));
+        }
+
+        /** Returns the size of the specified sample in bytes. */
+        protected long getSampleSize(long sample) {
+            return (long) (sampleSizes == null ? uniformSampleSize : sampleSizes[(int) sample]) * sampleUnit;
+        }
+
+        /** Returns the total size of the specified range of samples in
+         * bytes. */
+        protected long getSampleSize(long sample, long count) {
+            if (sampleSizes == null) {
+                return count * uniformSampleSize * sampleUnit;
+            }
+            long size = 0;
+            for (int i = (int) sample, n = (int) (sample + count); i < n; i++) {
+                size += sampleSizes[i];
+            }
+            return size * sampleUnit;
+        }
+
+        /** Returns the file offset of the specified sample. */
+        protected long getSampleOffset(long sample) {
+            if (cachedSample != -1 && sample >= cachedSample
+                    && sample < chunkFirstSamples[cachedChunk + 1]) {
+                // Sequential access within the same chunk
+                cachedOffset += getSampleSize(cachedSample, sample - cachedSample);
+            } else {
+                cachedChunk = getChunk(sample);
+                long first = chunkFirstSamples[cachedChunk];
+                cachedOffset = chunkOffsets[cachedChunk] + getSampleSize(first, sample - first);
+            }
+            cachedSample = sample;
+            return cachedOffset;
+        }
+
+        /** Returns the index of the time to sample entry which contains the
+         * specified sample. */
+        private int getTimeToSampleEntry(long sample) {
+            int low = 0, high = timeToSampleCounts.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (timeToSampleFirstSamples[mid] <= sample) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /** Returns the duration of the specified sample in media time scale
+         * units. */
+        protected long getSampleDuration(long sample) {
+            return timeToSampleDurations.length == 0 ? 0 : timeToSampleDurations[getTimeToSampleEntry(sample)];
+        }
+
+        /** Returns the time of the specified sample in media time scale units.
+         * Returns the duration of the media, if the sample is beyond the last
+         * sample. */
+        protected long getSampleTime(long sample) {
+            int n = timeToSampleCounts.length;
+            if (n == 0) {
+                return 0;
+            }
+            if (sample >= timeToSampleFirstSamples[n]) {
+                return timeToSampleFirstTimes[n];
+            }
+            int e = getTimeToSampleEntry(sample);
+            return timeToSampleFirstTimes[e] + (sample - timeToSampleFirstSamples[e]) * timeToSampleDurations[e];
+        }
+
+        /** Returns the sample at the specified time in media time scale units. */
+        protected long getSampleAtTime(long time) {
+            int n = timeToSampleCounts.length;
+            if (n == 0 || time <= 0) {
+                return 0;
+            }
+            if (time >= timeToSampleFirstTimes[n]) {
+                return timeToSampleFirstSamples[n];
+            }
+            int low = 0, high = n - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (timeToSampleFirstTimes[mid] <= time) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int d = timeToSampleDurations[low];
+            return timeToSampleFirstSamples[low] + (d == 0 ? 0 : (time - timeToSampleFirstTimes[low]) / d);
+        }
+
+        /** Returns true if the specified sample is a sync sample. */
+        protected boolean isSyncSample(long sample) {
+            return syncSamples == null || Arrays.binarySearch(syncSamples, (int) (sample + 1)) >= 0;
+        }
+
+        /** Returns the last sync sample at or before the specified sample. */
+        protected long getSyncSampleBefore(long sample) {
+            if (syncSamples == null) {
+                return sample;
+            }
+            int i = Arrays.binarySearch(syncSamples, (int) (sample + 1));
+            if (i < 0) {
+                i = -i - 2;
+            }
+            return i < 0 ? 0 : syncSamples[i] - 1;
+        }
+    }
+}
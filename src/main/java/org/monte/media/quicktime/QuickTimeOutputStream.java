@@ -16,6 +16,7 @@ import org.monte.media.math.Rational;
 import java.awt.image.IndexColorModel;
 import java.io.*;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.zip.DeflaterOutputStream;
 import javax.imageio.stream.*;
@@ -32,17 +33,33 @@ import static org.monte.media.AudioFormatKeys.*;
  */
 public class QuickTimeOutputStream extends AbstractQuickTimeStream {
 
+    /** The output file, or null if the stream was created with an
+     * ImageOutputStream. */
+    private File file;
+    /** The size of the space which is reserved for the movie header in front
+     * of the media data. The value 0 means that no space is reserved. */
+    private long reservedHeaderSize;
+    /** Whether the movie header may be compressed to make it fit into the
+     * reserved space. */
+    private boolean compressReservedHeader;
+    /** The relative offset of the "free" atom which reserves the space for
+     * the movie header, or -1 if no space has been reserved. */
+    private long reservedHeaderOffset = -1;
+    /** Whether the movie header has been written into the reserved space. */
+    private boolean isHeaderInReservedSpace;
+
     /**
      * Creates a new instance.
      *
      * @param file the output file
      */
     public QuickTimeOutputStream(File file) throws IOException {
-        if (file.exists()) {
-            file.delete();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
         }
         this.out = new FileImageOutputStream(file);
         this.streamOffset = 0;
+        this.file = file;
     }
 
     /**
@@ -145,6 +162,75 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         return duration;
     }
 
+    /** Reserves space for the movie header in front of the media data.
+     * <p>
+     * If the movie header fits into the reserved space when the movie is
+     * finished, it is written into this space, and the remainder of the space
+     * is marked as a "free" atom. This yields a movie which starts with the
+     * movie header, without having to copy the media data into a second file
+     * with {@link #toWebOptimizedMovie}. If the movie header does not fit,
+     * it is written at the end of the file as usual, and the reserved space
+     * remains unused.
+     * <p>
+     * The movie header grows with the number of samples. For a video track
+     * it needs roughly 12 to 16 bytes per sample, if the samples have
+     * different sizes, plus about 1 kilobyte per track.
+     * <p>
+     * This method must be called before the first sample is written. Once a
+     * track has been added, the reserved space can only be enlarged.
+     *
+     * @param size The number of bytes to reserve, including the 8 bytes of
+     * the "free" atom header. Specify 0 to reserve no space.
+     * @param compressHeader Whether the movie header may be compressed, if it
+     * does not fit uncompressed into the reserved space.
+     * @throws IllegalStateException if samples have already been written, or
+     * if a track has been added and size is smaller than the reserved space.
+     * @throws IllegalArgumentException if size is not 0 and is smaller than 8
+     * or larger than 2^32-1.
+     * @throws IOException if the reserved space can not be written.
+     */
+    public void setReservedHeaderSize(long size, boolean compressHeader) throws IOException {
+        if (state != States.REALIZED && (state != States.STARTED || mdatAtom.size() != 16)) {
+            throw new IllegalStateException("The header space must be reserved before the first sample is written.");
+        }
+        if (size != 0 && (size < 8 || size > 0xffffffffL)) {
+            throw new IllegalArgumentException("size must be 0 or between 8 and 2^32-1:" + size);
+        }
+        if (state == States.STARTED && size != reservedHeaderSize) {
+            // The prolog and the media data atom have been written by
+            // addTrack. The media data atom is still empty, so that it can
+            // be moved behind the reserved space.
+            if (size < reservedHeaderSize) {
+                throw new IllegalStateException("The header space can only be enlarged after a track has been added.");
+            }
+            long offset = reservedHeaderOffset == -1 ? mdatAtom.getOffset() : reservedHeaderOffset;
+            seekRelative(offset);
+            reservedHeaderOffset = offset;
+            writeFreeAtom(size);
+            mdatAtom = new WideDataAtom("mdat");
+        }
+        this.reservedHeaderSize = size;
+        this.compressReservedHeader = compressHeader;
+    }
+
+    /** Returns the size of the space which is reserved for the movie header.
+     *
+     * @return The size in bytes or 0, if no space is reserved.
+     * @see #setReservedHeaderSize(long, boolean)
+     */
+    public long getReservedHeaderSize() {
+        return reservedHeaderSize;
+    }
+
+    /** Returns true if the movie has been finished, and the movie header
+     * has been written into the reserved space at the start of the file.
+     *
+     * @see #setReservedHeaderSize(long, boolean)
+     */
+    public boolean isHeaderInReservedSpace() {
+        return isHeaderInReservedSpace;
+    }
+
     /** Sets the color table for videos with indexed color models.
      *
      * @param track The track number.
@@ -375,6 +461,10 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         if (state != States.STARTED) {
             creationTime = new Date();
             writeProlog();
+            if (reservedHeaderSize > 0) {
+                reservedHeaderOffset = getRelativeStreamPosition();
+                writeFreeAtom(reservedHeaderSize);
+            }
             mdatAtom = new WideDataAtom("mdat");
             state = States.STARTED;
         }
@@ -440,7 +530,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             mdatOut.write(buf, 0, len);
         }
         long length = getRelativeStreamPosition() - offset;
-        t.addSample(new Sample(duration, offset, length), 1, isSync);
+        t.addSample(duration, offset, length, 1, isSync);
     }
 
     /**
@@ -488,7 +578,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         long offset = getRelativeStreamPosition();
         OutputStream mdatOut = mdatAtom.getOutputStream();
         mdatOut.write(data, off, len);
-        t.addSample(new Sample(duration, offset, len), 1, isSync);
+        t.addSample(duration, offset, len, 1, isSync);
     }
 
     /**
@@ -573,9 +663,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
 
 
         int sampleLength = len / sampleCount;
-        Sample first = new Sample(sampleDuration, offset, sampleLength);
-        Sample last = new Sample(sampleDuration, offset + sampleLength * (sampleCount - 1), sampleLength);
-        t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
+        t.addChunk(new Chunk(sampleDuration, offset, sampleLength, sampleCount, 1), isSync);
     }
 
     /** Returns true if the limit for media samples has been reached.
@@ -612,8 +700,24 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             }
         } finally {
             if (state != States.CLOSED) {
-                out.close();
-                state = States.CLOSED;
+                try {
+                    out.close();
+                } finally {
+                    state = States.CLOSED;
+                    IOException failure = null;
+                    for (Track t : tracks) {
+                        try {
+                            t.dispose();
+                        } catch (IOException e) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
             }
         }
     }
@@ -633,7 +737,9 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             for (int i = 0, n = tracks.size(); i < n; i++) {
             }
             mdatAtom.finish();
-            writeEpilog();
+            if (reservedHeaderOffset == -1 || !writeEpilogIntoReservedSpace()) {
+                writeEpilog();
+            }
             state = States.FINISHED;
             /*
             for (int i = 0, n = tracks.size(); i < n; i++) {
@@ -679,6 +785,87 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         ftypAtom.finish();
     }
 
+    /** Writes a "free" atom of the specified size, including the size of the
+     * atom header. */
+    private void writeFreeAtom(long size) throws IOException {
+        DataAtomOutputStream d = new DataAtomOutputStream(new ImageOutputStreamAdapter(out));
+        d.writeUInt(size);
+        d.writeType("free");
+        byte[] b = new byte[(int) min(size - 8, 8192)];
+        for (long remaining = size - 8; remaining > 0; remaining -= b.length) {
+            d.write(b, 0, (int) min(b.length, remaining));
+        }
+    }
+
+    /** Writes the movie header into the space which has been reserved in
+     * front of the media data.
+     * <p>
+     * The chunk offsets do not depend on the location of the movie header,
+     * because the media data stays in place. Thus the header needs to be
+     * serialized only once.
+     *
+     * @return True on success, false if the header does not fit into the
+     * reserved space.
+     */
+    private boolean writeEpilogIntoReservedSpace() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ImageOutputStream originalOut = out;
+        long originalStreamOffset = streamOffset;
+        try {
+            out = new MemoryCacheImageOutputStream(buf);
+            streamOffset = 0;
+            writeEpilog();
+            out.close();
+        } finally {
+            out = originalOut;
+            streamOffset = originalStreamOffset;
+        }
+
+        byte[] header = buf.toByteArray();
+        long headerSize = header.length;
+        boolean isCompressed = false;
+        if (compressReservedHeader && headerSize != reservedHeaderSize && headerSize > reservedHeaderSize - 8) {
+            buf.reset();
+            DeflaterOutputStream deflater = new DeflaterOutputStream(buf);
+            deflater.write(header);
+            deflater.close();
+            isCompressed = true;
+            headerSize = buf.size() + 40;
+        }
+        long freeSize = reservedHeaderSize - headerSize;
+        if (freeSize != 0 && freeSize < 8) {
+            return false;
+        }
+
+        long pointer = getRelativeStreamPosition();
+        seekRelative(reservedHeaderOffset);
+        DataAtomOutputStream d = new DataAtomOutputStream(new ImageOutputStreamAdapter(out));
+        if (isCompressed) {
+            // 40 bytes compression headers
+            d.writeUInt(headerSize);
+            d.writeType("moov");
+            d.writeUInt(headerSize - 8);
+            d.writeType("cmov");
+            d.writeUInt(12);
+            d.writeType("dcom");
+            d.writeType("zlib");
+            d.writeUInt(headerSize - 28);
+            d.writeType("cmvd");
+            d.writeUInt(header.length);
+            buf.writeTo(d);
+        } else {
+            d.write(header);
+        }
+        if (freeSize > 0) {
+            // The remainder of the reserved space has already been zeroed
+            d.writeUInt(freeSize);
+            d.writeType("free");
+        }
+        seekRelative(pointer);
+        isHeaderInReservedSpace = true;
+        return true;
+    }
+
     private void writeEpilog() throws IOException {
         Date modificationTime = new Date();
         long duration = getMovieDuration();
@@ -810,14 +997,27 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
      * <p>
      * This method finishes the movie and then copies its content into
      * the specified file. The web-optimized file starts with the movie header.
+     * <p>
+     * If the stream has been created with a file, the media data is
+     * transferred with a file channel, which allows the operating system to
+     * copy the data without passing it through the Java heap.
+     * <p>
+     * Use {@link #setReservedHeaderSize} to create a web-optimized movie
+     * without copying the media data.
      *
      * @param outputFile The output file
      * @param compressHeader Whether the movie header shall be compressed.
      */
     public void toWebOptimizedMovie(File outputFile, boolean compressHeader) throws IOException {
         finish();
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("Could not delete " + outputFile);
+        }
         long originalMdatOffset = mdatAtom.getOffset();
         CompositeAtom originalMoovAtom = moovAtom;
+        // The chunk offsets include the space which has been reserved for
+        // the movie header. The web-optimized movie does not have it.
+        long reservedSize = reservedHeaderOffset == -1 ? 0 : reservedHeaderSize;
         mdatOffset = 0;
 
         ImageOutputStream originalOut = out;
@@ -831,7 +1031,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
                 long headerSize = 0;
                 long freeSize = 0;
                 while (true) {
-                    mdatOffset = compressionHeadersSize + headerSize + freeSize;
+                    mdatOffset = compressionHeadersSize + headerSize + freeSize - reservedSize;
                     buf.reset();
                     DeflaterOutputStream deflater = new DeflaterOutputStream(buf);
                     out = new MemoryCacheImageOutputStream(deflater);
@@ -887,25 +1087,62 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             }
             if (!compressHeader) {
                 out = new FileImageOutputStream(outputFile);
-                mdatOffset = moovAtom.size();
+                mdatOffset = moovAtom.size() - reservedSize;
                 writeProlog();
                 writeEpilog();
             }
 
 
-            byte[] buf = new byte[4096];
-            originalOut.seek((originalMdatOffset));
-            for (long count = 0, n = mdatAtom.size(); count < n;) {
-                int read = originalOut.read(buf, 0, (int) Math.min(buf.length, n - count));
-                out.write(buf, 0, read);
-                count += read;
+            if (file != null) {
+                out.close();
+                out = null;
+                transferMediaData(originalMdatOffset, outputFile);
+            } else {
+                byte[] buf = new byte[65536];
+                originalOut.seek(originalMdatOffset + streamOffset);
+                for (long count = 0, n = mdatAtom.size(); count < n;) {
+                    int read = originalOut.read(buf, 0, (int) Math.min(buf.length, n - count));
+                    if (read == -1) {
+                        throw new EOFException("Media data is truncated.");
+                    }
+                    out.write(buf, 0, read);
+                    count += read;
+                }
+                out.close();
             }
-            out.close();
         } finally {
             mdatOffset = 0;
             moovAtom = originalMoovAtom;
             out = originalOut;
         }
     }
-}
 
+    /** Appends the media data atom of the output file of this stream to the
+     * specified file.
+     * <p>
+     * The output stream does not buffer written data, because it is a
+     * {@code FileImageOutputStream}. Thus the data can be read from the file
+     * without flushing the stream.
+     */
+    private void transferMediaData(long offset, File outputFile) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileOutputStream fout = new FileOutputStream(outputFile, true);
+            try {
+                FileChannel src = in.getChannel();
+                FileChannel dst = fout.getChannel();
+                for (long count = 0, n = mdatAtom.size(); count < n;) {
+                    long transferred = src.transferTo(offset + count, n - count, dst);
+                    if (transferred <= 0) {
+                        throw new EOFException("Media data is truncated.");
+                    }
+                    count += transferred;
+                }
+            } finally {
+                fout.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
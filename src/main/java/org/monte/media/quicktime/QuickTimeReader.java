@@ -0,0 +1,233 @@
+/*
+ * @(#)QuickTimeReader.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.quicktime;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import javax.imageio.stream.ImageInputStream;
+import org.monte.media.Buffer;
+import org.monte.media.BufferFlag;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.MovieReader;
+import org.monte.media.Registry;
+import org.monte.media.math.Rational;
+import static java.lang.Math.*;
+import static org.monte.media.BufferFlag.*;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Provides high-level support for decoding and reading audio and video samples
+ * from a QuickTime file.
+ * <p>
+ * Method {@link #read(int, Buffer)} reads the encoded samples of a track.
+ * Method {@link #read(int, BufferedImage)} reads and decodes the frames of a
+ * video track using a decoder from the {@link Registry}. The color table of
+ * an 8-bit video track is passed to the decoder in the {@code header} field
+ * of the buffer.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class QuickTimeReader extends QuickTimeInputStream implements MovieReader {
+
+    public final static Format QUICKTIME = new Format(MediaTypeKey, MediaType.FILE, MimeTypeKey, MIME_QUICKTIME);
+    /** The decoders of the tracks, used by {@link #read(int, BufferedImage)}. */
+    private Codec[] decoders;
+    /** The input buffers of the decoders. */
+    private Buffer[] decoderBuffers;
+
+    public QuickTimeReader(ImageInputStream in) throws IOException {
+        super(in);
+    }
+
+    public QuickTimeReader(File file) throws IOException {
+        super(file);
+    }
+
+    @Override
+    public Format getFileFormat() throws IOException {
+        return QUICKTIME;
+    }
+
+    @Override
+    public Format getFormat(int track) throws IOException {
+        ensureRealized();
+        return tracks.get(track).format;
+    }
+
+    @Override
+    public void read(int track, Buffer buffer) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        if (tr.readIndex >= tr.sampleCount) {
+            buffer.setFlagsTo(END_OF_MEDIA, DISCARD);
+            buffer.length = 0;
+            return;
+        }
+
+        long sample = tr.readIndex;
+        long count = tr.getChunkSampleCount(sample);
+        long offset = tr.getSampleOffset(sample);
+        long length = tr.getSampleSize(sample, count);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Chunk too large: " + length + " bytes at sample " + sample + " in track " + track);
+        }
+        in.seek(streamOffset + offset);
+        byte[] b;
+        if (buffer.data instanceof byte[]) {
+            b = (byte[]) buffer.data;
+            if (b.length < length) {
+                buffer.data = b = new byte[(int) length];
+            }
+        } else {
+            buffer.data = b = new byte[(int) length];
+        }
+        in.readFully(b, 0, (int) length);
+        buffer.offset = 0;
+        buffer.length = (int) length;
+        buffer.header = tr.colorTable;
+        buffer.sampleCount = (int) count;
+        buffer.format = tr.format;
+        buffer.track = track;
+        buffer.sampleDuration = new Rational(tr.getSampleDuration(sample), tr.mediaTimeScale);
+        buffer.timeStamp = getTime(tr, sample);
+        buffer.flags = tr.isSyncSample(sample) ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
+
+        tr.readIndex += count;
+    }
+
+    /** Reads the next frame of the specified video track and decodes it
+     * into an image.
+     * <p>
+     * The frames must be read in sequence starting at a sync sample,
+     * because most encodings only store the changes to the previous frame.
+     * Method {@link #setMovieReadTime} moves the read position of a track to a
+     * sync sample.
+     *
+     * @param track Track number.
+     * @param img An image which may be reused by the decoder, or null.
+     * @return The image, or null if the end of the track has been reached.
+     * @throws IOException if the track is not a video track or can not be
+     * decoded.
+     */
+    public BufferedImage read(int track, BufferedImage img) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        if (tr.mediaType != MediaType.VIDEO) {
+            throw new IOException("Track " + track + " is not a video track.");
+        }
+        if (decoders == null) {
+            decoders = new Codec[tracks.size()];
+            decoderBuffers = new Buffer[tracks.size()];
+        }
+        Codec codec = decoders[track];
+        if (codec == null) {
+            codec = Registry.getInstance().getDecoder(tr.format);
+            if (codec == null || codec.setInputFormat(tr.format) == null
+                    || codec.setOutputFormat(new Format(MediaTypeKey, MediaType.VIDEO,
+                    MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE,
+                    DataClassKey, BufferedImage.class).append(tr.format)) == null) {
+                throw new IOException("No decoder found for track " + track + ": " + tr.format);
+            }
+            decoders[track] = codec;
+            decoderBuffers[track] = new Buffer();
+        }
+
+        Buffer buf = decoderBuffers[track];
+        read(track, buf);
+        if (buf.isFlag(END_OF_MEDIA)) {
+            return null;
+        }
+        Buffer out = new Buffer();
+        out.data = img;
+        if (codec.process(buf, out) != Codec.CODEC_OK || out.isFlag(DISCARD)
+                || !(out.data instanceof BufferedImage)) {
+            throw new IOException("Failed to decode sample " + (tr.readIndex - 1) + " of track " + track + ".");
+        }
+        return (BufferedImage) out.data;
+    }
+
+    /** Returns the time of the specified sample in the movie. */
+    private Rational getTime(Track tr, long sample) {
+        return new Rational(tr.getSampleTime(sample), tr.mediaTimeScale).add(new Rational(tr.startTime, movieTimeScale));
+    }
+
+    @Override
+    public Rational getReadTime(int track) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        return getTime(tr, min(tr.readIndex, tr.sampleCount));
+    }
+
+    @Override
+    public int nextTrack() throws IOException {
+        ensureRealized();
+        Rational ts = null;
+        int nextTrack = -1;
+        for (int i = 0, n = tracks.size(); i < n; i++) {
+            Track tr = tracks.get(i);
+            if (tr.readIndex >= tr.sampleCount) {
+                continue;
+            }
+            Rational trts = getTime(tr, tr.readIndex);
+            if (ts == null || trts.compareTo(ts) < 0) {
+                ts = trts;
+                nextTrack = i;
+            }
+        }
+        return nextTrack;
+    }
+
+    @Override
+    public Rational getMovieDuration() {
+        try {
+            ensureRealized();
+        } catch (IOException ex) {
+            return new Rational(0, 1);
+        }
+        Rational maxDuration = new Rational(movieDuration, movieTimeScale);
+        for (Track tr : tracks) {
+            Rational trackDuration = getTime(tr, tr.sampleCount);
+            if (maxDuration.compareTo(trackDuration) < 0) {
+                maxDuration = trackDuration;
+            }
+        }
+        return maxDuration;
+    }
+
+    @Override
+    public long timeToSample(int track, Rational time) {
+        Track tr = tracks.get(track);
+        Rational mediaTime = time.subtract(new Rational(tr.startTime, movieTimeScale)).multiply(tr.mediaTimeScale);
+        if (mediaTime.isLessOrEqualZero()) {
+            return 0;
+        }
+        return max(0, min(tr.getSampleAtTime(mediaTime.longValue()), tr.sampleCount));
+    }
+
+    @Override
+    public Rational sampleToTime(int track, long sampleIndex) {
+        Track tr = tracks.get(track);
+        return getTime(tr, max(0, min(tr.sampleCount, sampleIndex)));
+    }
+
+    @Override
+    public void setMovieReadTime(Rational newValue) {
+        for (int t = 0, n = tracks.size(); t < n; t++) {
+            Track tr = tracks.get(t);
+            long sample = min(timeToSample(t, newValue), tr.sampleCount - 1);
+            tr.readIndex = max(0, tr.getSyncSampleBefore(sample));
+        }
+    }
+}
@@ -198,7 +198,7 @@ public class QuickTimeWriter extends QuickTimeOutputStream implements MovieWrite
     public int addTrack(Format fmt) throws IOException {
         if (fmt.get(MediaTypeKey) == MediaType.VIDEO) {
             return addVideoTrack(fmt.get(EncodingKey),
-                    fmt.get(CompressorNameKey),
+                    fmt.get(CompressorNameKey, getDefaultCompressorName(fmt.get(EncodingKey))),
                     fmt.get(FrameRateKey).getNumerator() * fmt.get(FrameRateKey).getDenominator(),
                     fmt.get(WidthKey), fmt.get(HeightKey), fmt.get(DepthKey),
                     (int) fmt.get(FrameRateKey).getDenominator());
@@ -235,6 +235,23 @@ public class QuickTimeWriter extends QuickTimeOutputStream implements MovieWrite
         }
     }
 
+    /** Returns the compressor name for a video encoding, which is used
+     * if the format of a track does not specify a compressor name. */
+    private static String getDefaultCompressorName(String encoding) {
+        if (ENCODING_QUICKTIME_ANIMATION.equals(encoding)) {
+            return COMPRESSOR_NAME_QUICKTIME_ANIMATION;
+        } else if (ENCODING_QUICKTIME_JPEG.equals(encoding)) {
+            return COMPRESSOR_NAME_QUICKTIME_JPEG;
+        } else if (ENCODING_QUICKTIME_PNG.equals(encoding)) {
+            return COMPRESSOR_NAME_QUICKTIME_PNG;
+        } else if (ENCODING_QUICKTIME_RAW.equals(encoding)) {
+            return COMPRESSOR_NAME_QUICKTIME_RAW;
+        } else if (ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE.equals(encoding)) {
+            return COMPRESSOR_NAME_AVI_TECHSMITH_SCREEN_CAPTURE;
+        }
+        return encoding;
+    }
+
     /** Adds a video track.
      *
      * @param format The QuickTime video format.
@@ -539,7 +556,7 @@ public class QuickTimeWriter extends QuickTimeOutputStream implements MovieWrite
             mdatOut.write((byte[]) vt.outputBuffer.data, vt.outputBuffer.offset, vt.outputBuffer.length);
 
             long length = getRelativeStreamPosition() - offset;
-            vt.addSample(new Sample(duration, offset, length), 1, isSync);
+            vt.addSample(duration, offset, length, 1, isSync);
         }
     }
 
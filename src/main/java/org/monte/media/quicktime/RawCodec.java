@@ -16,6 +16,10 @@ import org.monte.media.Format;
 import org.monte.media.io.SeekableByteArrayOutputStream;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -23,10 +27,12 @@ import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.BufferFlag.*;
 
 /**
- * {@code RawCodec} encodes a BufferedImage as a byte[] array.
+ * {@code RawCodec} encodes a BufferedImage as a byte[] array, and decodes
+ * a byte[] array into a BufferedImage.
  * <p>
  * This codec does not encode the color palette of an image. This must be done
- * separately.
+ * separately. When decoding 8-bit data, the palette is taken from the header
+ * of the input buffer, if it holds an {@code IndexColorModel}.
  * <p>
  * The pixels of a frame are written row by row from top to bottom and from
  * the left to the right.
@@ -51,8 +57,18 @@ public class RawCodec extends AbstractVideoCodec {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, 
                             EncodingKey, ENCODING_BUFFERED_IMAGE), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_RAW, DataClassKey, byte[].class, DepthKey, 8), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_RAW, DataClassKey, byte[].class, DepthKey, 16), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_RAW, DataClassKey, byte[].class, DepthKey, 24), //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_RAW, DataClassKey, byte[].class, DepthKey, 32), //
                 },
                 new Format[]{
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA, 
+                            EncodingKey, ENCODING_BUFFERED_IMAGE), //
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
                     EncodingKey, ENCODING_QUICKTIME_RAW, DataClassKey, byte[].class, DepthKey, 8), //
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
@@ -182,11 +198,88 @@ public class RawCodec extends AbstractVideoCodec {
 
     @Override
     public int process(Buffer in, Buffer out) {
+        if (outputFormat.get(EncodingKey).equals(ENCODING_BUFFERED_IMAGE)) {
+            return decode(in, out);
+        } else {
+            return encode(in, out);
+        }
+    }
+
+    public int decode(Buffer in, Buffer out) {
+        out.setMetaTo(in);
+        out.format = outputFormat;
+        if (in.isFlag(DISCARD)) {
+            return CODEC_OK;
+        }
+        int width = inputFormat.get(WidthKey);
+        int height = inputFormat.get(HeightKey);
+        int depth = inputFormat.get(DepthKey);
+        int n = width * height;
+        byte[] data = (byte[]) in.data;
+        int off = in.offset;
+
+        // Depth 32 is written with 24 bits per pixel by the encoder
+        if (depth == 32 && in.length < n * 4 && in.length >= n * 3) {
+            depth = 24;
+        }
+        if (data == null || in.length < n * ((depth + 7) / 8)) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        BufferedImage img = getCompatibleImage(out, width, height, inputFormat.get(DepthKey),
+                in.header instanceof IndexColorModel ? (IndexColorModel) in.header : null);
+        if (img == null) {
+            out.setFlag(DISCARD);
+            return CODEC_FAILED;
+        }
+        switch (depth) {
+            case 8: {
+                byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+                System.arraycopy(data, off, pixels, 0, n);
+                break;
+            }
+            case 16: {
+                short[] pixels = ((DataBufferUShort) img.getRaster().getDataBuffer()).getData();
+                for (int i = 0; i < n; i++, off += 2) {
+                    pixels[i] = (short) (((data[off] & 0xff) << 8) | (data[off + 1] & 0xff));
+                }
+                break;
+            }
+            case 24: {
+                int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+                int alpha = img.getColorModel().hasAlpha() ? 0xff000000 : 0;
+                for (int i = 0; i < n; i++, off += 3) {
+                    pixels[i] = alpha | ((data[off] & 0xff) << 16) | ((data[off + 1] & 0xff) << 8) | (data[off + 2] & 0xff);
+                }
+                break;
+            }
+            case 32: {
+                int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+                for (int i = 0; i < n; i++, off += 4) {
+                    pixels[i] = ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16) | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+                }
+                break;
+            }
+        }
+        out.data = img;
+        out.sampleCount = 1;
+        out.setFlag(KEYFRAME);
+        out.offset = 0;
+        out.length = 1;
+        return CODEC_OK;
+    }
+
+    public int encode(Buffer in, Buffer out) {
         out.setMetaTo(in);
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
         out.format = outputFormat;
+        if (in.isFlag(PREFETCH)) {
+            // Raw frames do not depend on each other, there is nothing to prefetch
+            out.setFlag(DISCARD);
+            return CODEC_OK;
+        }
 
         SeekableByteArrayOutputStream tmp;
         if (out.data instanceof byte[]) {
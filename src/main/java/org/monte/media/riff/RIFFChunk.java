@@ -10,6 +10,10 @@
  */
 package org.monte.media.riff;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.*;
 /**
  * RIFF Chunks form the building blocks of a RIFF file.
@@ -23,6 +27,12 @@ public class RIFFChunk {
     private long size;
     private long scan;
     private byte[] data;
+    /** The data, if it has been set as a view of a buffer. */
+    private ByteBuffer dataBuffer;
+    /** The channel of the data, if it has not been read yet. */
+    private FileChannel dataChannel;
+    /** The position of the data in the channel. */
+    private long dataPosition;
     private Hashtable<RIFFChunk,RIFFChunk> propertyChunks;
     private ArrayList<RIFFChunk> collectionChunks;
     /**
@@ -151,15 +161,86 @@ public class RIFFChunk {
      */
     public void setData(byte[] data) { 
         this.data = data; 
+        dataBuffer = null;
+        dataChannel = null;
     }
+    
+    /**
+     * Sets the data to the remaining bytes of a buffer.
+     * Note: The buffer will not be copied. The data is copied into an array
+     * only when {@link #getData} is called.
+     */
+    public void setData(ByteBuffer data) {
+        this.data = null;
+        dataBuffer = data.slice();
+        dataChannel = null;
+    }
+    
+    /**
+     * Sets the data to the {@code size} bytes at the specified position of
+     * a channel.
+     * Note: The data is read only when {@link #getData} or
+     * {@link #getDataBuffer} is called. The channel must not be closed
+     * before.
+     */
+    public void setData(FileChannel channel, long position) {
+        data = null;
+        dataBuffer = null;
+        dataChannel = channel;
+        dataPosition = position;
+    }
+    
     /**
      * Gets the data.
      * Note: The array will not be cloned.
+     * If the data has been set as a buffer or a channel, it is read into an
+     * array on the first call.
+     *
+     * @throws IllegalStateException if the data can not be read from the
+     * channel.
      */
     public byte[] getData() { 
+        if (data == null && dataBuffer != null) {
+            data = new byte[dataBuffer.remaining()];
+            dataBuffer.duplicate().get(data);
+        } else if (data == null && dataChannel != null) {
+            data = new byte[(int) size];
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining()
+                        && dataChannel.read(buf, dataPosition + buf.position()) != -1) {
+                }
+            } catch (IOException e) {
+                data = null;
+                throw new IllegalStateException("Could not read data of chunk " + this, e);
+            }
+        }
         return data; 
     }
     
+    /**
+     * Gets the data as a little endian buffer without copying it.
+     * If the data is in a channel, large data is mapped into memory.
+     * The position of the returned buffer can be changed freely.
+     *
+     * @return A buffer or null if the chunk has no data.
+     */
+    public ByteBuffer getDataBuffer() throws IOException { 
+        ByteBuffer buf;
+        if (data != null) {
+            buf = ByteBuffer.wrap(data);
+        } else if (dataBuffer != null) {
+            buf = dataBuffer.duplicate();
+        } else if (dataChannel != null && size >= 65536) {
+            buf = dataChannel.map(FileChannel.MapMode.READ_ONLY, dataPosition, size);
+        } else if (dataChannel != null) {
+            buf = ByteBuffer.wrap(getData());
+        } else {
+            return null;
+        }
+        return buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
     @Override
     public boolean equals(Object another) {
         if (another instanceof RIFFChunk) {
@@ -12,11 +12,15 @@ package org.monte.media.riff;
 
 import org.monte.media.AbortException;
 import org.monte.media.ParseException;
+import org.monte.media.io.ByteBufferInputStream;
+import org.monte.media.io.FileChannelInputStream;
 import org.monte.media.io.ImageInputStreamAdapter;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -207,6 +211,12 @@ public class RIFFParser extends Object {
     private RIFFPrimitivesInputStream in;
     /** Reference to the image input stream. */
     private ImageInputStream iin;
+    /** Reference to the buffer, if we parse a buffer. */
+    private ByteBuffer buffer;
+    /** Reference to the channel, if we parse a channel. */
+    private FileChannel channel;
+    /** Position of scan 0 in the buffer or in the channel. */
+    private long origin;
 
     /** Whether we stop at all chunks. */
     private boolean isStopChunks;
@@ -253,10 +263,59 @@ public class RIFFParser extends Object {
             throws ParseException, AbortException, IOException {
         this.in = new RIFFPrimitivesInputStream(in);
         visitor = v;
-        parseFile();
+        try {
+            parseFile();
+        } finally {
+            buffer = null;
+            channel = null;
+        }
         return this.in.getScan();
     }
 
+    /**
+     * Interprets the RIFFFile expression located at the current position of
+     * the indicated buffer, for example of a {@code MappedByteBuffer}.
+     * <p>
+     * The data of the chunks is not copied. Each chunk gets a view of its
+     * data in the buffer, which is only copied into an array when
+     * {@link RIFFChunk#getData} is called.
+     * The position of the buffer is not changed.
+     *
+     * @return The number of bytes parsed.
+     * @see #parse(InputStream, RIFFVisitor)
+     */
+    public long parse(ByteBuffer in, RIFFVisitor v)
+            throws ParseException, AbortException, IOException {
+        return parse(new ByteBufferInputStream(in), v, in, null, in.position());
+    }
+
+    /**
+     * Interprets the RIFFFile expression located at the specified position
+     * of the indicated channel.
+     * <p>
+     * Chunks which are not entered or visited are skipped without reading
+     * them. The data of a chunk is only read when {@link RIFFChunk#getData}
+     * or {@link RIFFChunk#getDataBuffer} is called, so the channel must be
+     * open as long as the visitor needs the data.
+     * The position of the channel is not changed, and scan positions
+     * are relative to the specified position.
+     *
+     * @return The number of bytes parsed.
+     * @see #parse(InputStream, RIFFVisitor)
+     */
+    public long parse(FileChannel in, long position, RIFFVisitor v)
+            throws ParseException, AbortException, IOException {
+        return parse(new FileChannelInputStream(in, position), v, null, in, position);
+    }
+
+    private long parse(InputStream in, RIFFVisitor v, ByteBuffer buffer, FileChannel channel, long origin)
+            throws ParseException, AbortException, IOException {
+        this.buffer = buffer;
+        this.channel = channel;
+        this.origin = origin;
+        return parse(in, v);
+    }
+
     public void parse(ImageInputStream in, RIFFVisitor v)
             throws ParseException, AbortException, IOException {
         parse(new ImageInputStreamAdapter(in), v);
@@ -413,22 +472,16 @@ public class RIFFParser extends Object {
         RIFFChunk chunk = new RIFFChunk(parent==null?0:parent.getType(), id, size, scan);
 
         if (isDataChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             visitor.visitChunk(parent, chunk);
         } else if (isPropertyChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             parent.putPropertyChunk(chunk);
         } else if (isCollectionChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             parent.addCollectionChunk(chunk);
         } else {
-            in.skipFully((int) size);
+            in.skipFully(size);
             if (isStopChunks) {
             visitor.visitChunk(parent, chunk);
             }
@@ -449,28 +502,45 @@ public class RIFFParser extends Object {
         RIFFChunk chunk = new RIFFChunk(parent.getType(), id, size, scan);
 
         if (isDataChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             visitor.visitChunk(parent, chunk);
         } else if (isPropertyChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             parent.putPropertyChunk(chunk);
         } else if (isCollectionChunk(chunk)) {
-            byte[] data = new byte[(int) size];
-            in.read(data, 0, (int) size);
-            chunk.setData(data);
+            readData(chunk);
             parent.addCollectionChunk(chunk);
         } else {
-            in.skipFully((int) size);
+            in.skipFully(size);
             if (isStopChunk(chunk)) {
                 visitor.visitChunk(parent, chunk);
             }
         }
     }
 
+    /**
+     * Reads the data of a chunk. If we parse a buffer or a channel, the data
+     * is skipped, and the chunk gets a reference to it.
+     */
+    private void readData(RIFFChunk chunk) throws IOException {
+        int size = (int) chunk.getSize();
+        if (buffer != null) {
+            ByteBuffer data = buffer.duplicate();
+            int pos = (int) (origin + in.getScan());
+            data.position(Math.min(pos, data.limit()));
+            data.limit(Math.min(pos + size, data.limit()));
+            chunk.setData(data);
+            in.skipFully(data.remaining());
+        } else if (channel != null) {
+            chunk.setData(channel, origin + in.getScan());
+            in.skipFully(size);
+        } else {
+            byte[] data = new byte[size];
+            in.read(data, 0, size);
+            chunk.setData(data);
+        }
+    }
+
     /**
      * Checks whether the ID of the chunk has been declared as a
      * data chunk.
@@ -253,10 +253,10 @@ public class RIFFPrimitivesInputStream extends FilterInputStream {
     throws IOException {
         if (n==0) return;
 
-        int total = 0;
-        int cur = 0;
+        long total = 0;
+        long cur = 0;
         
-        while ((total<n) && ((cur = (int) in.skip(n-total)) > 0)) {
+        while ((total<n) && ((cur = in.skip(n-total)) > 0)) {
             total += cur;
         }
         if (cur == 0) throw new EOFException();
@@ -15,6 +15,7 @@ import org.monte.media.ColorCyclePlayer;
 import org.monte.media.AbstractPlayer;
 import org.monte.media.gui.JMovieControlAqua;
 import org.monte.media.gui.ImagePanel;
+import org.monte.media.image.BitmapCheckpointCache;
 import org.monte.media.image.BitmapImage;
 import org.monte.media.*;
 import org.monte.media.io.BoundedRangeInputStream;
@@ -89,6 +90,8 @@ public class SEQPlayer
      * decoded in its even or odd bitmap buffer.
      */
     private int fetchedEven, fetchedOdd;
+    /** Snapshots of the bitmaps for seeking backwards. */
+    private final BitmapCheckpointCache checkpoints = new BitmapCheckpointCache();
     /**
      * Index of the frame currently being displayed.
      */
@@ -347,6 +350,17 @@ public class SEQPlayer
         return cachingControlModel;
     }
 
+    /**
+     * Returns the checkpoint cache, which holds snapshots of the bitmaps
+     * at periodic frames. Moving backwards restores the nearest checkpoint
+     * instead of decoding the animation from the first frame. The cache can
+     * be configured with its interval and its memory budget, and it
+     * provides statistics about the seek latency and the hit rate.
+     */
+    public BitmapCheckpointCache getCheckpointCache() {
+        return checkpoints;
+    }
+
     /**
      * Returns the image producer that produces
      * the animation frames.
@@ -821,11 +835,15 @@ public class SEQPlayer
             in.close();
         } catch (IOException e) {
         }
+        checkpoints.clear();
     }
 
     private void fetchFrame(int index) {
         SEQFrame frame = null;
         int fetched;
+        long start = System.nanoTime();
+        boolean isSeek = false;
+        int checkpoint = -1;
         int interleave = track.getInterleave();
         BitmapImage bitmap;
         if (interleave == 1 || (index & 1) == 0) {
@@ -841,10 +859,15 @@ public class SEQPlayer
                 frame.decode(bitmap, track);
                 return;
             } else {
-                if (fetched > index) {
+                isSeek = fetched != index - interleave;
+                checkpoint = checkpoints.restore(index, interleave, fetched, bitmap);
+                if (checkpoint != -1) {
+                    fetched = checkpoint;
+                } else if (fetched > index) {
                     frame = (SEQFrame) track.getFrame(0);
                     frame.decode(bitmap, track);
                     fetched = 0;
+                    checkpoints.put(fetched, interleave, bitmap);
                 }
             }
         } else {
@@ -860,18 +883,27 @@ public class SEQPlayer
                 frame.decode(bitmap, track);
                 return;
             } else {
-                if (fetched > index) {
+                isSeek = fetched != index - interleave;
+                checkpoint = checkpoints.restore(index, interleave, fetched, bitmap);
+                if (checkpoint != -1) {
+                    fetched = checkpoint;
+                } else if (fetched > index) {
                     frame = (SEQFrame) track.getFrame(0);
                     frame.decode(bitmap, track);
                     frame = (SEQFrame) track.getFrame(1);
                     frame.decode(bitmap, track);
                     fetched = 1;
+                    checkpoints.put(fetched, interleave, bitmap);
                 }
             }
         }
         for (int i = fetched + interleave; i <= index; i += interleave) {
             frame = (SEQFrame) track.getFrame(i);
             frame.decode(bitmap, track);
+            checkpoints.put(i, interleave, bitmap);
+        }
+        if (isSeek) {
+            checkpoints.addSeek(System.nanoTime() - start, checkpoint != -1);
         }
     }
 
@@ -10,6 +10,7 @@
  */
 package org.monte.media.seq;
 
+import org.monte.media.image.BitmapCheckpointCache;
 import org.monte.media.image.BitmapImage;
 import java.awt.image.IndexColorModel;
 import java.io.File;
@@ -31,7 +32,9 @@ public class SEQReader {
      * Index of the frame which has been delta
      * decoded in its even or odd bitmap buffer.
      */
-    private int fetchedEven = -1, fetchedOdd = -1;
+    private int fetchedEven = Integer.MAX_VALUE, fetchedOdd = Integer.MAX_VALUE;
+    /** Snapshots of the bitmaps for seeking backwards. */
+    private final BitmapCheckpointCache checkpoints = new BitmapCheckpointCache();
     /** Two bitmaps are needed for double buffering. */
     private BitmapImage bitmapEven, bitmapOdd;
     // ---- END Decoder variables ----
@@ -59,7 +62,7 @@ public class SEQReader {
     }
 
     public void close() throws IOException {
-        // nothing to do
+        checkpoints.clear();
     }
 
     public int getFrameCount() {
@@ -87,6 +90,17 @@ public class SEQReader {
 
     }
 
+    /**
+     * Returns the checkpoint cache, which holds snapshots of the bitmaps
+     * at periodic frames. Moving backwards restores the nearest checkpoint
+     * instead of decoding the animation from the first frame. The cache can
+     * be configured with its interval and its memory budget, and it
+     * provides statistics about the seek latency and the hit rate.
+     */
+    public BitmapCheckpointCache getCheckpointCache() {
+        return checkpoints;
+    }
+
     public int getJiffies() {
         return track.getJiffies();
     }
@@ -104,6 +118,9 @@ public class SEQReader {
 
         SEQFrame frame = null;
         int fetched;
+        long start = System.nanoTime();
+        boolean isSeek = false;
+        int checkpoint = -1;
         int interleave = track.getInterleave();
         BitmapImage bitmap;
         if (interleave == 1 || (index & 1) == 0) {
@@ -119,10 +136,15 @@ public class SEQReader {
                 frame.decode(bitmap, track);
                 return bitmap;
             } else {
-                if (fetched > index) {
+                isSeek = fetched != index - interleave;
+                checkpoint = checkpoints.restore(index, interleave, fetched, bitmap);
+                if (checkpoint != -1) {
+                    fetched = checkpoint;
+                } else if (fetched > index) {
                     frame = (SEQFrame) track.getFrame(0);
                     frame.decode(bitmap, track);
                     fetched = 0;
+                    checkpoints.put(fetched, interleave, bitmap);
                 }
             }
         } else {
@@ -138,18 +160,27 @@ public class SEQReader {
                 frame.decode(bitmap, track);
                 return bitmap;
             } else {
-                if (fetched > index) {
+                isSeek = fetched != index - interleave;
+                checkpoint = checkpoints.restore(index, interleave, fetched, bitmap);
+                if (checkpoint != -1) {
+                    fetched = checkpoint;
+                } else if (fetched > index) {
                     frame = (SEQFrame) track.getFrame(0);
                     frame.decode(bitmap, track);
                     frame = (SEQFrame) track.getFrame(1);
                     frame.decode(bitmap, track);
                     fetched = 1;
+                    checkpoints.put(fetched, interleave, bitmap);
                 }
             }
         }
         for (int i = fetched + interleave; i <= index; i += interleave) {
             frame = (SEQFrame) track.getFrame(i);
             frame.decode(bitmap, track);
+            checkpoints.put(i, interleave, bitmap);
+        }
+        if (isSeek) {
+            checkpoints.addSeek(System.nanoTime() - start, checkpoint != -1);
         }
         return bitmap;
     }
@@ -0,0 +1,109 @@
+/*
+ * @(#)ANIMSeekBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.monte.media.anim.ANIMOutputStream;
+import org.monte.media.anim.ANIMReader;
+import org.monte.media.image.BitmapCheckpointCache;
+import org.monte.media.image.BitmapImage;
+
+/**
+ * Measures random access into an ANIM file with and without checkpoints.
+ * <p>
+ * The benchmark writes an animation with small changes in each frame, and
+ * then reads frames in random order with {@code ANIMReader}. For each
+ * checkpoint interval, the average and the longest seek time, the hit rate
+ * and the memory used by the checkpoints are printed. The frames are checked
+ * against the frames which have been read in sequence.
+ * <p>
+ * Usage: {@code ANIMSeekBenchmarkMain [frames seeks]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ANIMSeekBenchmarkMain {
+
+    private final static int[] INTERVALS = {0, 120, 30, 10};
+
+    public static void main(String[] args) throws IOException {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int seekCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.println("ANIMSeekBenchmark 320x200x5, " + frameCount + " frames, " + seekCount + " seeks");
+        File file = File.createTempFile("ANIMSeekBenchmark", ".anim");
+        file.deleteOnExit();
+        try {
+            write(file, frameCount);
+
+            // Read the frames in sequence, and keep a hash code of each frame
+            ANIMReader in = new ANIMReader(file);
+            BitmapImage img = in.createCompatibleBitmap();
+            int[] hashes = new int[in.getFrameCount()];
+            for (int i = 0; i < hashes.length; i++) {
+                in.readFrame(i, img);
+                hashes[i] = Arrays.hashCode(img.getBitmap());
+            }
+            in.close();
+
+            for (int interval : INTERVALS) {
+                in = new ANIMReader(file);
+                BitmapCheckpointCache cache = in.getCheckpointCache();
+                cache.setInterval(interval);
+                // Fill the cache by playing the animation once, then seek
+                for (int i = 0; i < hashes.length; i++) {
+                    in.readFrame(i, img);
+                }
+                cache.resetStatistics();
+                Random r = new Random(0);
+                for (int i = 0; i < seekCount; i++) {
+                    int index = r.nextInt(hashes.length);
+                    in.readFrame(index, img);
+                    if (Arrays.hashCode(img.getBitmap()) != hashes[index]) {
+                        throw new IOException("Frame " + index + " differs with interval " + interval);
+                    }
+                }
+                System.out.printf("interval %4d %8.3f ms/seek %8.3f ms max %6.1f %% hits %8.1f KB%n", interval,
+                        cache.getAverageSeekNanos() / 1e6, cache.getMaxSeekNanos() / 1e6,
+                        cache.getHitRate() * 100f, cache.getMemoryUsage() / 1024.0);
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Writes an animation in which some pixels change in each frame. */
+    private static void write(File file, int frameCount) throws IOException {
+        byte[] r = new byte[32], g = new byte[32], b = new byte[32];
+        Random rnd = new Random(1);
+        rnd.nextBytes(r);
+        rnd.nextBytes(g);
+        rnd.nextBytes(b);
+        BitmapImage img = new BitmapImage(320, 200, 5, new IndexColorModel(5, 32, r, g, b));
+        ANIMOutputStream out = new ANIMOutputStream(file);
+        try {
+            byte[] bitmap = img.getBitmap();
+            for (int i = 0; i < frameCount; i++) {
+                for (int k = 0; k < 200; k++) {
+                    bitmap[rnd.nextInt(bitmap.length)] = (byte) rnd.nextInt();
+                }
+                out.writeFrame(img, 2);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
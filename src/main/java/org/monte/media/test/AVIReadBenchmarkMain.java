@@ -0,0 +1,146 @@
+/*
+ * @(#)AVIReadBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import javax.imageio.stream.FileImageInputStream;
+import org.monte.media.Buffer;
+import org.monte.media.BufferFlag;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.avi.AVIReader;
+
+/**
+ * Measures the throughput of reading and copying the samples of an AVI file
+ * with {@link AVIReader}.
+ * <p>
+ * The benchmark writes a synthetic AVI file with a video track, and then
+ * reads all samples
+ * <ul>
+ * <li>through an {@code ImageInputStream},</li>
+ * <li>with positional reads from the file channel into a byte array,</li>
+ * <li>with positional reads into a direct {@code ByteBuffer},</li>
+ * <li>from the memory mapped movi region.</li>
+ * </ul>
+ * Finally it copies all samples into another AVI file, once by reading and
+ * writing them, and once with {@link AVIReader#transferTo}.
+ * <p>
+ * Usage: {@code AVIReadBenchmarkMain [samples sampleSize]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class AVIReadBenchmarkMain {
+
+    public static void main(String[] args) throws IOException {
+        int sampleCount = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int sampleSize = args.length > 1 ? Integer.parseInt(args[1]) : 16384;
+
+        File file = File.createTempFile("AVIReadBenchmark", ".avi");
+        File copy = File.createTempFile("AVIReadBenchmark", ".avi");
+        file.deleteOnExit();
+        copy.deleteOnExit();
+        try {
+            System.out.println("AVIReadBenchmark " + sampleCount + " samples of " + sampleSize + " bytes");
+            write(file, sampleCount, sampleSize);
+            long size = file.length();
+
+            for (int i = 0; i < 3; i++) {
+                report("stream", size, read(new AVIReader(new FileImageInputStream(file)), null));
+                report("channel", size, read(new AVIReader(file), null));
+                report("direct", size, read(new AVIReader(file), ByteBuffer.allocateDirect(sampleSize)));
+                AVIReader in = new AVIReader(file);
+                in.setMemoryMapped(true);
+                report("mapped", size, read(in, null));
+                report("copy", size, copy(file, copy, false));
+                report("transferTo", size, copy(file, copy, true));
+                System.out.println();
+            }
+        } finally {
+            file.delete();
+            copy.delete();
+        }
+    }
+
+    private static void write(File file, int sampleCount, int sampleSize) throws IOException {
+        AVIOutputStream out = new AVIOutputStream(file);
+        try {
+            int track = out.addVideoTrack("MJPG", 1, 30, 320, 240, 24, 30);
+            byte[] data = new byte[sampleSize];
+            new Random(0).nextBytes(data);
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeSample(track, data, 0, data.length, true);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Reads all samples and returns the elapsed time in nanoseconds. */
+    private static long read(AVIReader in, ByteBuffer data) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Buffer buf = new Buffer();
+            buf.data = data;
+            long checksum = 0;
+            for (;;) {
+                in.read(0, buf);
+                if (buf.isFlag(BufferFlag.END_OF_MEDIA)) {
+                    break;
+                }
+                checksum += buf.length;
+            }
+            if (checksum == 0) {
+                throw new IOException("No samples read");
+            }
+        } finally {
+            in.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Copies all samples and returns the elapsed time in nanoseconds. */
+    private static long copy(File src, File dst, boolean transfer) throws IOException {
+        long start = System.nanoTime();
+        AVIReader in = new AVIReader(src);
+        try {
+            AVIOutputStream out = new AVIOutputStream(dst);
+            try {
+                int track = out.addVideoTrack("MJPG", 1, 30, 320, 240, 24, 30);
+                Buffer buf = new Buffer();
+                for (;;) {
+                    if (transfer) {
+                        if (!in.transferTo(0, out, track)) {
+                            break;
+                        }
+                    } else {
+                        in.read(0, buf);
+                        if (buf.isFlag(BufferFlag.END_OF_MEDIA)) {
+                            break;
+                        }
+                        out.writeSample(track, (byte[]) buf.data, buf.offset, buf.length, buf.isFlag(BufferFlag.KEYFRAME));
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long size, long elapsed) {
+        System.out.printf("%-10s %8.1f ms %8.1f MB/s%n", name, elapsed / 1e6, size / (1024.0 * 1024.0) / (elapsed / 1e9));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * @(#)AVISeekBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.math.Rational;
+
+/**
+ * Measures the seek latency of {@link AVIReader} on a synthetic AVI file.
+ * <p>
+ * The file contains a video track with a keyframe every 30 frames, and an
+ * audio track with chunks of varying length. Both tracks have the same
+ * number of sample chunks. The benchmark prints the time needed for reading
+ * the index, and the average time of {@code timeToSample},
+ * {@code getKeyframeBefore} and {@code setMovieReadTime} for random seek
+ * positions. The results of {@code timeToSample} are verified against
+ * {@code sampleToTime}.
+ * <p>
+ * Usage: {@code AVISeekBenchmarkMain [samples seeks]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class AVISeekBenchmarkMain {
+
+    public static void main(String[] args) throws IOException {
+        int sampleCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int seekCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        File file = File.createTempFile("AVISeekBenchmark", ".avi");
+        file.deleteOnExit();
+        try {
+            System.out.println("AVISeekBenchmark " + sampleCount + " samples per track, " + seekCount + " seeks");
+            long start = System.nanoTime();
+            write(file, sampleCount);
+            System.out.printf("write    %8.1f ms  %,d bytes%n", (System.nanoTime() - start) / 1e6, file.length());
+
+            start = System.nanoTime();
+            AVIReader in = new AVIReader(file);
+            try {
+                in.getChunkCount(0); // reads the index
+                System.out.printf("index    %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+                Rational duration = in.getMovieDuration();
+                for (int track = 0; track < in.getTrackCount(); track++) {
+                    seek(in, track, duration, seekCount);
+                }
+
+                Random r = new Random(0);
+                start = System.nanoTime();
+                for (int i = 0; i < seekCount; i++) {
+                    in.setMovieReadTime(randomTime(r, duration));
+                }
+                System.out.printf("setMovieReadTime          %8.1f ns/seek%n", (System.nanoTime() - start) / (double) seekCount);
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Writes a video track and an audio track with the specified number of
+     * sample chunks. */
+    private static void write(File file, int sampleCount) throws IOException {
+        AVIOutputStream out = new AVIOutputStream(file);
+        try {
+            int vt = out.addVideoTrack("DIB ", 1, 30, 4, 4, 8, 30);
+            int at = out.addAudioTrack(0x0001, 1, 8000, 1, 8, false, 1, 1);
+            byte[] data = new byte[64];
+            Random r = new Random(0);
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeSample(vt, data, 0, 16, i % 30 == 0);
+                // Between 1 and 64 audio frames per chunk
+                int frames = 1 + r.nextInt(64);
+                out.writeSamples(at, frames, data, 0, frames, true);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Measures random seeks in the specified track. */
+    private static void seek(AVIReader in, int track, Rational duration, int seekCount) throws IOException {
+        Random r = new Random(track);
+        Rational[] times = new Rational[seekCount];
+        for (int i = 0; i < seekCount; i++) {
+            times[i] = randomTime(r, duration);
+        }
+        long[] samples = new long[seekCount];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < seekCount; i++) {
+            samples[i] = in.timeToSample(track, times[i]);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("track %d timeToSample      %8.1f ns/seek%n", track, elapsed / (double) seekCount);
+
+        start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < seekCount; i++) {
+            checksum += in.getKeyframeBefore(track, samples[i]);
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("track %d getKeyframeBefore %8.1f ns/seek  (checksum %d)%n", track, elapsed / (double) seekCount, checksum);
+
+        long chunkCount = in.getChunkCount(track);
+        for (int i = 0; i < seekCount; i++) {
+            long s = samples[i];
+            if (s < chunkCount && (in.sampleToTime(track, s).compareTo(times[i]) > 0
+                    || in.sampleToTime(track, s + 1).compareTo(times[i]) <= 0)) {
+                throw new IOException("Wrong sample " + s + " for time " + times[i] + " in track " + track);
+            }
+        }
+    }
+
+    /** Returns a random time in milliseconds between 0 and the duration. */
+    private static Rational randomTime(Random r, Rational duration) {
+        return new Rational((long) (r.nextDouble() * duration.doubleValue() * 1000), 1000);
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * @(#)CodecBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Random;
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.MovieWriter;
+import org.monte.media.Registry;
+import org.monte.media.avi.AVIWriter;
+import org.monte.media.color.Colors;
+import org.monte.media.math.Rational;
+import org.monte.media.quicktime.QuickTimeWriter;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.VideoFormatKeys.*;
+import static org.monte.media.BufferFlag.*;
+
+/**
+ * Measures the throughput and the allocation rate of the codecs in the
+ * {@link Registry}, and the sample write throughput of {@link AVIWriter} and
+ * {@link QuickTimeWriter}.
+ * <p>
+ * Each video codec is used for encoding frames at 8, 16 and 24 bits per pixel,
+ * and for decoding the encoded frames again if the registry has a decoder for
+ * the encoding. Two kinds of synthetic content are encoded:
+ * <ul>
+ * <li>{@code screen}: a desktop with windows and text, on which text is typed
+ * and a cursor moves,</li>
+ * <li>{@code photo}: a smooth image with noise, which pans by two pixels in
+ * each frame, so that every pixel changes.</li>
+ * </ul>
+ * The PCM audio codecs are used for converting 8, 16 and 24 bit audio between the
+ * Java encodings and the AVI and QuickTime encodings.
+ * <p>
+ * For each codec, the number of frames per second, the throughput in
+ * megabytes of decoded data per second, the size of the encoded frames, and
+ * the number of bytes allocated per frame are printed. Combinations which the
+ * codec does not support are listed as unsupported. The allocation is
+ * measured with {@code com.sun.management.ThreadMXBean}; on VMs without it,
+ * no allocation is printed.
+ * <p>
+ * Finally, the encoded screen and photo frames and a PCM audio track are
+ * written into AVI and QuickTime files, to measure the overhead of the
+ * writers.
+ * <p>
+ * Usage: {@code CodecBenchmarkMain [width height frames [encoding ...]]}.
+ * If encodings are specified, only the codecs for these encodings are
+ * measured, for example {@code tscc MJPG}.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class CodecBenchmarkMain {
+
+    /** The MIME types and encodings of the video codecs. */
+    private final static String[][] VIDEO_ENCODINGS = {
+        {MIME_AVI, ENCODING_AVI_DIB},
+        {MIME_AVI, ENCODING_AVI_RLE},
+        {MIME_AVI, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE},
+        {MIME_AVI, ENCODING_AVI_DOSBOX_SCREEN_CAPTURE},
+        {MIME_AVI, ENCODING_AVI_MJPG},
+        {MIME_AVI, ENCODING_AVI_PNG},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_RAW},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_ANIMATION},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_JPEG},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_PNG},};
+    /** The MIME types and encodings of the audio codecs. The AVI encoding
+     * has no name, it is listed as {@code pcm}. */
+    private final static String[][] AUDIO_ENCODINGS = {
+        {MIME_AVI, ENCODING_AVI_PCM},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_TWOS_PCM},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_SOWT_PCM},
+        {MIME_QUICKTIME, ENCODING_QUICKTIME_RAW_PCM},};
+    private final static int[] DEPTHS = {8, 16, 24};
+    private final static int[] SAMPLE_SIZES = {8, 16, 24};
+    private final static String[] CONTENTS = {"screen", "photo"};
+    private final static Rational FRAME_RATE = new Rational(30, 1);
+    private final static Rational SAMPLE_RATE = new Rational(44100, 1);
+    /** Getter for the number of bytes allocated by a thread, or null. */
+    private final static Method allocatedBytesGetter;
+    private final static Object threadBean;
+
+    static {
+        Method getter = null;
+        Object bean = null;
+        try {
+            bean = ManagementFactory.getThreadMXBean();
+            getter = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            getter.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            getter = null;
+        }
+        allocatedBytesGetter = getter;
+        threadBean = bean;
+    }
+    private final int width;
+    private final int height;
+    private final int frameCount;
+    private final Registry registry = Registry.getInstance();
+    /** Encoded frames, which are written into the movie files. */
+    private ArrayList<Buffer> screenSamples;
+    private ArrayList<Buffer> photoSamples;
+    /** The number of frames, the time in nanoseconds, the size of the
+     * encoded data and the number of allocated bytes of the last run. */
+    private long count;
+    private long elapsed;
+    private long size;
+    private long allocated;
+
+    public CodecBenchmarkMain(int width, int height, int frameCount) {
+        this.width = width;
+        this.height = height;
+        this.frameCount = frameCount;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 640;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 480;
+        int frameCount = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        ArrayList<String> encodings = new ArrayList<String>();
+        for (int i = 3; i < args.length; i++) {
+            encodings.add(args[i]);
+        }
+
+        System.out.println("CodecBenchmark " + width + "x" + height + ", " + frameCount + " frames"
+                + (allocatedBytesGetter == null ? ", allocation is not measured" : ""));
+        CodecBenchmarkMain b = new CodecBenchmarkMain(width, height, frameCount);
+        for (String[] enc : VIDEO_ENCODINGS) {
+            if (encodings.isEmpty() || encodings.contains(enc[1].trim())) {
+                for (int depth : DEPTHS) {
+                    for (String content : CONTENTS) {
+                        b.video(enc[0], enc[1], depth, content);
+                    }
+                }
+            }
+        }
+        for (String[] enc : AUDIO_ENCODINGS) {
+            if (encodings.isEmpty() || encodings.contains(audioName(enc[1]))) {
+                for (int sampleSize : SAMPLE_SIZES) {
+                    b.audio(enc[0], enc[1], sampleSize);
+                }
+            }
+        }
+        if (b.screenSamples != null && b.photoSamples != null) {
+            b.writers();
+        }
+    }
+
+    /** Encodes and decodes video frames. */
+    private void video(String mimeType, String encoding, int depth, String content) {
+        String name = mimeType.substring(mimeType.lastIndexOf('/') + 1) + " " + encoding.trim() + " " + depth;
+        Format javaFormat = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_BUFFERED_IMAGE, DataClassKey, BufferedImage.class,
+                WidthKey, width, HeightKey, height, DepthKey, depth, FrameRateKey, FRAME_RATE);
+        Format encodedFormat = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, mimeType,
+                EncodingKey, encoding, DataClassKey, byte[].class,
+                WidthKey, width, HeightKey, height, DepthKey, depth, FrameRateKey, FRAME_RATE,
+                KeyFrameIntervalKey, 30);
+        Codec encoder = createCodec(javaFormat, encodedFormat);
+        if (encoder == null) {
+            fail(name, content, "encode", "unsupported");
+            return;
+        }
+        ArrayList<Buffer> samples = new ArrayList<Buffer>();
+        try {
+            // Warm up the encoder, then measure
+            encode(encoder, depth, content, null);
+            encoder.reset();
+            encode(encoder, depth, content, samples);
+            report(name, content, "encode", width * height * ((depth + 7) / 8));
+        } catch (RuntimeException e) {
+            fail(name, content, "encode", "failed: " + e);
+            } catch (LinkageError e) {
+            fail(name, content, "encode", "failed: " + e);
+            return;
+        }
+        if (depth == 24 && content.equals("screen") && encoding.equals(ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE)) {
+            screenSamples = samples;
+        } else if (depth == 24 && content.equals("photo") && encoding.equals(ENCODING_AVI_MJPG)) {
+            photoSamples = samples;
+        }
+
+        Codec decoder = createCodec(encoder.getOutputFormat(), javaFormat);
+        if (decoder == null) {
+            fail(name, content, "decode", "unsupported");
+            return;
+        }
+        try {
+            decode(decoder, samples);
+            decoder.reset();
+            decode(decoder, samples);
+            report(name, content, "decode", width * height * ((depth + 7) / 8));
+        } catch (RuntimeException e) {
+            fail(name, content, "decode", "failed: " + e);
+            } catch (LinkageError e) {
+            fail(name, content, "decode", "failed: " + e);
+        }
+    }
+
+    /** Encodes the frames. If samples is not null, the encoded frames are
+     * added to it. */
+    private void encode(Codec codec, int depth, String content, ArrayList<Buffer> samples) {
+        Frames frames = new Frames(width, height, depth, content.equals("photo"));
+        Buffer in = new Buffer();
+        in.format = codec.getInputFormat();
+        in.data = frames.image;
+        in.sampleDuration = FRAME_RATE.inverse();
+        Buffer out = new Buffer();
+        start();
+        for (int frame = 0; frame < frameCount; frame++) {
+            pause();
+            frames.render(frame);
+            resume();
+            process(codec, in, out);
+            if (samples != null) {
+                pause();
+                samples.add(copyOf(out));
+                resume();
+            }
+        }
+        stop(frameCount);
+        frames.dispose();
+    }
+
+    /** Decodes the samples. */
+    private void decode(Codec codec, ArrayList<Buffer> samples) {
+        Buffer out = new Buffer();
+        start();
+        for (Buffer in : samples) {
+            process(codec, in, out);
+        }
+        stop(samples.size());
+        for (Buffer in : samples) {
+            size += in.length;
+        }
+    }
+
+    /** Converts audio data between the Java encoding and the specified
+     * encoding, in samples of a thirtieth of a second. */
+    private void audio(String mimeType, String encoding, int sampleSize) {
+        String name = mimeType.substring(mimeType.lastIndexOf('/') + 1) + " " + audioName(encoding) + " " + sampleSize;
+        int channels = 2;
+        int frameSize = sampleSize / 8 * channels;
+        Format javaFormat = new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_PCM_SIGNED, DataClassKey, byte[].class,
+                SampleRateKey, SAMPLE_RATE, FrameRateKey, SAMPLE_RATE, ChannelsKey, channels,
+                SampleSizeInBitsKey, sampleSize, FrameSizeKey, frameSize,
+                SignedKey, true, ByteOrderKey, ByteOrder.BIG_ENDIAN);
+        Format encodedFormat = new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, mimeType,
+                EncodingKey, encoding, DataClassKey, byte[].class,
+                SampleRateKey, SAMPLE_RATE, FrameRateKey, SAMPLE_RATE, ChannelsKey, channels,
+                SampleSizeInBitsKey, sampleSize, FrameSizeKey, frameSize);
+
+        int samplesPerFrame = SAMPLE_RATE.divide(FRAME_RATE).intValue();
+        byte[] pcm = new byte[samplesPerFrame * frameSize * 30];
+        new Random(0).nextBytes(pcm);
+        ArrayList<Buffer> samples = new ArrayList<Buffer>();
+        for (int i = 0; i < pcm.length; i += samplesPerFrame * frameSize) {
+            Buffer b = new Buffer();
+            b.data = pcm;
+            b.offset = i;
+            b.length = samplesPerFrame * frameSize;
+            b.sampleCount = samplesPerFrame;
+            b.sampleDuration = SAMPLE_RATE.inverse();
+            b.setFlag(KEYFRAME);
+            samples.add(b);
+        }
+
+        for (int i = 0; i < 2; i++) {
+            boolean isEncode = i == 0;
+            String direction = isEncode ? "encode" : "decode";
+            Codec codec = isEncode ? createCodec(javaFormat, encodedFormat) : createCodec(encodedFormat, javaFormat);
+            if (codec == null) {
+                fail(name, "noise", direction, "unsupported");
+                continue;
+            }
+            for (Buffer b : samples) {
+                b.format = codec.getInputFormat();
+            }
+            try {
+                // Warm up the codec, then measure
+                for (int j = 0; j < 10; j++) {
+                    decode(codec, samples);
+                }
+                decode(codec, samples);
+                report(name, "noise", direction, samplesPerFrame * frameSize);
+            } catch (RuntimeException e) {
+                fail(name, "noise", direction, "failed: " + e);
+                } catch (LinkageError e) {
+                fail(name, "noise", direction, "failed: " + e);
+            }
+        }
+    }
+
+    private static String audioName(String encoding) {
+        return encoding.trim().length() == 0 ? "pcm" : encoding.trim();
+    }
+
+    /** Writes the encoded frames and an audio track into movie files. */
+    private void writers() throws IOException {
+        int samplesPerFrame = SAMPLE_RATE.divide(FRAME_RATE).intValue();
+        Buffer audio = new Buffer();
+        audio.data = new byte[samplesPerFrame * 4];
+        audio.length = samplesPerFrame * 4;
+        audio.sampleCount = samplesPerFrame;
+        audio.sampleDuration = SAMPLE_RATE.inverse();
+        audio.setFlag(KEYFRAME);
+        for (int i = 0; i < 2; i++) {
+            boolean isAVI = i == 0;
+            for (String content : CONTENTS) {
+                ArrayList<Buffer> samples = content.equals("photo") ? photoSamples : screenSamples;
+                String encoding = isAVI ? samples.get(0).format.get(EncodingKey)
+                        : content.equals("photo") ? ENCODING_QUICKTIME_JPEG : ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+                Format videoFormat = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, isAVI ? MIME_AVI : MIME_QUICKTIME,
+                        EncodingKey, encoding, DataClassKey, byte[].class,
+                        WidthKey, width, HeightKey, height, DepthKey, 24, FrameRateKey, FRAME_RATE);
+                Format audioFormat = new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, isAVI ? MIME_AVI : MIME_QUICKTIME,
+                        EncodingKey, isAVI ? ENCODING_AVI_PCM : ENCODING_QUICKTIME_TWOS_PCM, DataClassKey, byte[].class,
+                        SampleRateKey, SAMPLE_RATE, FrameRateKey, SAMPLE_RATE, ChannelsKey, 2,
+                        SampleSizeInBitsKey, 16, FrameSizeKey, 4, SignedKey, true,
+                        ByteOrderKey, isAVI ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                File file = File.createTempFile("CodecBenchmark", isAVI ? ".avi" : ".mov");
+                file.deleteOnExit();
+                try {
+                    // Warm up the writer, then measure
+                    write(file, isAVI, videoFormat, audioFormat, samples, audio);
+                    write(file, isAVI, videoFormat, audioFormat, samples, audio);
+                    report(isAVI ? "AVIWriter" : "QuickTimeWriter", content, "write", 0);
+                } finally {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Writes the samples repeatedly, until 1000 video frames have been
+     * written, with an audio sample after each video frame. */
+    private void write(File file, boolean isAVI, Format videoFormat, Format audioFormat,
+            ArrayList<Buffer> samples, Buffer audio) throws IOException {
+        MovieWriter out = isAVI ? new AVIWriter(file) : new QuickTimeWriter(file);
+        try {
+            int videoTrack = out.addTrack(videoFormat);
+            int audioTrack = out.addTrack(audioFormat);
+            audio.format = out.getFormat(audioTrack);
+            for (Buffer b : samples) {
+                b.format = out.getFormat(videoTrack);
+            }
+            int n = 1000;
+            start();
+            for (int i = 0; i < n; i++) {
+                out.write(videoTrack, samples.get(i % samples.size()));
+                out.write(audioTrack, audio);
+            }
+            out.close();
+            stop(n);
+        } finally {
+            out.close();
+        }
+        size = file.length();
+    }
+
+    /** Returns the first codec of the registry which accepts the input format
+     * and the output format, or null. */
+    private Codec createCodec(Format inputFormat, Format outputFormat) {
+        for (Codec c : registry.getCodecs(inputFormat, outputFormat)) {
+            if (c.setInputFormat(inputFormat) != null && c.setOutputFormat(outputFormat) != null) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private static void process(Codec codec, Buffer in, Buffer out) {
+        int status = codec.process(in, out);
+        if (status != Codec.CODEC_OK || out.isFlag(DISCARD)) {
+            throw new IllegalStateException(codec.getName() + " failed with status " + status);
+        }
+    }
+
+    /** Returns a copy of the buffer, with a copy of the sample data. */
+    private Buffer copyOf(Buffer out) {
+        Buffer b = new Buffer();
+        b.setMetaTo(out);
+        b.data = new byte[out.length];
+        System.arraycopy((byte[]) out.data, out.offset, (byte[]) b.data, 0, out.length);
+        b.offset = 0;
+        b.length = out.length;
+        size += out.length;
+        return b;
+    }
+
+    // Measurement
+    // -----------
+    private long startTime;
+    private long startAllocated;
+
+    private void start() {
+        count = 0;
+        elapsed = 0;
+        size = 0;
+        allocated = 0;
+        resume();
+    }
+
+    private void pause() {
+        elapsed += System.nanoTime() - startTime;
+        allocated += allocatedBytes() - startAllocated;
+    }
+
+    private void resume() {
+        startAllocated = allocatedBytes();
+        startTime = System.nanoTime();
+    }
+
+    private void stop(long count) {
+        pause();
+        this.count = count;
+    }
+
+    /** Returns the number of bytes allocated by the current thread, or 0
+     * if this can not be measured. */
+    private static long allocatedBytes() {
+        if (allocatedBytesGetter == null) {
+            return 0;
+        }
+        try {
+            return (Long) allocatedBytesGetter.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /** Prints the result of the last run.
+     *
+     * @param bytesPerFrame The size of a decoded frame, or 0 if the throughput
+     * is computed from the size of the encoded data.
+     */
+    private void report(String name, String content, String operation, int bytesPerFrame) {
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-18s %-6s %-6s %9.1f frames/s %8.1f MB/s %11.1f bytes/frame %11.1f alloc/frame%n",
+                name, content, operation, count / seconds,
+                (bytesPerFrame == 0 ? size : bytesPerFrame * (double) count) / (1024 * 1024) / seconds,
+                size / (double) count, allocated / (double) count);
+    }
+
+    private static void fail(String name, String content, String operation, String reason) {
+        System.out.printf("%-18s %-6s %-6s %s%n", name, content, operation, reason);
+    }
+
+    /** Renders synthetic content. */
+    private static class Frames {
+
+        private final BufferedImage image;
+        private final Graphics2D g;
+        private final int width;
+        private final int height;
+        private final boolean isPhoto;
+        private BufferedImage photo;
+        private BufferedImage desktop;
+
+        Frames(int width, int height, int depth, boolean isPhoto) {
+            this.width = width;
+            this.height = height;
+            this.isPhoto = isPhoto;
+            switch (depth) {
+                case 8:
+                    image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, Colors.createMacColors());
+                    break;
+                case 16:
+                    image = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_555_RGB);
+                    break;
+                default:
+                    image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                    break;
+            }
+            g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+            if (isPhoto) {
+                createPhoto();
+            } else {
+                createDesktop();
+            }
+        }
+
+        /** Creates a smooth image with noise, which is wider than the
+         * frames, so that it can be panned. */
+        private void createPhoto() {
+            int w = width * 2, h = height;
+            photo = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            int[] rgb = new int[w];
+            Random r = new Random(0);
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    double v = Math.sin(x * 0.013) * Math.cos(y * 0.021) + Math.sin((x + y) * 0.007);
+                    int red = clamp(128 + (int) (v * 60) + r.nextInt(16));
+                    int green = clamp(100 + (int) (Math.cos(x * 0.009 - y * 0.017) * 70) + r.nextInt(16));
+                    int blue = clamp(90 + (int) (v * 40) + y * 60 / h + r.nextInt(16));
+                    rgb[x] = (red << 16) | (green << 8) | blue;
+                }
+                photo.setRGB(0, y, w, 1, rgb, 0, w);
+            }
+        }
+
+        private static int clamp(int v) {
+            return v < 0 ? 0 : v > 255 ? 255 : v;
+        }
+
+        /** Creates a desktop with windows and lines of text. */
+        private void createDesktop() {
+            desktop = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D dg = desktop.createGraphics();
+            dg.setColor(new Color(0x406080));
+            dg.fillRect(0, 0, width, height);
+            dg.setFont(new Font("Dialog", Font.PLAIN, 12));
+            Random r = new Random(0);
+            for (int i = 0; i < 6; i++) {
+                int w = width / 4 + r.nextInt(width / 2), h = height / 4 + r.nextInt(height / 2);
+                int x = r.nextInt(width - w), y = r.nextInt(height - h);
+                dg.setColor(Color.LIGHT_GRAY);
+                dg.fillRect(x, y, w, 18);
+                dg.setColor(Color.WHITE);
+                dg.fillRect(x, y + 18, w, h - 18);
+                dg.setColor(Color.DARK_GRAY);
+                dg.drawRect(x, y, w - 1, h - 1);
+                dg.setColor(Color.BLACK);
+                for (int ty = y + 34; ty < y + h; ty += 14) {
+                    dg.drawString("The quick brown fox jumps over the lazy dog " + r.nextInt(), x + 4, ty);
+                }
+            }
+            dg.dispose();
+        }
+
+        /** Renders the specified frame into the image. */
+        void render(int frame) {
+            if (isPhoto) {
+                g.drawImage(photo, -(frame * 2) % width, 0, null);
+            } else {
+                g.drawImage(desktop, 0, 0, null);
+                // Typed text and a moving cursor
+                g.setColor(Color.BLACK);
+                g.drawString("Typing: " + "abcdefghijklmnopqrstuvwxyz0123456789".substring(0, frame % 36),
+                        8, height - 8);
+                int cx = (frame * 7) % (width - 16), cy = (frame * 3) % (height - 16);
+                g.setColor(Color.WHITE);
+                g.fillPolygon(new int[]{cx, cx + 12, cx}, new int[]{cy, cy + 12, cy + 16}, 3);
+            }
+        }
+
+        void dispose() {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * @(#)DeltaEncoderBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.monte.media.avi.TechSmithCodecCore;
+import org.monte.media.io.ByteArrayImageOutputStream;
+import org.monte.media.quicktime.AnimationCodec;
+
+/**
+ * Measures the delta frame encoders of the TechSmith Screen Capture codec and
+ * of the QuickTime Animation codec.
+ * <p>
+ * The encoders are called directly with the pixel arrays, so that the time
+ * for comparing the frames with their predecessors is not hidden by the
+ * conversion of images. Two kinds of content are encoded:
+ * <ul>
+ * <li>{@code cursor}: a static screen on which only a mouse cursor
+ * moves,</li>
+ * <li>{@code motion}: a screen which scrolls by one line in each frame, so
+ * that every line changes.</li>
+ * </ul>
+ * For each encoder and kind of content, the number of milliseconds spent in
+ * the encoder per frame and the number of bytes per frame are printed.
+ * <p>
+ * Usage: {@code DeltaEncoderBenchmarkMain [width height frames]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class DeltaEncoderBenchmarkMain {
+
+    private final static String[] ENCODERS = {"tscc 8", "tscc 16", "tscc 24", "rle 16", "rle 24", "rle 32"};
+    private final int width;
+    private final int height;
+    private final int frameCount;
+    private final TechSmithCodecCore techSmith = new TechSmithCodecCore();
+    private final AnimationCodec animation = new AnimationCodec();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayImageOutputStream imageOut = new ByteArrayImageOutputStream();
+    /** The time spent in the encoder by the last run in nanoseconds. */
+    private long elapsed;
+    /** The size of the data encoded by the last run. */
+    private long size;
+
+    public DeltaEncoderBenchmarkMain(int width, int height, int frameCount) {
+        this.width = width;
+        this.height = height;
+        this.frameCount = frameCount;
+        byte[] gray = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            gray[i] = (byte) i;
+        }
+        techSmith.setPalette(gray, gray, gray);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int frameCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        System.out.println("DeltaEncoderBenchmark " + width + "x" + height + ", " + frameCount + " frames");
+        DeltaEncoderBenchmarkMain b = new DeltaEncoderBenchmarkMain(width, height, frameCount);
+        for (boolean motion : new boolean[]{false, true}) {
+            for (String encoder : ENCODERS) {
+                // Warm up the encoder, then measure
+                b.run(encoder, motion);
+                b.run(encoder, motion);
+                System.out.printf("%-7s %-7s %8.3f ms/frame %12.1f bytes/frame%n", encoder,
+                        motion ? "motion" : "cursor", b.elapsed / 1e6 / frameCount, b.size / (double) frameCount);
+            }
+        }
+    }
+
+    /** Encodes the frames. Sets the total time spent in the encoder and the
+     * total size of the encoded data. */
+    private void run(String encoder, boolean motion) throws IOException {
+        int n = width * height;
+        int[] screen = createScreen();
+        int[] ints = new int[n], prevInts = new int[n];
+        short[] shorts = new short[n], prevShorts = new short[n];
+        byte[] bytes = new byte[n], prevBytes = new byte[n];
+        render(screen, 0, 0, 0, ints, shorts, bytes);
+
+        elapsed = 0;
+        size = 0;
+        for (int frame = 1; frame <= frameCount; frame++) {
+            int[] ti = prevInts;
+            prevInts = ints;
+            ints = ti;
+            short[] ts = prevShorts;
+            prevShorts = shorts;
+            shorts = ts;
+            byte[] tb = prevBytes;
+            prevBytes = bytes;
+            bytes = tb;
+            int scroll = motion ? frame : 0;
+            render(screen, scroll, (frame * 7) % (width - 16), (frame * 3) % (height - 16), ints, shorts, bytes);
+
+            out.reset();
+            imageOut.clear();
+            long start = System.nanoTime();
+            if (encoder.equals("tscc 8")) {
+                techSmith.encodeDelta8(out, bytes, prevBytes, width, height, 0, width);
+            } else if (encoder.equals("tscc 16")) {
+                techSmith.encodeDelta16(out, shorts, prevShorts, width, height, 0, width);
+            } else if (encoder.equals("tscc 24")) {
+                techSmith.encodeDelta24(out, ints, prevInts, width, height, 0, width);
+            } else if (encoder.equals("rle 16")) {
+                animation.encodeDelta16(imageOut, shorts, prevShorts, width, height, 0, width);
+            } else if (encoder.equals("rle 24")) {
+                animation.encodeDelta24(imageOut, ints, prevInts, width, height, 0, width);
+            } else {
+                animation.encodeDelta32(imageOut, ints, prevInts, width, height, 0, width);
+            }
+            elapsed += System.nanoTime() - start;
+            size += out.size() + imageOut.length();
+        }
+    }
+
+    /** Creates screen content with windows and lines of text. */
+    private int[] createScreen() {
+        int[] screen = new int[width * height];
+        Random r = new Random(0);
+        java.util.Arrays.fill(screen, 0x406080);
+        for (int i = 0; i < 20; i++) {
+            int w = 100 + r.nextInt(width / 2), h = 80 + r.nextInt(height / 2);
+            int x0 = r.nextInt(width - w), y0 = r.nextInt(height - h);
+            int color = 0xe0e0e0 | r.nextInt(0x20);
+            for (int y = y0; y < y0 + h; y++) {
+                for (int x = x0; x < x0 + w; x++) {
+                    // Lines of text: short dark strokes on every other band of 8 lines
+                    boolean isText = (y - y0) % 16 < 8 && (y - y0) > 24 && r.nextInt(4) == 0;
+                    screen[y * width + x] = isText ? 0x202020 : color;
+                }
+            }
+        }
+        return screen;
+    }
+
+    /** Renders the screen scrolled by the specified number of lines, with
+     * a cursor at the specified location. */
+    private void render(int[] screen, int scroll, int cx, int cy, int[] ints, short[] shorts, byte[] bytes) {
+        int n = width * height;
+        int shift = (scroll % height) * width;
+        System.arraycopy(screen, shift, ints, 0, n - shift);
+        System.arraycopy(screen, 0, ints, n - shift, shift);
+        for (int y = cy; y < cy + 16; y++) {
+            for (int x = cx; x < cx + 16 - (y - cy); x++) {
+                ints[y * width + x] = 0;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int rgb = ints[i];
+            shorts[i] = (short) (((rgb >>> 9) & 0x7c00) | ((rgb >>> 6) & 0x3e0) | ((rgb >>> 3) & 0x1f));
+            bytes[i] = (byte) rgb;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * @(#)IndexMemoryBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.quicktime.QuickTimeInputStream;
+import org.monte.media.quicktime.QuickTimeOutputStream;
+
+/**
+ * Measures the heap which is used for the sample index of AVI and QuickTime
+ * files.
+ * <p>
+ * The benchmark writes a video track with small samples and a keyframe every
+ * 30 samples into an AVI file and into a QuickTime file. It prints the heap
+ * which is retained by the writer before the file is closed, and the heap
+ * which is retained by the reader after it has read the index. For
+ * comparison, it also prints the heap which is needed for holding an object
+ * for each sample in a list.
+ * <p>
+ * Usage: {@code IndexMemoryBenchmarkMain [samples]}. The default is
+ * 10,000,000 samples, which needs a maximal heap size of about 1 GB,
+ * e.g. {@code -Xmx1g}.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class IndexMemoryBenchmarkMain {
+
+    /** An index entry with an object for each sample. */
+    private static class SampleObject {
+
+        String chunkId;
+        long offset;
+        long length;
+        long timeStamp;
+        int duration;
+        boolean isKeyframe;
+
+        SampleObject(String chunkId, long offset, long length, long timeStamp, int duration, boolean isKeyframe) {
+            this.chunkId = chunkId;
+            this.offset = offset;
+            this.length = length;
+            this.timeStamp = timeStamp;
+            this.duration = duration;
+            this.isKeyframe = isKeyframe;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int sampleCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        System.out.println("IndexMemoryBenchmark " + sampleCount + " samples");
+        objects(sampleCount);
+        File file = File.createTempFile("IndexMemoryBenchmark", ".avi");
+        file.deleteOnExit();
+        try {
+            writeAVI(file, sampleCount);
+            readAVI(file, sampleCount);
+        } finally {
+            file.delete();
+        }
+        file = File.createTempFile("IndexMemoryBenchmark", ".mov");
+        file.deleteOnExit();
+        try {
+            writeQuickTime(file, sampleCount);
+            readQuickTime(file, sampleCount);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void objects(int sampleCount) {
+        long base = usedMemory();
+        long start = System.nanoTime();
+        ArrayList<SampleObject> objects = new ArrayList<SampleObject>();
+        String chunkId = "00dc";
+        for (int i = 0; i < sampleCount; i++) {
+            objects.add(new SampleObject(chunkId, i * 10L, 1, i, 1, i % 30 == 0));
+        }
+        long elapsed = System.nanoTime() - start;
+        report("objects", sampleCount, elapsed, usedMemory() - base);
+        if (objects.size() != sampleCount) {
+            throw new InternalError();
+        }
+    }
+
+    private static void writeAVI(File file, int sampleCount) throws IOException {
+        long base = usedMemory();
+        long start = System.nanoTime();
+        AVIOutputStream out = new AVIOutputStream(file);
+        try {
+            int track = out.addVideoTrack("DIB ", 1, 30, 4, 4, 8, 30);
+            byte[] data = new byte[1];
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeSample(track, data, 0, data.length, i % 30 == 0);
+            }
+            long elapsed = System.nanoTime() - start;
+            report("AVI write", sampleCount, elapsed, usedMemory() - base);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void readAVI(File file, int sampleCount) throws IOException {
+        long base = usedMemory();
+        long start = System.nanoTime();
+        AVIReader in = new AVIReader(file);
+        try {
+            if (in.getChunkCount(0) != sampleCount) { // reads the index
+                throw new IOException("Wrong number of samples: " + in.getChunkCount(0));
+            }
+            long elapsed = System.nanoTime() - start;
+            report("AVI read", sampleCount, elapsed, usedMemory() - base);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeQuickTime(File file, int sampleCount) throws IOException {
+        long base = usedMemory();
+        long start = System.nanoTime();
+        QuickTimeOutputStream out = new QuickTimeOutputStream(file);
+        try {
+            int track = out.addVideoTrack("raw ", "None", 30, 4, 4, 8, 30);
+            byte[] data = new byte[1];
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeSample(track, data, 0, data.length, 1, i % 30 == 0);
+            }
+            long elapsed = System.nanoTime() - start;
+            report("QT write", sampleCount, elapsed, usedMemory() - base);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void readQuickTime(File file, int sampleCount) throws IOException {
+        long base = usedMemory();
+        long start = System.nanoTime();
+        QuickTimeInputStream in = new QuickTimeInputStream(file);
+        try {
+            if (in.getSampleCount(0) != sampleCount) { // reads the index
+                throw new IOException("Wrong number of samples: " + in.getSampleCount(0));
+            }
+            long elapsed = System.nanoTime() - start;
+            report("QT read", sampleCount, elapsed, usedMemory() - base);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Returns the used heap after garbage collection. */
+    private static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                // continue
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void report(String name, int sampleCount, long elapsed, long heap) {
+        System.out.printf("%-10s %9.1f ms %8.1f MB %6.1f bytes/sample%n", name, elapsed / 1e6,
+                heap / (1024.0 * 1024.0), heap / (double) sampleCount);
+    }
+}
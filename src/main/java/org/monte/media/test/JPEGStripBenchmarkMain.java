@@ -0,0 +1,106 @@
+/*
+ * @(#)JPEGStripBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.jpeg.JPEGCodec;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Measures the {@code JPEGCodec} with frames which are encoded in one piece
+ * and with frames which are encoded in concurrent strips.
+ * <p>
+ * For each strip count, the number of milliseconds per frame and the number
+ * of bytes per frame are printed. The strip counts are 1, 2, 4 and the number
+ * of processors, if there are more than 4.
+ * <p>
+ * Usage: {@code JPEGStripBenchmarkMain [width height frames]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class JPEGStripBenchmarkMain {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 3840;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 2160;
+        int frameCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("JPEGStripBenchmark " + width + "x" + height + ", " + frameCount + " frames, "
+                + processors + " processors");
+        BufferedImage image = createImage(width, height);
+        int[] stripCounts = processors > 4 ? new int[]{1, 2, 4, processors} : new int[]{1, 2, 4};
+        for (int strips : stripCounts) {
+            JPEGCodec codec = new JPEGCodec();
+            codec.setStripCount(strips);
+            codec.setInputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, ENCODING_BUFFERED_IMAGE, WidthKey, width, HeightKey, height));
+            codec.setOutputFormat(new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                    EncodingKey, ENCODING_AVI_MJPG, DataClassKey, byte[].class, DepthKey, 24,
+                    WidthKey, width, HeightKey, height));
+            Buffer in = new Buffer();
+            in.format = codec.getInputFormat();
+            in.data = image;
+            Buffer out = new Buffer();
+
+            // Warm up the codec, then measure
+            run(codec, in, out, Math.max(1, frameCount / 4));
+            long start = System.nanoTime();
+            long size = run(codec, in, out, frameCount);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%2d strips %8.2f ms/frame %12.1f bytes/frame%n", strips,
+                    elapsed / 1e6 / frameCount, size / (double) frameCount);
+        }
+    }
+
+    /** Encodes the frames and returns the total size of the encoded data. */
+    private static long run(Codec codec, Buffer in, Buffer out, int frameCount) {
+        long size = 0;
+        for (int frame = 0; frame < frameCount; frame++) {
+            if (codec.process(in, out) != Codec.CODEC_OK) {
+                throw new InternalError("Codec failed to encode frame " + frame);
+            }
+            size += out.length;
+        }
+        return size;
+    }
+
+    /** Creates a screen with windows and lines of text on a gradient. */
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(0x406080), width, height, new Color(0xa0c0e0)));
+        g.fillRect(0, 0, width, height);
+        g.setFont(new Font("Dialog", Font.PLAIN, 12));
+        Random r = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            int w = 100 + r.nextInt(width / 2), h = 80 + r.nextInt(height / 2);
+            int x = r.nextInt(width - w), y = r.nextInt(height - h);
+            g.setColor(new Color(0xe0e0e0 | r.nextInt(0x20)));
+            g.fillRect(x, y, w, h);
+            g.setColor(Color.DARK_GRAY);
+            for (int ty = y + 30; ty < y + h; ty += 16) {
+                g.drawString("The quick brown fox jumps over the lazy dog " + ty, x + 4, ty);
+            }
+        }
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * @(#)PlanarToChunkyBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+import org.monte.media.ilbm.HAMColorModel;
+import org.monte.media.image.BitmapImage;
+
+/**
+ * Measures the conversion of bitplanes into chunky pixels by
+ * {@code BitmapImage}.
+ * <p>
+ * For each kind of bitmap and for each band count, the number of
+ * milliseconds per frame and the number of megapixels per second are
+ * printed. The band counts are 1, 2, 4 and the number of processors, if
+ * there are more than 4.
+ * <p>
+ * Usage: {@code PlanarToChunkyBenchmarkMain [width height frames]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class PlanarToChunkyBenchmarkMain {
+
+    private final static String[] NAMES = {"index 5 to byte", "index 5 to int", "index 5 to 555",
+        "index 8 to byte", "ham6 to int", "ham8 to int", "direct 24 to int"};
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int frameCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("PlanarToChunkyBenchmark " + width + "x" + height + ", " + frameCount + " frames, "
+                + processors + " processors");
+        int[] bandCounts = processors > 4 ? new int[]{1, 2, 4, processors} : new int[]{1, 2, 4};
+        for (int kind = 0; kind < NAMES.length; kind++) {
+            BitmapImage img = createImage(kind, width, height);
+            for (int bands : bandCounts) {
+                img.setBandCount(bands);
+
+                // Warm up, then measure
+                run(img, Math.max(1, frameCount / 4));
+                long start = System.nanoTime();
+                run(img, frameCount);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%-17s %2d bands %8.3f ms/frame %8.1f Mpixel/s%n", NAMES[kind], bands,
+                        elapsed / 1e6 / frameCount, width * (double) height * frameCount * 1e3 / elapsed);
+            }
+        }
+    }
+
+    private static void run(BitmapImage img, int frameCount) {
+        for (int frame = 0; frame < frameCount; frame++) {
+            img.convertToChunky();
+        }
+    }
+
+    /** Creates a bitmap with random planes. */
+    private static BitmapImage createImage(int kind, int width, int height) {
+        Random r = new Random(kind);
+        int depth;
+        ColorModel cm;
+        switch (kind) {
+            case 4:
+                depth = 6;
+                cm = new HAMColorModel(HAMColorModel.HAM6, 16, randomRGBs(r, 16), false);
+                break;
+            case 5:
+                depth = 8;
+                cm = new HAMColorModel(HAMColorModel.HAM8, 64, randomRGBs(r, 64), false);
+                break;
+            case 6:
+                depth = 24;
+                cm = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+                break;
+            default:
+                depth = kind == 3 ? 8 : 5;
+                int[] rgbs = randomRGBs(r, 1 << depth);
+                cm = new IndexColorModel(depth, rgbs.length, rgbs, 0, false, -1, DataBuffer.TYPE_BYTE);
+                break;
+        }
+        BitmapImage img = new BitmapImage(width, height, depth, cm);
+        r.nextBytes(img.getBitmap());
+        if (kind == 1) {
+            img.setEnforceDirectColors(true);
+        } else if (kind == 2) {
+            img.setPreferredChunkyColorModel(new DirectColorModel(16, 0x7c00, 0x3e0, 0x1f));
+        }
+        return img;
+    }
+
+    private static int[] randomRGBs(Random r, int count) {
+        int[] rgbs = new int[count];
+        for (int i = 0; i < count; i++) {
+            rgbs[i] = r.nextInt() & 0xffffff;
+        }
+        return rgbs;
+    }
+}
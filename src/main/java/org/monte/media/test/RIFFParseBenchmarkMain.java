@@ -0,0 +1,169 @@
+/*
+ * @(#)RIFFParseBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import javax.imageio.stream.FileImageInputStream;
+import org.monte.media.AbortException;
+import org.monte.media.ParseException;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.riff.RIFFChunk;
+import org.monte.media.riff.RIFFParser;
+import org.monte.media.riff.RIFFVisitor;
+
+/**
+ * Measures the time needed for parsing the chunks of an AVI file with
+ * {@link RIFFParser}.
+ * <p>
+ * The benchmark writes a synthetic AVI file, and then visits all chunks of
+ * the file
+ * <ul>
+ * <li>through an {@code ImageInputStream}, which reads the data of all
+ * chunks,</li>
+ * <li>over the memory mapped file, which hands out views of the data,</li>
+ * <li>over the file channel, which skips the data.</li>
+ * </ul>
+ * The visitor only looks at the data of the header chunks. Finally, the
+ * benchmark measures how long it takes to open the file with
+ * {@link AVIReader} and to read its metadata.
+ * <p>
+ * Usage: {@code RIFFParseBenchmarkMain [samples sampleSize]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class RIFFParseBenchmarkMain {
+
+    private final static int HDRL_ID = RIFFParser.stringToID("hdrl");
+    private final static int STRL_ID = RIFFParser.stringToID("strl");
+
+    public static void main(String[] args) throws Exception {
+        int sampleCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int sampleSize = args.length > 1 ? Integer.parseInt(args[1]) : 16384;
+
+        File file = File.createTempFile("RIFFParseBenchmark", ".avi");
+        file.deleteOnExit();
+        try {
+            System.out.println("RIFFParseBenchmark " + sampleCount + " samples of " + sampleSize + " bytes");
+            write(file, sampleCount, sampleSize);
+
+            for (int i = 0; i < 3; i++) {
+                parseStream(file);
+                parseMapped(file);
+                parseChannel(file);
+                openReader(file, false);
+                openReader(file, true);
+                System.out.println();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void write(File file, int sampleCount, int sampleSize) throws IOException {
+        AVIOutputStream out = new AVIOutputStream(file);
+        try {
+            int track = out.addVideoTrack("MJPG", 1, 30, 320, 240, 24, 30);
+            byte[] data = new byte[sampleSize];
+            new Random(0).nextBytes(data);
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeSample(track, data, 0, data.length, true);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void parseStream(File file) throws IOException, ParseException, AbortException {
+        long start = System.nanoTime();
+        FileImageInputStream in = new FileImageInputStream(file);
+        try {
+            Counter c = new Counter();
+            new RIFFParser().parse(in, c);
+            report("stream", start, c);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void parseMapped(File file) throws IOException, ParseException, AbortException {
+        long start = System.nanoTime();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            Counter c = new Counter();
+            new RIFFParser().parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), c);
+            report("mapped", start, c);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void parseChannel(File file) throws IOException, ParseException, AbortException {
+        long start = System.nanoTime();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Counter c = new Counter();
+            new RIFFParser().parse(raf.getChannel(), 0, c);
+            report("channel", start, c);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void openReader(File file, boolean useChannel) throws IOException {
+        long start = System.nanoTime();
+        AVIReader in = useChannel ? new AVIReader(file) : new AVIReader(new FileImageInputStream(file));
+        try {
+            long chunkCount = in.getChunkCount(0);
+            System.out.printf("%-16s %8.1f ms %8d chunks%n", useChannel ? "AVIReader file" : "AVIReader stream",
+                    (System.nanoTime() - start) / 1e6, chunkCount);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void report(String name, long start, Counter c) {
+        System.out.printf("%-16s %8.1f ms %8d chunks%n", name, (System.nanoTime() - start) / 1e6, c.count);
+    }
+
+    /** Counts the chunks and reads the data of the header chunks. */
+    private static class Counter implements RIFFVisitor {
+
+        int count;
+
+        @Override
+        public boolean enteringGroup(RIFFChunk group) {
+            return true;
+        }
+
+        @Override
+        public void enterGroup(RIFFChunk group) {
+        }
+
+        @Override
+        public void leaveGroup(RIFFChunk group) {
+        }
+
+        @Override
+        public void visitChunk(RIFFChunk group, RIFFChunk chunk) {
+            count++;
+            if (chunk.getType() == HDRL_ID || chunk.getType() == STRL_ID) {
+                chunk.getData();
+            }
+        }
+    }
+}
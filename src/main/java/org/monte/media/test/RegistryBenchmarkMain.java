@@ -0,0 +1,78 @@
+/*
+ * @(#)RegistryBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.nio.ByteOrder;
+import org.monte.media.Format;
+import org.monte.media.Registry;
+import org.monte.media.math.Rational;
+import static org.monte.media.VideoFormatKeys.*;
+import static org.monte.media.AudioFormatKeys.*;
+
+/**
+ * Measures the time which the {@link Registry} needs to look up codecs.
+ * <p>
+ * For each query, the time per lookup of the codec classes and the time per
+ * lookup including the creation of the codecs are printed.
+ * <p>
+ * Usage: {@code RegistryBenchmarkMain [lookups]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class RegistryBenchmarkMain {
+
+    public static void main(String[] args) {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Registry registry = Registry.getInstance();
+
+        Format video = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_BUFFERED_IMAGE, WidthKey, 640, HeightKey, 480,
+                DepthKey, 24, FrameRateKey, new Rational(30, 1));
+        Format jpeg = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                EncodingKey, ENCODING_QUICKTIME_JPEG, WidthKey, 640, HeightKey, 480,
+                DepthKey, 24, FrameRateKey, new Rational(30, 1));
+        Format pcm = new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_PCM_SIGNED, SampleRateKey, new Rational(44100, 1),
+                ChannelsKey, 2, SampleSizeInBitsKey, 16, ByteOrderKey, ByteOrder.LITTLE_ENDIAN);
+        Format anyVideo = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME);
+
+        System.out.println("RegistryBenchmark " + lookups + " lookups per query");
+        run("encoders of QuickTime JPEG", registry, null, jpeg, lookups);
+        run("decoders of QuickTime JPEG", registry, jpeg, null, lookups);
+        run("BufferedImage to JPEG", registry, video, jpeg, lookups);
+        run("PCM to PCM", registry, pcm, pcm, lookups);
+        run("encoders of QuickTime video", registry, null, anyVideo, lookups);
+    }
+
+    private static void run(String name, Registry registry, Format in, Format out, int lookups) {
+        // Warm up, then measure
+        int count = lookup(registry, in, out, lookups / 10, false);
+        lookup(registry, in, out, lookups / 10, true);
+        long start = System.nanoTime();
+        lookup(registry, in, out, lookups, false);
+        long classesElapsed = System.nanoTime() - start;
+        start = System.nanoTime();
+        lookup(registry, in, out, lookups, true);
+        long codecsElapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %3d codecs %8.3f us/classes %8.3f us/codecs%n", name, count,
+                classesElapsed / 1e3 / lookups, codecsElapsed / 1e3 / lookups);
+    }
+
+    /** Looks up the codecs and returns the number of codecs. */
+    private static int lookup(Registry registry, Format in, Format out, int lookups, boolean create) {
+        int count = 0;
+        for (int i = 0; i < lookups; i++) {
+            count = create ? registry.getCodecs(in, out).length : registry.getCodecClasses(in, out).length;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * @(#)ResampleBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.Registry;
+import org.monte.media.math.Rational;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.BufferFlag.*;
+
+/**
+ * Measures the throughput of the codec which the {@link Registry} provides
+ * for sampling rate conversion and channel conversion of 16-bit PCM audio.
+ * <p>
+ * For each conversion, the number of input samples per second, the number
+ * of output samples per second, and the number of bytes allocated per
+ * buffer are printed. A sample is the value of one channel in one frame. The
+ * buffers hold a thirtieth of a second of audio. The allocation is measured
+ * with {@code com.sun.management.ThreadMXBean}; on VMs without it, no
+ * allocation is printed.
+ * <p>
+ * Usage: {@code ResampleBenchmarkMain [seconds]}, where seconds is the
+ * duration of the audio which is converted for each conversion.
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ResampleBenchmarkMain {
+
+    /** Input rate, output rate, input channels and output channels. */
+    private final static int[][] CONVERSIONS = {
+        {44100, 48000, 2, 2},
+        {48000, 44100, 2, 2},
+        {44100, 22050, 2, 1},
+        {8000, 44100, 1, 2},
+        {22050, 44100, 1, 1},
+        {44100, 44100, 2, 1},
+        {44100, 48001, 2, 2},};
+    /** Getter for the number of bytes allocated by a thread, or null. */
+    private final static Method allocatedBytesGetter;
+    private final static Object threadBean;
+
+    static {
+        Method getter = null;
+        Object bean = null;
+        try {
+            bean = ManagementFactory.getThreadMXBean();
+            getter = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            getter.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            getter = null;
+        }
+        allocatedBytesGetter = getter;
+        threadBean = bean;
+    }
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+
+        System.out.println("ResampleBenchmark 16 bit, " + seconds + " s per conversion");
+        for (int[] c : CONVERSIONS) {
+            run(c[0], c[1], c[2], c[3], seconds);
+        }
+    }
+
+    private static void run(int inRate, int outRate, int inChannels, int outChannels, int seconds) {
+        String name = inRate + " Hz " + inChannels + " ch -> " + outRate + " Hz " + outChannels + " ch";
+        Format inFormat = createFormat(inRate, inChannels);
+        Format outFormat = createFormat(outRate, outChannels);
+        Codec codec = null;
+        for (Codec c : Registry.getInstance().getCodecs(inFormat, outFormat)) {
+            if (c.setInputFormat(inFormat) != null && c.setOutputFormat(outFormat) != null) {
+                codec = c;
+                break;
+            }
+        }
+        if (codec == null) {
+            System.out.printf("%-30s unsupported%n", name);
+            return;
+        }
+
+        int frameSize = 2 * inChannels;
+        int framesPerBuffer = inRate / 30;
+        byte[] pcm = new byte[framesPerBuffer * frameSize * 30];
+        new Random(0).nextBytes(pcm);
+        Buffer in = new Buffer();
+        in.format = codec.getInputFormat();
+        in.data = pcm;
+        in.length = framesPerBuffer * frameSize;
+        in.sampleCount = framesPerBuffer;
+        in.sampleDuration = new Rational(1, inRate);
+        Buffer out = new Buffer();
+
+        // Warm up the codec, then measure
+        process(codec, in, out, 30 * 10);
+        long startAllocated = allocatedBytes();
+        long start = System.nanoTime();
+        long outFrames = process(codec, in, out, 30 * seconds);
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - startAllocated;
+
+        double inSamples = (double) framesPerBuffer * 30 * seconds * inChannels;
+        System.out.printf("%-30s %8.2f M in/s %8.2f M out/s", name,
+                inSamples * 1e3 / elapsed, outFrames * outChannels * 1e3 / elapsed);
+        if (allocatedBytesGetter != null) {
+            System.out.printf(" %10.1f alloc/buffer", allocated / (30.0 * seconds));
+        }
+        System.out.println();
+    }
+
+    /** Processes the buffers and returns the number of output frames. */
+    private static long process(Codec codec, Buffer in, Buffer out, int buffers) {
+        long frames = 0;
+        for (int i = 0; i < buffers; i++) {
+            in.offset = (i % 30) * in.length;
+            if (i == buffers - 1) {
+                in.setFlag(END_OF_MEDIA);
+            } else {
+                in.clearFlag(END_OF_MEDIA);
+            }
+            if (codec.process(in, out) != Codec.CODEC_OK) {
+                throw new InternalError(codec.getName() + " failed");
+            }
+            frames += out.sampleCount;
+        }
+        return frames;
+    }
+
+    private static Format createFormat(int rate, int channels) {
+        return new Format(MediaTypeKey, MediaType.AUDIO, MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_PCM_SIGNED, SampleRateKey, new Rational(rate, 1),
+                ChannelsKey, channels, SampleSizeInBitsKey, 16, FrameSizeKey, 2 * channels,
+                SignedKey, true, ByteOrderKey, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long allocatedBytes() {
+        if (allocatedBytesGetter == null) {
+            return 0;
+        }
+        try {
+            return (Long) allocatedBytesGetter.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
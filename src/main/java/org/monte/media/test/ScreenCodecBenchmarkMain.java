@@ -0,0 +1,132 @@
+/*
+ * @(#)ScreenCodecBenchmarkMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.media.test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.avi.TechSmithCodec;
+import org.monte.media.avi.ZMBVCodec;
+import org.monte.media.color.Colors;
+import org.monte.media.math.Rational;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Compares the TechSmith Screen Capture codec with the DosBox Capture codec
+ * (ZMBV) on synthetic screen content.
+ * <p>
+ * The content consists of a text area which scrolls up by a few pixels in
+ * each frame, and of a window which is dragged across the screen. For each
+ * codec and color depth, the size of the encoded frames and the number of
+ * frames encoded per second are printed.
+ * <p>
+ * Usage: {@code ScreenCodecBenchmarkMain [width height frames]}
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class ScreenCodecBenchmarkMain {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+        int frameCount = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+
+        System.out.println("ScreenCodecBenchmark " + width + "x" + height + ", " + frameCount + " frames");
+        for (int depth : new int[]{8, 16, 24}) {
+            for (int i = 0; i < 2; i++) {
+                boolean isZMBV = i == 1;
+                Codec codec = isZMBV ? new ZMBVCodec() : new TechSmithCodec();
+                String encoding = isZMBV ? ENCODING_AVI_DOSBOX_SCREEN_CAPTURE : ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE;
+                codec.setInputFormat(new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE,
+                        WidthKey, width, HeightKey, height, DepthKey, depth));
+                codec.setOutputFormat(new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, encoding,
+                        DataClassKey, byte[].class, WidthKey, width, HeightKey, height, DepthKey, depth,
+                        FrameRateKey, new Rational(30, 1), KeyFrameIntervalKey, 150));
+
+                // Warm up the encoder, then measure
+                run(codec, depth, width, height, frameCount / 4);
+                codec.reset();
+                long start = System.nanoTime();
+                long size = run(codec, depth, width, height, frameCount);
+                long elapsed = System.nanoTime() - start;
+
+                System.out.printf("%-5s depth=%2d  size=%,12d bytes  %8.1f bytes/frame  %7.1f fps%n",
+                        isZMBV ? "ZMBV" : "tscc", depth, size, size / (double) frameCount,
+                        frameCount / (elapsed / 1e9));
+            }
+        }
+    }
+
+    /** Encodes the specified number of frames and returns the total size
+     * of the encoded frames. */
+    private static long run(Codec codec, int depth, int width, int height, int frameCount) {
+        BufferedImage img;
+        switch (depth) {
+            case 8:
+                img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, Colors.createMacColors());
+                break;
+            case 16:
+                img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_555_RGB);
+                break;
+            default:
+                img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                break;
+        }
+        Graphics2D g = img.createGraphics();
+        g.setFont(new Font("Dialog", Font.PLAIN, 12));
+        Random rnd = new Random(0);
+        int textHeight = height / 2;
+        int winWidth = width / 4, winHeight = height / 4;
+
+        Buffer in = new Buffer();
+        in.format = new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE);
+        in.data = img;
+        Buffer out = new Buffer();
+        long size = 0;
+        for (int frame = 0; frame < frameCount; frame++) {
+            // Scroll the text area up by 4 pixels and add text at the bottom
+            g.copyArea(0, 4, width, textHeight - 4, 0, -4);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, textHeight - 4, width, 4);
+            if (frame % 4 == 0) {
+                g.setColor(Color.BLACK);
+                g.drawString("Line " + frame + ": The quick brown fox jumps over the lazy dog " + rnd.nextInt(),
+                        4, textHeight - 2);
+            }
+
+            // Drag a window across the lower half of the screen
+            int x = (frame * 3) % (width - winWidth);
+            int y = textHeight + (frame % (height - textHeight - winHeight));
+            g.setColor(Color.LIGHT_GRAY);
+            g.fillRect(0, textHeight, width, height - textHeight);
+            g.setColor(Color.BLUE);
+            g.fillRect(x, y, winWidth, 16);
+            g.setColor(Color.WHITE);
+            g.fillRect(x, y + 16, winWidth, winHeight - 16);
+            g.setColor(Color.BLACK);
+            g.drawRect(x, y, winWidth - 1, winHeight - 1);
+            g.drawString("Window", x + 4, y + 12);
+
+            if (codec.process(in, out) != Codec.CODEC_OK) {
+                throw new InternalError("Codec failed at frame " + frame);
+            }
+            size += out.length;
+        }
+        g.dispose();
+        return size;
+    }
+}
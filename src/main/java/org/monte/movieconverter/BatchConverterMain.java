@@ -0,0 +1,199 @@
+/*
+ * @(#)BatchConverterMain.java
+ *
+ * Copyright (c) 2012 Werner Randelshofer, Immensee, Switzerland.
+ * All rights reserved.
+ *
+ * You may not use, copy or modify this file, except in compliance with the
+ * license agreement you entered into with Werner Randelshofer.
+ * For details see accompanying license terms.
+ */
+package org.monte.movieconverter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.monte.media.Format;
+import org.monte.media.Registry;
+import org.monte.media.converter.BatchTranscoder;
+import org.monte.media.converter.MovieTranscoder;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Converts movie files on the command line, without a user interface.
+ * <p>
+ * The files are converted concurrently by a {@link BatchTranscoder}. For each
+ * file, a line with the number of frames, the number of frames per second
+ * and the number of megabytes read per second is printed when it is done.
+ * <p>
+ * Usage:
+ * <pre>
+ * BatchConverterMain [options] file...
+ *
+ * -format extension  The file format of the output files, e.g. avi or mov.
+ *                    The default is avi.
+ * -video encoding    The video encoding. For avi: dib, rle, tscc, zmbv, mjpg,
+ *                    png. For mov: raw, rle, jpeg, png. The default is
+ *                    to keep the encoding if the file format supports it.
+ * -audio encoding    The audio encoding. For avi: pcm. For mov: twos, sowt,
+ *                    in24, in32, raw.
+ * -out directory     The directory of the output files. The default is the
+ *                    directory of the input file.
+ * -threads n         The number of concurrent conversions. The default is
+ *                    the number of processors.
+ * </pre>
+ *
+ * @author Werner Randelshofer
+ * @version $Id$
+ */
+public class BatchConverterMain {
+
+    /** The video encodings by command line name and output MIME type. */
+    private final static HashMap<String, HashMap<String, String>> videoEncodings = new HashMap<String, HashMap<String, String>>();
+    /** The audio encodings by command line name and output MIME type. */
+    private final static HashMap<String, HashMap<String, String>> audioEncodings = new HashMap<String, HashMap<String, String>>();
+
+    static {
+        putEncoding(videoEncodings, MIME_AVI, "dib", ENCODING_AVI_DIB);
+        putEncoding(videoEncodings, MIME_AVI, "rle", ENCODING_AVI_RLE);
+        putEncoding(videoEncodings, MIME_AVI, "tscc", ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE);
+        putEncoding(videoEncodings, MIME_AVI, "zmbv", ENCODING_AVI_DOSBOX_SCREEN_CAPTURE);
+        putEncoding(videoEncodings, MIME_AVI, "mjpg", ENCODING_AVI_MJPG);
+        putEncoding(videoEncodings, MIME_AVI, "png", ENCODING_AVI_PNG);
+        putEncoding(videoEncodings, MIME_QUICKTIME, "raw", ENCODING_QUICKTIME_RAW);
+        putEncoding(videoEncodings, MIME_QUICKTIME, "rle", ENCODING_QUICKTIME_ANIMATION);
+        putEncoding(videoEncodings, MIME_QUICKTIME, "jpeg", ENCODING_QUICKTIME_JPEG);
+        putEncoding(videoEncodings, MIME_QUICKTIME, "png", ENCODING_QUICKTIME_PNG);
+        putEncoding(audioEncodings, MIME_AVI, "pcm", ENCODING_AVI_PCM);
+        putEncoding(audioEncodings, MIME_QUICKTIME, "twos", ENCODING_QUICKTIME_TWOS_PCM);
+        putEncoding(audioEncodings, MIME_QUICKTIME, "sowt", ENCODING_QUICKTIME_SOWT_PCM);
+        putEncoding(audioEncodings, MIME_QUICKTIME, "in24", ENCODING_QUICKTIME_IN24_PCM);
+        putEncoding(audioEncodings, MIME_QUICKTIME, "in32", ENCODING_QUICKTIME_IN32_PCM);
+        putEncoding(audioEncodings, MIME_QUICKTIME, "raw", ENCODING_QUICKTIME_RAW_PCM);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String extension = "avi";
+        String videoEncoding = null;
+        String audioEncoding = null;
+        File outDir = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        ArrayList<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("-") && i + 1 < args.length) {
+                String value = args[++i];
+                if (arg.equals("-format")) {
+                    extension = value;
+                } else if (arg.equals("-video")) {
+                    videoEncoding = value;
+                } else if (arg.equals("-audio")) {
+                    audioEncoding = value;
+                } else if (arg.equals("-out")) {
+                    outDir = new File(value);
+                } else if (arg.equals("-threads")) {
+                    threadCount = Integer.parseInt(value);
+                } else {
+                    usage("Unknown option " + arg);
+                    return;
+                }
+            } else if (arg.startsWith("-")) {
+                usage("Missing value for option " + arg);
+                return;
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            usage(null);
+            return;
+        }
+        Format fileFormat = Registry.getInstance().getFileFormat(new File("movie." + extension));
+        if (fileFormat == null) {
+            usage("Unknown file format " + extension);
+            return;
+        }
+        String mimeType = fileFormat.get(MimeTypeKey);
+        if (videoEncoding != null) {
+            String name = videoEncoding;
+            videoEncoding = toEncoding(videoEncodings, mimeType, name);
+            if (videoEncoding == null) {
+                usage("Unknown video encoding " + name + " for " + extension);
+                return;
+            }
+        }
+        if (audioEncoding != null) {
+            String name = audioEncoding;
+            audioEncoding = toEncoding(audioEncodings, mimeType, name);
+            if (audioEncoding == null) {
+                usage("Unknown audio encoding " + name + " for " + extension);
+                return;
+            }
+        }
+
+        BatchTranscoder batch = new BatchTranscoder(threadCount);
+        for (File f : files) {
+            String name = f.getName();
+            int p = name.lastIndexOf('.');
+            if (p != -1) {
+                name = name.substring(0, p);
+            }
+            File dir = outDir != null ? outDir : f.getAbsoluteFile().getParentFile();
+            File outFile = new File(dir, name + "." + extension);
+            if (outFile.getAbsoluteFile().equals(f.getAbsoluteFile())) {
+                outFile = new File(dir, name + "-converted." + extension);
+            }
+            MovieTranscoder job = new MovieTranscoder(f, outFile);
+            job.setVideoEncoding(videoEncoding);
+            job.setAudioEncoding(audioEncoding);
+            batch.submit(job);
+        }
+
+        long start = System.nanoTime();
+        int failureCount = 0;
+        long frameCount = 0, bytesRead = 0;
+        for (MovieTranscoder job = batch.take(); job != null; job = batch.take()) {
+            System.out.println(job);
+            if (job.getFailure() != null) {
+                failureCount++;
+            } else {
+                frameCount += job.getFrameCount();
+                bytesRead += job.getBytesRead();
+            }
+        }
+        batch.shutdown();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d files, %d failed, %d frames, %.1f MB in %.2f s, %.1f frames/s, %.2f MB/s, %d threads%n",
+                files.size(), failureCount, frameCount, bytesRead / (1024.0 * 1024.0), elapsed,
+                frameCount / elapsed, bytesRead / (1024.0 * 1024.0) / elapsed, threadCount);
+        if (failureCount > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void putEncoding(HashMap<String, HashMap<String, String>> encodings, String mimeType,
+            String name, String encoding) {
+        HashMap<String, String> m = encodings.get(mimeType);
+        if (m == null) {
+            m = new HashMap<String, String>();
+            encodings.put(mimeType, m);
+        }
+        m.put(name, encoding);
+    }
+
+    /** Returns the encoding for a command line name, or null if the output
+     * file format does not have an encoding with this name. */
+    private static String toEncoding(HashMap<String, HashMap<String, String>> encodings, String mimeType,
+            String name) {
+        HashMap<String, String> m = encodings.get(mimeType);
+        return m == null ? null : m.get(name.toLowerCase());
+    }
+
+    private static void usage(String message) {
+        if (message != null) {
+            System.err.println(message);
+        }
+        System.err.println("Usage: BatchConverterMain [-format avi|mov] [-video encoding] [-audio encoding] [-out directory] [-threads n] file...");
+    }
+}
@@ -21,6 +21,7 @@ import static org.monte.media.AudioFormatKeys.fromAudioFormat;
 import static org.monte.media.BufferFlag.SAME_DATA;
 import static org.monte.media.FormatKeys.EncodingKey;
 import static org.monte.media.FormatKeys.FrameRateKey;
+import static org.monte.media.FormatKeys.KeyFrameIntervalKey;
 import static org.monte.media.FormatKeys.MIME_AVI;
 import static org.monte.media.FormatKeys.MIME_QUICKTIME;
 import static org.monte.media.FormatKeys.MediaTypeKey;
@@ -28,6 +29,7 @@ import static org.monte.media.FormatKeys.MimeTypeKey;
 import static org.monte.media.VideoFormatKeys.COMPRESSOR_NAME_QUICKTIME_ANIMATION;
 import static org.monte.media.VideoFormatKeys.CompressorNameKey;
 import static org.monte.media.VideoFormatKeys.DepthKey;
+import static org.monte.media.VideoFormatKeys.ENCODING_AVI_DOSBOX_SCREEN_CAPTURE;
 import static org.monte.media.VideoFormatKeys.ENCODING_BUFFERED_IMAGE;
 import static org.monte.media.VideoFormatKeys.ENCODING_QUICKTIME_ANIMATION;
 import static org.monte.media.VideoFormatKeys.HeightKey;
@@ -46,6 +48,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteOrder;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -62,6 +65,7 @@ import javax.swing.SwingUtilities;
 
 import org.monte.media.AudioFormatKeys;
 import org.monte.media.Buffer;
+import org.monte.media.BufferPool;
 import org.monte.media.Codec;
 import org.monte.media.Format;
 import org.monte.media.FormatKeys.MediaType;
@@ -69,7 +73,10 @@ import org.monte.media.MovieWriter;
 import org.monte.media.Registry;
 import org.monte.media.avi.AVIWriter;
 import org.monte.media.beans.AbstractStateModel;
+import org.monte.media.concurrent.ParallelEncoder;
 import org.monte.media.color.Colors;
+import org.monte.media.image.DirtyRegionDetector;
+import org.monte.media.image.DirtyRegionMap;
 import org.monte.media.image.Images;
 import org.monte.media.math.Rational;
 import org.monte.media.quicktime.QuickTimeWriter;
@@ -167,8 +174,22 @@ public class ScreenRecorder extends AbstractStateModel {
     private long maxFrameDuration = 1000;
     private volatile Thread writerThread;
     private ArrayBlockingQueue<Buffer> writerQueue;
+    /**
+     * Recycles the buffers which are passed from the capture threads to the
+     * writer thread. */
+    private BufferPool bufferPool;
     /** This codec encodes a video frame. */
     private Codec frameEncoder;
+    /** The number of threads used for encoding video frames. */
+    private int encoderThreadCount = 1;
+    /** Whether video frames are encoded concurrently. */
+    private boolean isParallelEncoding;
+    /** Encodes video frames concurrently if isParallelEncoding is true.
+     * It is created when the first video frame is encoded. */
+    private ParallelEncoder parallelEncoder;
+    /** Detects which tiles of a video frame have changed since the previous
+     * frame. */
+    private DirtyRegionDetector dirtyRegionDetector;
     /** outputTime and ffrDuration are needed for conversion of the
      * video stream from variable frame rate to fixed frame rate. */
     private Rational outputTime;
@@ -315,16 +336,51 @@ public class ScreenRecorder extends AbstractStateModel {
         System.out.println("Writing movie to file: " + f);
 
         // Create the video encoder
+        frameEncoder = createFrameEncoder(inputFormat, outputFormat);
+    }
+
+    /** Creates an encoder for video frames. */
+    private Codec createFrameEncoder(Format inputFormat, Format outputFormat) throws IOException {
         Codec encoder = Registry.getInstance().getEncoder(w.getFormat(0));
         if (encoder == null) {
             throw new IOException("No encoder for format " + w.getFormat(0));
         }
-        frameEncoder = encoder;
-        frameEncoder.setInputFormat(inputFormat);
-        frameEncoder.setOutputFormat(outputFormat);
-        if (frameEncoder.getOutputFormat()==null) {
+        encoder.setInputFormat(inputFormat);
+        encoder.setOutputFormat(outputFormat);
+        if (encoder.getOutputFormat()==null) {
             throw new IOException("Unable to encode video frames in this format.");
         }
+        return encoder;
+    }
+
+    /** Sets the number of threads used for encoding video frames.
+     * <p>
+     * With one thread, video frames are encoded on the screen capture thread.
+     * With more threads, the screen capture thread only takes a snapshot of
+     * each frame, and the frames are encoded concurrently.
+     * <p>
+     * This property must be set before the recorder is started.
+     */
+    public void setEncoderThreadCount(int newValue) {
+        encoderThreadCount = max(1, newValue);
+    }
+
+    /** Returns the number of threads used for encoding video frames. */
+    public int getEncoderThreadCount() {
+        return encoderThreadCount;
+    }
+
+    /** Returns the pool which recycles the buffers of the video frames, or
+     * null if the recorder has not been started. */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /** Returns the average ratio of changed tiles to all tiles of the video
+     * frames which have been captured, or 0 if the recorder has not been
+     * started. */
+    public double getAverageDirtyRatio() {
+        return dirtyRegionDetector == null ? 0 : dirtyRegionDetector.getAverageDirtyRatio();
     }
 
     /** Returns the state of the recorder. */
@@ -338,7 +394,11 @@ public class ScreenRecorder extends AbstractStateModel {
         stopTime = Long.MAX_VALUE;
 
         outputTime = new Rational(0, 0);
+        dirtyRegionDetector = new DirtyRegionDetector(rect.width, rect.height, 16);
         startWriter();
+        // ZMBV frames form a single zlib stream, they can not be encoded in parallel.
+        isParallelEncoding = encoderThreadCount > 1
+                && !ENCODING_AVI_DOSBOX_SCREEN_CAPTURE.equals(frameEncoder.getOutputFormat().get(EncodingKey));
         startScreenCapture();
         if (mouseFormat != null && mouseFormat.get(FrameRateKey).intValue() > 0) {
             startMouseCapture();
@@ -462,7 +522,9 @@ public class ScreenRecorder extends AbstractStateModel {
 
     /** Starts file writing. */
     private void startWriter() {
-        writerQueue = new ArrayBlockingQueue<Buffer>(screenFormat.get(FrameRateKey).intValue() + 1);
+        int queueSize = screenFormat.get(FrameRateKey).intValue() + 1;
+        writerQueue = new ArrayBlockingQueue<Buffer>(queueSize);
+        bufferPool = new BufferPool(queueSize);
         writerThread = new Thread() {
 
             @Override
@@ -471,7 +533,11 @@ public class ScreenRecorder extends AbstractStateModel {
                     while (writerThread == this) {
                         try {
                             Buffer buf = writerQueue.take();
-                            doWrite(buf);
+                            try {
+                                doWrite(buf);
+                            } finally {
+                                bufferPool.release(buf);
+                            }
                         } catch (InterruptedException ex) {
                             // We have been interrupted, terminate
                             break;
@@ -486,6 +552,19 @@ public class ScreenRecorder extends AbstractStateModel {
         writerThread.start();
     }
 
+    /** Starts the encoder threads. This is done on the screen capture
+     * thread, so that a failure to create the encoders fails the recording. */
+    private void startParallelEncoder() throws IOException {
+        Codec[] encoders = new Codec[encoderThreadCount];
+        encoders[0] = frameEncoder;
+        for (int i = 1; i < encoders.length; i++) {
+            encoders[i] = createFrameEncoder(frameEncoder.getInputFormat(), frameEncoder.getOutputFormat());
+        }
+        Format vf = frameEncoder.getOutputFormat();
+        int keyFrameInterval = vf.get(KeyFrameIntervalKey, vf.get(FrameRateKey).intValue());
+        parallelEncoder = new ParallelEncoder(encoders, keyFrameInterval, bufferPool, writerQueue);
+    }
+
     private void recordingFailed() {
         SwingUtilities.invokeLater(new Runnable() {
 
@@ -531,6 +610,16 @@ public class ScreenRecorder extends AbstractStateModel {
             // nothing to do
         }
 
+        isParallelEncoding = false;
+        if (parallelEncoder != null) {
+            try {
+                parallelEncoder.finish();
+            } catch (InterruptedException ex) {
+                // nothing to do
+            }
+            parallelEncoder = null;
+        }
+
         Thread pendingWriterThread = writerThread;
         writerThread = null;
 
@@ -694,8 +783,12 @@ public class ScreenRecorder extends AbstractStateModel {
     /** Writes a buffer into the movie. Since the file system may not be 
      * immediately available at all times, we do this asynchronously. 
      * <p>
-     * The buffer is copied and passed to the writer queue, which is consumed
-     * by the writer thread. See method startWriter().
+     * The buffer is copied into a buffer from the buffer pool and passed to
+     * the writer queue, which is consumed by the writer thread. See method
+     * startWriter(). The writer thread releases the buffer back into the pool.
+     * If all buffers of the pool are in use, this method waits up to
+     * {@code maxFrameDuration} milliseconds for a free buffer, and drops the
+     * frame if none becomes available.
      * <p>
      * AVI does not support a variable frame rate for the video track. Since
      * we can not capture frames at a fixed frame rate we have to resend the
@@ -711,15 +804,11 @@ public class ScreenRecorder extends AbstractStateModel {
         }
 
         // Create a clone of the buffer
-        // Note that this creates a lot of memory garbage. 
-        // The Java garbage collector seems to handle it well.
-        // In a "real" application we would probably reuse the buffers with a
-        // ring buffer.
+        // The clone is taken from the buffer pool. The pooled buffers keep
+        // their data arrays, so that the encoder can reuse them.
         if (buf.track == 0) {// video track
             if (writer.isVFRSupported()) {// variable frame rate is supported => easy
-                Buffer wbuf = new Buffer();
-                frameEncoder.process(buf, wbuf);
-                writerQueue.offer(wbuf);
+                encodeFrame(buf);
             } else {// variable frame rate not supported => convert to fixed frame rate
                 Rational inputTime = buf.timeStamp.add(buf.sampleDuration);
                 boolean isFirst = true;
@@ -731,24 +820,98 @@ public class ScreenRecorder extends AbstractStateModel {
                     } else {
                         buf.setFlag(SAME_DATA);
                     }
-                    Buffer wbuf = new Buffer();
-                    if (frameEncoder.process(buf, wbuf) != Codec.CODEC_OK) {
-                        throw new IOException("Codec failed or could not process frame in a single step.");
-                    }
-                    writerQueue.offer(wbuf);
+                    encodeFrame(buf);
                     outputTime = outputTime.add(ffrDuration);
                 }
             }
         } else {// audio track
-            Buffer wbuf = new Buffer();
+            Buffer wbuf = acquireBuffer();
+            if (wbuf == null) {
+                return;
+            }
             wbuf.setMetaTo(buf);
-            wbuf.data = ((byte[]) buf.data).clone();
+            byte[] bdat = (byte[]) buf.data;
+            if (!(wbuf.data instanceof byte[]) || ((byte[]) wbuf.data).length < bdat.length) {
+                wbuf.data = new byte[bdat.length];
+            }
+            System.arraycopy(bdat, 0, (byte[]) wbuf.data, 0, bdat.length);
             wbuf.length = buf.length;
             wbuf.offset = buf.offset;
             writerQueue.offer(wbuf);
         }
     }
 
+    /** Encodes a video frame and passes it to the writer queue.
+     * <p>
+     * Before the frame is encoded, the dirty region detector determines which
+     * tiles of the frame have changed. The dirty region map is passed to the
+     * encoder in the header of the buffer. If no tile has changed, the frame
+     * is flagged with {@code SAME_DATA}.
+     * <p>
+     * If a parallel encoder is running, the frame is passed to the parallel
+     * encoder, which puts the encoded frame into the writer queue when all
+     * preceding frames have been encoded.
+     */
+    private void encodeFrame(Buffer buf) throws IOException {
+        if (isParallelEncoding && parallelEncoder == null) {
+            startParallelEncoder();
+        }
+        if (parallelEncoder != null) {
+            try {
+                detectDirtyRegion(buf);
+                if (!parallelEncoder.encode(buf, maxFrameDuration, TimeUnit.MILLISECONDS)) {
+                    // The encoder did not see the frame, so the next dirty
+                    // region map must not be relative to it.
+                    dirtyRegionDetector.invalidate();
+                }
+            } catch (InterruptedException ex) {
+                InterruptedIOException e = new InterruptedIOException("Interrupted while waiting for a buffer.");
+                e.initCause(ex);
+                throw e;
+            }
+            return;
+        }
+
+        Buffer wbuf = acquireBuffer();
+        if (wbuf == null) {
+            return;
+        }
+        detectDirtyRegion(buf);
+        if (frameEncoder.process(buf, wbuf) != Codec.CODEC_OK) {
+            bufferPool.release(wbuf);
+            throw new IOException("Codec failed or could not process frame in a single step.");
+        }
+        writerQueue.offer(wbuf);
+    }
+
+    /** Stores the dirty region map of the video frame in the header of the
+     * buffer. Frames which are already flagged with {@code SAME_DATA} are
+     * not examined.
+     */
+    private void detectDirtyRegion(Buffer buf) {
+        if (buf.isFlag(SAME_DATA) || !(buf.data instanceof BufferedImage)) {
+            return;
+        }
+        DirtyRegionMap dirty = dirtyRegionDetector.detect((BufferedImage) buf.data);
+        buf.header = dirty;
+        if (dirty != null && dirty.isClean()) {
+            buf.setFlag(SAME_DATA);
+        }
+    }
+
+    /** Gets a buffer from the buffer pool. Returns null if no buffer became
+     * available within {@code maxFrameDuration} milliseconds.
+     */
+    private Buffer acquireBuffer() throws IOException {
+        try {
+            return bufferPool.acquire(maxFrameDuration, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            InterruptedIOException e = new InterruptedIOException("Interrupted while waiting for a buffer.");
+            e.initCause(ex);
+            throw e;
+        }
+    }
+
     /**
      * The actual writing of the buffer happens here.
      * <p>
@@ -761,10 +924,11 @@ public class ScreenRecorder extends AbstractStateModel {
         synchronized (sync) {
             w.write(buf.track, buf);
 
-            // Close file on a separate thread if file is full or an hour
-            // has passed.
-            long now = System.currentTimeMillis();
-            if (w.isDataLimitReached() || now - startTime > 60 * 60 * 1000) {
+            // Close file on a separate thread if file is full. AVI files
+            // are written in the OpenDML format, they practically never
+            // become full.
+            if (w.isDataLimitReached()) {
+                long now = System.currentTimeMillis();
                 final MovieWriter closingWriter = w;
                 new Thread() {
 
@@ -782,6 +946,5 @@ public class ScreenRecorder extends AbstractStateModel {
                 startTime = now;
             }
         }
-        long end = System.currentTimeMillis();
     }
 }
@@ -497,6 +497,7 @@ public class ScreenRecorderMain extends javax.swing.JFrame {
 
             startStopButton.setText("Stop");
             screenRecorder.addChangeListener(handler);
+            screenRecorder.setEncoderThreadCount(Runtime.getRuntime().availableProcessors());
             screenRecorder.start();
         }
     }